@@ -556,6 +556,45 @@ def doIntegration(Rule rule)
 	saw.exec("java -Duser.timezone=UTC -Dhost=${host} -Dport=${port} -cp ${integrationClassPath} org.testng.TestNG src/integration-test/testng.xml")
 }
 
+//------------------------------------------------------------------------------
+//Build JMH benchmarks
+benchmarkClassPath = new Classpath(jp.getLibraryJars())
+		.addPath(jp.getJarRule().getTarget())
+		.addPath(testCompileRule.getBuildDirectory())
+
+ivyBenchmarkRule = ivy.getResolveRule("benchmark")
+
+benchmarkClassPathRule = new SimpleRule()
+		.setMakeAction("doBenchmarkClassPath")
+		.addDepend(ivyBenchmarkRule)
+		.alwaysRun()
+
+def doBenchmarkClassPath(Rule rule)
+{
+	benchmarkClassPath.addPaths(ivyBenchmarkRule.getClasspath())
+}
+
+benchmarkBuildRule = new JavaCRule("build/benchmark")
+		.addSourceDir("src/benchmark/java")
+		.addClasspath(benchmarkClassPath)
+		.addDepend(jp.getJarRule())
+		.addDepend(testCompileRule)
+		.addDepend(benchmarkClassPathRule)
+
+new SimpleRule("benchmark")
+		.setDescription("Runs JMH benchmarks, results are written to build/benchmark/results.json. " +
+				"Set benchmark to a regex to pick benchmarks and benchmark.args for other JMH options")
+		.setMakeAction("doBenchmark")
+		.addDepend(benchmarkBuildRule)
+
+def doBenchmark(Rule rule)
+{
+	benchmarkClassPath.addPath("build/benchmark")
+	benchmarks = saw.getProperty("benchmark", "")
+	args = saw.getProperty("benchmark.args", "")
+	saw.exec("java -Duser.timezone=UTC -cp ${benchmarkClassPath} org.openjdk.jmh.Main -rf json -rff build/benchmark/results.json ${args} ${benchmarks}")
+}
+
 //------------------------------------------------------------------------------
 //Build Docs
 new SimpleRule("docs").setDescription("Build Sphinx Documentation")
@@ -0,0 +1,44 @@
+package org.kairosdb.benchmark;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.AbstractDataPointGroup;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ Data point group over an array that is shared between benchmark invocations,
+ creating one does not copy the data points.
+ */
+public class ArrayDataPointGroup extends AbstractDataPointGroup
+{
+	private final DataPoint[] m_dataPoints;
+	private int m_position = 0;
+
+	public ArrayDataPointGroup(String name, Map<String, String> tags, DataPoint[] dataPoints)
+	{
+		super(name);
+		addTags(tags);
+		m_dataPoints = dataPoints;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return m_position < m_dataPoints.length;
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		if (m_position == m_dataPoints.length)
+			throw new NoSuchElementException();
+
+		return m_dataPoints[m_position++];
+	}
+
+	@Override
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,119 @@
+package org.kairosdb.core.aggregator;
+
+import com.google.common.collect.ImmutableMap;
+import org.kairosdb.benchmark.ArrayDataPointGroup;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.TimeUnit;
+import org.kairosdb.core.exception.KairosDBException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+
+/**
+ Runs each range aggregator over POINT_COUNT points one second apart,
+ pointsPerRange points fall into each sampling range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeAggregatorBenchmark
+{
+	private static final int POINT_COUNT = 100_000;
+
+	@Param({"avg", "count", "first", "gaps", "last", "least_squares", "max", "min",
+			"percentile", "std", "sum"})
+	public String aggregator;
+
+	@Param({"10", "1000"})
+	public int pointsPerRange;
+
+	private final Map<String, String> m_tags = ImmutableMap.of("host", "server1");
+	private RangeAggregator m_aggregator;
+	private DataPoint[] m_dataPoints;
+
+	private RangeAggregator createAggregator() throws KairosDBException
+	{
+		DoubleDataPointFactoryImpl doubleFactory = new DoubleDataPointFactoryImpl();
+		switch (aggregator)
+		{
+			case "avg":
+				return new AvgAggregator(doubleFactory);
+			case "count":
+				return new CountAggregator(new LongDataPointFactoryImpl());
+			case "first":
+				return new FirstAggregator();
+			case "gaps":
+				return new DataGapsMarkingAggregator();
+			case "last":
+				return new LastAggregator();
+			case "least_squares":
+				return new LeastSquaresAggregator(doubleFactory);
+			case "max":
+				return new MaxAggregator(doubleFactory);
+			case "min":
+				return new MinAggregator(doubleFactory);
+			case "percentile":
+				PercentileAggregator percentileAggregator = new PercentileAggregator(doubleFactory);
+				percentileAggregator.setPercentile(0.95);
+				return percentileAggregator;
+			case "std":
+				return new StdAggregator(doubleFactory);
+			case "sum":
+				return new SumAggregator(doubleFactory);
+			default:
+				throw new IllegalArgumentException("Unknown aggregator " + aggregator);
+		}
+	}
+
+	@Setup
+	public void setup() throws KairosDBException
+	{
+		m_dataPoints = new DataPoint[POINT_COUNT];
+		for (int I = 0; I < POINT_COUNT; I++)
+		{
+			long timestamp = I * 1000L;
+			if (I % 2 == 0)
+				m_dataPoints[I] = new LongDataPoint(timestamp, I % 1000);
+			else
+				m_dataPoints[I] = new DoubleDataPoint(timestamp, (I % 1000) * 1.5);
+		}
+
+		m_aggregator = createAggregator();
+		m_aggregator.setSampling(new Sampling(pointsPerRange, TimeUnit.SECONDS));
+		m_aggregator.setStartTime(0);
+		m_aggregator.setEndTime(POINT_COUNT * 1000L);
+		m_aggregator.init();
+	}
+
+	@Benchmark
+	public void aggregate(Blackhole blackhole)
+	{
+		DataPointGroup group = m_aggregator.aggregate(
+				new ArrayDataPointGroup("benchmark.metric", m_tags, m_dataPoints));
+
+		while (group.hasNext())
+		{
+			blackhole.consume(group.next());
+		}
+		group.close();
+	}
+}
@@ -0,0 +1,104 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.collect.ImmutableMap;
+import org.kairosdb.benchmark.ArrayDataPointGroup;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.util.TournamentTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Merges POINT_COUNT data points spread over iteratorCount series with
+ interleaved timestamps, the way query results from many row keys are
+ merged into one group.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPointMergeBenchmark
+{
+	private static final int POINT_COUNT = 100_000;
+
+	@Param({"2", "16", "256"})
+	public int iteratorCount;
+
+	private DataPoint[][] m_series;
+	private Map<String, String>[] m_tags;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup()
+	{
+		int pointsPerSeries = POINT_COUNT / iteratorCount;
+		m_series = new DataPoint[iteratorCount][pointsPerSeries];
+		m_tags = new Map[iteratorCount];
+
+		for (int I = 0; I < iteratorCount; I++)
+		{
+			m_tags[I] = ImmutableMap.of("host", "server" + I, "datacenter", "dc" + (I % 4));
+			for (int J = 0; J < pointsPerSeries; J++)
+			{
+				long timestamp = (long) J * iteratorCount + I;
+				if (J % 2 == 0)
+					m_series[I][J] = new LongDataPoint(timestamp, J);
+				else
+					m_series[I][J] = new DoubleDataPoint(timestamp, J * 1.5);
+			}
+		}
+	}
+
+	@Benchmark
+	public void tournamentTree(Blackhole blackhole)
+	{
+		TournamentTree<DataPoint> tree = new TournamentTree<>(DataPoint::getTimestamp,
+				(dp1, dp2) -> Double.compare(dp1.getDoubleValue(), dp2.getDoubleValue()), Order.ASC);
+
+		for (DataPoint[] series : m_series)
+		{
+			tree.addIterator(Arrays.asList(series).iterator());
+		}
+
+		while (tree.hasNext())
+		{
+			blackhole.consume(tree.nextElement());
+		}
+	}
+
+	@Benchmark
+	public void sortingDataPointGroup(Blackhole blackhole)
+	{
+		List<DataPointGroup> groups = new ArrayList<>();
+		for (int I = 0; I < iteratorCount; I++)
+		{
+			groups.add(new ArrayDataPointGroup("benchmark.metric", m_tags[I], m_series[I]));
+		}
+
+		SortingDataPointGroup group = new SortingDataPointGroup("benchmark.metric", groups, Order.ASC);
+		while (group.hasNext())
+		{
+			blackhole.consume(group.next());
+		}
+		group.close();
+	}
+}
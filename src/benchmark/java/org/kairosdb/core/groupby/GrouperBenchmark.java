@@ -0,0 +1,96 @@
+package org.kairosdb.core.groupby;
+
+import com.google.common.collect.ImmutableMap;
+import org.kairosdb.benchmark.ArrayDataPointGroup;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.plugin.GroupBy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Groups seriesCount series and reads the groups back.  The grouper caches
+ each group in a temporary file so this includes the disk round trip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrouperBenchmark
+{
+	private static final int POINTS_PER_SERIES = 1000;
+
+	@Param({"10", "100"})
+	public int seriesCount;
+
+	@Param({"tag", "value"})
+	public String groupBy;
+
+	private Grouper m_grouper;
+	private List<GroupBy> m_groupBys;
+	private DataPoint[][] m_series;
+	private Map<String, String>[] m_tags;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup()
+	{
+		m_grouper = new Grouper(new TestDataPointFactory());
+
+		if (groupBy.equals("tag"))
+			m_groupBys = Collections.singletonList(new TagGroupBy("datacenter"));
+		else
+			m_groupBys = Collections.singletonList(new ValueGroupBy(100));
+
+		m_series = new DataPoint[seriesCount][POINTS_PER_SERIES];
+		m_tags = new Map[seriesCount];
+		for (int I = 0; I < seriesCount; I++)
+		{
+			m_tags[I] = ImmutableMap.of("host", "server" + I, "datacenter", "dc" + (I % 4));
+			for (int J = 0; J < POINTS_PER_SERIES; J++)
+			{
+				m_series[I][J] = new LongDataPoint(J * 1000L, (I * 31 + J) % 1000);
+			}
+		}
+	}
+
+	@Benchmark
+	public void group(Blackhole blackhole) throws IOException
+	{
+		List<DataPointGroup> groups = new ArrayList<>();
+		for (int I = 0; I < seriesCount; I++)
+		{
+			groups.add(new ArrayDataPointGroup("benchmark.metric", m_tags[I], m_series[I]));
+		}
+
+		for (DataPointGroup group : m_grouper.group(m_groupBys, groups))
+		{
+			while (group.hasNext())
+			{
+				blackhole.consume(group.next());
+			}
+			group.close();
+		}
+	}
+}
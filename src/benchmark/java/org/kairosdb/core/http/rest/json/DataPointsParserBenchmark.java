@@ -0,0 +1,107 @@
+package org.kairosdb.core.http.rest.json;
+
+import com.google.gson.Gson;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.KairosRootConfig;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.eventbus.EventBusConfiguration;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Parses an ingest request of metricCount metrics.  A single point per metric
+ uses the timestamp/value form most collectors send, otherwise the points
+ are in a datapoints array with a mix of long and double values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPointsParserBenchmark
+{
+	@Param({"100", "1000"})
+	public int metricCount;
+
+	@Param({"1", "100"})
+	public int pointsPerMetric;
+
+	private final KairosDataPointFactory m_dataPointFactory = new TestDataPointFactory();
+	private final Gson m_gson = new Gson();
+	private Publisher<DataPointEvent> m_publisher;
+	private String m_json;
+
+	@Setup
+	public void setup()
+	{
+		FilterEventBus eventBus = new FilterEventBus(new EventBusConfiguration(new KairosRootConfig()));
+		m_publisher = eventBus.createPublisher(DataPointEvent.class);
+
+		long timestamp = 1_500_000_000_000L;
+		StringBuilder json = new StringBuilder("[");
+		for (int I = 0; I < metricCount; I++)
+		{
+			if (I != 0)
+				json.append(',');
+
+			json.append("{\"name\":\"benchmark.metric").append(I % 20).append('"');
+			json.append(",\"tags\":{\"host\":\"server").append(I)
+					.append("\",\"datacenter\":\"dc").append(I % 4)
+					.append("\",\"customer\":\"customer").append(I % 10).append("\"}");
+
+			if (pointsPerMetric == 1)
+			{
+				json.append(",\"timestamp\":").append(timestamp).append(",\"value\":").append(I);
+			}
+			else
+			{
+				json.append(",\"datapoints\":[");
+				for (int J = 0; J < pointsPerMetric; J++)
+				{
+					if (J != 0)
+						json.append(',');
+
+					json.append('[').append(timestamp + J * 1000L).append(',');
+					if (J % 2 == 0)
+						json.append(J);
+					else
+						json.append(J * 1.5);
+					json.append(']');
+				}
+				json.append(']');
+			}
+
+			json.append('}');
+		}
+		json.append(']');
+
+		m_json = json.toString();
+	}
+
+	@Benchmark
+	public ValidationErrors parse() throws IOException, DatastoreException
+	{
+		DataPointsParser parser = new DataPointsParser(m_publisher, new StringReader(m_json), m_gson,
+				m_dataPointFactory);
+
+		return parser.parse();
+	}
+}
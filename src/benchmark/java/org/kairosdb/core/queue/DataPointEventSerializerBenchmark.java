@@ -0,0 +1,97 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Serializing data point events for the write queue.  Events cycle through
+ a fixed set of series so the dictionary is warm after the first pass, the
+ same as a long running node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPointEventSerializerBenchmark
+{
+	private static final int EVENT_COUNT = 1024;
+
+	@Param({"10", "1000"})
+	public int seriesCount;
+
+	private DataPointEventSerializer m_serializer;
+	private DataPointEvent[] m_events;
+	private byte[][] m_serializedEvents;
+	private int m_position = 0;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		m_serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		m_events = new DataPointEvent[EVENT_COUNT];
+		m_serializedEvents = new byte[EVENT_COUNT][];
+
+		long now = System.currentTimeMillis();
+		for (int I = 0; I < EVENT_COUNT; I++)
+		{
+			int series = I % seriesCount;
+			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of(
+					"host", "server" + series,
+					"datacenter", "dc" + (series % 4),
+					"customer", "customer" + (series % 10));
+
+			if (I % 2 == 0)
+				m_events[I] = new DataPointEvent("benchmark.metric" + (series % 5), tags,
+						new LongDataPoint(now + I, I), 3600);
+			else
+				m_events[I] = new DataPointEvent("benchmark.metric" + (series % 5), tags,
+						new DoubleDataPoint(now + I, I * 1.5), 3600);
+
+			m_serializedEvents[I] = m_serializer.serializeEvent(m_events[I]);
+		}
+	}
+
+	private int nextPosition()
+	{
+		int position = m_position;
+		m_position = (position + 1) % EVENT_COUNT;
+		return position;
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException
+	{
+		return m_serializer.serializeEvent(m_events[nextPosition()]);
+	}
+
+	@Benchmark
+	public DataPointEvent deserialize()
+	{
+		return m_serializer.deserializeEvent(m_serializedEvents[nextPosition()]);
+	}
+
+	@Benchmark
+	public DataPointEvent roundTrip() throws IOException
+	{
+		return m_serializer.deserializeEvent(m_serializer.serializeEvent(m_events[nextPosition()]));
+	}
+}
@@ -0,0 +1,157 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosRootConfig;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.eventbus.EventBusConfiguration;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Loads batches of data point events into a CQLBatch that does not talk to
+ Cassandra.  With warm caches every row key has been seen before, with cold
+ caches every event in the batch writes its row key and metric name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchHandlerBenchmark
+{
+	private static final int BATCH_SIZE = 1000;
+	private static final int CACHE_SIZE = 50_000;
+
+	@Param({"10", "1000"})
+	public int seriesCount;
+
+	@Param({"true", "false"})
+	public boolean warmCache;
+
+	private List<DataPointEvent> m_events;
+	private CassandraConfiguration m_configuration;
+	private FilterEventBus m_eventBus;
+	private DataCache<DataPointsRowKey> m_rowKeyCache;
+	private DataCache<TimedString> m_metricNameCache;
+
+	private static class BenchmarkCQLBatch extends CQLBatch
+	{
+		private final Blackhole m_blackhole;
+		private final List<DataPointsRowKey> m_newRowKeys = new ArrayList<>();
+		private final List<TimedString> m_newMetrics = new ArrayList<>();
+
+		public BenchmarkCQLBatch(Blackhole blackhole)
+		{
+			super(null, null, null);
+			m_blackhole = blackhole;
+		}
+
+		@Override
+		public void addTimeIndex(String metricName, long rowKeyTime, int rowKeyTtl)
+		{
+			m_blackhole.consume(metricName);
+		}
+
+		@Override
+		public void addRowKey(DataPointsRowKey rowKey, int rowKeyTtl)
+		{
+			m_newRowKeys.add(rowKey);
+		}
+
+		@Override
+		public void addMetricName(TimedString metricName)
+		{
+			m_newMetrics.add(metricName);
+		}
+
+		@Override
+		public void addDataPoint(DataPointsRowKey rowKey, int columnTime, DataPoint dataPoint, int ttl)
+		{
+			m_blackhole.consume(rowKey);
+			m_blackhole.consume(columnTime);
+		}
+
+		@Override
+		public void submitBatch()
+		{
+			m_blackhole.consume(m_newRowKeys);
+			m_blackhole.consume(m_newMetrics);
+		}
+
+		@Override
+		public List<DataPointsRowKey> getNewRowKeys()
+		{
+			return m_newRowKeys;
+		}
+
+		@Override
+		public List<TimedString> getNewMetrics()
+		{
+			return m_newMetrics;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws ParseException
+	{
+		KairosRootConfig rootConfig = new KairosRootConfig();
+		rootConfig.load(ImmutableMap.of("kairosdb.datastore.cassandra.write_cluster", new HashMap()));
+		m_configuration = new CassandraConfiguration(rootConfig);
+		m_eventBus = new FilterEventBus(new EventBusConfiguration(rootConfig));
+
+		m_rowKeyCache = new DataCache<>(CACHE_SIZE);
+		m_metricNameCache = new DataCache<>(CACHE_SIZE);
+
+		m_events = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (int I = 0; I < BATCH_SIZE; I++)
+		{
+			int series = I % seriesCount;
+			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of(
+					"host", "server" + series,
+					"datacenter", "dc" + (series % 4));
+
+			m_events.add(new DataPointEvent("benchmark.metric" + (series % 5), tags,
+					new LongDataPoint(now + I, I)));
+		}
+	}
+
+	@Benchmark
+	public void loadBatch(Blackhole blackhole) throws Exception
+	{
+		DataCache<DataPointsRowKey> rowKeyCache = m_rowKeyCache;
+		DataCache<TimedString> metricNameCache = m_metricNameCache;
+		if (!warmCache)
+		{
+			rowKeyCache = new DataCache<>(CACHE_SIZE);
+			metricNameCache = new DataCache<>(CACHE_SIZE);
+		}
+
+		BatchHandler batchHandler = new BatchHandler(m_events, () -> {}, m_configuration,
+				rowKeyCache, metricNameCache, m_eventBus, () -> new BenchmarkCQLBatch(blackhole), new RowSpec());
+
+		batchHandler.retryCall();
+	}
+}
@@ -0,0 +1,91 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Row keys cache their serialized form so serialize creates a new key each
+ time, the same as BatchHandler does for every data point it writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPointsRowKeySerializerBenchmark
+{
+	private static final String CLUSTER_NAME = "write_cluster";
+	private static final int KEY_COUNT = 1024;
+
+	@Param({"1", "5", "10"})
+	public int tagCount;
+
+	@Param({"false", "true"})
+	public boolean poolStrings;
+
+	private DataPointsRowKeySerializer m_serializer;
+	private ImmutableSortedMap<String, String>[] m_tags;
+	private ByteBuffer[] m_serializedKeys;
+	private int m_position = 0;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup()
+	{
+		m_serializer = new DataPointsRowKeySerializer(poolStrings);
+		m_tags = new ImmutableSortedMap[KEY_COUNT];
+		m_serializedKeys = new ByteBuffer[KEY_COUNT];
+
+		for (int I = 0; I < KEY_COUNT; I++)
+		{
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (int J = 0; J < tagCount; J++)
+			{
+				builder.put("tag" + J, "value" + ((I + J) % 100));
+			}
+			m_tags[I] = builder.build();
+
+			m_serializedKeys[I] = m_serializer.toByteBuffer(createRowKey(I));
+		}
+	}
+
+	private DataPointsRowKey createRowKey(int position)
+	{
+		return new DataPointsRowKey("benchmark.metric", CLUSTER_NAME, 1_500_000_000_000L,
+				LongDataPointFactoryImpl.DST_LONG, m_tags[position]);
+	}
+
+	private int nextPosition()
+	{
+		int position = m_position;
+		m_position = (position + 1) % KEY_COUNT;
+		return position;
+	}
+
+	@Benchmark
+	public ByteBuffer serialize()
+	{
+		return m_serializer.toByteBuffer(createRowKey(nextPosition()));
+	}
+
+	@Benchmark
+	public DataPointsRowKey deserialize()
+	{
+		return m_serializer.fromByteBuffer(m_serializedKeys[nextPosition()].duplicate(), CLUSTER_NAME);
+	}
+}
@@ -1,42 +1,114 @@
 package org.kairosdb.congestion;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  Created by bhawkins on 3/19/16.
+
+ AIMD limit on the number of processes running at once.  The limit starts in
+ slow start and grows by one for every process that finishes quickly, after
+ that it grows by about one per round of processes.  It is cut back when a
+ process fails or takes more than LATENCY_TOLERANCE times the baseline
+ latency, at most once per baseline latency so one burst of slow or failed
+ processes only counts once.
+
+ Processes are sized, for example by the data points in a batch.  Latency is
+ compared per unit of size against a baseline kept for each power of two of
+ size so small batches don't set a baseline large batches can't meet and
+ the fixed cost of a batch doesn't make small batches look slow.
  */
 public class AdaptiveCongestionController implements CongestionController
 {
-	private int m_processCounter;
+	static final double LATENCY_TOLERANCE = 2.0;
+	static final double LATENCY_BACKOFF = 0.9;
+	static final double FAILURE_BACKOFF = 0.5;
+	/** How quickly the baseline follows latencies above it */
+	private static final double BASELINE_DRIFT = 0.001;
+
+	private final Object m_processLock = new Object();
+	private int m_minProcesses;
 	private int m_maxProcesses;
+	private double m_limit;
+	private int m_processCounter;
 
-	private Object m_processLock = new Object();
 	private boolean m_shuttingDown = false;
 	private boolean m_inSlowStart = true;
+	//Baseline micros per unit of size for each size class
+	private final double[] m_baselineMicros = new double[Integer.SIZE];
+	//Baseline latency of the last finished process
+	private double m_backoffWindowMicros = 0;
+	private long m_lastBackoffNanos = 0;
+
+	/**
+	 @param initialProcesses Limit to start with
+	 @param minProcesses The limit never goes below this
+	 @param maxProcesses The limit never goes above this
+	 */
+	public AdaptiveCongestionController(int initialProcesses, int minProcesses, int maxProcesses)
+	{
+		checkArgument(minProcesses > 0, "Minimum processes must be greater than 0");
+		checkArgument(minProcesses <= maxProcesses, "Minimum processes must not be greater than maximum");
 
-	private void processReturned()
+		m_minProcesses = minProcesses;
+		m_maxProcesses = maxProcesses;
+		m_limit = clamp(initialProcesses);
+	}
+
+	private double clamp(double limit)
+	{
+		return Math.max(m_minProcesses, Math.min(m_maxProcesses, limit));
+	}
+
+	public void shutdown()
 	{
 		synchronized (m_processLock)
 		{
-			m_processCounter --;
-			m_processLock.notify();
+			m_shuttingDown = true;
+			m_processLock.notifyAll();
+		}
+	}
+
+	public void setLimits(int minProcesses, int maxProcesses)
+	{
+		checkArgument(minProcesses > 0, "Minimum processes must be greater than 0");
+		checkArgument(minProcesses <= maxProcesses, "Minimum processes must not be greater than maximum");
+
+		synchronized (m_processLock)
+		{
+			m_minProcesses = minProcesses;
+			m_maxProcesses = maxProcesses;
+			m_limit = clamp(m_limit);
+			m_processLock.notifyAll();
 		}
 	}
 
-	public AdaptiveCongestionController()
+	public int getLimit()
 	{
+		synchronized (m_processLock)
+		{
+			return (int) m_limit;
+		}
 	}
 
-	public void shutdown()
+	public int getProcessCount()
 	{
-		m_shuttingDown = true;
-		m_processLock.notifyAll();
+		synchronized (m_processLock)
+		{
+			return m_processCounter;
+		}
 	}
 
+	/**
+	 Blocks until the process can run.
+
+	 @return null if shutting down
+	 */
 	@Override
 	public ProcessTracker getProcessTracker()
 	{
 		synchronized (m_processLock)
 		{
-			while (m_processCounter >= m_maxProcesses)
+			while (m_processCounter >= (int) m_limit && !m_shuttingDown)
 			{
 				try
 				{
@@ -44,34 +116,97 @@ public class AdaptiveCongestionController implements CongestionController
 				}
 				catch (InterruptedException e)
 				{
-					e.printStackTrace();
-				}
-
-				if (m_shuttingDown)
+					Thread.currentThread().interrupt();
 					return null;
+				}
 			}
 
+			if (m_shuttingDown)
+				return null;
+
 			m_processCounter ++;
 		}
 
 		ProcessTimer pt = new ProcessTimer(this);
 		pt.start();
 
-		//Need an ability to mark certain timings with a version.
-		//Do this durring slow start to track the new processes
-
 		return pt;
 	}
 
 	public void finishedProcess(long microseconds)
 	{
-		processReturned();
-		//Add microseconds to stats
+		finishedProcess(microseconds, 1);
+	}
+
+	/**
+	 @param size Size of the process, like the number of data points written
+	 */
+	public void finishedProcess(long microseconds, int size)
+	{
+		size = Math.max(1, size);
+		int sizeClass = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(size);
+		double unitMicros = (double) microseconds / size;
+
+		synchronized (m_processLock)
+		{
+			//Only grow the limit when it is actually being used
+			boolean limited = m_processCounter >= (int) m_limit;
+			m_processCounter --;
+
+			double baseline = m_baselineMicros[sizeClass];
+			if (baseline == 0 || unitMicros < baseline)
+				baseline = unitMicros;
+			else
+				baseline += (unitMicros - baseline) * BASELINE_DRIFT;
+
+			m_baselineMicros[sizeClass] = baseline;
+			m_backoffWindowMicros = baseline * size;
+
+			if (unitMicros > baseline * LATENCY_TOLERANCE)
+				backoff(LATENCY_BACKOFF);
+			else if (limited)
+			{
+				if (m_inSlowStart)
+					m_limit = clamp(m_limit + 1);
+				else
+					m_limit = clamp(m_limit + 1 / m_limit);
+			}
+
+			m_processLock.notifyAll();
+		}
 	}
 
 	public void failedProcess()
 	{
-		processReturned();
-		//Initiate slow start
+		synchronized (m_processLock)
+		{
+			m_processCounter --;
+			backoff(FAILURE_BACKOFF);
+			m_processLock.notifyAll();
+		}
+	}
+
+	/**
+	 Called when something outside of a process, like a failed attempt that is
+	 about to be retried, shows the system is overloaded.
+	 */
+	public void congestionDetected()
+	{
+		synchronized (m_processLock)
+		{
+			backoff(FAILURE_BACKOFF);
+		}
+	}
+
+	private void backoff(double factor)
+	{
+		long now = System.nanoTime();
+		long window = (long) (m_backoffWindowMicros * 1000);
+		if (m_lastBackoffNanos != 0 && now - m_lastBackoffNanos < window)
+			return;
+
+		m_lastBackoffNanos = now;
+		m_inSlowStart = false;
+		m_limit = clamp(m_limit * factor);
 	}
 }
@@ -27,10 +27,16 @@ public class ProcessTimer implements ProcessTracker
 
 	@Override
 	public void finished()
+	{
+		finished(1);
+	}
+
+	@Override
+	public void finished(int size)
 	{
 		m_timer.stop();
 		long microseconds = m_timer.elapsed(TimeUnit.MICROSECONDS);
-		m_adaptiveCongestionController.finishedProcess(microseconds);
+		m_adaptiveCongestionController.finishedProcess(microseconds, size);
 	}
 
 
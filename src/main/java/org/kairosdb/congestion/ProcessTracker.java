@@ -6,5 +6,11 @@ package org.kairosdb.congestion;
 public interface ProcessTracker
 {
 	public void finished();
+
+	/**
+	 @param size Size of the process, like the number of data points written,
+	 so processes of different sizes can be compared
+	 */
+	public void finished(int size);
 	public void failed();
 }
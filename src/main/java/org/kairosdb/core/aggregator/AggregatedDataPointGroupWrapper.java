@@ -82,6 +82,15 @@ public abstract class AggregatedDataPointGroupWrapper implements DataPointGroup
 		return innerDataPointGroup.next();
 	}
 
+	/**
+	 Reads a batch of data points from the inner group, this does not change
+	 currentDataPoint.
+	 */
+	protected int nextInternalBatch(long[] timestamps, double[] values)
+	{
+		return innerDataPointGroup.nextBatch(timestamps, values);
+	}
+
 	@Override
 	public void remove()
 	{
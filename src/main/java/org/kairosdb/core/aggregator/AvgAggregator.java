@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.exception.KairosDBException;
 
 import java.util.Collections;
@@ -60,8 +61,10 @@ public class AvgAggregator extends RangeAggregator
 		return m_dataPointFactory.getGroupType();
 	}
 
-	private class AvgDataPointAggregator implements RangeSubAggregator
+	private class AvgDataPointAggregator implements BatchRangeSubAggregator
 	{
+		private double m_sum;
+		private int m_count;
 
 		@Override
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange)
@@ -80,6 +83,39 @@ public class AvgAggregator extends RangeAggregator
 
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, sum / count));
 		}
+
+		@Override
+		public void reset()
+		{
+			m_sum = 0;
+			m_count = 0;
+		}
+
+		@Override
+		public void addValues(double[] values, int offset, int length)
+		{
+			//Data points that are not doubles are skipped the same as in getNextDataPoints
+			for (int I = offset; I < offset + length; I++)
+			{
+				if (!DataPointGroup.isNotNumeric(values[I]))
+				{
+					m_sum += values[I];
+					m_count++;
+				}
+			}
+		}
+
+		@Override
+		public double getValue()
+		{
+			return m_sum / m_count;
+		}
+
+		@Override
+		public DataPoint createDataPoint(long timestamp, double value)
+		{
+			return m_dataPointFactory.createDataPoint(timestamp, value);
+		}
 	}
 
 }
\ No newline at end of file
@@ -55,8 +55,10 @@ public class CountAggregator extends RangeAggregator
 		return m_dataPointFactory.getGroupType();
 	}
 
-	private class CountDataPointAggregator implements RangeSubAggregator
+	private class CountDataPointAggregator implements BatchRangeSubAggregator
 	{
+		private long m_count;
+
 		@Override
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange)
 		{
@@ -70,5 +72,29 @@ public class CountAggregator extends RangeAggregator
 
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, count));
 		}
+
+		@Override
+		public void reset()
+		{
+			m_count = 0;
+		}
+
+		@Override
+		public void addValues(double[] values, int offset, int length)
+		{
+			m_count += length;
+		}
+
+		@Override
+		public double getValue()
+		{
+			return m_count;
+		}
+
+		@Override
+		public DataPoint createDataPoint(long timestamp, double value)
+		{
+			return m_dataPointFactory.createDataPoint(timestamp, (long) value);
+		}
 	}
 }
\ No newline at end of file
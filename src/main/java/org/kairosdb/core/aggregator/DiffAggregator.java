@@ -81,5 +81,32 @@ public class DiffAggregator implements Aggregator
 
 			return (m_dataPointFactory.createDataPoint(currentDataPoint.getTimestamp(), diff));
 		}
+
+		@Override
+		public int nextBatch(long[] timestamps, double[] values)
+		{
+			if (currentDataPoint == null)
+				return 0;
+
+			//Read the next batch straight into the output arrays and
+			//replace each value with the difference
+			int count = nextInternalBatch(timestamps, values);
+			if (count == 0)
+			{
+				currentDataPoint = null;
+				return 0;
+			}
+
+			double lastValue = currentDataPoint.getDoubleValue();
+			for (int I = 0; I < count; I++)
+			{
+				double newValue = values[I];
+				values[I] = newValue - lastValue;
+				lastValue = newValue;
+			}
+
+			currentDataPoint = m_dataPointFactory.createDataPoint(timestamps[count - 1], lastValue);
+			return count;
+		}
 	}
 }
@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointGroup;
 
 import java.util.Collections;
 import java.util.Iterator;
@@ -58,18 +59,50 @@ public class MaxAggregator extends RangeAggregator
 		return (new MaxDataPointAggregator());
 	}
 
-	private class MaxDataPointAggregator implements RangeSubAggregator
+	private class MaxDataPointAggregator implements BatchRangeSubAggregator
 	{
+		private double m_max;
+
 		@Override
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange)
 		{
 			double max = -Double.MAX_VALUE;
 			while (dataPointRange.hasNext())
 			{
-				max = Math.max(max, dataPointRange.next().getDoubleValue());
+				DataPoint dp = dataPointRange.next();
+				if (dp.isDouble())
+					max = Math.max(max, dp.getDoubleValue());
 			}
 
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, max));
 		}
+
+		@Override
+		public void reset()
+		{
+			m_max = -Double.MAX_VALUE;
+		}
+
+		@Override
+		public void addValues(double[] values, int offset, int length)
+		{
+			for (int I = offset; I < offset + length; I++)
+			{
+				if (!DataPointGroup.isNotNumeric(values[I]))
+					m_max = Math.max(m_max, values[I]);
+			}
+		}
+
+		@Override
+		public double getValue()
+		{
+			return m_max;
+		}
+
+		@Override
+		public DataPoint createDataPoint(long timestamp, double value)
+		{
+			return m_dataPointFactory.createDataPoint(timestamp, value);
+		}
 	}
 }
\ No newline at end of file
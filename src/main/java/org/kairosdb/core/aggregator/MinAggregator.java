@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointGroup;
 
 import java.util.Collections;
 import java.util.Iterator;
@@ -58,8 +59,9 @@ public class MinAggregator extends RangeAggregator
 		return (new MinDataPointAggregator());
 	}
 
-	private class MinDataPointAggregator implements RangeSubAggregator
+	private class MinDataPointAggregator implements BatchRangeSubAggregator
 	{
+		private double m_min;
 
 		@Override
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange)
@@ -68,11 +70,39 @@ public class MinAggregator extends RangeAggregator
 			while (dataPointRange.hasNext())
 			{
 				DataPoint dp = dataPointRange.next();
-
-				min = Math.min(min, dp.getDoubleValue());
+				if (dp.isDouble())
+					min = Math.min(min, dp.getDoubleValue());
 			}
 
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, min));
 		}
+
+		@Override
+		public void reset()
+		{
+			m_min = Double.MAX_VALUE;
+		}
+
+		@Override
+		public void addValues(double[] values, int offset, int length)
+		{
+			for (int I = offset; I < offset + length; I++)
+			{
+				if (!DataPointGroup.isNotNumeric(values[I]))
+					m_min = Math.min(m_min, values[I]);
+			}
+		}
+
+		@Override
+		public double getValue()
+		{
+			return m_min;
+		}
+
+		@Override
+		public DataPoint createDataPoint(long timestamp, double value)
+		{
+			return m_dataPointFactory.createDataPoint(timestamp, value);
+		}
 	}
 }
\ No newline at end of file
@@ -31,12 +31,15 @@ import javax.validation.constraints.NotNull;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.TimeZone;
 
 import static java.util.Objects.requireNonNull;
 
 public abstract class RangeAggregator implements Aggregator, TimezoneAware
 {
+	private static final int BATCH_SIZE = 1024;
+
 	private long m_startTime = 0L;
 	private long m_queryStartTime = 0L;
 	private long m_queryEndTime = 0L;
@@ -331,9 +334,19 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 	private class RangeDataPointAggregator extends AggregatedDataPointGroupWrapper
 	{
 		protected RangeSubAggregator m_subAggregator;
+		protected BatchRangeSubAggregator m_batchSubAggregator;
 		protected Calendar m_calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 		protected Iterator<DataPoint> m_dpIterator;
 
+		//Input buffer used when the sub aggregator can work on primitive values
+		private long[] m_inputTimestamps;
+		private double[] m_inputValues;
+		private int m_inputPosition;
+		private int m_inputSize;
+
+		protected long m_rangeEnd;
+		protected long m_rangeReturnTime;
+
 
 		public RangeDataPointAggregator(DataPointGroup innerDataPointGroup,
 				RangeSubAggregator subAggregator)
@@ -341,31 +354,130 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 			super(innerDataPointGroup);
 			m_subAggregator = subAggregator;
 			m_dpIterator = new ArrayList<DataPoint>().iterator();
+
+			if (subAggregator instanceof BatchRangeSubAggregator)
+			{
+				m_batchSubAggregator = (BatchRangeSubAggregator) subAggregator;
+				m_inputTimestamps = new long[BATCH_SIZE];
+				m_inputValues = new double[BATCH_SIZE];
+
+				//Move the data point read by the wrapper into the input buffer
+				if (currentDataPoint != null)
+				{
+					m_inputTimestamps[0] = currentDataPoint.getTimestamp();
+					m_inputValues[0] = currentDataPoint.isDouble() ? currentDataPoint.getDoubleValue() : DataPointGroup.NOT_NUMERIC;
+					m_inputSize = 1;
+					currentDataPoint = null;
+				}
+			}
+		}
+
+		protected boolean hasCurrent()
+		{
+			if (m_batchSubAggregator == null)
+				return currentDataPoint != null;
+
+			if (m_inputPosition == m_inputSize)
+			{
+				m_inputPosition = 0;
+				m_inputSize = nextInternalBatch(m_inputTimestamps, m_inputValues);
+			}
+
+			return m_inputPosition < m_inputSize;
+		}
+
+		protected long currentTimestamp()
+		{
+			if (m_batchSubAggregator == null)
+				return currentDataPoint.getTimestamp();
+
+			if (!hasCurrent())
+				throw new NoSuchElementException();
+
+			return m_inputTimestamps[m_inputPosition];
 		}
 
+		/**
+		 Sets m_rangeEnd and m_rangeReturnTime for the next range to aggregate
+		 */
+		protected void calculateNextRange()
+		{
+			//We calculate start and end ranges as the ranges may not be
+			//consecutive if data does not show up in each range.
+			//long startRange = getStartRange(currentDataPoint.getTimestamp());
+			m_rangeEnd = getEndRange(currentTimestamp());
+			m_rangeReturnTime = getDataPointTime();
+		}
 
+		/**
+		 Runs the batch sub aggregator over the input up to m_rangeEnd
+		 */
+		private double aggregateRange()
+		{
+			m_batchSubAggregator.reset();
+			while (hasCurrent())
+			{
+				int start = m_inputPosition;
+				int end = start;
+				while (end < m_inputSize && m_inputTimestamps[end] < m_rangeEnd)
+					end++;
+
+				if (end > start)
+					m_batchSubAggregator.addValues(m_inputValues, start, end - start);
 
+				m_inputPosition = end;
+				if (end < m_inputSize)
+					break;
+			}
+
+			return m_batchSubAggregator.getValue();
+		}
 
 		@Override
 		public DataPoint next()
 		{
 			if (!m_dpIterator.hasNext())
 			{
-				//We calculate start and end ranges as the ranges may not be
-				//consecutive if data does not show up in each range.
-				//long startRange = getStartRange(currentDataPoint.getTimestamp());
-				long endRange = getEndRange(currentDataPoint.getTimestamp());
+				calculateNextRange();
+
+				if (m_batchSubAggregator != null)
+					return m_batchSubAggregator.createDataPoint(m_rangeReturnTime, aggregateRange());
 
 				SubRangeIterator subIterator = new SubRangeIterator(
-						endRange);
+						m_rangeEnd);
 
-				m_dpIterator = m_subAggregator.getNextDataPoints(getDataPointTime(),
+				m_dpIterator = m_subAggregator.getNextDataPoints(m_rangeReturnTime,
 						subIterator).iterator();
 			}
 
 			return (m_dpIterator.next());
 		}
 
+		@Override
+		public int nextBatch(long[] timestamps, double[] values)
+		{
+			int count = 0;
+			while (count < timestamps.length && hasNext())
+			{
+				if (m_batchSubAggregator != null && !m_dpIterator.hasNext())
+				{
+					calculateNextRange();
+					values[count] = aggregateRange();
+					timestamps[count] = m_rangeReturnTime;
+				}
+				else
+				{
+					DataPoint dp = next();
+					timestamps[count] = dp.getTimestamp();
+					values[count] = dp.isDouble() ? dp.getDoubleValue() : DataPointGroup.NOT_NUMERIC;
+				}
+
+				count++;
+			}
+
+			return count;
+		}
+
 
 		/**
 		 Computes the data point time for the aggregated value.
@@ -379,7 +491,7 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		 */
 		private long getDataPointTime()
 		{
-			long datapointTime = currentDataPoint.getTimestamp();
+			long datapointTime = currentTimestamp();
 			if (m_alignStartTime)
 			{
 				datapointTime = getStartRange(datapointTime);
@@ -397,7 +509,7 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		@Override
 		public boolean hasNext()
 		{
-			return (m_dpIterator.hasNext() || super.hasNext());
+			return (m_dpIterator.hasNext() || hasCurrent());
 		}
 
 		//========================================================================
@@ -467,39 +579,32 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		}
 
 		@Override
-		public DataPoint next()
+		protected void calculateNextRange()
 		{
-			if (!m_dpIterator.hasNext())
-			{
-				//We calculate start and end ranges as the ranges may not be
-				//consecutive if data does not show up in each range.
-				long startTime = m_nextExpectedRangeStartTime;
-
-				if (m_trim && !m_started)
-				{
-					m_started = true;
-					startTime = currentDataPoint.getTimestamp();
-				}
-				long startRange = getStartRange(startTime);
-				long endRange = getEndRange(startTime);
+			//We calculate start and end ranges as the ranges may not be
+			//consecutive if data does not show up in each range.
+			long startTime = m_nextExpectedRangeStartTime;
 
-				// Next expected range starts just after this end range
-				setNextStartTime(endRange);
-				SubRangeIterator subIterator = new SubRangeIterator(
-						endRange);
+			if (m_trim && !m_started)
+			{
+				m_started = true;
+				startTime = currentTimestamp();
+			}
+			long startRange = getStartRange(startTime);
+			long endRange = getEndRange(startTime);
 
-				long dataPointTime = Long.MAX_VALUE;
-				if (currentDataPoint != null)
-					dataPointTime = currentDataPoint.getTimestamp();
+			// Next expected range starts just after this end range
+			setNextStartTime(endRange);
 
-				if (m_alignStartTime || endRange <= dataPointTime)
-					dataPointTime = startRange;
+			long dataPointTime = Long.MAX_VALUE;
+			if (hasCurrent())
+				dataPointTime = currentTimestamp();
 
-				m_dpIterator = m_subAggregator.getNextDataPoints(dataPointTime,
-						subIterator).iterator();
-			}
+			if (m_alignStartTime || endRange <= dataPointTime)
+				dataPointTime = startRange;
 
-			return (m_dpIterator.next());
+			m_rangeEnd = endRange;
+			m_rangeReturnTime = dataPointTime;
 		}
 	}
 
@@ -521,4 +626,34 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		 */
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange);
 	}
+
+	/**
+	 Sub aggregators that reduce a range to a single numeric value can implement
+	 this so ranges are aggregated from primitive values instead of data point
+	 objects.  getNextDataPoints is still used by callers that do not
+	 know about this interface.
+	 */
+	public interface BatchRangeSubAggregator extends RangeSubAggregator
+	{
+		/**
+		 Called before the values for a new range are added
+		 */
+		public void reset();
+
+		/**
+		 Adds values to the current range, this may be called more than once
+		 per range.
+		 */
+		public void addValues(double[] values, int offset, int length);
+
+		/**
+		 Returns the aggregated value of the current range.
+		 */
+		public double getValue();
+
+		/**
+		 Creates the data point returned from next() for an aggregated value.
+		 */
+		public DataPoint createDataPoint(long timestamp, double value);
+	}
 }
@@ -120,17 +120,55 @@ public class RateAggregator implements Aggregator, TimezoneAware
 				x1 = currentDataPoint.getDoubleValue();
 				y1 = currentDataPoint.getTimestamp();
 
-				if (y1 == y0)
-				{
-					throw new IllegalStateException(
-							"The rate aggregator cannot compute rate for data points with the same time stamp.  "+
-							"You must precede rate with another aggregator.");
-				}
+				checkTimestamps(y0, y1);
 			}
 
 			double rate = (x1 - x0) / (y1 - y0) * Util.getSamplingDuration(y0, m_sampling, m_timeZone);
 
 			return (m_dataPointFactory.createDataPoint(y1, rate));
 		}
+
+		@Override
+		public int nextBatch(long[] timestamps, double[] values)
+		{
+			if (currentDataPoint == null)
+				return 0;
+
+			//Read the next batch straight into the output arrays and
+			//replace each value with the rate
+			int count = nextInternalBatch(timestamps, values);
+			if (count == 0)
+			{
+				currentDataPoint = null;
+				return 0;
+			}
+
+			double x0 = currentDataPoint.getDoubleValue();
+			long y0 = currentDataPoint.getTimestamp();
+			for (int I = 0; I < count; I++)
+			{
+				final double x1 = values[I];
+				final long y1 = timestamps[I];
+				checkTimestamps(y0, y1);
+
+				values[I] = (x1 - x0) / (y1 - y0) * Util.getSamplingDuration(y0, m_sampling, m_timeZone);
+
+				x0 = x1;
+				y0 = y1;
+			}
+
+			currentDataPoint = m_dataPointFactory.createDataPoint(y0, x0);
+			return count;
+		}
+
+		private void checkTimestamps(long y0, long y1)
+		{
+			if (y1 == y0)
+			{
+				throw new IllegalStateException(
+						"The rate aggregator cannot compute rate for data points with the same time stamp.  "+
+						"You must precede rate with another aggregator.");
+			}
+		}
 	}
 }
@@ -27,6 +27,8 @@ import java.util.*;
 )
 public class SaveAsAggregator implements Aggregator, GroupByAware
 {
+	private static final int BATCH_SIZE = 1000;
+
 	private final Publisher<DataPointEvent> m_publisher;
 	private Map<String, String> m_tags;
 	private int m_ttl = 0;
@@ -134,6 +136,7 @@ public class SaveAsAggregator implements Aggregator, GroupByAware
 	{
 		private DataPointGroup m_innerDataPointGroup;
 		private ImmutableSortedMap<String, String> m_groupTags;
+		private List<DataPointEvent> m_events = new ArrayList<>();
 
 		public SaveAsDataPointAggregator(DataPointGroup innerDataPointGroup)
 		{
@@ -153,10 +156,27 @@ public class SaveAsAggregator implements Aggregator, GroupByAware
 			m_groupTags = mapBuilder.build();
 		}
 
+		/**
+		 Data points are saved in batches, the last one is published when the
+		 group runs out or is closed.
+		 */
+		private void publishEvents()
+		{
+			if (m_events.isEmpty())
+				return;
+
+			m_publisher.postAll(m_events);
+			m_events = new ArrayList<>();
+		}
+
 		@Override
 		public boolean hasNext()
 		{
-			return m_innerDataPointGroup.hasNext();
+			boolean hasNext = m_innerDataPointGroup.hasNext();
+			if (!hasNext)
+				publishEvents();
+
+			return hasNext;
 		}
 
 		@Override
@@ -164,7 +184,9 @@ public class SaveAsAggregator implements Aggregator, GroupByAware
 		{
 			DataPoint next = m_innerDataPointGroup.next();
 
-			m_publisher.post(new DataPointEvent(m_metricName, m_groupTags, next, m_ttl));
+			m_events.add(new DataPointEvent(m_metricName, m_groupTags, next, m_ttl));
+			if (m_events.size() >= BATCH_SIZE)
+				publishEvents();
 
 			return next;
 		}
@@ -196,6 +218,7 @@ public class SaveAsAggregator implements Aggregator, GroupByAware
 		@Override
 		public void close()
 		{
+			publishEvents();
 			m_innerDataPointGroup.close();
 		}
 
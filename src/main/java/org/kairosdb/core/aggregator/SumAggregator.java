@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,8 +63,9 @@ public class SumAggregator extends RangeAggregator
 		return (new SumDataPointAggregator());
 	}
 
-	private class SumDataPointAggregator implements RangeSubAggregator
+	private class SumDataPointAggregator implements BatchRangeSubAggregator
 	{
+		private double m_sum;
 
 		@Override
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange)
@@ -83,5 +85,33 @@ public class SumAggregator extends RangeAggregator
 
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, sum));
 		}
+
+		@Override
+		public void reset()
+		{
+			m_sum = 0;
+		}
+
+		@Override
+		public void addValues(double[] values, int offset, int length)
+		{
+			for (int I = offset; I < offset + length; I++)
+			{
+				if (!DataPointGroup.isNotNumeric(values[I]))
+					m_sum += values[I];
+			}
+		}
+
+		@Override
+		public double getValue()
+		{
+			return m_sum;
+		}
+
+		@Override
+		public DataPoint createDataPoint(long timestamp, double value)
+		{
+			return m_dataPointFactory.createDataPoint(timestamp, value);
+		}
 	}
 }
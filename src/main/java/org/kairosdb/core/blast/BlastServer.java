@@ -1,12 +1,18 @@
 package org.kairosdb.core.blast;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.ImmutableSortedMap;
-import org.apache.commons.lang3.RandomUtils;
-import org.kairosdb.core.DataPoint;
+import com.google.common.collect.ImmutableMap;
 import org.kairosdb.core.KairosDBService;
+import org.kairosdb.core.annotation.InjectProperty;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.DatastoreQuery;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.datastore.QueryMetric;
+import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.exception.KairosDBException;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.eventbus.Publisher;
@@ -17,10 +23,17 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
  Created by bhawkins on 5/16/14.
+
+ Load generator that publishes data points straight to the event bus and
+ can query them back at the same time.  Throughput and latency are reported
+ through BlastStats.
  */
 public class BlastServer implements KairosDBService, Runnable
 {
@@ -31,14 +44,43 @@ public class BlastServer implements KairosDBService, Runnable
 	public static final String DURATION_SECONDS = "kairosdb.blast.duration_seconds";
 	public static final String METRIC_NAME = "kairosdb.blast.metric_name";
 	public static final String TTL = "kairosdb.blast.ttl";
+	public static final String METRIC_COUNT = "kairosdb.blast.metric_count";
+	public static final String ROW_ZIPF_EXPONENT = "kairosdb.blast.row_zipf_exponent";
+	public static final String DOUBLE_PERCENT = "kairosdb.blast.double_percent";
+	public static final String STRING_PERCENT = "kairosdb.blast.string_percent";
+	public static final String OUT_OF_ORDER_PERCENT = "kairosdb.blast.out_of_order_percent";
+	public static final String OUT_OF_ORDER_WINDOW_MS = "kairosdb.blast.out_of_order_window_ms";
+	public static final String LATE_PERCENT = "kairosdb.blast.late_percent";
+	public static final String LATE_WINDOW_MS = "kairosdb.blast.late_window_ms";
+	public static final String QUERY_THREADS = "kairosdb.blast.query_threads";
+	public static final String QUERY_INTERVAL_MS = "kairosdb.blast.query_interval_ms";
+	public static final String QUERY_RANGE_SECONDS = "kairosdb.blast.query_range_seconds";
+	private static final int BATCH_SIZE = 1000;
 	private Thread m_serverThread;
+	private final List<Thread> m_queryThreads = new ArrayList<>();
 	private final Publisher<DataPointEvent> m_publisher;
 	private final LongDataPointFactory m_longDataPointFactory;
-	private boolean m_keepRunning = true;
+	private final DoubleDataPointFactory m_doubleDataPointFactory;
+	private final StringDataPointFactory m_stringDataPointFactory;
+	private final KairosDatastore m_datastore;
+	private volatile boolean m_keepRunning = true;
 	private final int m_ttl;
 	private final int m_numberOfRows;
 	private final long m_duration;  //in seconds
 	private final String m_metricName;
+	private DataPointGenerator m_generator;
+
+	private int m_metricCount = 1;
+	private double m_rowZipfExponent = 0.0;
+	private int m_doublePercent = 0;
+	private int m_stringPercent = 0;
+	private int m_outOfOrderPercent = 0;
+	private long m_outOfOrderWindow = 60000L;
+	private int m_latePercent = 0;
+	private long m_lateWindow = 3600000L;
+	private int m_queryThreadCount = 0;
+	private long m_queryInterval = 1000L;
+	private long m_queryRange = 600L;  //in seconds
 
 	private long m_counter = 0L;
 
@@ -52,6 +94,9 @@ public class BlastServer implements KairosDBService, Runnable
 	@Inject
 	public BlastServer(FilterEventBus evenBus,
 			LongDataPointFactory longDataPointFactory,
+			DoubleDataPointFactory doubleDataPointFactory,
+			StringDataPointFactory stringDataPointFactory,
+			KairosDatastore datastore,
 			@Named(NUMBER_OF_ROWS) int numberOfRows,
 			@Named(DURATION_SECONDS) long duration,
 			@Named(METRIC_NAME) String metricName,
@@ -59,23 +104,130 @@ public class BlastServer implements KairosDBService, Runnable
 	{
 		m_publisher = evenBus.createPublisher(DataPointEvent.class);
 		m_longDataPointFactory = longDataPointFactory;
+		m_doubleDataPointFactory = doubleDataPointFactory;
+		m_stringDataPointFactory = stringDataPointFactory;
+		m_datastore = datastore;
 		m_ttl = ttl;
 		m_numberOfRows = numberOfRows;
 		m_duration = duration;
 		m_metricName = metricName;
 	}
 
+	@InjectProperty(prop = METRIC_COUNT, optional = true)
+	public void setMetricCount(int metricCount)
+	{
+		m_metricCount = metricCount;
+	}
+
+	/**
+	 0 picks rows uniformly, larger values send more of the data points to
+	 the first rows.
+	 */
+	@InjectProperty(prop = ROW_ZIPF_EXPONENT, optional = true)
+	public void setRowZipfExponent(double rowZipfExponent)
+	{
+		m_rowZipfExponent = rowZipfExponent;
+	}
+
+	@InjectProperty(prop = DOUBLE_PERCENT, optional = true)
+	public void setDoublePercent(int doublePercent)
+	{
+		m_doublePercent = doublePercent;
+	}
+
+	@InjectProperty(prop = STRING_PERCENT, optional = true)
+	public void setStringPercent(int stringPercent)
+	{
+		m_stringPercent = stringPercent;
+	}
+
+	@InjectProperty(prop = OUT_OF_ORDER_PERCENT, optional = true)
+	public void setOutOfOrderPercent(int outOfOrderPercent)
+	{
+		m_outOfOrderPercent = outOfOrderPercent;
+	}
+
+	@InjectProperty(prop = OUT_OF_ORDER_WINDOW_MS, optional = true)
+	public void setOutOfOrderWindow(long outOfOrderWindow)
+	{
+		m_outOfOrderWindow = outOfOrderWindow;
+	}
+
+	@InjectProperty(prop = LATE_PERCENT, optional = true)
+	public void setLatePercent(int latePercent)
+	{
+		m_latePercent = latePercent;
+	}
+
+	@InjectProperty(prop = LATE_WINDOW_MS, optional = true)
+	public void setLateWindow(long lateWindow)
+	{
+		m_lateWindow = lateWindow;
+	}
+
+	@InjectProperty(prop = QUERY_THREADS, optional = true)
+	public void setQueryThreadCount(int queryThreadCount)
+	{
+		m_queryThreadCount = queryThreadCount;
+	}
+
+	@InjectProperty(prop = QUERY_INTERVAL_MS, optional = true)
+	public void setQueryInterval(long queryInterval)
+	{
+		m_queryInterval = queryInterval;
+	}
+
+	@InjectProperty(prop = QUERY_RANGE_SECONDS, optional = true)
+	public void setQueryRange(long queryRange)
+	{
+		m_queryRange = queryRange;
+	}
+
 	@Override
 	public void start() throws KairosDBException
 	{
+		m_generator = new DataPointGenerator(m_metricName, m_metricCount, "blast_server",
+				m_numberOfRows, m_rowZipfExponent, m_ttl, new Random(),
+				m_longDataPointFactory, m_doubleDataPointFactory, m_stringDataPointFactory);
+		m_generator.setValueTypes(m_doublePercent, m_stringPercent);
+		m_generator.setOutOfOrder(m_outOfOrderPercent, m_outOfOrderWindow);
+		m_generator.setLate(m_latePercent, m_lateWindow);
+
 		m_serverThread = new Thread(this);
 		m_serverThread.start();
+
+		for (int I = 0; I < m_queryThreadCount; I++)
+		{
+			Thread queryThread = new Thread(this::runQueries, "blast-query-" + I);
+			queryThread.start();
+			m_queryThreads.add(queryThread);
+		}
 	}
 
 	@Override
 	public void stop()
 	{
 		m_keepRunning = false;
+
+		//Wakes the query threads from their sleep between queries
+		for (Thread queryThread : m_queryThreads)
+		{
+			queryThread.interrupt();
+		}
+
+		try
+		{
+			for (Thread queryThread : m_queryThreads)
+			{
+				queryThread.join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		m_queryThreads.clear();
 	}
 
 
@@ -84,25 +236,86 @@ public class BlastServer implements KairosDBService, Runnable
 	{
 		logger.info("Blast Server Running");
 		Stopwatch timer = Stopwatch.createStarted();
+		List<DataPointEvent> events = new ArrayList<>(BATCH_SIZE);
 
 		while (m_keepRunning)
 		{
-			long now = System.currentTimeMillis();
-			DataPoint dataPoint = m_longDataPointFactory.createDataPoint(now, 42);
-			int row = RandomUtils.nextInt(0, m_numberOfRows);
-			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of("row",
-					String.valueOf(row), "host", "blast_server");
-
-			DataPointEvent dataPointEvent = new DataPointEvent(m_metricName, tags, dataPoint, m_ttl);
-			m_publisher.post(dataPointEvent);
+			events.add(m_generator.next(System.currentTimeMillis()));
 			m_counter ++;
-			stats.submission().put(1);
+
+			if (events.size() == BATCH_SIZE)
+			{
+				publish(events);
+				events.clear();
+			}
 
 			if ((m_counter % 100000 == 0) && (timer.elapsed(TimeUnit.SECONDS) > m_duration))
 				m_keepRunning = false;
 
 		}
 
+		if (!events.isEmpty())
+			publish(events);
+
 		logger.info("Blast Server Finished");
 	}
+
+	private void publish(List<DataPointEvent> events)
+	{
+		Stopwatch timer = Stopwatch.createStarted();
+		m_publisher.postAll(events);
+		stats.submissionTime().put(timer.elapsed());
+		stats.submission().put(events.size());
+	}
+
+	/**
+	 Every other query is limited to one row so both wide and narrow queries
+	 are measured.
+	 */
+	private void runQueries()
+	{
+		boolean filterRow = false;
+		while (m_keepRunning)
+		{
+			long now = System.currentTimeMillis();
+			QueryMetric query = new QueryMetric(now - TimeUnit.SECONDS.toMillis(m_queryRange), now, 0,
+					m_generator.nextMetricName());
+
+			if (filterRow)
+				query.setTags(ImmutableMap.of(DataPointGenerator.ROW_TAG, String.valueOf(m_generator.nextRow())));
+			filterRow = !filterRow;
+
+			Stopwatch timer = Stopwatch.createStarted();
+			try (DatastoreQuery datastoreQuery = m_datastore.createQuery(query))
+			{
+				long dataPointCount = 0;
+				for (DataPointGroup group : datastoreQuery.execute())
+				{
+					while (group.hasNext())
+					{
+						group.next();
+						dataPointCount++;
+					}
+				}
+
+				stats.queryTime().put(timer.elapsed());
+				stats.queryDataPoints().put(dataPointCount);
+			}
+			catch (DatastoreException e)
+			{
+				logger.error("Blast query failed", e);
+				stats.queryFailure().put(1);
+			}
+
+			try
+			{
+				Thread.sleep(m_queryInterval);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
 }
@@ -1,9 +1,23 @@
 package org.kairosdb.core.blast;
 
 import org.kairosdb.metrics4j.annotation.Key;
+import org.kairosdb.metrics4j.collectors.DurationCollector;
 import org.kairosdb.metrics4j.collectors.LongCollector;
 
 public interface BlastStats
 {
+	//kairosdb.blast.submission_count
 	LongCollector submission();
+
+	//kairosdb.blast.submission_time.p50, p90, p99, p999, max and count
+	DurationCollector submissionTime();
+
+	//kairosdb.blast.query_time.p50, p90, p99, p999, max and count
+	DurationCollector queryTime();
+
+	//kairosdb.blast.query_data_points.min, max, sum, count and avg
+	LongCollector queryDataPoints();
+
+	//kairosdb.blast.query_failure.count
+	LongCollector queryFailure();
 }
@@ -0,0 +1,169 @@
+package org.kairosdb.core.blast;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.events.DataPointEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Creates the data points for the blast server.  Each point goes to one of
+ the metrics and gets a row tag, rows are picked uniformly or, when the zipf
+ exponent is greater than 0, so that a few rows get most of the points.
+
+ Out of order points are up to the out of order window older than now and
+ late points are between the out of order window and the late window older
+ than now.
+ */
+public class DataPointGenerator
+{
+	public static final String ROW_TAG = "row";
+	private static final String[] STRING_VALUES = {"ok", "warning", "error", "unknown"};
+
+	private final String[] m_metricNames;
+	private final List<ImmutableSortedMap<String, String>> m_rowTags;
+	//Cumulative probability of each row, null when rows are uniform
+	private final double[] m_rowDistribution;
+	private final int m_ttl;
+	private final Random m_random;
+	private final LongDataPointFactory m_longDataPointFactory;
+	private final DoubleDataPointFactory m_doubleDataPointFactory;
+	private final StringDataPointFactory m_stringDataPointFactory;
+
+	private int m_doublePercent = 0;
+	private int m_stringPercent = 0;
+	private int m_outOfOrderPercent = 0;
+	private long m_outOfOrderWindow = 0;
+	private int m_latePercent = 0;
+	private long m_lateWindow = 0;
+
+	public DataPointGenerator(String metricName, int metricCount, String hostName, int numberOfRows,
+			double zipfExponent, int ttl, Random random,
+			LongDataPointFactory longDataPointFactory,
+			DoubleDataPointFactory doubleDataPointFactory,
+			StringDataPointFactory stringDataPointFactory)
+	{
+		checkArgument(metricCount > 0, "Metric count must be greater than 0");
+		checkArgument(numberOfRows > 0, "Number of rows must be greater than 0");
+		checkArgument(zipfExponent >= 0, "Zipf exponent must not be negative");
+
+		m_metricNames = new String[metricCount];
+		for (int I = 0; I < metricCount; I++)
+		{
+			m_metricNames[I] = metricCount == 1 ? metricName : metricName + "." + I;
+		}
+
+		m_rowTags = new ArrayList<>(numberOfRows);
+		for (int I = 0; I < numberOfRows; I++)
+		{
+			m_rowTags.add(ImmutableSortedMap.of(ROW_TAG, String.valueOf(I), "host", hostName));
+		}
+
+		if (zipfExponent == 0)
+			m_rowDistribution = null;
+		else
+		{
+			m_rowDistribution = new double[numberOfRows];
+			double total = 0;
+			for (int I = 0; I < numberOfRows; I++)
+			{
+				total += 1.0 / Math.pow(I + 1, zipfExponent);
+				m_rowDistribution[I] = total;
+			}
+
+			for (int I = 0; I < numberOfRows; I++)
+			{
+				m_rowDistribution[I] /= total;
+			}
+		}
+
+		m_ttl = ttl;
+		m_random = random;
+		m_longDataPointFactory = longDataPointFactory;
+		m_doubleDataPointFactory = doubleDataPointFactory;
+		m_stringDataPointFactory = stringDataPointFactory;
+	}
+
+	/**
+	 @param doublePercent Percent of points with double values
+	 @param stringPercent Percent of points with string values, the rest are longs
+	 */
+	public void setValueTypes(int doublePercent, int stringPercent)
+	{
+		checkArgument(doublePercent >= 0 && stringPercent >= 0 && doublePercent + stringPercent <= 100,
+				"Value type percentages must add up to 100 or less");
+
+		m_doublePercent = doublePercent;
+		m_stringPercent = stringPercent;
+	}
+
+	public void setOutOfOrder(int percent, long windowMillis)
+	{
+		m_outOfOrderPercent = percent;
+		m_outOfOrderWindow = windowMillis;
+	}
+
+	public void setLate(int percent, long windowMillis)
+	{
+		m_latePercent = percent;
+		m_lateWindow = windowMillis;
+	}
+
+	public String nextMetricName()
+	{
+		return m_metricNames[m_random.nextInt(m_metricNames.length)];
+	}
+
+	public int nextRow()
+	{
+		if (m_rowDistribution == null)
+			return m_random.nextInt(m_rowTags.size());
+
+		int row = Arrays.binarySearch(m_rowDistribution, m_random.nextDouble());
+		if (row < 0)
+			row = -row - 1;
+
+		return Math.min(row, m_rowTags.size() - 1);
+	}
+
+	private long nextLong(long bound)
+	{
+		return (long) (m_random.nextDouble() * bound);
+	}
+
+	long nextTimestamp(long now)
+	{
+		int roll = m_random.nextInt(100);
+		if (roll < m_latePercent)
+			return now - m_outOfOrderWindow - nextLong(Math.max(1, m_lateWindow - m_outOfOrderWindow));
+		else if (roll < m_latePercent + m_outOfOrderPercent)
+			return now - nextLong(m_outOfOrderWindow + 1);
+		else
+			return now;
+	}
+
+	private DataPoint nextDataPoint(long timestamp)
+	{
+		int roll = m_random.nextInt(100);
+		if (roll < m_doublePercent)
+			return m_doubleDataPointFactory.createDataPoint(timestamp, m_random.nextDouble() * 1000);
+		else if (roll < m_doublePercent + m_stringPercent)
+			return m_stringDataPointFactory.createDataPoint(timestamp,
+					STRING_VALUES[m_random.nextInt(STRING_VALUES.length)]);
+		else
+			return m_longDataPointFactory.createDataPoint(timestamp, m_random.nextInt(1000));
+	}
+
+	public DataPointEvent next(long now)
+	{
+		return new DataPointEvent(nextMetricName(), m_rowTags.get(nextRow()), nextDataPoint(nextTimestamp(now)), m_ttl);
+	}
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.util.MemoryMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ Keeps query results in memory using primitive column buffers for long and
+ double rows.  If the results grow beyond the byte budget or the heap gets low
+ the rows are spilled to a CachedSearchResult and everything after that
+ is written to the cache file.
+
+ Rows that are still being written count against the budget as they grow so a
+ single large row can cause the spill.  Once spilled an open row is written
+ to the cache file in parts, each part is a row with the same tags.
+ */
+public class AdaptiveSearchResult implements SearchResult
+{
+	public static final Logger logger = LoggerFactory.getLogger(AdaptiveSearchResult.class);
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int COLUMN_POINT_SIZE = 16;
+	private static final int OBJECT_POINT_SIZE = 64;
+	//Growth of an open row before it is counted against the budget
+	private static final int RESERVE_SIZE = 64 * 1024;
+
+	private final String m_metricName;
+	private final String m_baseFileName;
+	private final KairosDataPointFactory m_dataPointFactory;
+	private final long m_maxMemorySize;
+	private final MemoryMonitor m_memoryMonitor;
+	private final MemoryMonitor m_spillMonitor;
+
+	private final List<ColumnRow> m_memoryRows;
+	private long m_memorySize;
+	private CachedSearchResult m_spillResult;
+
+	/**
+	 @param metricName Name of the metric being queried
+	 @param baseFileName Cache file to use if the results are spilled to disk
+	 @param dataPointFactory Factory used to recreate data points
+	 @param maxMemorySize Number of bytes to hold in memory before spilling to disk
+	 */
+	public AdaptiveSearchResult(String metricName, String baseFileName,
+			KairosDataPointFactory dataPointFactory, long maxMemorySize)
+	{
+		m_metricName = metricName;
+		m_baseFileName = baseFileName;
+		m_dataPointFactory = dataPointFactory;
+		m_maxMemorySize = maxMemorySize;
+		m_memoryMonitor = new MemoryMonitor(1000);
+		m_spillMonitor = new MemoryMonitor();
+		m_memoryRows = new ArrayList<>();
+		m_memorySize = 0;
+	}
+
+	public synchronized boolean isSpilled()
+	{
+		return m_spillResult != null;
+	}
+
+	@Override
+	public synchronized List<DataPointRow> getRows()
+	{
+		if (m_spillResult != null)
+			return m_spillResult.getRows();
+
+		List<DataPointRow> ret = new ArrayList<>(m_memoryRows.size());
+		for (ColumnRow memoryRow : m_memoryRows)
+		{
+			ret.add(new ColumnDataPointRow(memoryRow));
+		}
+
+		return ret;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		if (m_spillResult != null)
+			m_spillResult.close();
+	}
+
+	@Override
+	public DataPointWriter startDataPointSet(String dataType, SortedMap<String, String> tags) throws IOException
+	{
+		return new ColumnDataPointWriter(new ColumnRow(dataType, tags,
+				m_dataPointFactory.getFactoryForDataStoreType(dataType)));
+	}
+
+	/**
+	 @param reservedSize Memory of the row that was already counted
+	 @param writeEmpty If false the row is not written when it is empty
+	 */
+	private synchronized void addRow(ColumnRow row, long reservedSize, boolean writeEmpty) throws IOException
+	{
+		if (m_spillResult == null)
+		{
+			m_memoryRows.add(row);
+			m_memorySize += row.getMemorySize() - reservedSize;
+
+			if (m_memorySize > m_maxMemorySize || m_spillMonitor.isMemoryLow())
+				spill();
+		}
+		else if (row.m_size != 0 || writeEmpty)
+			writeRow(row);
+	}
+
+	/**
+	 Counts the growth of an open row against the budget.  Returns true if the
+	 results are spilled, the open row then has to be written in parts.
+	 */
+	private synchronized boolean reserve(long size, boolean memoryLow) throws IOException
+	{
+		if (m_spillResult == null)
+		{
+			m_memorySize += size;
+
+			if (m_memorySize > m_maxMemorySize || memoryLow || m_spillMonitor.isMemoryLow())
+				spill();
+		}
+
+		return m_spillResult != null;
+	}
+
+	private synchronized void writeRowPart(ColumnRow row) throws IOException
+	{
+		writeRow(row);
+	}
+
+	private void spill() throws IOException
+	{
+		logger.debug("Spilling {} rows for {} to cache file", m_memoryRows.size(), m_metricName);
+		m_spillResult = CachedSearchResult.createCachedSearchResult(m_metricName,
+				m_baseFileName, m_dataPointFactory, false);
+
+		for (ColumnRow memoryRow : m_memoryRows)
+		{
+			writeRow(memoryRow);
+		}
+
+		m_memoryRows.clear();
+		m_memorySize = 0;
+	}
+
+	private void writeRow(ColumnRow row) throws IOException
+	{
+		try (DataPointWriter writer = m_spillResult.startDataPointSet(row.m_dataType, row.m_tags))
+		{
+			for (int I = 0; I < row.m_size; I++)
+			{
+				writer.addDataPoint(row.getDataPoint(I));
+			}
+		}
+	}
+
+
+	private class ColumnDataPointWriter implements DataPointWriter
+	{
+		private ColumnRow m_row;
+		private long m_reservedSize;
+		private boolean m_wroteParts;
+
+		public ColumnDataPointWriter(ColumnRow row)
+		{
+			m_row = row;
+			m_reservedSize = 0;
+			m_wroteParts = false;
+		}
+
+		/**
+		 Called after each data point, if memory is low or the results are over
+		 budget the results are spilled and the row so far is written out.
+		 */
+		private void checkRowSize() throws IOException
+		{
+			long growth = m_row.getMemorySize() - m_reservedSize;
+			boolean memoryLow = m_memoryMonitor.isMemoryLow();
+			if (growth < RESERVE_SIZE && !memoryLow)
+				return;
+
+			if (reserve(growth, memoryLow))
+			{
+				writeRowPart(m_row);
+				m_row = new ColumnRow(m_row.m_dataType, m_row.m_tags, m_row.m_factory);
+				m_reservedSize = 0;
+				m_wroteParts = true;
+			}
+			else
+				m_reservedSize += growth;
+		}
+
+		@Override
+		public void addDataPoint(DataPoint datapoint) throws IOException
+		{
+			m_row.addDataPoint(datapoint);
+			checkRowSize();
+		}
+
+		@Override
+		public void addLongValue(LongDataPointFactory factory, long timestamp, long value) throws IOException
+		{
+			if (m_row.m_columnType == ColumnType.LONG)
+				m_row.addValue(timestamp, value);
+			else
+				m_row.addDataPoint(factory.createDataPoint(timestamp, value));
+			checkRowSize();
+		}
+
+		@Override
+		public void addDoubleValue(DoubleDataPointFactory factory, long timestamp, double value) throws IOException
+		{
+			if (m_row.m_columnType == ColumnType.DOUBLE)
+				m_row.addValue(timestamp, Double.doubleToRawLongBits(value));
+			else
+				m_row.addDataPoint(factory.createDataPoint(timestamp, value));
+			checkRowSize();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			addRow(m_row, m_reservedSize, !m_wroteParts);
+		}
+	}
+
+	//===========================================================================
+	private enum ColumnType
+	{
+		LONG,
+		DOUBLE,
+		OBJECT
+	}
+
+	/**
+	 Long and double values are stored in m_values, doubles as their raw bits.
+	 Any other type of data point is kept as an object.
+	 */
+	private static class ColumnRow
+	{
+		private final String m_dataType;
+		private final SortedMap<String, String> m_tags;
+		private final DataPointFactory m_factory;
+		private ColumnType m_columnType;
+		private long[] m_timestamps;
+		private long[] m_values;
+		private List<DataPoint> m_dataPoints;
+		private int m_size;
+
+		private ColumnRow(String dataType, SortedMap<String, String> tags, DataPointFactory factory)
+		{
+			m_dataType = dataType;
+			m_tags = tags;
+			m_factory = factory;
+
+			if (factory instanceof LongDataPointFactory)
+				m_columnType = ColumnType.LONG;
+			else if (factory instanceof DoubleDataPointFactory)
+				m_columnType = ColumnType.DOUBLE;
+			else
+				m_columnType = ColumnType.OBJECT;
+
+			if (m_columnType == ColumnType.OBJECT)
+				m_dataPoints = new ArrayList<>();
+			else
+			{
+				m_timestamps = new long[INITIAL_CAPACITY];
+				m_values = new long[INITIAL_CAPACITY];
+			}
+		}
+
+		private void addDataPoint(DataPoint dataPoint)
+		{
+			if (m_columnType == ColumnType.LONG && !dataPoint.isLong())
+				convertToObjects();
+			else if (m_columnType == ColumnType.DOUBLE && (dataPoint.isLong() || !dataPoint.isDouble()))
+				convertToObjects();
+
+			if (m_columnType == ColumnType.OBJECT)
+			{
+				m_dataPoints.add(dataPoint);
+				m_size++;
+				return;
+			}
+
+			if (m_columnType == ColumnType.LONG)
+				addValue(dataPoint.getTimestamp(), dataPoint.getLongValue());
+			else
+				addValue(dataPoint.getTimestamp(), Double.doubleToRawLongBits(dataPoint.getDoubleValue()));
+		}
+
+		/**
+		 @param value long value or raw bits of a double value depending on the column type
+		 */
+		private void addValue(long timestamp, long value)
+		{
+			if (m_size == m_timestamps.length)
+			{
+				int newCapacity = m_size + (m_size >> 1);
+				m_timestamps = Arrays.copyOf(m_timestamps, newCapacity);
+				m_values = Arrays.copyOf(m_values, newCapacity);
+			}
+
+			m_timestamps[m_size] = timestamp;
+			m_values[m_size] = value;
+
+			m_size++;
+		}
+
+		/**
+		 Rows with mixed data point types fall back to storing objects
+		 */
+		private void convertToObjects()
+		{
+			List<DataPoint> dataPoints = new ArrayList<>(m_size);
+			for (int I = 0; I < m_size; I++)
+			{
+				dataPoints.add(getDataPoint(I));
+			}
+
+			m_dataPoints = dataPoints;
+			m_timestamps = null;
+			m_values = null;
+			m_columnType = ColumnType.OBJECT;
+		}
+
+		private DataPoint getDataPoint(int index)
+		{
+			switch (m_columnType)
+			{
+				case LONG:
+					return ((LongDataPointFactory) m_factory).createDataPoint(m_timestamps[index], m_values[index]);
+				case DOUBLE:
+					return ((DoubleDataPointFactory) m_factory).createDataPoint(m_timestamps[index],
+							Double.longBitsToDouble(m_values[index]));
+				default:
+					return m_dataPoints.get(index);
+			}
+		}
+
+		private long getMemorySize()
+		{
+			if (m_columnType == ColumnType.OBJECT)
+				return (long) m_size * OBJECT_POINT_SIZE;
+			else
+				return (long) m_timestamps.length * COLUMN_POINT_SIZE;
+		}
+	}
+
+	//===========================================================================
+	private class ColumnDataPointRow implements DataPointRow
+	{
+		private final ColumnRow m_row;
+		private int m_position;
+
+		private ColumnDataPointRow(ColumnRow row)
+		{
+			m_row = row;
+			m_position = 0;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return m_position < m_row.m_size;
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			if (m_position >= m_row.m_size)
+				throw new NoSuchElementException();
+
+			return m_row.getDataPoint(m_position++);
+		}
+
+		@Override
+		public int nextBatch(long[] timestamps, double[] values)
+		{
+			if (m_row.m_columnType == ColumnType.OBJECT)
+				return DataPointRow.super.nextBatch(timestamps, values);
+
+			int count = Math.min(timestamps.length, m_row.m_size - m_position);
+			System.arraycopy(m_row.m_timestamps, m_position, timestamps, 0, count);
+
+			if (m_row.m_columnType == ColumnType.LONG)
+			{
+				for (int I = 0; I < count; I++)
+					values[I] = (double) m_row.m_values[m_position + I];
+			}
+			else
+			{
+				for (int I = 0; I < count; I++)
+					values[I] = Double.longBitsToDouble(m_row.m_values[m_position + I]);
+			}
+
+			m_position += count;
+			return count;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getName()
+		{
+			return m_metricName;
+		}
+
+		@Override
+		public String getDatastoreType()
+		{
+			return m_row.m_dataType;
+		}
+
+		@Override
+		public Set<String> getTagNames()
+		{
+			return m_row.m_tags.keySet();
+		}
+
+		@Override
+		public String getTagValue(String tag)
+		{
+			return m_row.m_tags.get(tag);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public int getDataPointCount()
+		{
+			return m_row.m_size;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "ColumnDataPointRow{" +
+					"m_metricName='" + m_metricName + '\'' +
+					", m_tags=" + m_row.m_tags +
+					'}';
+		}
+	}
+}
@@ -60,5 +60,44 @@ public interface DataPointGroup extends Iterator<DataPoint>, TagSet
 	 */
 	public void close();
 
+	/**
+	 Raw bits of the value nextBatch returns for a data point that is not
+	 numeric.  It is a NaN with a payload that arithmetic does not create, so a
+	 data point whose value is NaN still comes through as a plain NaN.  Use
+	 {@link #isNotNumeric(double)} to tell them apart.
+	 */
+	public static final long NOT_NUMERIC_BITS = 0x7ff800004e4f4e4eL;
+	public static final double NOT_NUMERIC = Double.longBitsToDouble(NOT_NUMERIC_BITS);
+
+	public static boolean isNotNumeric(double value)
+	{
+		return Double.doubleToRawLongBits(value) == NOT_NUMERIC_BITS;
+	}
+
+	/**
+	 Reads up to timestamps.length data points into the timestamps and values
+	 arrays.  This lets aggregators pass numeric data along without creating a
+	 DataPoint object for each value.  Values are read with getDoubleValue(),
+	 data points that are not numeric are returned as {@link #NOT_NUMERIC}.
+	 <p>
+	 Groups that can produce values without allocating data points should
+	 override this, the default reads from next().
+
+	 @param timestamps Array to fill with timestamps
+	 @param values Array to fill with values, must be at least as long as timestamps
+	 @return Number of data points read, 0 if there are no more data points
+	 */
+	public default int nextBatch(long[] timestamps, double[] values)
+	{
+		int count = 0;
+		while (count < timestamps.length && hasNext())
+		{
+			DataPoint dp = next();
+			timestamps[count] = dp.getTimestamp();
+			values[count] = dp.isDouble() ? dp.getDoubleValue() : NOT_NUMERIC;
+			count++;
+		}
 
+		return count;
+	}
 }
@@ -83,6 +83,12 @@ public class DataPointGroupRowWrapper implements DataPointGroup
 		return (dp);
 	}
 
+	@Override
+	public int nextBatch(long[] timestamps, double[] values)
+	{
+		return m_row.nextBatch(timestamps, values);
+	}
+
 	@Override
 	public void remove()
 	{
@@ -58,4 +58,24 @@ public interface DataPointRow extends Iterator<DataPoint>
 	 Returns the number of datapoints in this row
 	 */
 	public int getDataPointCount();
+
+	/**
+	 Reads up to timestamps.length data points into the arrays, see
+	 {@link DataPointGroup#nextBatch(long[], double[])}
+
+	 @return Number of data points read, 0 if there are no more data points
+	 */
+	public default int nextBatch(long[] timestamps, double[] values)
+	{
+		int count = 0;
+		while (count < timestamps.length && hasNext())
+		{
+			DataPoint dp = next();
+			timestamps[count] = dp.getTimestamp();
+			values[count] = dp.isDouble() ? dp.getDoubleValue() : DataPointGroup.NOT_NUMERIC;
+			count++;
+		}
+
+		return count;
+	}
 }
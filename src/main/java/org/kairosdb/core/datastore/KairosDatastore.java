@@ -54,6 +54,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
@@ -66,6 +68,8 @@ public class KairosDatastore implements KairosPostConstructInit
 
 	public static final String QUERY_CACHE_DIR = "kairosdb.query_cache.cache_dir";
 	public static final String KEEP_CACHE_FILES = "kairosdb.query_cache.keep_cache_files";
+	public static final String MEMORY_RESULT_SIZE = "kairosdb.query_cache.max_memory_result_size";
+	public static final long DEFAULT_MEMORY_RESULT_SIZE = 32L * 1024 * 1024;
 	public static final String QUERY_METRIC_TIME = "kairosdb.datastore.query_time";
 	public static final String QUERIES_WAITING_METRIC_NAME = "kairosdb.datastore.queries_waiting";
 	public static final String QUERY_SAMPLE_SIZE = "kairosdb.datastore.query_sample_size";
@@ -78,6 +82,7 @@ public class KairosDatastore implements KairosPostConstructInit
 	private String m_baseCacheDir;
 	private volatile String m_cacheDir;
 	private final boolean m_keepCacheFiles;
+	private long m_memoryResultSize = DEFAULT_MEMORY_RESULT_SIZE;
 
 	@SuppressWarnings("ResultOfMethodCallIgnored")
 	@Inject
@@ -110,6 +115,18 @@ public class KairosDatastore implements KairosPostConstructInit
 		}
 	}
 
+	/**
+	 Queries are held in memory up to this many bytes before being written to
+	 the cache directory.  Only used when cache files are not kept.  Set to 0
+	 to always use cache files.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	@Inject(optional = true)
+	public void setMemoryResultSize(@Named(MEMORY_RESULT_SIZE) long memoryResultSize)
+	{
+		m_memoryResultSize = memoryResultSize;
+	}
+
 	@SuppressWarnings("ResultOfMethodCallIgnored")
 	private void setupCacheDirectory()
 	{
@@ -424,11 +441,17 @@ public class KairosDatastore implements KairosPostConstructInit
 	}
 
 
-	private static String calculateFilenameHash(QueryMetric metric) throws NoSuchAlgorithmException, UnsupportedEncodingException
+	/**
+	 The cache string only covers the metric, tags and time range, the limit,
+	 order and explicit tags also change what is read from the datastore.
+	 */
+	static String calculateFilenameHash(QueryMetric metric) throws NoSuchAlgorithmException, UnsupportedEncodingException
 	{
 		String hashString = metric.getCacheString();
 		if (hashString == null)
 			hashString = String.valueOf(System.currentTimeMillis());
+		else
+			hashString += metric.getLimit() + ":" + metric.getOrder() + ":" + metric.isExplicitTags() + ":";
 
 		MessageDigest messageDigest = MessageDigest.getInstance("MD5");
 		byte[] digest = messageDigest.digest(hashString.getBytes(UTF_8));
@@ -444,6 +467,8 @@ public class KairosDatastore implements KairosPostConstructInit
 		private List<DataPointGroup> m_results;
 		private int m_dataPointCount;
 		private int m_rowCount;
+		//Set when an identical query is already running and we share its results
+		private final CompletableFuture<List<DataPointRow>> m_sharedRows;
 		
 		public DatastoreQueryImpl(QueryMetric metric)
 				throws UnsupportedEncodingException, NoSuchAlgorithmException,
@@ -460,7 +485,15 @@ public class KairosDatastore implements KairosPostConstructInit
 
 			m_metric = metric;
 			m_cacheFilename = calculateFilenameHash(metric);
-			m_queuingManager.waitForTimeToRun(m_cacheFilename, metric);
+			//Without a cache string the hash is not unique to the query so it can't be shared,
+			//plugins can change the datastore read in ways the hash doesn't cover
+			if (metric.getCacheString() != null && metric.getPlugins().isEmpty())
+				m_sharedRows = m_queuingManager.waitForTimeToRunOrSubscribe(m_cacheFilename, metric);
+			else
+			{
+				m_queuingManager.waitForTimeToRun(m_cacheFilename, metric);
+				m_sharedRows = null;
+			}
 		}
 
 		public int getSampleSize()
@@ -478,43 +511,58 @@ public class KairosDatastore implements KairosPostConstructInit
 
 			List<DataPointRow> returnedRows = null;
 
-			try
+			if (m_sharedRows != null)
+			{
+				returnedRows = waitForSharedRows();
+				logger.debug("Shared results of running query");
+			}
+			else
 			{
-				String tempFile = m_cacheDir + m_cacheFilename;
+				try
+				{
+					String tempFile = m_cacheDir + m_cacheFilename;
 
-				/*searchResult = new MemorySearchResult(m_metric.getName());
-				m_datastore.queryDatabase(m_metric, searchResult);
-				returnedRows = searchResult.getRows();*/
+					/*searchResult = new MemorySearchResult(m_metric.getName());
+					m_datastore.queryDatabase(m_metric, searchResult);
+					returnedRows = searchResult.getRows();*/
 
-				if (m_metric.getCacheTime() > 0)
-				{
-					searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
-							tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
-					if (searchResult != null)
+					if (m_metric.getCacheTime() > 0)
 					{
+						searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
+								tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
+						if (searchResult != null)
+						{
+							returnedRows = searchResult.getRows();
+							logger.debug("Cache HIT!");
+						}
+					}
+
+					if (searchResult == null)
+					{
+						logger.debug("Cache MISS!");
+						//Results are only read back from cache files we keep
+						if (!m_keepCacheFiles && m_memoryResultSize > 0)
+							searchResult = new AdaptiveSearchResult(m_metric.getName(),
+									tempFile, m_dataPointFactory, m_memoryResultSize);
+						else
+							searchResult = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
+									tempFile, m_dataPointFactory, m_keepCacheFiles);
+						m_datastore.queryDatabase(m_metric, searchResult);
 						returnedRows = searchResult.getRows();
-						logger.debug("Cache HIT!");
 					}
-				}
 
-				if (searchResult == null)
+					m_queuingManager.publishResults(m_cacheFilename, searchResult::getRows);
+				}
+				catch (Exception e)
 				{
-					logger.debug("Cache MISS!");
-					searchResult = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
-							tempFile, m_dataPointFactory, m_keepCacheFiles);
-					m_datastore.queryDatabase(m_metric, searchResult);
-					returnedRows = searchResult.getRows();
+					logger.error("Query Error", e);
+					m_queuingManager.publishFailure(m_cacheFilename, e);
+					throw new DatastoreException(e);
+				}
+				finally
+				{
+					searchResult.close();
 				}
-
-			}
-			catch (Exception e)
-			{
-				logger.error("Query Error", e);
-				throw new DatastoreException(e);
-			}
-			finally
-			{
-				searchResult.close();
 			}
 
 			//Get data point count
@@ -588,6 +636,25 @@ public class KairosDatastore implements KairosPostConstructInit
 			return (m_results);
 		}
 
+		private List<DataPointRow> waitForSharedRows() throws DatastoreException
+		{
+			try
+			{
+				return m_sharedRows.get();
+			}
+			catch (InterruptedException e)
+			{
+				throw new DatastoreException(e);
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof DatastoreException)
+					throw (DatastoreException) e.getCause();
+
+				throw new DatastoreException(e.getCause());
+			}
+		}
+
 		@Override
 		public void close()
 		{
@@ -603,7 +670,8 @@ public class KairosDatastore implements KairosPostConstructInit
 			}
 			finally
 			{  //This must get done
-				m_queuingManager.done(m_cacheFilename);
+				if (m_sharedRows == null)
+					m_queuingManager.done(m_cacheFilename);
 			}
 		}
 	}
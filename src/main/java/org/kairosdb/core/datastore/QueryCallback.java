@@ -1,6 +1,8 @@
 package org.kairosdb.core.datastore;
 
 import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
 
 import java.io.IOException;
 import java.util.Map;
@@ -20,6 +22,20 @@ public interface QueryCallback
 	interface DataPointWriter extends AutoCloseable
 	{
 		void addDataPoint(DataPoint datapoint) throws IOException;
+
+		/**
+		 Adds a long value without the caller creating a DataPoint.  Writers
+		 that store values in primitive form can override this to skip the object.
+		 */
+		default void addLongValue(LongDataPointFactory factory, long timestamp, long value) throws IOException
+		{
+			addDataPoint(factory.createDataPoint(timestamp, value));
+		}
+
+		default void addDoubleValue(DoubleDataPointFactory factory, long timestamp, double value) throws IOException
+		{
+			addDataPoint(factory.createDataPoint(timestamp, value));
+		}
 		void close() throws IOException;
 	}
 }
@@ -25,8 +25,11 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -39,6 +42,7 @@ public class QueryQueuingManager
 	public static final String CONCURRENT_QUERY_THREAD = "kairosdb.datastore.concurrentQueryThreads";
 
 	private final Map<String, Pair<QueryMetric, Thread>> runningQueries = new HashMap<>();
+	private final Map<String, List<CompletableFuture<List<DataPointRow>>>> sharedQueries = new HashMap<>();
 	private final ReentrantLock lock = new ReentrantLock();
 	private final Semaphore semaphore;
 
@@ -64,8 +68,101 @@ public class QueryQueuingManager
 		}
 	}
 
+	/**
+	 Single flight version of waitForTimeToRun.  If an identical query is already
+	 in flight the caller subscribes to its result instead of running the query again.
+	 @return null if the caller is to run the query, in which case it must call
+	 publishResults and done.  Otherwise a future that is completed with the
+	 rows read by the running query.
+	 */
+	public CompletableFuture<List<DataPointRow>> waitForTimeToRunOrSubscribe(String queryHash, QueryMetric metric) throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			List<CompletableFuture<List<DataPointRow>>> subscribers = sharedQueries.get(queryHash);
+			if (subscribers != null)
+			{
+				CompletableFuture<List<DataPointRow>> result = new CompletableFuture<>();
+				subscribers.add(result);
+				stats.queryCoalesced().put(1);
+				return result;
+			}
+
+			sharedQueries.put(queryHash, new ArrayList<>());
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		try
+		{
+			waitForTimeToRun(queryHash, metric);
+		}
+		catch (InterruptedException e)
+		{
+			publishFailure(queryHash, e);
+			throw e;
+		}
+
+		return null;
+	}
+
+	/**
+	 Hands results to every query that subscribed to queryHash.  Each subscriber
+	 gets its own rows from rowSupplier.  Queries that arrive after this call
+	 run on their own.
+	 */
+	public void publishResults(String queryHash, Supplier<List<DataPointRow>> rowSupplier)
+	{
+		List<CompletableFuture<List<DataPointRow>>> subscribers = removeSubscribers(queryHash);
+		if (subscribers == null)
+			return;
+
+		for (CompletableFuture<List<DataPointRow>> subscriber : subscribers)
+		{
+			try
+			{
+				subscriber.complete(rowSupplier.get());
+			}
+			catch (RuntimeException e)
+			{
+				subscriber.completeExceptionally(e);
+			}
+		}
+	}
+
+	public void publishFailure(String queryHash, Throwable cause)
+	{
+		List<CompletableFuture<List<DataPointRow>>> subscribers = removeSubscribers(queryHash);
+		if (subscribers == null)
+			return;
+
+		for (CompletableFuture<List<DataPointRow>> subscriber : subscribers)
+		{
+			subscriber.completeExceptionally(cause);
+		}
+	}
+
+	private List<CompletableFuture<List<DataPointRow>>> removeSubscribers(String queryHash)
+	{
+		lock.lock();
+		try
+		{
+			return sharedQueries.remove(queryHash);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
 	public void done(String queryHash)
 	{
+		//Don't leave subscribers hanging if the query never published
+		publishFailure(queryHash, new IllegalStateException("Shared query finished without results"));
+
 		lock.lock();
 		try
 		{
@@ -21,7 +21,6 @@ import org.kairosdb.core.groupby.GroupByResult;
 import org.kairosdb.util.TournamentTree;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 public class SortingDataPointGroup extends AbstractDataPointGroup
@@ -29,12 +28,16 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 	private TournamentTree<DataPoint> m_tree;
 	//We keep this list so we can close the iterators
 	private List<DataPointGroup> m_taggedDataPointsList = new ArrayList<>();
+	//When there is only one group there is nothing to sort so we read from it directly
+	private DataPointGroup m_singleGroup;
+	private boolean m_initialized = false;
 
 	public SortingDataPointGroup(String name, String alias, Order order)
 	{
 		super(name);
 		setAlias(alias);
-		m_tree = new TournamentTree<>(new DataPointComparator(), order);
+		m_tree = new TournamentTree<>(DataPoint::getTimestamp,
+				(dp1, dp2) -> Double.compare(dp1.getDoubleValue(), dp2.getDoubleValue()), order);
 	}
 
 	public SortingDataPointGroup(String alias, List<DataPointGroup> listDataPointGroup, Order order)
@@ -58,11 +61,27 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 
 	public void addIterator(DataPointGroup taggedDataPoints)
 	{
-		m_tree.addIterator(taggedDataPoints);
 		addTags(taggedDataPoints);
 		m_taggedDataPointsList.add(taggedDataPoints);
 	}
 
+	private void initialize()
+	{
+		if (m_initialized)
+			return;
+
+		m_initialized = true;
+		if (m_taggedDataPointsList.size() == 1)
+			m_singleGroup = m_taggedDataPointsList.get(0);
+		else
+		{
+			for (DataPointGroup taggedDataPoints : m_taggedDataPointsList)
+			{
+				m_tree.addIterator(taggedDataPoints);
+			}
+		}
+	}
+
 
 	@Override
 	public void close()
@@ -76,32 +95,30 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 	@Override
 	public boolean hasNext()
 	{
+		initialize();
+		if (m_singleGroup != null)
+			return m_singleGroup.hasNext();
+
 		return m_tree.hasNext();
 	}
 
 	@Override
 	public DataPoint next()
 	{
+		initialize();
+		if (m_singleGroup != null)
+			return m_singleGroup.next();
+
 		return m_tree.nextElement();
 	}
 
-
-	private static class DataPointComparator implements Comparator<DataPoint>
+	@Override
+	public int nextBatch(long[] timestamps, double[] values)
 	{
-		@Override
-		public int compare(DataPoint point1, DataPoint point2)
-		{
-			long ret = point1.getTimestamp() - point2.getTimestamp();
+		initialize();
+		if (m_singleGroup != null)
+			return m_singleGroup.nextBatch(timestamps, values);
 
-			if (ret == 0L)
-				ret = Double.compare(point1.getDoubleValue(), point2.getDoubleValue());
-
-			if (ret == 0L)
-			{  //Simple hack to break a tie.
-				ret = System.identityHashCode(point1) - System.identityHashCode(point2);
-			}
-
-			return (ret < 0L ? -1 : 1);
-		}
+		return super.nextBatch(timestamps, values);
 	}
 }
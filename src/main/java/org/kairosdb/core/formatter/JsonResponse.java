@@ -18,12 +18,14 @@ package org.kairosdb.core.formatter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
 import org.json.JSONWriter;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.groupby.GroupByResult;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 import java.util.List;
 
@@ -143,6 +145,29 @@ public class JsonResponse
 		}
 	}
 
+	/**
+	 Writes a query that was already formatted by formatQuery on another JsonResponse
+	 @param formattedQuery json of a single formatted query
+	 */
+	public void writeFormattedQuery(Reader formattedQuery) throws FormatterException
+	{
+		try
+		{
+			//The empty value makes the json writer add the comma before the query
+			//and expect one before the next, the query is then copied after it
+			m_jsonWriter.value((JSONString) () -> "");
+
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = formattedQuery.read(buffer)) != -1)
+				m_writer.write(buffer, 0, read);
+		}
+		catch (JSONException | IOException e)
+		{
+			throw new FormatterException(e);
+		}
+	}
+
 	public void end() throws FormatterException
 	{
 		try
@@ -18,6 +18,8 @@ package org.kairosdb.core.http.rest;
 
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.FileBackedOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
@@ -40,7 +42,9 @@ import org.kairosdb.core.http.rest.json.*;
 import org.kairosdb.core.reporting.QueryStats;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.eventbus.Subscribe;
 import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.events.ShutdownEvent;
 import org.kairosdb.metrics4j.MetricSourceManager;
 import org.kairosdb.metrics4j.MetricThreadHelper;
 import org.kairosdb.metrics4j.collectors.LongCollector;
@@ -55,6 +59,10 @@ import java.io.*;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -136,6 +144,24 @@ public class MetricsResource
 	@Named("kairosdb.queries.return_query_in_response")
 	private boolean m_returnQueryInResponse = false;
 
+	@Inject(optional = true)
+	@Named("kairosdb.queries.stream_response")
+	private boolean m_streamResponse = true;
+
+	@Inject(optional = true)
+	@Named("kairosdb.queries.max_concurrent_sub_queries")
+	private int m_maxConcurrentSubQueries = 4;
+
+	@Inject(optional = true)
+	@Named("kairosdb.queries.sub_query_threads")
+	private int m_subQueryThreads = 16;
+
+	@Inject(optional = true)
+	@Named("kairosdb.queries.sub_query_buffer_size")
+	private int m_subQueryBufferSize = 1024 * 1024;
+
+	private ExecutorService m_subQueryExecutor;
+
 	//Used for setting which API methods are enabled
 	private EnumSet<ServerType> m_serverType = EnumSet.of(ServerType.INGEST, ServerType.QUERY, ServerType.DELETE);
 
@@ -174,6 +200,25 @@ public class MetricsResource
 		gson = builder.disableHtmlEscaping().create();
 	}
 
+	/**
+	 Created on first use so the configured number of threads is injected
+	 */
+	private synchronized ExecutorService getSubQueryExecutor()
+	{
+		if (m_subQueryExecutor == null)
+			m_subQueryExecutor = Executors.newFixedThreadPool(Math.max(1, m_subQueryThreads),
+					new ThreadFactoryBuilder().setNameFormat("SubQuery-%s").setDaemon(true).build());
+
+		return m_subQueryExecutor;
+	}
+
+	@Subscribe
+	public synchronized void shutdown(ShutdownEvent event)
+	{
+		if (m_subQueryExecutor != null)
+			m_subQueryExecutor.shutdownNow();
+	}
+
 	public static ResponseBuilder setHeaders(ResponseBuilder responseBuilder)
 	{
 		responseBuilder.header("Access-Control-Allow-Origin", "*");
@@ -333,6 +378,55 @@ public class MetricsResource
 		}
 	}
 
+	/**
+	 Same as /datapoints but takes the compact binary format described in
+	 BinaryDataPointsParser.
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+	@Consumes(BinaryDataPointsParser.MEDIA_TYPE)
+	@Path("/datapoints")
+	public Response addBinary(@Context HttpHeaders httpheaders, InputStream stream) throws InvalidServerTypeException
+	{
+		checkServerType(ServerType.INGEST, "binary /datapoints", "POST");
+		try
+		{
+			List<String> requestHeader = httpheaders.getRequestHeader("Content-Encoding");
+			if (requestHeader != null && requestHeader.contains("gzip"))
+			{
+				stream = new GZIPInputStream(stream);
+			}
+
+			BinaryDataPointsParser parser = new BinaryDataPointsParser(m_publisher, stream, m_kairosDataPointFactory);
+			ValidationErrors validationErrors = parser.parse();
+
+			stats.ingestCount().put(parser.getDataPointCount());
+			stats.ingestTime().put(Duration.ofNanos(parser.getIngestTime()));
+
+			if (!validationErrors.hasErrors())
+				return setHeaders(Response.status(Response.Status.NO_CONTENT)).build();
+			else
+			{
+				JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+				for (String errorMessage : validationErrors.getErrors())
+				{
+					builder.addError(errorMessage);
+				}
+				return builder.build();
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Failed to add metric.", e);
+			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+		}
+		catch (OutOfMemoryError e)
+		{
+			logger.error("Out of memory error.", e);
+			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+		}
+	}
+
 	@GET
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints/index")
@@ -481,6 +575,7 @@ public class MetricsResource
 	{
 		logger.debug(json);
 		boolean queryFailed = false;
+		boolean streaming = false;
 
 		//ThreadReporter.setReportTime(Instant.now());
 		MetricThreadHelper.setReportTime(Instant.now());
@@ -490,47 +585,40 @@ public class MetricsResource
 			if (json == null)
 				throw new BeanValidationException(new QueryParser.SimpleConstraintViolation("query json", "must not be null or empty"), "");
 
-			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), UTF_8));
-
-			JsonResponse jsonResponse = new JsonResponse(writer);
-
 			String originalQuery = null;
 			if (m_returnQueryInResponse)
 				originalQuery = json;
-			jsonResponse.begin(originalQuery);
 
 			Query mainQuery = queryParser.parseQueryMetric(json);
 			mainQuery = m_queryPreProcessor.preProcess(mainQuery);
 
-			List<QueryMetric> queries = mainQuery.getQueryMetrics();
-
-			int queryCount = 0;
-			for (QueryMetric query : queries)
+			if (m_streamResponse && !hasPostProcessingPlugin(mainQuery))
 			{
-				queryCount++;
-				MetricThreadHelper.addTag(METRIC_NAME_TAG, query.getName());
-				MetricThreadHelper.addTag(QUERY_INDEX_TAG, String.valueOf(queryCount));
+				List<QueryMetric> queries = mainQuery.getQueryMetrics();
 
-				//report how far back the query goes
-				queryStats.queryStartTime().put(Duration.ofMillis(System.currentTimeMillis() - query.getStartTime()));
+				//Run the first query before committing to a 200 so failures still get an error response
+				ExecutedQuery firstQuery = null;
+				if (!queries.isEmpty())
+					firstQuery = executeQuery(queries.get(0), 1);
 
-				DatastoreQuery dq = datastore.createQuery(query);
-				long startQuery = System.currentTimeMillis();
-
-				try
-				{
-					List<DataPointGroup> results = dq.execute();
-					jsonResponse.formatQuery(results, query.isExcludeTags(), dq.getSampleSize(), true);
+				StreamingQueryOutput output = new StreamingQueryOutput(queries, firstQuery,
+						originalQuery, json, remoteAddr, MetricThreadHelper.getReportTime());
+				streaming = true;
 
-					stats.queryTime().put(Duration.ofMillis(System.currentTimeMillis() - startQuery));
-				}
-				finally
-				{
-					dq.close();
-				}
+				ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(output);
+				setHeaders(responseBuilder);
+				return responseBuilder.build();
 			}
 
+			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), UTF_8));
+
+			JsonResponse jsonResponse = new JsonResponse(writer);
+
+			jsonResponse.begin(originalQuery);
+
+			runQueries(mainQuery.getQueryMetrics(), null, jsonResponse, writer);
+
 			jsonResponse.end();
 			writer.flush();
 			writer.close();
@@ -593,38 +681,226 @@ public class MetricsResource
 		}
 		finally
 		{
-			MetricThreadHelper.clearTags();
-			//ThreadReporter.clearTags();
+			//A streamed response reports its metrics once the last query is written
+			if (!streaming)
+				reportQueryMetrics(queryFailed, remoteAddr, json);
+		}
+	}
 
-			if (queryFailed)
-				MetricThreadHelper.addTag("status", "failed");
-				//ThreadReporter.addTag("status", "failed");
-			else
-				MetricThreadHelper.addTag("status", "success");
-				//ThreadReporter.addTag("status", "success");
+	private static boolean hasPostProcessingPlugin(Query query)
+	{
+		for (QueryPlugin plugin : query.getPlugins())
+		{
+			if (plugin instanceof QueryPostProcessingPlugin)
+				return true;
+		}
+
+		return false;
+	}
+
+	private DatastoreQuery createQuery(QueryMetric query, int queryCount) throws DatastoreException
+	{
+		MetricThreadHelper.addTag(METRIC_NAME_TAG, query.getName());
+		MetricThreadHelper.addTag(QUERY_INDEX_TAG, String.valueOf(queryCount));
+
+		//report how far back the query goes
+		queryStats.queryStartTime().put(Duration.ofMillis(System.currentTimeMillis() - query.getStartTime()));
 
-			//write metrics for query logging
-			long queryTime = System.currentTimeMillis() - MetricThreadHelper.getReportTime().toEpochMilli();
-			if (m_logQueries && ((queryTime / 1000) >= m_logQueriesLongerThan))
+		return datastore.createQuery(query);
+	}
+
+	private ExecutedQuery executeQuery(QueryMetric query, int queryCount) throws DatastoreException
+	{
+		DatastoreQuery dq = createQuery(query, queryCount);
+		long startQuery = System.currentTimeMillis();
+
+		try
+		{
+			return new ExecutedQuery(query, dq, dq.execute(), startQuery);
+		}
+		catch (RuntimeException | DatastoreException e)
+		{
+			dq.close();
+			throw e;
+		}
+	}
+
+	/**
+	 Writes the results of each query in order.  When more than one query remains
+	 they are run on the sub query executor, at most m_maxConcurrentSubQueries
+	 at a time.  Each sub query is formatted into its own buffer so its queuing
+	 permit is released as soon as it finishes rather than when it is written.
+	 A buffer is kept in memory up to m_subQueryBufferSize bytes and is then
+	 moved to a temp file.
+	 @param firstQuery Already executed first query or null
+	 */
+	private void runQueries(List<QueryMetric> queries, ExecutedQuery firstQuery,
+			JsonResponse jsonResponse, Writer writer) throws DatastoreException, FormatterException, IOException, InterruptedException
+	{
+		int next = (firstQuery == null ? 0 : 1);
+		boolean concurrent = m_maxConcurrentSubQueries > 1 && (queries.size() - next) > 1;
+		Deque<Future<FileBackedOutputStream>> pending = new ArrayDeque<>();
+		Instant reportTime = MetricThreadHelper.getReportTime();
+
+		try
+		{
+			if (concurrent)
+				next = submitSubQueries(queries, next, pending, reportTime);
+
+			if (firstQuery != null)
 			{
-				queryTraceStats.remoteAddress().put(remoteAddr);
-				//ThreadReporter.addDataPoint("kairosdb.log.query.remote_address", remoteAddr, m_logQueriesTtl);
-				queryTraceStats.json().put(json);
-				//ThreadReporter.addDataPoint("kairosdb.log.query.json", json, m_logQueriesTtl);
+				ExecutedQuery executed = firstQuery;
+				firstQuery = null;
+				executed.write(jsonResponse);
+				writer.flush();
+			}
+
+			while (next < queries.size() || !pending.isEmpty())
+			{
+				if (concurrent)
+				{
+					next = submitSubQueries(queries, next, pending, reportTime);
+					writeSubQuery(jsonResponse, waitForSubQuery(pending.remove()));
+				}
+				else
+				{
+					executeQuery(queries.get(next), next + 1).write(jsonResponse);
+					next++;
+				}
+
+				writer.flush();
 			}
+		}
+		finally
+		{
+			if (firstQuery != null)
+				firstQuery.close();
 
-			MetricThreadHelper.addTag("request", QUERY_URL);
-			//ThreadReporter.addTag("request", QUERY_URL);
+			for (Future<FileBackedOutputStream> future : pending)
+			{
+				//Remove the temp files of queries that finished but were not written
+				if (!future.cancel(true) && future.isDone())
+				{
+					try
+					{
+						future.get().reset();
+					}
+					catch (Exception e)
+					{
+						logger.debug("Unable to clean up sub query buffer", e);
+					}
+				}
+			}
+		}
+	}
+
+	private int submitSubQueries(List<QueryMetric> queries, int next, Deque<Future<FileBackedOutputStream>> pending,
+			Instant reportTime)
+	{
+		ExecutorService executor = getSubQueryExecutor();
+		while (next < queries.size() && pending.size() < m_maxConcurrentSubQueries)
+		{
+			QueryMetric query = queries.get(next);
+			int queryCount = next + 1;
+			pending.add(executor.submit(() -> runSubQuery(query, queryCount, reportTime)));
+			next++;
+		}
 
-			stats.requestTime().put(Duration.ofMillis(queryTime));
-			//ThreadReporter.addDataPoint(REQUEST_TIME, queryTime);
+		return next;
+	}
 
+	private FileBackedOutputStream runSubQuery(QueryMetric query, int queryCount, Instant reportTime)
+			throws DatastoreException, FormatterException, IOException
+	{
+		MetricThreadHelper.setReportTime(reportTime);
+		FileBackedOutputStream buffer = new FileBackedOutputStream(m_subQueryBufferSize);
+		try
+		{
+			Writer writer = new BufferedWriter(new OutputStreamWriter(buffer, UTF_8));
+			executeQuery(query, queryCount).write(new JsonResponse(writer));
+			writer.flush();
+			return buffer;
+		}
+		catch (Exception e)
+		{
+			buffer.reset();
+			throw e;
+		}
+		finally
+		{
 			MetricThreadHelper.clearTags();
 			MetricThreadHelper.clearReportTime();
-			//ThreadReporter.clear();
 		}
 	}
 
+	private static void writeSubQuery(JsonResponse jsonResponse, FileBackedOutputStream buffer)
+			throws FormatterException, IOException
+	{
+		try (Reader reader = buffer.asByteSource().asCharSource(UTF_8).openBufferedStream())
+		{
+			jsonResponse.writeFormattedQuery(reader);
+		}
+		finally
+		{
+			buffer.reset();
+		}
+	}
+
+	private static FileBackedOutputStream waitForSubQuery(Future<FileBackedOutputStream> future) throws DatastoreException, FormatterException, InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof DatastoreException)
+				throw (DatastoreException) cause;
+			if (cause instanceof FormatterException)
+				throw (FormatterException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			throw new DatastoreException(cause);
+		}
+	}
+
+	private void reportQueryMetrics(boolean queryFailed, String remoteAddr, String json)
+	{
+		MetricThreadHelper.clearTags();
+		//ThreadReporter.clearTags();
+
+		if (queryFailed)
+			MetricThreadHelper.addTag("status", "failed");
+			//ThreadReporter.addTag("status", "failed");
+		else
+			MetricThreadHelper.addTag("status", "success");
+			//ThreadReporter.addTag("status", "success");
+
+		//write metrics for query logging
+		long queryTime = System.currentTimeMillis() - MetricThreadHelper.getReportTime().toEpochMilli();
+		if (m_logQueries && ((queryTime / 1000) >= m_logQueriesLongerThan))
+		{
+			queryTraceStats.remoteAddress().put(remoteAddr);
+			//ThreadReporter.addDataPoint("kairosdb.log.query.remote_address", remoteAddr, m_logQueriesTtl);
+			queryTraceStats.json().put(json);
+			//ThreadReporter.addDataPoint("kairosdb.log.query.json", json, m_logQueriesTtl);
+		}
+
+		MetricThreadHelper.addTag("request", QUERY_URL);
+		//ThreadReporter.addTag("request", QUERY_URL);
+
+		stats.requestTime().put(Duration.ofMillis(queryTime));
+		//ThreadReporter.addDataPoint(REQUEST_TIME, queryTime);
+
+		MetricThreadHelper.clearTags();
+		MetricThreadHelper.clearReportTime();
+		//ThreadReporter.clear();
+	}
+
 	@OPTIONS
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints/delete")
@@ -803,6 +1079,110 @@ public class MetricsResource
 		}
 	}
 
+	private static class ExecutedQuery
+	{
+		private final QueryMetric m_query;
+		private final DatastoreQuery m_datastoreQuery;
+		private final List<DataPointGroup> m_results;
+		private final long m_startTime;
+
+		private ExecutedQuery(QueryMetric query, DatastoreQuery datastoreQuery,
+				List<DataPointGroup> results, long startTime)
+		{
+			m_query = query;
+			m_datastoreQuery = datastoreQuery;
+			m_results = results;
+			m_startTime = startTime;
+		}
+
+		private void write(JsonResponse jsonResponse) throws FormatterException
+		{
+			try
+			{
+				jsonResponse.formatQuery(m_results, m_query.isExcludeTags(), m_datastoreQuery.getSampleSize(), true);
+
+				stats.queryTime().put(Duration.ofMillis(System.currentTimeMillis() - m_startTime));
+			}
+			finally
+			{
+				close();
+			}
+		}
+
+		private void close()
+		{
+			m_datastoreQuery.close();
+		}
+	}
+
+	/**
+	 Writes query results directly to the response as each query completes
+	 instead of buffering the whole response in a temp file.
+	 */
+	private class StreamingQueryOutput implements StreamingOutput
+	{
+		private final List<QueryMetric> m_queries;
+		private final String m_originalQuery;
+		private final String m_json;
+		private final String m_remoteAddr;
+		private final Instant m_reportTime;
+		private ExecutedQuery m_firstQuery;
+
+		public StreamingQueryOutput(List<QueryMetric> queries, ExecutedQuery firstQuery,
+				String originalQuery, String json, String remoteAddr, Instant reportTime)
+		{
+			m_queries = queries;
+			m_firstQuery = firstQuery;
+			m_originalQuery = originalQuery;
+			m_json = json;
+			m_remoteAddr = remoteAddr;
+			m_reportTime = reportTime;
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException, WebApplicationException
+		{
+			boolean queryFailed = false;
+			MetricThreadHelper.setReportTime(m_reportTime);
+
+			try
+			{
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+				JsonResponse jsonResponse = new JsonResponse(writer);
+
+				jsonResponse.begin(m_originalQuery);
+
+				//runQueries takes over closing the first query
+				ExecutedQuery firstQuery = m_firstQuery;
+				m_firstQuery = null;
+				runQueries(m_queries, firstQuery, jsonResponse, writer);
+
+				jsonResponse.end();
+				writer.flush();
+			}
+			catch (IOException e)
+			{
+				queryFailed = true;
+				logger.error("Failed to write query response.", e);
+				throw e;
+			}
+			catch (Exception | OutOfMemoryError e)
+			{
+				//The status has already been sent so the best we can do is cut the response short
+				queryFailed = true;
+				logger.error("Query failed.", e);
+				throw new WebApplicationException(e);
+			}
+			finally
+			{
+				if (m_firstQuery != null)
+					m_firstQuery.close();
+
+				reportQueryMetrics(queryFailed, m_remoteAddr, m_json);
+			}
+		}
+	}
+
 	public static class FileStreamingOutput implements StreamingOutput
 	{
 		private File m_responseFile;
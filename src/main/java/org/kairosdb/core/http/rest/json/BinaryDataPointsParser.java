@@ -0,0 +1,312 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.http.rest.json;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.JsonPrimitive;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.Util;
+import org.kairosdb.util.Validator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ Parses the compact binary ingest format.  All numbers are unsigned varints
+ unless noted, signed values are zig zag encoded varints and strings are a
+ varint byte length followed by UTF-8 bytes.
+
+ <pre>
+ request:    version(1) stringCount string* metricCount metric*
+ metric:     nameId tagCount (tagNameId tagValueId)* ttl pointCount point*
+ point:      timestamp(signed) valueType value
+ </pre>
+
+ The strings at the start of the request are a dictionary, names and tags are
+ ids into it.  The first timestamp of a metric is absolute, the rest are the
+ difference from the previous one.  Value types are 1 long (signed),
+ 2 double (8 bytes) and 3 string.
+
+ Metrics are validated with the same rules as the JSON format.
+ */
+public class BinaryDataPointsParser
+{
+	public static final String MEDIA_TYPE = "application/x-kairosdb-datapoints";
+	public static final int VERSION = 1;
+
+	public static final byte LONG_VALUE = 1;
+	public static final byte DOUBLE_VALUE = 2;
+	public static final byte STRING_VALUE = 3;
+
+	private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+	//Metrics with more points are published in parts so a large request isn't all held in memory
+	private static final int MAX_BUFFERED_EVENTS = 10000;
+
+	private final Publisher<DataPointEvent> m_publisher;
+	private final DataInputStream m_input;
+	private final KairosDataPointFactory m_dataPointFactory;
+	private final List<String> m_strings = new ArrayList<>();
+	private final List<DataPointEvent> m_events = new ArrayList<>();
+	private byte[] m_stringBuffer = new byte[256];
+	private String[] m_tagNames = new String[16];
+	private String[] m_tagValues = new String[16];
+
+	private int m_dataPointCount;
+	private long m_ingestTime;
+
+	public BinaryDataPointsParser(Publisher<DataPointEvent> publisher, InputStream stream,
+			KairosDataPointFactory dataPointFactory)
+	{
+		m_publisher = publisher;
+		m_input = new DataInputStream(new BufferedInputStream(requireNonNull(stream)));
+		m_dataPointFactory = dataPointFactory;
+	}
+
+	public int getDataPointCount()
+	{
+		return m_dataPointCount;
+	}
+
+	public long getIngestTime()
+	{
+		return m_ingestTime;
+	}
+
+	public ValidationErrors parse() throws IOException
+	{
+		Stopwatch timer = Stopwatch.createStarted();
+		ValidationErrors validationErrors = new ValidationErrors();
+
+		try
+		{
+			int version = m_input.readUnsignedByte();
+			if (version != VERSION)
+				throw new InvalidFormatException("Unsupported format version " + version);
+
+			long stringCount = Util.unpackUnsignedLong(m_input);
+			for (long I = 0; I < stringCount; I++)
+			{
+				m_strings.add(readString());
+			}
+
+			DataPointFactory longFactory = m_dataPointFactory.getFactoryForType("long");
+			DataPointFactory doubleFactory = m_dataPointFactory.getFactoryForType("double");
+			DataPointFactory stringFactory = m_dataPointFactory.getFactoryForType("string");
+
+			long metricCount = Util.unpackUnsignedLong(m_input);
+			for (int I = 0; I < metricCount; I++)
+			{
+				DataPointsParser.Context context = new DataPointsParser.Context(I);
+				ValidationErrors metricErrors = new ValidationErrors();
+
+				String name = getString(Util.unpackUnsignedLong(m_input));
+				if (Validator.isNotNullOrEmpty(metricErrors, context.setAttribute("name"), name))
+					context.setName(name);
+
+				//Tag names are unique so there can't be more tags than strings
+				int tagCount = readCount();
+				if (tagCount > m_strings.size())
+					throw new InvalidFormatException("Invalid tag count " + tagCount);
+
+				if (tagCount > m_tagNames.length)
+				{
+					m_tagNames = new String[tagCount];
+					m_tagValues = new String[tagCount];
+				}
+
+				for (int J = 0; J < tagCount; J++)
+				{
+					m_tagNames[J] = getString(Util.unpackUnsignedLong(m_input));
+					m_tagValues[J] = getString(Util.unpackUnsignedLong(m_input));
+				}
+
+				DataPointsParser.validateTags(metricErrors, context, m_tagNames, m_tagValues, tagCount);
+
+				int ttl = (int) Util.unpackUnsignedLong(m_input);
+				long pointCount = Util.unpackUnsignedLong(m_input);
+
+				ImmutableSortedMap<String, String> tags = null;
+				if (!metricErrors.hasErrors())
+				{
+					ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+					for (int J = 0; J < tagCount; J++)
+					{
+						builder.put(m_tagNames[J], m_tagValues[J]);
+					}
+
+					try
+					{
+						tags = builder.build();
+					}
+					catch (IllegalArgumentException e)
+					{
+						throw new InvalidFormatException("Duplicate tag in " + context);
+					}
+				}
+
+				//Points of invalid metrics are still read to get to the next metric
+				long timestamp = 0L;
+				for (long J = 0; J < pointCount; J++)
+				{
+					timestamp += Util.unpackLong(m_input);
+
+					DataPoint dataPoint;
+					byte valueType = m_input.readByte();
+					switch (valueType)
+					{
+						case LONG_VALUE:
+							long longValue = Util.unpackLong(m_input);
+							dataPoint = tags == null ? null : createLongDataPoint(longFactory, timestamp, longValue);
+							break;
+						case DOUBLE_VALUE:
+							double doubleValue = m_input.readDouble();
+							dataPoint = tags == null ? null : createDoubleDataPoint(doubleFactory, timestamp, doubleValue);
+							break;
+						case STRING_VALUE:
+							String stringValue = readString();
+							dataPoint = tags == null ? null : createStringDataPoint(stringFactory, timestamp, stringValue);
+							break;
+						default:
+							throw new InvalidFormatException("Unknown value type " + valueType);
+					}
+
+					if (dataPoint != null)
+					{
+						m_events.add(new DataPointEvent(name, tags, dataPoint, ttl));
+						if (m_events.size() == MAX_BUFFERED_EVENTS)
+							publishEvents();
+					}
+				}
+
+				publishEvents();
+				validationErrors.add(metricErrors);
+			}
+		}
+		catch (EOFException e)
+		{
+			validationErrors.addErrorMessage("Invalid data. No content due to end of input.");
+		}
+		catch (InvalidFormatException e)
+		{
+			validationErrors.addErrorMessage("Invalid data. " + e.getMessage());
+		}
+		finally
+		{
+			//Points read before a failure are kept the same as the JSON format
+			publishEvents();
+		}
+
+		m_ingestTime = timer.elapsed(TimeUnit.NANOSECONDS);
+
+		return validationErrors;
+	}
+
+	/**
+	 The data points of a metric are published together
+	 */
+	private void publishEvents()
+	{
+		if (m_events.isEmpty())
+			return;
+
+		m_publisher.postAll(m_events);
+		m_dataPointCount += m_events.size();
+		m_events.clear();
+	}
+
+	private int readCount() throws IOException
+	{
+		long count = Util.unpackUnsignedLong(m_input);
+		if (count < 0 || count > Integer.MAX_VALUE)
+			throw new InvalidFormatException("Invalid count " + count);
+
+		return (int) count;
+	}
+
+	private String readString() throws IOException
+	{
+		int length = readCount();
+		if (length > MAX_STRING_LENGTH)
+			throw new InvalidFormatException("String length " + length + " is too long");
+
+		if (length > m_stringBuffer.length)
+			m_stringBuffer = Arrays.copyOf(m_stringBuffer, Math.max(length, m_stringBuffer.length * 2));
+
+		m_input.readFully(m_stringBuffer, 0, length);
+		return new String(m_stringBuffer, 0, length, UTF_8);
+	}
+
+	private String getString(long id) throws InvalidFormatException
+	{
+		if (id < 0 || id >= m_strings.size())
+			throw new InvalidFormatException("Unknown string id " + id);
+
+		return m_strings.get((int) id);
+	}
+
+	private DataPoint createLongDataPoint(DataPointFactory factory, long timestamp, long value) throws IOException
+	{
+		if (factory instanceof LongDataPointFactory)
+			return ((LongDataPointFactory) factory).createDataPoint(timestamp, value);
+		else
+			return m_dataPointFactory.createDataPoint("long", timestamp, new JsonPrimitive(value));
+	}
+
+	private DataPoint createDoubleDataPoint(DataPointFactory factory, long timestamp, double value) throws IOException
+	{
+		if (factory instanceof DoubleDataPointFactory)
+			return ((DoubleDataPointFactory) factory).createDataPoint(timestamp, value);
+		else
+			return m_dataPointFactory.createDataPoint("double", timestamp, new JsonPrimitive(value));
+	}
+
+	private DataPoint createStringDataPoint(DataPointFactory factory, long timestamp, String value) throws IOException
+	{
+		if (factory instanceof StringDataPointFactory)
+			return ((StringDataPointFactory) factory).createDataPoint(timestamp, value);
+		else
+			return m_dataPointFactory.createDataPoint("string", timestamp, new JsonPrimitive(value));
+	}
+
+	private static class InvalidFormatException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private InvalidFormatException(String message)
+		{
+			super(message);
+		}
+	}
+}
@@ -20,11 +20,18 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.internal.LazilyParsedNumber;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
+import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.DataPointEvent;
@@ -35,8 +42,10 @@ import org.kairosdb.util.Validator;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Collections;
-import java.util.Map;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.Objects.requireNonNull;
@@ -48,10 +57,18 @@ import static java.util.Objects.requireNonNull;
  */
 public class DataPointsParser
 {
+	private static final byte NULL_VALUE = 0;
+	private static final byte NUMBER_VALUE = 1;
+	private static final byte STRING_VALUE = 2;
+	private static final byte BOOLEAN_VALUE = 3;
+	private static final byte ELEMENT_VALUE = 4;
+
 	private final Publisher<DataPointEvent> m_publisher;
+	private final List<DataPointEvent> m_events = new ArrayList<>();
 	private final Reader inputStream;
 	private final Gson gson;
 	private final KairosDataPointFactory dataPointFactory;
+	private final NewMetric m_metric = new NewMetric();
 
 	public int getDataPointCount()
 	{
@@ -123,22 +140,217 @@ public class DataPointsParser
 		return validationErrors;
 	}
 
+	/**
+	 Reads one metric object token by token.  Data points are kept in the
+	 reusable buffers of m_metric as the metric fields they depend on (name,
+	 tags, type and ttl) can come after them.
+	 */
 	private NewMetric parseMetric(JsonReader reader)
 	{
-		NewMetric metric;
+		NewMetric metric = m_metric;
+		metric.reset();
+
+		//Same leniency Gson used, empty array entries like [1,] are read as null
+		boolean lenient = reader.isLenient();
+		reader.setLenient(true);
 		try
 		{
-			metric = gson.fromJson(reader, NewMetric.class);
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				switch (reader.nextName())
+				{
+					case "name":
+						metric.name = nextString(reader);
+						break;
+					case "timestamp":
+						metric.timestamp = nextTimestamp(reader);
+						break;
+					case "time":
+						metric.time = nextTimestamp(reader);
+						break;
+					case "value":
+						metric.value = JsonParser.parseReader(reader);
+						break;
+					case "tags":
+						parseTags(reader, metric);
+						break;
+					case "datapoints":
+						parseDataPoints(reader, metric);
+						break;
+					case "skip_validate":
+						if (reader.peek() == JsonToken.NULL)
+							reader.nextNull();
+						else if (reader.peek() == JsonToken.STRING)
+							metric.skip_validate = Boolean.parseBoolean(reader.nextString());
+						else
+							metric.skip_validate = reader.nextBoolean();
+						break;
+					case "type":
+						metric.type = nextString(reader);
+						break;
+					case "ttl":
+						if (reader.peek() == JsonToken.NULL)
+							reader.nextNull();
+						else
+							metric.ttl = reader.nextInt();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
 		}
 		catch (IllegalArgumentException e)
 		{
-			// Happens when parsing data points where one of the pair is missing (timestamp or value)
-			throw new JsonSyntaxException("Invalid JSON");
+			// Includes number format errors in timestamps and values
+			throw new JsonSyntaxException("Invalid JSON", e);
+		}
+		catch (IllegalStateException | IOException e)
+		{
+			throw new JsonSyntaxException(e);
+		}
+		finally
+		{
+			reader.setLenient(lenient);
 		}
+
 		return metric;
 	}
 
-	private static class Context
+	private static String nextString(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+		else if (token == JsonToken.BOOLEAN)
+			return Boolean.toString(reader.nextBoolean());
+		else
+			return reader.nextString();
+	}
+
+	private static Long nextTimestamp(JsonReader reader) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+
+		return parseLong(reader.nextString());
+	}
+
+	/**
+	 Parses like JsonElement.getAsLong, decimals are truncated
+	 */
+	private static long parseLong(String value)
+	{
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e)
+		{
+			return new BigDecimal(value).longValue();
+		}
+	}
+
+	private static void parseTags(JsonReader reader, NewMetric metric) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			metric.tagCount = -1;
+			return;
+		}
+
+		metric.tagCount = 0;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			String name = reader.nextName();
+			for (int I = 0; I < metric.tagCount; I++)
+			{
+				if (metric.tagNames[I].equals(name))
+					throw new JsonSyntaxException("duplicate key: " + name);
+			}
+
+			metric.addTag(name, nextString(reader));
+		}
+		reader.endObject();
+	}
+
+	private static void parseDataPoints(JsonReader reader, NewMetric metric) throws IOException
+	{
+		metric.dataPointCount = 0;
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return;
+		}
+
+		reader.beginArray();
+		while (reader.hasNext())
+		{
+			int index = metric.addDataPoint();
+
+			reader.beginArray();
+			int length = 0;
+			while (reader.hasNext())
+			{
+				if (length == 0)
+				{
+					Long timestamp = nextTimestamp(reader);
+					metric.hasTimestamp[index] = timestamp != null;
+					if (timestamp != null)
+						metric.timestamps[index] = timestamp;
+				}
+				else if (length == 1)
+					parseValue(reader, metric, index);
+				else if (length == 2)
+					metric.types[index] = nextString(reader);
+				else
+					reader.skipValue();
+
+				length++;
+			}
+			reader.endArray();
+
+			metric.lengths[index] = length;
+		}
+		reader.endArray();
+	}
+
+	private static void parseValue(JsonReader reader, NewMetric metric, int index) throws IOException
+	{
+		switch (reader.peek())
+		{
+			case NUMBER:
+				metric.valueKinds[index] = NUMBER_VALUE;
+				metric.valueText[index] = reader.nextString();
+				break;
+			case STRING:
+				metric.valueKinds[index] = STRING_VALUE;
+				metric.valueText[index] = reader.nextString();
+				break;
+			case NULL:
+				reader.nextNull();
+				metric.valueKinds[index] = NULL_VALUE;
+				break;
+			case BOOLEAN:
+				metric.valueKinds[index] = BOOLEAN_VALUE;
+				metric.valueText[index] = Boolean.toString(reader.nextBoolean());
+				break;
+			default:
+				metric.valueKinds[index] = ELEMENT_VALUE;
+				metric.valueElements[index] = JsonParser.parseReader(reader);
+		}
+	}
+
+	static class Context
 	{
 		private int m_count;
 		private String m_name;
@@ -149,14 +361,14 @@ public class DataPointsParser
 			m_count = count;
 		}
 
-		private Context setName(String name)
+		Context setName(String name)
 		{
 			m_name = name;
 			m_attribute = null;
 			return (this);
 		}
 
-		private Context setAttribute(String attribute)
+		Context setAttribute(String attribute)
 		{
 			m_attribute = attribute;
 			return (this);
@@ -176,7 +388,7 @@ public class DataPointsParser
 		}
 	}
 
-	private static class SubContext
+	static class SubContext
 	{
 		private Context m_context;
 		private String m_contextName;
@@ -253,7 +465,59 @@ public class DataPointsParser
 			return "string";
 	}
 
+	private static String findType(String value)
+	{
+		if (!value.contains("."))
+			return "long";
+		else
+			return "double";
+	}
+
+	/**
+	 Tag rules shared with the binary ingest format
+	 */
+	static void validateTags(ValidationErrors validationErrors, Context context,
+			String[] tagNames, String[] tagValues, int tagCount)
+	{
+		if (Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("tags count"), tagCount, 1))
+		{
+			SubContext tagContext = new SubContext(context.setAttribute(null), "tag");
+
+			for (int I = 0; I < tagCount; I++)
+			{
+				String name = tagNames[I];
+				String value = tagValues[I];
+
+				tagContext.setCount(I);
+				if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("name"), name))
+				{
+					tagContext.setName(name);
+					Validator.isNotNullOrEmpty(validationErrors, tagContext, name);
+				}
+				if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("value"), value))
+					Validator.isNotNullOrEmpty(validationErrors, tagContext, value);
+			}
+		}
+	}
+
 	private boolean validateAndAddDataPoints(NewMetric metric, ValidationErrors errors, int count) throws DatastoreException, IOException
+	{
+		try
+		{
+			return validateAndCollectDataPoints(metric, errors, count);
+		}
+		finally
+		{
+			//The data points of a metric are published together
+			if (!m_events.isEmpty())
+			{
+				m_publisher.postAll(m_events);
+				m_events.clear();
+			}
+		}
+	}
+
+	private boolean validateAndCollectDataPoints(NewMetric metric, ValidationErrors errors, int count) throws DatastoreException, IOException
 	{
 		ValidationErrors validationErrors = new ValidationErrors();
 
@@ -278,31 +542,13 @@ public class DataPointsParser
 			//				Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("timestamp"), metric.getTimestamp(), 1);
 
 
-			if (Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("tags count"), metric.getTags().size(), 1))
-			{
-				int tagCount = 0;
-				SubContext tagContext = new SubContext(context.setAttribute(null), "tag");
-
-				for (Map.Entry<String, String> entry : metric.getTags().entrySet())
-				{
-					tagContext.setCount(tagCount);
-					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("name"), entry.getKey()))
-					{
-						tagContext.setName(entry.getKey());
-						Validator.isNotNullOrEmpty(validationErrors, tagContext, entry.getKey());
-					}
-					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("value"), entry.getValue()))
-						Validator.isNotNullOrEmpty(validationErrors, tagContext, entry.getValue());
-
-					tagCount++;
-				}
-			}
+			validateTags(validationErrors, context, metric.tagNames, metric.tagValues, metric.getTagCount());
 		}
 
 
 		if (!validationErrors.hasErrors())
 		{
-			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.copyOf(metric.getTags());
+			ImmutableSortedMap<String, String> tags = metric.getTags();
 
 			if (metric.getTimestamp() != null && metric.getValue() != null)
 			{
@@ -324,7 +570,7 @@ public class DataPointsParser
 				{
 					if (dataPointFactory.isRegisteredType(type))
 					{
-						m_publisher.post(new DataPointEvent(metric.getName(), tags, dataPointFactory.createDataPoint(
+						m_events.add(new DataPointEvent(metric.getName(), tags, dataPointFactory.createDataPoint(
 								type, metric.getTimestamp(), metric.getValue()), metric.getTtl()));
 						dataPointCount++;
 					}
@@ -335,19 +581,20 @@ public class DataPointsParser
 				}
 			}
 
-			if (metric.getDatapoints() != null && metric.getDatapoints().length > 0)
+			if (metric.dataPointCount > 0)
 			{
 				int contextCount = 0;
 				SubContext dataPointContext = new SubContext(context, "datapoints");
-				for (JsonElement[] dataPoint : metric.getDatapoints())
+				for (int I = 0; I < metric.dataPointCount; I++)
 				{
 					dataPointContext.setCount(contextCount);
-					if (dataPoint.length < 1)
+					int length = metric.lengths[I];
+					if (length < 1)
 					{
 						validationErrors.addErrorMessage(dataPointContext.setAttribute("timestamp") + " cannot be null or empty.");
 						continue;
 					}
-					else if (dataPoint.length < 2)
+					else if (length < 2)
 					{
 						validationErrors.addErrorMessage(dataPointContext.setAttribute("value") + " cannot be null or empty.");
 						continue;
@@ -355,39 +602,32 @@ public class DataPointsParser
 					else
 					{
 						Long timestamp = null;
-						if (!dataPoint[0].isJsonNull())
-							timestamp = dataPoint[0].getAsLong();
+						if (metric.hasTimestamp[I])
+							timestamp = metric.timestamps[I];
 
 						if (metric.validate() && !Validator.isNotNull(validationErrors, dataPointContext.setAttribute("timestamp"), timestamp))
 							continue;
 
 						String type = metric.getType();
-						if (dataPoint.length > 2)
-							type = dataPoint[2].getAsString();
+						if (metric.types[I] != null)
+							type = metric.types[I];
 
 						//String type data can be empty
-						if ("string".equals(type))
-						{
-							if (!Validator.isNotNull(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
-								continue;
-						}
-						else
-						{
-							if (!Validator.isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
-								continue;
-						}
+						if (!"string".equals(type) && !validateValue(validationErrors, dataPointContext.setAttribute("value"), metric, I))
+							continue;
 
 						if (type == null)
 						{
-							try
+							byte kind = metric.valueKinds[I];
+							if (kind == NUMBER_VALUE || (kind == STRING_VALUE && Util.isNumber(metric.valueText[I])))
+								type = findType(metric.valueText[I]);
+							else if (kind == ELEMENT_VALUE)
 							{
-								type = findType(dataPoint[1]);
-							}
-							catch (ValidationException e)
-							{
-								validationErrors.addErrorMessage(context + " " + e.getMessage());
+								validationErrors.addErrorMessage(context + " value is an invalid type");
 								continue;
 							}
+							else
+								type = "string";
 						}
 
 						if (!dataPointFactory.isRegisteredType(type))
@@ -396,8 +636,8 @@ public class DataPointsParser
 							continue;
 						}
 
-						m_publisher.post(new DataPointEvent(metric.getName(), tags,
-								dataPointFactory.createDataPoint(type, timestamp, dataPoint[1]), metric.getTtl()));
+						m_events.add(new DataPointEvent(metric.getName(), tags,
+								createDataPoint(type, timestamp, metric, I), metric.getTtl()));
 						dataPointCount++;
 					}
 					contextCount++;
@@ -410,18 +650,147 @@ public class DataPointsParser
 		return !validationErrors.hasErrors();
 	}
 
+	/**
+	 Same checks as Validator.isNotNullOrEmpty for a JsonElement
+	 */
+	private static boolean validateValue(ValidationErrors validationErrors, Object name, NewMetric metric, int index)
+	{
+		switch (metric.valueKinds[index])
+		{
+			case NULL_VALUE:
+				validationErrors.addErrorMessage(name + " may not be empty.");
+				return false;
+			case ELEMENT_VALUE:
+				return Validator.isNotNullOrEmpty(validationErrors, name, metric.valueElements[index]);
+			default:
+				return Validator.isNotNullOrEmpty(validationErrors, name, metric.valueText[index]);
+		}
+	}
+
+	/**
+	 Long and double values are parsed straight from the token text, other
+	 types get the value as a JsonElement.
+	 */
+	private DataPoint createDataPoint(String type, long timestamp, NewMetric metric, int index) throws IOException
+	{
+		byte kind = metric.valueKinds[index];
+		String text = metric.valueText[index];
+
+		if (kind == NUMBER_VALUE || kind == STRING_VALUE)
+		{
+			DataPointFactory factory = dataPointFactory.getFactoryForType(type);
+			if (factory instanceof LongDataPointFactory)
+				return ((LongDataPointFactory) factory).createDataPoint(timestamp, parseLong(text));
+			else if (factory instanceof DoubleDataPointFactory)
+				return ((DoubleDataPointFactory) factory).createDataPoint(timestamp, Double.parseDouble(text));
+		}
+
+		JsonElement value;
+		switch (kind)
+		{
+			case NUMBER_VALUE:
+				value = new JsonPrimitive(new LazilyParsedNumber(text));
+				break;
+			case STRING_VALUE:
+				value = new JsonPrimitive(text);
+				break;
+			case BOOLEAN_VALUE:
+				value = new JsonPrimitive(Boolean.valueOf(text));
+				break;
+			case NULL_VALUE:
+				value = JsonNull.INSTANCE;
+				break;
+			default:
+				value = metric.valueElements[index];
+		}
+
+		return dataPointFactory.createDataPoint(type, timestamp, value);
+	}
+
+	/**
+	 A metric object from the request.  One instance is reused for every
+	 metric so the data point buffers only grow to the largest metric.
+	 */
 	@SuppressWarnings({"MismatchedReadAndWriteOfArray", "UnusedDeclaration"})
 	private static class NewMetric
 	{
+		private static final int INITIAL_CAPACITY = 16;
+
 		private String name;
-		private Long timestamp = null;
-		private Long time = null;
+		private Long timestamp;
+		private Long time;
 		private JsonElement value;
-		private Map<String, String> tags;
-		private JsonElement[][] datapoints;
-		private boolean skip_validate = false;
+		private boolean skip_validate;
 		private String type;
-		private int ttl = 0;
+		private int ttl;
+
+		/** -1 when tags are missing */
+		private int tagCount;
+		private String[] tagNames = new String[INITIAL_CAPACITY];
+		private String[] tagValues = new String[INITIAL_CAPACITY];
+
+		private int dataPointCount;
+		private int[] lengths = new int[INITIAL_CAPACITY];
+		private boolean[] hasTimestamp = new boolean[INITIAL_CAPACITY];
+		private long[] timestamps = new long[INITIAL_CAPACITY];
+		private byte[] valueKinds = new byte[INITIAL_CAPACITY];
+		private String[] valueText = new String[INITIAL_CAPACITY];
+		private JsonElement[] valueElements = new JsonElement[INITIAL_CAPACITY];
+		private String[] types = new String[INITIAL_CAPACITY];
+
+		private void reset()
+		{
+			name = null;
+			timestamp = null;
+			time = null;
+			value = null;
+			skip_validate = false;
+			type = null;
+			ttl = 0;
+
+			Arrays.fill(tagNames, 0, Math.max(tagCount, 0), null);
+			Arrays.fill(tagValues, 0, Math.max(tagCount, 0), null);
+			tagCount = -1;
+
+			Arrays.fill(valueText, 0, dataPointCount, null);
+			Arrays.fill(valueElements, 0, dataPointCount, null);
+			Arrays.fill(types, 0, dataPointCount, null);
+			dataPointCount = 0;
+		}
+
+		private void addTag(String name, String value)
+		{
+			if (tagCount == tagNames.length)
+			{
+				tagNames = Arrays.copyOf(tagNames, tagCount * 2);
+				tagValues = Arrays.copyOf(tagValues, tagCount * 2);
+			}
+
+			tagNames[tagCount] = name;
+			tagValues[tagCount] = value;
+			tagCount++;
+		}
+
+		private int addDataPoint()
+		{
+			if (dataPointCount == lengths.length)
+			{
+				int capacity = dataPointCount * 2;
+				lengths = Arrays.copyOf(lengths, capacity);
+				hasTimestamp = Arrays.copyOf(hasTimestamp, capacity);
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				valueKinds = Arrays.copyOf(valueKinds, capacity);
+				valueText = Arrays.copyOf(valueText, capacity);
+				valueElements = Arrays.copyOf(valueElements, capacity);
+				types = Arrays.copyOf(types, capacity);
+			}
+
+			int index = dataPointCount++;
+			lengths[index] = 0;
+			hasTimestamp[index] = false;
+			valueKinds[index] = NULL_VALUE;
+			return index;
+		}
 
 		private String getName()
 		{
@@ -441,14 +810,23 @@ public class DataPointsParser
 			return value;
 		}
 
-		public Map<String, String> getTags()
+		private int getTagCount()
 		{
-			return tags != null ? tags : Collections.<String, String>emptyMap();
+			return Math.max(tagCount, 0);
 		}
 
-		private JsonElement[][] getDatapoints()
+		/**
+		 Built once and shared by every data point of the metric
+		 */
+		private ImmutableSortedMap<String, String> getTags()
 		{
-			return datapoints;
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (int I = 0; I < tagCount; I++)
+			{
+				builder.put(tagNames[I], tagValues[I]);
+			}
+
+			return builder.build();
 		}
 
 		private boolean validate()
@@ -466,4 +844,4 @@ public class DataPointsParser
 			return ttl;
 		}
 	}
-}
\ No newline at end of file
+}
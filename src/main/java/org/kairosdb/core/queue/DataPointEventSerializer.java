@@ -8,51 +8,71 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.util.KDataInput;
+import org.kairosdb.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.File;
 import java.io.IOException;
-import java.util.Map;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static org.kairosdb.core.CoreModule.QUEUE_PATH;
 
 /**
  Created by bhawkins on 10/25/16.
+
+ Events are written with their metric name, data type and tags replaced by
+ ids from an EventDictionary.  Events queued by older versions are written
+ with strings and are still read.
  */
 public class DataPointEventSerializer
 {
 	public static final Logger logger = LoggerFactory.getLogger(DataPointEventSerializer.class);
+	public static final String DICTIONARY_DIRECTORY = "event_dictionary";
+
+	/**
+	 The old format starts with the length of the metric name, which
+	 is never this long
+	 */
+	private static final byte DICTIONARY_FORMAT = (byte) 0xFF;
+	private static final int MAX_SEGMENT_ENTRIES = 100_000;
 
 	private final KairosDataPointFactory m_kairosDataPointFactory;
+	private final EventDictionary m_dictionary;
 
 	@Inject
+	public DataPointEventSerializer(KairosDataPointFactory kairosDataPointFactory,
+			@Named(QUEUE_PATH) String queuePath)
+	{
+		m_kairosDataPointFactory = kairosDataPointFactory;
+		m_dictionary = new EventDictionary(new File(queuePath, DICTIONARY_DIRECTORY), MAX_SEGMENT_ENTRIES);
+	}
+
+	/**
+	 Keeps the dictionary in memory only
+	 */
 	public DataPointEventSerializer(KairosDataPointFactory kairosDataPointFactory)
 	{
 		m_kairosDataPointFactory = kairosDataPointFactory;
+		m_dictionary = new EventDictionary(null, MAX_SEGMENT_ENTRIES);
 	}
 
-	public byte[] serializeEvent(DataPointEvent dataPointEvent)
+	public byte[] serializeEvent(DataPointEvent dataPointEvent) throws IOException
 	{
-		//Todo: Create some adaptive value here, keep stats on if the buffer increases and slowely increase it
-		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput(64);
-		dataOutput.writeUTF(dataPointEvent.getMetricName());
-		dataOutput.writeInt(dataPointEvent.getTtl());
-		dataOutput.writeLong(dataPointEvent.getDataPoint().getTimestamp());
-		dataOutput.writeUTF(dataPointEvent.getDataPoint().getDataStoreDataType());
-		try
-		{
-			dataPointEvent.getDataPoint().writeValueToBuffer(dataOutput);
-		}
-		catch (IOException e)
-		{
-			logger.error("Error serializing DataPoint", e);
-		}
+		EventDictionary.Segment segment = m_dictionary.getWriteSegment();
 
-		dataOutput.writeInt(dataPointEvent.getTags().size());
-		for (Map.Entry<String, String> entry : dataPointEvent.getTags().entrySet())
-		{
-			dataOutput.writeUTF(entry.getKey());
-			dataOutput.writeUTF(entry.getValue());
-		}
+		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput(32);
+		dataOutput.writeByte(DICTIONARY_FORMAT);
+		Util.packUnsignedLong(segment.getId(), dataOutput);
+		Util.packUnsignedLong(segment.getStringId(dataPointEvent.getMetricName()), dataOutput);
+		Util.packUnsignedLong(segment.getStringId(dataPointEvent.getDataPoint().getDataStoreDataType()), dataOutput);
+		Util.packUnsignedLong(segment.getTagsId(dataPointEvent.getTags()), dataOutput);
+		Util.packLong(dataPointEvent.getTtl(), dataOutput);
+		Util.packLong(dataPointEvent.getDataPoint().getTimestamp(), dataOutput);
+		dataPointEvent.getDataPoint().writeValueToBuffer(dataOutput);
 
 		return dataOutput.toByteArray();
 	}
@@ -62,29 +82,89 @@ public class DataPointEventSerializer
 		DataPointEvent ret = null;
 		try
 		{
-			KDataInput dataInput = KDataInput.createInput(bytes);
-			String metricName = dataInput.readUTF();
-			int ttl = dataInput.readInt();
-			long timestamp = dataInput.readLong();
-			String storeType = dataInput.readUTF();
+			if (bytes.length != 0 && bytes[0] == DICTIONARY_FORMAT)
+				ret = deserializeDictionaryEvent(bytes);
+			else
+				ret = deserializeStringEvent(bytes);
+		}
+		catch (IOException | IllegalStateException | IllegalArgumentException | BufferUnderflowException e)
+		{
+			logger.error("Unable to deserialize event", e);
+		}
+
+		return ret;
+	}
 
-			DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp, dataInput);
+	private DataPointEvent deserializeDictionaryEvent(byte[] bytes) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+		EventDictionary.Segment segment = m_dictionary.getSegment((int) Util.unpackUnsignedLong(buffer));
+		String metricName = segment.getString((int) Util.unpackUnsignedLong(buffer));
+		String storeType = segment.getString((int) Util.unpackUnsignedLong(buffer));
+		ImmutableSortedMap<String, String> tags = segment.getTags((int) Util.unpackUnsignedLong(buffer));
+		int ttl = (int) Util.unpackLong(buffer);
+		long timestamp = Util.unpackLong(buffer);
+
+		DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp,
+				KDataInput.createInput(buffer));
+
+		return new DataPointEvent(metricName, tags, dataPoint, ttl);
+	}
 
-			int tagCount = dataInput.readInt();
-			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
-			for (int I = 0; I < tagCount; I++)
-			{
-				builder.put(dataInput.readUTF(), dataInput.readUTF());
-			}
+	private DataPointEvent deserializeStringEvent(byte[] bytes) throws IOException
+	{
+		KDataInput dataInput = KDataInput.createInput(bytes);
+		String metricName = dataInput.readUTF();
+		int ttl = dataInput.readInt();
+		long timestamp = dataInput.readLong();
+		String storeType = dataInput.readUTF();
 
-			ret = new DataPointEvent(metricName, builder.build(), dataPoint, ttl);
+		DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp, dataInput);
 
+		int tagCount = dataInput.readInt();
+		ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+		for (int I = 0; I < tagCount; I++)
+		{
+			builder.put(dataInput.readUTF(), dataInput.readUTF());
 		}
-		catch (IOException | IllegalStateException e)
+
+		return new DataPointEvent(metricName, builder.build(), dataPoint, ttl);
+	}
+
+	/**
+	 Drops all dictionary segments except the current one, called when the
+	 queue is empty
+	 */
+	void removeUnusedDictionary()
+	{
+		m_dictionary.removeSegmentsBefore(Integer.MAX_VALUE);
+	}
+
+	/**
+	 Drops the dictionary segments that are no longer needed to read the queue.
+
+	 @param oldestEvent Oldest event still in the queue
+	 */
+	void removeUnusedDictionary(byte[] oldestEvent)
+	{
+		if (oldestEvent != null && oldestEvent.length > 1 && oldestEvent[0] == DICTIONARY_FORMAT)
 		{
-			logger.error("Unable to deserialize event", e);
+			int segmentId = (int) Util.unpackUnsignedLong(ByteBuffer.wrap(oldestEvent, 1, oldestEvent.length - 1));
+			//Events written while the segment rolled over may be queued slightly out of order
+			m_dictionary.removeSegmentsBefore(segmentId - 1);
 		}
+	}
 
-		return ret;
+	/**
+	 Forces dictionary entries used by serialized events to disk
+	 */
+	public void sync() throws IOException
+	{
+		m_dictionary.sync();
+	}
+
+	public void close()
+	{
+		m_dictionary.close();
 	}
 }
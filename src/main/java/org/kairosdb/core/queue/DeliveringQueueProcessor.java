@@ -0,0 +1,171 @@
+package org.kairosdb.core.queue;
+
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.BatchReductionEvent;
+import org.kairosdb.events.DataPointEvent;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ Queue processor that runs a delivery thread pulling batches of events
+ out of its queue and handing them to the ProcessorHandler.
+ */
+public abstract class DeliveringQueueProcessor extends QueueProcessor
+{
+	private final DeliveryThread m_deliveryThread;
+	private final ExecutorService m_executor;
+	private int m_batchSize;
+	private final int m_initialBatchSize;
+	private final int m_minimumBatchSize;
+	private final int m_minBatchWait;
+
+	private volatile ProcessorHandler m_processorHandler;
+
+
+	public DeliveringQueueProcessor(ExecutorService executor, int batchSize, int minimumBatchSize,
+			int minBatchWait)
+	{
+		m_deliveryThread = new DeliveryThread();
+		m_initialBatchSize = m_batchSize = batchSize;
+		m_minimumBatchSize = minimumBatchSize;
+		m_minBatchWait = minBatchWait;
+
+		executor.execute(m_deliveryThread);
+		m_executor = executor;
+		logger.info("Starting QueueProcessor "+this.getClass().getName());
+	}
+
+	@Subscribe
+	public void reduceBatch(BatchReductionEvent reductionEvent)
+	{
+		m_batchSize = Math.min(m_batchSize, reductionEvent.getBatchSize());
+
+		logger.info("Reducing queue batch size to "+m_batchSize);
+	}
+
+
+	@Override
+	public void setProcessorHandler(ProcessorHandler processorHandler)
+	{
+		m_processorHandler = processorHandler;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		m_deliveryThread.shutdown();
+		m_executor.shutdown();
+	}
+
+	/**
+	 @return Returns a Pair containing the latest index
+	 and a list of events from the queue, maybe empty
+	 */
+	protected abstract List<DataPointEvent> get(int batchSize);
+
+	protected abstract int getAvailableDataPointEvents();
+
+	protected abstract EventCompletionCallBack getCompletionCallBack();
+
+	/**
+	 Called when fewer than the minimum batch size of events are available.
+	 Waits up to timeout milliseconds, implementations may return as soon
+	 as count events are available.
+	 */
+	protected void waitForEvents(int count, long timeout) throws InterruptedException
+	{
+		Thread.sleep(timeout);
+	}
+
+
+	/**
+	 Single thread that pulls data out of the queue and sends it to the callback
+	 in batches
+	 */
+	public class DeliveryThread implements Runnable
+	{
+		private boolean m_running = true;
+		private boolean m_runOnce = false;
+
+		public DeliveryThread()
+		{
+		}
+
+		public void shutdown()
+		{
+			m_running = false;
+		}
+
+		/**
+		 Used for testing the queue processor to clear the running state
+		 @param running
+		 */
+		public void setRunning(boolean running)
+		{
+			m_running = running;
+		}
+
+		/**
+		 Used for testing the queue processor
+		 @param runOnce
+		 */
+		public void setRunOnce(boolean runOnce)
+		{
+			m_runOnce = runOnce;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				//to fix race condition on startup
+				while (m_processorHandler == null)
+					Thread.sleep(100);
+			}
+			catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+
+			while (m_running)
+			{
+				if (m_runOnce)
+					m_running = false;
+
+				try
+				{
+					if (getAvailableDataPointEvents() < m_minimumBatchSize)
+					{
+						waitForEvents(m_minimumBatchSize, m_minBatchWait);
+					}
+
+					if (getAvailableDataPointEvents() == 0)
+						continue;
+
+					List<DataPointEvent> results = get(m_batchSize);
+					//getCompletionCallBack must be called after get()
+					EventCompletionCallBack callbackToPass = getCompletionCallBack();
+
+					stats.batchStats().put(results.size());
+
+					boolean fullBatch = false;
+
+					if (results.size() == m_batchSize)
+					{
+						fullBatch = true;
+						if (m_batchSize < m_initialBatchSize)
+							m_batchSize += 5;
+					}
+
+					m_processorHandler.handleEvents(results, callbackToPass, fullBatch);
+				}
+				catch (Exception e)
+				{
+					logger.error("DeliveryThread Exception", e);
+				}
+			}
+		}
+	}
+}
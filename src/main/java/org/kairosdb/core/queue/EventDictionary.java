@@ -0,0 +1,362 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ Interns the metric names, data types and tag sets of queued events.  Ids are
+ local to a segment and each new entry is appended to the segment's file before
+ the event that uses it is queued, so the queue can be replayed after a restart.
+ A new segment is started on startup and whenever the current one fills up.
+ Segments are deleted once the queue has been checkpointed past them.
+
+ If no directory is given the dictionary is only kept in memory.
+ */
+class EventDictionary
+{
+	public static final Logger logger = LoggerFactory.getLogger(EventDictionary.class);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final byte STRING_ENTRY = 0;
+	private static final byte TAGS_ENTRY = 1;
+
+	private final File m_directory;
+	private final int m_maxSegmentEntries;
+	private final Map<Integer, Segment> m_segments = new ConcurrentHashMap<>();
+	private volatile Segment m_currentSegment;
+
+	EventDictionary(File directory, int maxSegmentEntries)
+	{
+		m_directory = directory;
+		m_maxSegmentEntries = maxSegmentEntries;
+
+		int nextId = 0;
+		File[] files = directory == null ? null : directory.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				if (!file.getName().startsWith(SEGMENT_PREFIX))
+					continue;
+
+				try
+				{
+					int id = Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length()));
+					m_segments.put(id, Segment.load(id, file));
+					nextId = Math.max(nextId, id + 1);
+				}
+				catch (NumberFormatException | IOException e)
+				{
+					logger.error("Unable to load event dictionary segment " + file, e);
+				}
+			}
+		}
+
+		m_currentSegment = newSegment(nextId);
+	}
+
+	private Segment newSegment(int id)
+	{
+		Segment segment = new Segment(id, m_directory == null ? null : new File(m_directory, SEGMENT_PREFIX + id));
+		m_segments.put(id, segment);
+		return segment;
+	}
+
+	/**
+	 Returns the segment new events are written with.  All the ids in one
+	 event must come from the same segment.
+	 */
+	Segment getWriteSegment()
+	{
+		Segment segment = m_currentSegment;
+		if (segment.size() >= m_maxSegmentEntries)
+		{
+			synchronized (this)
+			{
+				segment = m_currentSegment;
+				if (segment.size() >= m_maxSegmentEntries)
+				{
+					segment = newSegment(segment.getId() + 1);
+					m_currentSegment = segment;
+				}
+			}
+		}
+
+		return segment;
+	}
+
+	Segment getSegment(int id) throws IOException
+	{
+		Segment segment = m_segments.get(id);
+		if (segment == null)
+			throw new IOException("Missing event dictionary segment " + id);
+
+		return segment;
+	}
+
+	/**
+	 Deletes all segments before id except the one currently being written to
+	 */
+	void removeSegmentsBefore(int id)
+	{
+		Segment current = m_currentSegment;
+		for (Integer segmentId : m_segments.keySet())
+		{
+			if (segmentId < id && segmentId != current.getId())
+			{
+				Segment segment = m_segments.remove(segmentId);
+				if (segment != null)
+					segment.delete();
+			}
+		}
+	}
+
+	/**
+	 Forces new entries to disk
+	 */
+	void sync() throws IOException
+	{
+		for (Segment segment : m_segments.values())
+		{
+			segment.sync();
+		}
+	}
+
+	void close()
+	{
+		for (Segment segment : m_segments.values())
+		{
+			segment.closeWriter();
+		}
+	}
+
+	//===========================================================================
+	static class Segment
+	{
+		private final int m_id;
+		private final File m_file;
+		private final Map<Object, Integer> m_ids = new ConcurrentHashMap<>();
+		private final List<Object> m_entries = new ArrayList<>();
+		private FileOutputStream m_fileOutput;
+		private DataOutputStream m_writer;
+		private boolean m_dirty;
+
+		private Segment(int id, File file)
+		{
+			m_id = id;
+			m_file = file;
+		}
+
+		/**
+		 Reads a segment left from a previous run.  A partly written entry at
+		 the end of the file is ignored as no event was queued with it.
+		 */
+		private static Segment load(int id, File file) throws IOException
+		{
+			Segment segment = new Segment(id, file);
+
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+			{
+				while (true)
+				{
+					byte type;
+					try
+					{
+						type = input.readByte();
+					}
+					catch (EOFException e)
+					{
+						break;
+					}
+
+					if (type == STRING_ENTRY)
+						segment.add(input.readUTF());
+					else if (type == TAGS_ENTRY)
+					{
+						int tagCount = (int) Util.unpackUnsignedLong(input);
+						ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+						for (int I = 0; I < tagCount; I++)
+						{
+							builder.put(segment.getString((int) Util.unpackUnsignedLong(input)),
+									segment.getString((int) Util.unpackUnsignedLong(input)));
+						}
+						segment.add(builder.build());
+					}
+					else
+						throw new IOException("Unknown event dictionary entry type " + type);
+				}
+			}
+			catch (EOFException e)
+			{
+				logger.warn("Event dictionary segment {} ends with a partial entry", file);
+			}
+
+			return segment;
+		}
+
+		int getId()
+		{
+			return m_id;
+		}
+
+		synchronized int size()
+		{
+			return m_entries.size();
+		}
+
+		int getStringId(String value) throws IOException
+		{
+			Integer id = m_ids.get(value);
+			if (id == null)
+				id = addString(value);
+
+			return id;
+		}
+
+		int getTagsId(ImmutableSortedMap<String, String> tags) throws IOException
+		{
+			Integer id = m_ids.get(tags);
+			if (id == null)
+				id = addTags(tags);
+
+			return id;
+		}
+
+		synchronized String getString(int id) throws IOException
+		{
+			Object entry = id < m_entries.size() ? m_entries.get(id) : null;
+			if (!(entry instanceof String))
+				throw new IOException("Unknown string " + id + " in event dictionary segment " + m_id);
+
+			return (String) entry;
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized ImmutableSortedMap<String, String> getTags(int id) throws IOException
+		{
+			Object entry = id < m_entries.size() ? m_entries.get(id) : null;
+			if (!(entry instanceof ImmutableSortedMap))
+				throw new IOException("Unknown tags " + id + " in event dictionary segment " + m_id);
+
+			return (ImmutableSortedMap<String, String>) entry;
+		}
+
+		private synchronized int addString(String value) throws IOException
+		{
+			Integer id = m_ids.get(value);
+			if (id != null)
+				return id;
+
+			DataOutputStream writer = getWriter();
+			if (writer != null)
+			{
+				writer.writeByte(STRING_ENTRY);
+				writer.writeUTF(value);
+				writer.flush();
+				m_dirty = true;
+			}
+
+			return add(value);
+		}
+
+		private synchronized int addTags(ImmutableSortedMap<String, String> tags) throws IOException
+		{
+			Integer id = m_ids.get(tags);
+			if (id != null)
+				return id;
+
+			int[] tagIds = new int[tags.size() * 2];
+			int index = 0;
+			for (Map.Entry<String, String> entry : tags.entrySet())
+			{
+				tagIds[index++] = getStringId(entry.getKey());
+				tagIds[index++] = getStringId(entry.getValue());
+			}
+
+			DataOutputStream writer = getWriter();
+			if (writer != null)
+			{
+				writer.writeByte(TAGS_ENTRY);
+				Util.packUnsignedLong(tags.size(), writer);
+				for (int tagId : tagIds)
+				{
+					Util.packUnsignedLong(tagId, writer);
+				}
+				writer.flush();
+				m_dirty = true;
+			}
+
+			return add(tags);
+		}
+
+		private synchronized int add(Object entry)
+		{
+			int id = m_entries.size();
+			m_entries.add(entry);
+			m_ids.put(entry, id);
+			return id;
+		}
+
+		private DataOutputStream getWriter() throws IOException
+		{
+			if (m_writer == null && m_file != null)
+			{
+				m_file.getParentFile().mkdirs();
+				m_fileOutput = new FileOutputStream(m_file, true);
+				m_writer = new DataOutputStream(new BufferedOutputStream(m_fileOutput));
+			}
+
+			return m_writer;
+		}
+
+		private synchronized void sync() throws IOException
+		{
+			if (m_dirty)
+			{
+				m_fileOutput.getFD().sync();
+				m_dirty = false;
+			}
+		}
+
+		private synchronized void closeWriter()
+		{
+			if (m_writer != null)
+			{
+				try
+				{
+					m_writer.close();
+				}
+				catch (IOException e)
+				{
+					logger.warn("Unable to close event dictionary segment " + m_file, e);
+				}
+				m_writer = null;
+				m_fileOutput = null;
+				m_dirty = false;
+			}
+		}
+
+		private synchronized void delete()
+		{
+			closeWriter();
+			if (m_file != null && m_file.exists() && !m_file.delete())
+				logger.warn("Unable to delete event dictionary segment {}", m_file);
+		}
+	}
+}
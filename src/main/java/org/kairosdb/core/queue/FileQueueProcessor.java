@@ -2,6 +2,8 @@ package org.kairosdb.core.queue;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
@@ -13,12 +15,11 @@ import org.kairosdb.metrics4j.MetricSourceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.inject.Inject;
-import javax.inject.Named;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -26,13 +27,28 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  Created by bhawkins on 12/14/16.
  */
-public class FileQueueProcessor extends QueueProcessor
+public class FileQueueProcessor extends DeliveringQueueProcessor
 {
 	public static final Logger logger = LoggerFactory.getLogger(FileQueueProcessor.class);
 	public static final QueueStats stats = MetricSourceManager.getSource(QueueStats.class);
 	public static final String SECONDS_TILL_CHECKPOINT = "kairosdb.queue_processor.seconds_till_checkpoint";
+	public static final String DURABILITY = "kairosdb.queue_processor.durability";
+
+	/**
+	 When put calls wait for their events to be forced to disk
+	 */
+	public enum Durability
+	{
+		/** Never, the OS writes the queue files out on its own */
+		NONE,
+		/** Only putAll calls */
+		BATCH,
+		/** Every put and putAll call */
+		ALL
+	}
 
 	private final Object m_lock = new Object();
+	private final Object m_commitLock = new Object();
 	private final IBigArray m_bigArray;
 	private final CircularFifoQueue<IndexedEvent> m_memoryQueue;
 	private final DataPointEventSerializer m_eventSerializer;
@@ -41,6 +57,9 @@ public class FileQueueProcessor extends QueueProcessor
 	private CompletionCallBack m_lastCallback = new CompletionCallBack();
 	private final int m_secondsTillCheckpoint;
 	private volatile boolean m_shuttingDown;
+	private Durability m_durability = Durability.NONE;
+	private long m_appendCount = 0L;
+	private volatile long m_commitCount = 0L;
 
 	private long m_nextIndex = -1L;
 
@@ -55,6 +74,24 @@ public class FileQueueProcessor extends QueueProcessor
 			@Named(SECONDS_TILL_CHECKPOINT) int secondsTillCheckpoint,
 			@Named(MINIMUM_BATCH_SIZE) int minimumBatchSize,
 			@Named(MINIMUM_BATCH_WAIT) int minBatchWait)
+	{
+		this(eventSerializer, bigArray, executor, batchSize, memoryQueueSize, secondsTillCheckpoint,
+				minimumBatchSize, minBatchWait, Collections.emptyMap());
+	}
+
+	/**
+	 @param metricTags Tags added to the queue size metrics of this processor
+	 */
+	FileQueueProcessor(
+			DataPointEventSerializer eventSerializer,
+			IBigArray bigArray,
+			ExecutorService executor,
+			int batchSize,
+			int memoryQueueSize,
+			int secondsTillCheckpoint,
+			int minimumBatchSize,
+			int minBatchWait,
+			Map<String, String> metricTags)
 	{
 		super(executor, batchSize, minimumBatchSize, minBatchWait);
 		m_bigArray = bigArray;
@@ -64,13 +101,22 @@ public class FileQueueProcessor extends QueueProcessor
 		m_secondsTillCheckpoint = secondsTillCheckpoint;
 		m_shuttingDown = false;
 
+		if (m_nextIndex == m_bigArray.getHeadIndex())
+			m_eventSerializer.removeUnusedDictionary();
+
 		MetricSourceManager.addSource(QueueStats.class.getName(),
-				"memoryQueueSize", Collections.emptyMap(), "Amount of data in the memory queue", () -> m_memoryQueue.size());
+				"memoryQueueSize", metricTags, "Amount of data in the memory queue", () -> m_memoryQueue.size());
 		MetricSourceManager.addSource(QueueStats.class.getName(),
-				"fileQueueSize", Collections.emptyMap(), "Amount of data in the file queue", () -> m_bigArray.getHeadIndex() - m_nextIndex);
+				"fileQueueSize", metricTags, "Amount of data in the file queue", () -> m_bigArray.getHeadIndex() - m_nextIndex);
 	}
 
 
+	@Inject(optional = true)
+	public void setDurability(@Named(DURABILITY) String durability)
+	{
+		m_durability = Durability.valueOf(durability.toUpperCase());
+	}
+
 	@Override
 	public void shutdown()
 	{
@@ -86,11 +132,12 @@ public class FileQueueProcessor extends QueueProcessor
 		{
 			logger.warn("Error while shutting down bigqueue", e);
 		}
+		m_eventSerializer.close();
 
 		super.shutdown();
 	}
 
-	private long incrementIndex(long index)
+	static long incrementIndex(long index)
 	{
 		if (index == Long.MAX_VALUE)
 			return 0;
@@ -143,10 +190,11 @@ public class FileQueueProcessor extends QueueProcessor
 			throw new DatastoreException("File Queue shutting down");
 		}
 
-		byte[] eventBytes = m_eventSerializer.serializeEvent(dataPointEvent);
-
 		try
 		{
+			byte[] eventBytes = m_eventSerializer.serializeEvent(dataPointEvent);
+			long appendCount;
+
 			synchronized (m_lock)
 			{
 				long index = -1L;
@@ -154,10 +202,61 @@ public class FileQueueProcessor extends QueueProcessor
 				index = m_bigArray.append(eventBytes);
 				//Then stick it into the in memory queue
 				m_memoryQueue.add(new IndexedEvent(dataPointEvent, index));
+				appendCount = ++m_appendCount;
 
 				//Notify the reader thread if it is waiting for data
 				m_lock.notify();
 			}
+
+			if (m_durability == Durability.ALL)
+				commit(appendCount);
+		}
+		catch (IOException ioe)
+		{
+			throw new DatastoreException("Failure to write data to bigqueue", ioe);
+		}
+	}
+
+	/**
+	 Serializes the events outside of the lock and then appends them
+	 all with a single lock acquisition.
+	 */
+	@Override
+	public void putAll(List<DataPointEvent> dataPointEvents) throws DatastoreException
+	{
+		if (m_shuttingDown)
+		{
+			throw new DatastoreException("File Queue shutting down");
+		}
+
+		if (dataPointEvents.isEmpty())
+			return;
+
+		try
+		{
+			byte[][] eventBytes = new byte[dataPointEvents.size()][];
+			for (int I = 0; I < eventBytes.length; I++)
+			{
+				eventBytes[I] = m_eventSerializer.serializeEvent(dataPointEvents.get(I));
+			}
+
+			long appendCount;
+
+			synchronized (m_lock)
+			{
+				for (int I = 0; I < eventBytes.length; I++)
+				{
+					long index = m_bigArray.append(eventBytes[I]);
+					m_memoryQueue.add(new IndexedEvent(dataPointEvents.get(I), index));
+				}
+				m_appendCount += eventBytes.length;
+				appendCount = m_appendCount;
+
+				m_lock.notify();
+			}
+
+			if (m_durability != Durability.NONE)
+				commit(appendCount);
 		}
 		catch (IOException ioe)
 		{
@@ -165,6 +264,52 @@ public class FileQueueProcessor extends QueueProcessor
 		}
 	}
 
+	/**
+	 Group commit: waits until everything up to appendCount is on disk.  One
+	 flush covers every event appended before it started, so callers that
+	 queue up behind a flush usually find their events already committed.
+	 */
+	private void commit(long appendCount) throws IOException
+	{
+		if (m_commitCount >= appendCount)
+			return;
+
+		synchronized (m_commitLock)
+		{
+			if (m_commitCount >= appendCount)
+				return;
+
+			long previousCount = m_commitCount;
+			long flushCount;
+			synchronized (m_lock)
+			{
+				flushCount = m_appendCount;
+			}
+
+			//Dictionary entries have to make it to disk with the events that use them
+			m_eventSerializer.sync();
+			m_bigArray.flush();
+			m_commitCount = flushCount;
+			stats.commitSize().put(flushCount - previousCount);
+		}
+	}
+
+	@Override
+	protected void waitForEvents(int count, long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (m_lock)
+		{
+			long remaining = timeout;
+			while (m_memoryQueue.size() < count && remaining > 0 && !m_shuttingDown)
+			{
+				//put notifies on every event so we can stop as soon as there are enough
+				m_lock.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
+
 	@Override
 	protected int getAvailableDataPointEvents()
 	{
@@ -306,6 +451,7 @@ public class FileQueueProcessor extends QueueProcessor
 				try
 				{
 					m_bigArray.removeBeforeIndex(m_completionIndex);
+					m_eventSerializer.removeUnusedDictionary(m_bigArray.get(m_completionIndex));
 				}
 				catch (IOException e)
 				{
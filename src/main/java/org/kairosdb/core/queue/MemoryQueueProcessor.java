@@ -20,7 +20,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  Created by bhawkins on 12/15/16.
  */
-public class MemoryQueueProcessor extends QueueProcessor implements KairosPostConstructInit
+public class MemoryQueueProcessor extends DeliveringQueueProcessor implements KairosPostConstructInit
 {
 	public static final Logger logger = LoggerFactory.getLogger(MemoryQueueProcessor.class);
 	public static final QueueStats stats = MetricSourceManager.getSource(QueueStats.class);
@@ -15,4 +15,7 @@ public interface QueueStats
 	LongCollector processCount(@Key("queue")String queue);
 
 	LongCollector batchStats();
+
+	@Help("Number of events forced to disk by each group commit of the file queue")
+	LongCollector commitSize();
 }
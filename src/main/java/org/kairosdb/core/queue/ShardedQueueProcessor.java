@@ -0,0 +1,246 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.bigqueue.BigArrayImpl;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.BatchReductionEvent;
+import org.kairosdb.events.DataPointEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.kairosdb.core.CoreModule.PAGE_SIZE;
+import static org.kairosdb.core.CoreModule.QUEUE_PATH;
+import static org.kairosdb.core.queue.FileQueueProcessor.SECONDS_TILL_CHECKPOINT;
+
+/**
+ Splits events by row key across a number of lanes.  Each lane is a
+ FileQueueProcessor with its own file queue, delivery thread, batches and
+ checkpoints, so events for the same Cassandra partition are always batched
+ together and delivery is spread over several threads.
+
+ Lanes are kept under queue_path/lane-N.  At startup events left in the
+ queue of the FileQueueProcessor (queue_path/kairos_queue) or in lanes past
+ the lane count, when the lane count is lowered, are moved into the lanes.
+
+ Events are delivered by the lanes, this processor never runs a delivery
+ thread of its own.
+ */
+public class ShardedQueueProcessor extends QueueProcessor
+{
+	public static final Logger logger = LoggerFactory.getLogger(ShardedQueueProcessor.class);
+	public static final String LANE_COUNT = "kairosdb.queue_processor.lane_count";
+	private static final String LANE_PREFIX = "lane-";
+	private static final String QUEUE_NAME = "kairos_queue";
+	private static final int MIGRATION_BATCH_SIZE = 1000;
+
+	private final List<FileQueueProcessor> m_lanes;
+	private final int m_laneCount;
+
+	@Inject
+	public ShardedQueueProcessor(
+			KairosDataPointFactory dataPointFactory,
+			@Named(QUEUE_PATH) String queuePath,
+			@Named(PAGE_SIZE) int pageSize,
+			@Named(LANE_COUNT) int laneCount,
+			@Named(BATCH_SIZE) int batchSize,
+			@Named(MEMORY_QUEUE_SIZE) int memoryQueueSize,
+			@Named(SECONDS_TILL_CHECKPOINT) int secondsTillCheckpoint,
+			@Named(MINIMUM_BATCH_SIZE) int minimumBatchSize,
+			@Named(MINIMUM_BATCH_WAIT) int minBatchWait) throws IOException
+	{
+		checkArgument(laneCount > 0, "Queue processor lane count must be greater than 0");
+
+		m_laneCount = laneCount;
+		m_lanes = new ArrayList<>(laneCount);
+		List<BigArrayImpl> laneArrays = new ArrayList<>(laneCount);
+
+		for (int I = 0; I < laneCount; I++)
+		{
+			String lanePath = new File(queuePath, LANE_PREFIX + I).getPath();
+			BigArrayImpl bigArray = new BigArrayImpl(lanePath, QUEUE_NAME, pageSize);
+			laneArrays.add(bigArray);
+			m_lanes.add(new FileQueueProcessor(
+					new DataPointEventSerializer(dataPointFactory, lanePath),
+					bigArray,
+					Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("QueueProcessor-" + LANE_PREFIX + I).build()),
+					batchSize,
+					Math.max(1, memoryQueueSize / laneCount),
+					secondsTillCheckpoint,
+					minimumBatchSize,
+					minBatchWait,
+					ImmutableMap.of("lane", String.valueOf(I))));
+		}
+
+		//Queue left by the FileQueueProcessor
+		if (new File(queuePath, QUEUE_NAME).isDirectory())
+			migrateQueue(dataPointFactory, queuePath, pageSize, laneArrays);
+
+		//Lanes left from a higher lane count
+		int lanesOnDisk = countLanesOnDisk(new File(queuePath));
+		for (int I = laneCount; I < lanesOnDisk; I++)
+		{
+			String lanePath = new File(queuePath, LANE_PREFIX + I).getPath();
+			if (new File(lanePath, QUEUE_NAME).isDirectory())
+				migrateQueue(dataPointFactory, lanePath, pageSize, laneArrays);
+		}
+	}
+
+	/**
+	 Moves the events of a queue that is no longer used into the lanes.  The
+	 lanes are flushed before the events are removed so a failure part way
+	 only delivers some events twice.
+	 */
+	private void migrateQueue(KairosDataPointFactory dataPointFactory, String queuePath, int pageSize,
+			List<BigArrayImpl> laneArrays) throws IOException
+	{
+		DataPointEventSerializer serializer = new DataPointEventSerializer(dataPointFactory, queuePath);
+		try (BigArrayImpl bigArray = new BigArrayImpl(queuePath, QUEUE_NAME, pageSize))
+		{
+			if (bigArray.isEmpty())
+				return;
+
+			logger.info("Moving {} events from {} into the queue lanes", bigArray.size(), queuePath);
+
+			List<DataPointEvent> events = new ArrayList<>(MIGRATION_BATCH_SIZE);
+			long headIndex = bigArray.getHeadIndex();
+			for (long index = bigArray.getTailIndex(); index != headIndex; index = FileQueueProcessor.incrementIndex(index))
+			{
+				DataPointEvent event = serializer.deserializeEvent(bigArray.get(index));
+				if (event != null)
+					events.add(event);
+
+				if (events.size() == MIGRATION_BATCH_SIZE)
+				{
+					putAll(events);
+					events.clear();
+				}
+			}
+
+			if (!events.isEmpty())
+				putAll(events);
+
+			for (BigArrayImpl laneArray : laneArrays)
+			{
+				laneArray.flush();
+			}
+
+			bigArray.removeAll();
+			serializer.removeUnusedDictionary();
+		}
+		catch (DatastoreException e)
+		{
+			throw new IOException("Unable to move events from " + queuePath, e);
+		}
+	}
+
+	private static int countLanesOnDisk(File queuePath)
+	{
+		int count = 0;
+		File[] files = queuePath.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				if (!file.isDirectory() || !file.getName().startsWith(LANE_PREFIX))
+					continue;
+
+				try
+				{
+					count = Math.max(count, Integer.parseInt(file.getName().substring(LANE_PREFIX.length())) + 1);
+				}
+				catch (NumberFormatException e)
+				{
+					logger.warn("Ignoring unknown queue lane {}", file);
+				}
+			}
+		}
+
+		return count;
+	}
+
+	@Inject(optional = true)
+	public void setDurability(@Named(FileQueueProcessor.DURABILITY) String durability)
+	{
+		for (FileQueueProcessor lane : m_lanes)
+		{
+			lane.setDurability(durability);
+		}
+	}
+
+	/**
+	 Lane for the row key of the event.  The row time is left out so
+	 a series stays on one lane.
+	 */
+	int getLane(DataPointEvent dataPointEvent)
+	{
+		int hash = dataPointEvent.getMetricName().hashCode() * 31 + dataPointEvent.getTags().hashCode();
+		hash ^= (hash >>> 16);
+		return Math.floorMod(hash, m_laneCount);
+	}
+
+	@Override
+	public void put(DataPointEvent dataPointEvent) throws DatastoreException
+	{
+		m_lanes.get(getLane(dataPointEvent)).put(dataPointEvent);
+	}
+
+	@Override
+	public void putAll(List<DataPointEvent> dataPointEvents) throws DatastoreException
+	{
+		List<List<DataPointEvent>> laneEvents = new ArrayList<>(m_laneCount);
+		for (int I = 0; I < m_laneCount; I++)
+		{
+			laneEvents.add(new ArrayList<>());
+		}
+
+		for (DataPointEvent dataPointEvent : dataPointEvents)
+		{
+			laneEvents.get(getLane(dataPointEvent)).add(dataPointEvent);
+		}
+
+		for (int I = 0; I < m_laneCount; I++)
+		{
+			if (!laneEvents.get(I).isEmpty())
+				m_lanes.get(I).putAll(laneEvents.get(I));
+		}
+	}
+
+	@Override
+	public void setProcessorHandler(ProcessorHandler processorHandler)
+	{
+		for (FileQueueProcessor lane : m_lanes)
+		{
+			lane.setProcessorHandler(processorHandler);
+		}
+	}
+
+	@Subscribe
+	public void reduceBatch(BatchReductionEvent reductionEvent)
+	{
+		for (FileQueueProcessor lane : m_lanes)
+		{
+			lane.reduceBatch(reductionEvent);
+		}
+	}
+
+	@Override
+	public void shutdown()
+	{
+		for (FileQueueProcessor lane : m_lanes)
+		{
+			lane.shutdown();
+		}
+	}
+}
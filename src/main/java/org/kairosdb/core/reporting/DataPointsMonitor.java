@@ -57,6 +57,27 @@ public class DataPointsMonitor implements KairosDBService
 		metrics.countMetric(metricName).put(1);
 	}
 
+	/**
+	 Runs of events for the same metric are counted together
+	 */
+	@Subscribe
+	public void dataPoints(List<DataPointEvent> events)
+	{
+		int I = 0;
+		while (I < events.size())
+		{
+			String metricName = events.get(I).getMetricName();
+			int J = I + 1;
+			while (J < events.size() && events.get(J).getMetricName().equals(metricName))
+				J++;
+
+			if (!metricName.startsWith(m_prefix)) //Skip our own metrics.
+				metrics.countMetric(metricName).put(J - I);
+
+			I = J;
+		}
+	}
+
 	@Override
 	public void start() throws KairosDBException
 	{
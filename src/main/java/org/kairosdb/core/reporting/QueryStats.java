@@ -30,6 +30,9 @@ public interface QueryStats
 	//kairosdb.datastore.query_collisions
 	LongCollector queryCollisions();
 
+	//kairosdb.datastore.query_coalesced
+	LongCollector queryCoalesced();
+
 	interface Trace
 	{
 		//kairosdb.log.query.remote_address
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.telnet;
+
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Collects the data points from one read off of a telnet connection so they
+ can be published together once the read is complete.  Not thread safe, each
+ connection has its own batch.
+ */
+public class DataPointBatch
+{
+	private List<DataPointEvent> m_events = new ArrayList<>();
+	private Publisher<DataPointEvent> m_publisher;
+
+	public void add(Publisher<DataPointEvent> publisher, DataPointEvent event)
+	{
+		if (m_publisher != publisher)
+		{
+			publish();
+			m_publisher = publisher;
+		}
+
+		m_events.add(event);
+	}
+
+	public int size()
+	{
+		return m_events.size();
+	}
+
+	public void publish()
+	{
+		if (m_events.isEmpty())
+			return;
+
+		m_publisher.postAll(m_events);
+		m_events = new ArrayList<>();
+	}
+}
@@ -18,13 +18,10 @@ package org.kairosdb.core.telnet;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
-import org.jboss.netty.channel.Channel;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
-import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.util.Util;
-import org.kairosdb.util.ValidationException;
 
 import java.util.List;
 
@@ -38,7 +35,7 @@ public class PutCommand extends PutMillisecondCommand
 	}
 
 	@Override
-	public void execute(Channel chan, List<String> command) throws DatastoreException, ValidationException
+	protected long getTimestamp(List<String> command)
 	{
 		long timestamp = Util.parseLong(command.get(2));
 		//Backwards compatible hack for the next 30 years
@@ -46,7 +43,7 @@ public class PutCommand extends PutMillisecondCommand
 		if (timestamp < 3000000000L)
 			timestamp *= 1000;
 
-		execute(command, timestamp);
+		return timestamp;
 	}
 
 	@Override
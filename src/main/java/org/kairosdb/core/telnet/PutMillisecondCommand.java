@@ -18,7 +18,7 @@ package org.kairosdb.core.telnet;
 
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.inject.Inject;
-import org.jboss.netty.channel.Channel;
+import io.netty.channel.Channel;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
@@ -57,8 +57,18 @@ public class PutMillisecondCommand implements TelnetCommand
 	@Override
 	public void execute(Channel chan, List<String> command) throws DatastoreException, ValidationException
 	{
-		long timestamp = Util.parseLong(command.get(2));
-		execute(command, timestamp);
+		execute(command, getTimestamp(command));
+	}
+
+	@Override
+	public void execute(Channel chan, List<String> command, DataPointBatch batch) throws DatastoreException, ValidationException
+	{
+		batch.add(m_publisher, createEvent(command, getTimestamp(command)));
+	}
+
+	protected long getTimestamp(List<String> command)
+	{
+		return Util.parseLong(command.get(2));
 	}
 
 	protected DataPoint createDataPoint(long timestamp, String value) throws ValidationException
@@ -80,6 +90,11 @@ public class PutMillisecondCommand implements TelnetCommand
 	}
 
 	protected void execute(List<String> command, long timestamp) throws ValidationException, DatastoreException
+	{
+		m_publisher.post(createEvent(command, timestamp));
+	}
+
+	private DataPointEvent createEvent(List<String> command, long timestamp) throws ValidationException
 	{
 		Validator.validateNotNullOrEmpty("metricName", command.get(1));
 
@@ -93,14 +108,22 @@ public class PutMillisecondCommand implements TelnetCommand
 		int tagCount = 0;
 		for (int i = 4; i < command.size(); i++)
 		{
-			String[] tag = command.get(i).split("=");
-			validateTag(tagCount, tag);
+			String tag = command.get(i);
+			int nameEnd = tag.indexOf('=');
+			int valueEnd = nameEnd == -1 ? -1 : tag.indexOf('=', nameEnd + 1);
+			if (valueEnd == -1)
+				valueEnd = tag.length();
 
-			if ("kairos_opt.ttl".equals(tag[0]))
+			validateTag(tagCount, tag, nameEnd, valueEnd);
+
+			String name = tag.substring(0, nameEnd);
+			String value = tag.substring(nameEnd + 1, valueEnd);
+
+			if ("kairos_opt.ttl".equals(name))
 			{
 				try
 				{
-					ttl = Integer.parseInt(tag[1]);
+					ttl = Integer.parseInt(value);
 				}
 				catch (NumberFormatException nfe)
 				{
@@ -110,7 +133,7 @@ public class PutMillisecondCommand implements TelnetCommand
 			}
 			else
 			{
-				tags.put(tag[0], tag[1]);
+				tags.put(name, value);
 				tagCount++;
 			}
 		}
@@ -119,17 +142,25 @@ public class PutMillisecondCommand implements TelnetCommand
 			tags.put("add", "tag");
 
 		stats.request(getCommand()).put(1);
-		m_publisher.post(new DataPointEvent(metricName, tags.build(), dp, ttl));
+		return new DataPointEvent(metricName, tags.build(), dp, ttl);
 	}
 
-	private void validateTag(int tagCount, String[] tag) throws ValidationException
+	/**
+	 Same rules as the tag.split("=") this replaced, there has to be something
+	 other than '=' after the first '='.
+	 */
+	private void validateTag(int tagCount, String tag, int nameEnd, int valueEnd) throws ValidationException
 	{
-		if (tag.length < 2)
+		boolean hasValue = false;
+		for (int i = nameEnd + 1; nameEnd != -1 && i < tag.length() && !hasValue; i++)
+			hasValue = tag.charAt(i) != '=';
+
+		if (!hasValue)
 			throw new ValidationException(String.format("tag[%d] must be in the format 'name=value'.", tagCount));
 
-		Validator.validateNotNullOrEmpty(String.format("tag[%d].name", tagCount), tag[0]);
+		Validator.validateNotNullOrEmpty(String.format("tag[%d].name", tagCount), tag.substring(0, nameEnd));
 
-		Validator.validateNotNullOrEmpty(String.format("tag[%d].value", tagCount), tag[1]);
+		Validator.validateNotNullOrEmpty(String.format("tag[%d].value", tagCount), tag.substring(nameEnd + 1, valueEnd));
 	}
 
 	@Override
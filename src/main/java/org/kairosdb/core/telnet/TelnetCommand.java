@@ -16,7 +16,7 @@
 
 package org.kairosdb.core.telnet;
 
-import org.jboss.netty.channel.Channel;
+import io.netty.channel.Channel;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.util.ValidationException;
 
@@ -28,6 +28,16 @@ public interface TelnetCommand
 
 	public void execute(Channel chan, List<String> command) throws DatastoreException, ValidationException;
 
+	/**
+	 Used by the telnet server.  Data point events can be added to batch, they
+	 are published together once everything read from the connection has
+	 been executed.
+	 */
+	public default void execute(Channel chan, List<String> command, DataPointBatch batch) throws DatastoreException, ValidationException
+	{
+		execute(chan, command);
+	}
+
 	/**
 	 Returns the telnet command this class repsonds to (ie put, version)
 	 @return
@@ -19,12 +19,19 @@ package org.kairosdb.core.telnet;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
-import org.jboss.netty.bootstrap.ServerBootstrap;
-import org.jboss.netty.channel.*;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
-import org.jboss.netty.handler.codec.frame.Delimiters;
-import org.jboss.netty.handler.codec.string.StringEncoder;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.string.StringEncoder;
 import org.kairosdb.core.KairosDBService;
 import org.kairosdb.core.exception.KairosDBException;
 import org.slf4j.Logger;
@@ -34,22 +41,29 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
-public class TelnetServer extends SimpleChannelUpstreamHandler implements ChannelPipelineFactory,
-		KairosDBService
+/**
+ Each connection gets its own handler so the data points from one read are
+ collected into a batch and published when the read is complete instead of
+ one at a time.
+ */
+public class TelnetServer extends ChannelInitializer<SocketChannel> implements KairosDBService
 {
 	private static final Logger logger = LoggerFactory.getLogger(TelnetServer.class);
+	private static final int SHUTDOWN_TIMEOUT = 5;
 
 	private final int port;
 	private final CommandProvider commandProvider;
 	private final int maxCommandLength;
 
 	private InetAddress address;
-	private ServerBootstrap serverBootstrap;
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	private Channel serverChannel;
 
 	public TelnetServer(int port,
 			int maxCommandLength,
@@ -75,24 +89,20 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 	}
 
 	@Override
-	public ChannelPipeline getPipeline() throws Exception
+	protected void initChannel(SocketChannel channel) throws Exception
 	{
-		ChannelPipeline pipeline = Channels.pipeline();
+		ChannelPipeline pipeline = channel.pipeline();
 
 		// Add the text line codec combination first,
-		DelimiterBasedFrameDecoder frameDecoder = new DelimiterBasedFrameDecoder(
-				maxCommandLength, Delimiters.lineDelimiter());
-		pipeline.addLast("framer", frameDecoder);
+		pipeline.addLast("framer", new LineBasedFrameDecoder(maxCommandLength));
 		pipeline.addLast("decoder", new WordSplitter());
 		pipeline.addLast("encoder", new StringEncoder());
 
 		// and then business logic.
-		pipeline.addLast("handler", this);
-
-		return pipeline;
+		pipeline.addLast("handler", new TelnetHandler());
 	}
 
-	private String formatMessage(List<String> msg)
+	private static String formatMessage(List<String> msg)
 	{
 		StringBuilder sb = new StringBuilder();
 		for (String s : msg)
@@ -101,46 +111,6 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		return (sb.toString());
 	}
 
-	@Override
-	public void messageReceived(final ChannelHandlerContext ctx,
-	                            final MessageEvent msgevent)
-	{
-		final Object message = msgevent.getMessage();
-		if (message instanceof List)
-		{
-			@SuppressWarnings("unchecked")
-			List<String> command = (List<String>) message;
-
-			String cmd = "";
-			if (command.size() >= 1)
-				cmd = command.get(0);
-
-			TelnetCommand telnetCommand = commandProvider.getCommand(cmd);
-			if (telnetCommand != null)
-			{
-				try
-				{
-					telnetCommand.execute(msgevent.getChannel(), command);
-				}
-				catch (Exception e)
-				{
-					log("Message: '" + formatMessage(command) + "'", ctx);
-					log("Failed to execute command: " + formatMessage(command) + " Reason: " + e.getMessage(), ctx, e);
-				}
-			}
-			else
-			{
-				log("Message: '" + formatMessage(command) + "'", ctx);
-				log("Unknown command: '" + cmd + "'", ctx);
-			}
-		}
-		else
-		{
-			log("Message: '" + message.toString() + "'", ctx);
-			log("Invalid message. Must be of type String.", ctx);
-		}
-	}
-
 	private static void log(String message, ChannelHandlerContext ctx)
 	{
 		log(message, ctx, null);
@@ -148,7 +118,7 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 
 	private static void log(String message, ChannelHandlerContext ctx, Exception e)
 	{
-		message += " From: " + ((InetSocketAddress) ctx.getChannel().getRemoteAddress()).getAddress().getHostAddress();
+		message += " From: " + ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress();
 		if (logger.isDebugEnabled())
 			if (e != null)
 				logger.debug(message, e);
@@ -163,20 +133,28 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 	@Override
 	public void start() throws KairosDBException
 	{
-		// Configure the server.
-		serverBootstrap = new ServerBootstrap(
-				new NioServerSocketChannelFactory(
-						Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("telnet-boss-%d").build()),
-						Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("telnet-worker-%d").build())));
+		bossGroup = new NioEventLoopGroup(1, new ThreadFactoryBuilder().setNameFormat("telnet-boss-%d").build());
+		workerGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setNameFormat("telnet-worker-%d").build());
 
-		// Configure the pipeline factory.
-		serverBootstrap.setPipelineFactory(this);
-		serverBootstrap.setOption("child.tcpNoDelay", true);
-		serverBootstrap.setOption("child.keepAlive", true);
-		serverBootstrap.setOption("reuseAddress", true);
+		// Configure the server.
+		ServerBootstrap serverBootstrap = new ServerBootstrap()
+				.group(bossGroup, workerGroup)
+				.channel(NioServerSocketChannel.class)
+				.childHandler(this)
+				.option(ChannelOption.SO_REUSEADDR, true)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childOption(ChannelOption.SO_KEEPALIVE, true);
 
 		// Bind and start to accept incoming connections.
-		serverBootstrap.bind(new InetSocketAddress(address, port));
+		try
+		{
+			serverChannel = serverBootstrap.bind(new InetSocketAddress(address, port)).sync().channel();
+		}
+		catch (Exception e)
+		{
+			stop();
+			throw new KairosDBException("Unable to start telnet server on port " + port, e);
+		}
 	}
 
 	public InetAddress getAddress()
@@ -187,13 +165,73 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 	@Override
 	public void stop()
 	{
-		if (serverBootstrap != null)
-			serverBootstrap.shutdown();
+		if (serverChannel != null)
+			serverChannel.close().syncUninterruptibly();
+
+		//Queued tasks still run, there is no need to wait for a quiet period
+		if (bossGroup != null)
+			bossGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+
+		if (workerGroup != null)
+			workerGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT, TimeUnit.SECONDS).syncUninterruptibly();
+
+		if (bossGroup != null)
+			bossGroup.terminationFuture().syncUninterruptibly();
+
+		serverChannel = null;
+		bossGroup = null;
+		workerGroup = null;
 	}
 
-	@Override
-	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception
+	private class TelnetHandler extends SimpleChannelInboundHandler<List<String>>
 	{
-		logger.error("Error in TelnetServer", e.getCause());
+		private final DataPointBatch batch = new DataPointBatch();
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, List<String> command)
+		{
+			String cmd = "";
+			if (command.size() >= 1)
+				cmd = command.get(0);
+
+			TelnetCommand telnetCommand = commandProvider.getCommand(cmd);
+			if (telnetCommand != null)
+			{
+				try
+				{
+					telnetCommand.execute(ctx.channel(), command, batch);
+				}
+				catch (Exception e)
+				{
+					log("Message: '" + formatMessage(command) + "'", ctx);
+					log("Failed to execute command: " + formatMessage(command) + " Reason: " + e.getMessage(), ctx, e);
+				}
+			}
+			else
+			{
+				log("Message: '" + formatMessage(command) + "'", ctx);
+				log("Unknown command: '" + cmd + "'", ctx);
+			}
+		}
+
+		@Override
+		public void channelReadComplete(ChannelHandlerContext ctx)
+		{
+			batch.publish();
+			ctx.flush();
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception
+		{
+			batch.publish();
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			logger.error("Error in TelnetServer", cause);
+		}
 	}
 }
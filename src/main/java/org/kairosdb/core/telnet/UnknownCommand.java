@@ -16,7 +16,7 @@
 
 package org.kairosdb.core.telnet;
 
-import org.jboss.netty.channel.Channel;
+import io.netty.channel.Channel;
 
 import java.util.List;
 
@@ -26,7 +26,7 @@ public class UnknownCommand implements TelnetCommand
 	public void execute(Channel chan, List<String> command)
 	{
 		//logWarn(chan, "unknown command : " + Arrays.toString(cmd));
-		chan.write("unknown command: " + command.get(0) + ".  Try `help'.\n");
+		chan.writeAndFlush("unknown command: " + command.get(0) + ".  Try `help'.\n");
 	}
 
 	@Override
@@ -16,18 +16,20 @@
 
 package org.kairosdb.core.telnet;
 
-import com.google.common.base.CharMatcher;
-import com.google.common.base.Splitter;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
-public class WordSplitter extends OneToOneDecoder
+/**
+ Splits a line into words.  The words are read straight out of the frame
+ buffer without first copying the whole line into a String.
+ */
+public class WordSplitter extends MessageToMessageDecoder<ByteBuf>
 {
 	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
 
@@ -39,35 +41,36 @@ public class WordSplitter extends OneToOneDecoder
 	}
 
 	@Override
-	protected Object decode(final ChannelHandlerContext ctx,
-	                        final Channel channel,
-	                        final Object msg) throws Exception
+	protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception
 	{
-		return splitString(((ChannelBuffer) msg).toString(CHARSET));
+		out.add(splitBuffer(msg));
 	}
 
-
-	private static String[] arrayType = new String[0];
-
 	protected static List<String> splitString(final String s)
+	{
+		return splitBuffer(Unpooled.wrappedBuffer(s.getBytes(CHARSET)));
+	}
+
+	protected static List<String> splitBuffer(final ByteBuf buf)
 	{
 		List<String> ret = new ArrayList<String>();
-		int len = s.length();
+		int offset = buf.readerIndex();
+		int end = buf.writerIndex();
 		boolean quoted = false;
-		int start = 0;
+		int start = offset;
 		char prev = ' ';
 		char c = ' ';
 
-		for (int i = 0; i < len; i++)
+		for (int i = offset; i < end; i++)
 		{
-			c = s.charAt(i);
+			c = (char) (buf.getByte(i) & 0xFF);
 
 			//Normal word break
 			if (c <= ' ' && !quoted)
 			{
 				if (i > start)
 				{
-					ret.add(s.substring(start, i));
+					ret.add(buf.toString(start, i - start, CHARSET));
 				}
 
 				start = i+1;
@@ -89,7 +92,7 @@ public class WordSplitter extends OneToOneDecoder
 			{
 				if (i > start)
 				{
-					ret.add(s.substring(start, i-1));
+					ret.add(buf.toString(start, i - 1 - start, CHARSET));
 				}
 
 				quoted = false;
@@ -102,12 +105,12 @@ public class WordSplitter extends OneToOneDecoder
 
 		}
 
-		if (start != s.length())
+		if (start != end)
 		{
 			if (quoted && c == '"')
-				ret.add(s.substring(start, s.length()-1));
+				ret.add(buf.toString(start, end - 1 - start, CHARSET));
 			else
-				ret.add(s.substring(start, s.length()));
+				ret.add(buf.toString(start, end - start, CHARSET));
 		}
 
 		return ret;
@@ -18,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -74,7 +75,13 @@ public class BatchHandler extends RetryCallable
 	}
 
 
-	private void loadBatch(int limit, CQLBatch batch, Iterator<DataPointEvent> events) throws Exception
+	/**
+	 @param rowKeyEvents Filled with events for the new row keys, they are
+	 posted once the batch is written so readers don't cache the index
+	 without the new keys
+	 */
+	private void loadBatch(int limit, CQLBatch batch, Iterator<DataPointEvent> events,
+			List<RowKeyEvent> rowKeyEvents) throws Exception
 	{
 		int count = 0;
 		while (events.hasNext() && count < limit)
@@ -147,8 +154,7 @@ public class BatchHandler extends RetryCallable
 
 				String cachedName = cachedRowKey.getMetricName();
 
-
-				m_rowKeyPublisher.post(new RowKeyEvent(cachedName, cachedRowKey, rowKeyTtl));
+				rowKeyEvents.add(new RowKeyEvent(cachedName, cachedRowKey, rowKeyTtl));
 
 				TimedString metricNameTime = new TimedString(cachedName, rowTime);
 
@@ -209,10 +215,16 @@ public class BatchHandler extends RetryCallable
 					/*CQLBatch batch = new CQLBatch(m_consistencyLevel, m_session, m_schema,
 							m_batchStats, m_loadBalancingPolicy);*/
 
-					loadBatch(limit, lastBatch, events);
+					List<RowKeyEvent> rowKeyEvents = new ArrayList<>();
+					loadBatch(limit, lastBatch, events, rowKeyEvents);
 
 					lastBatch.submitBatch();
 
+					for (RowKeyEvent rowKeyEvent : rowKeyEvents)
+					{
+						m_rowKeyPublisher.post(rowKeyEvent);
+					}
+
 				}
 
 			}
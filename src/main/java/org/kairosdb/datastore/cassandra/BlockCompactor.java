@@ -0,0 +1,239 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.scheduler.KairosDBJob;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Trigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.kairosdb.datastore.cassandra.CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+/**
+ Rewrites the compressed blocks of a closed block window into a single block.
+
+ A write batch writes one block per series and block window so at normal
+ ingest rates a window ends up with many small blocks.  Each window a block is
+ written to is remembered and once the window has been closed for the
+ compaction delay its blocks are read, merged and written back as one block
+ before the small blocks are deleted.  The merged block is written first so a
+ failure part way leaves duplicates that are removed on read, never missing
+ data.
+
+ Windows are only remembered in memory, windows written before a restart are
+ left as they are.
+ */
+@DisallowConcurrentExecution
+public class BlockCompactor implements KairosDBJob
+{
+	public static final Logger logger = LoggerFactory.getLogger(BlockCompactor.class);
+	private static final int MAX_PENDING_WINDOWS = 1000000;
+
+	private final ClusterConnection m_writeCluster;
+	private final CassandraModule.CQLBatchFactory m_cqlBatchFactory;
+	private final long m_compactionDelay;
+	private final Set<BlockWindow> m_pendingWindows = ConcurrentHashMap.newKeySet();
+
+	@Inject
+	public BlockCompactor(@Named("write_cluster") ClusterConnection writeCluster,
+			CassandraModule.CQLBatchFactory cqlBatchFactory,
+			CassandraConfiguration configuration)
+	{
+		this(writeCluster, cqlBatchFactory, configuration.getWriteCluster().getBlockCompactionDelay());
+	}
+
+	/**
+	 @param compactionDelay Milliseconds after a window closes before it is
+	 compacted, 0 disables compaction
+	 */
+	public BlockCompactor(ClusterConnection writeCluster, CassandraModule.CQLBatchFactory cqlBatchFactory,
+			long compactionDelay)
+	{
+		m_writeCluster = writeCluster;
+		m_cqlBatchFactory = cqlBatchFactory;
+		m_compactionDelay = compactionDelay;
+	}
+
+	/**
+	 Called when a block is written to the window.
+	 */
+	public void blockWritten(DataPointsRowKey rowKey, int blockStart)
+	{
+		if (m_compactionDelay <= 0 || m_pendingWindows.size() >= MAX_PENDING_WINDOWS)
+			return;
+
+		m_pendingWindows.add(new BlockWindow(rowKey, blockStart));
+	}
+
+	public int getPendingWindowCount()
+	{
+		return m_pendingWindows.size();
+	}
+
+	/**
+	 Compacts the windows that closed at least the compaction delay before now.
+	 */
+	public void compactClosedWindows(long now)
+	{
+		RowSpec rowSpec = m_writeCluster.getRowSpec();
+		List<BlockWindow> closed = new ArrayList<>();
+
+		Iterator<BlockWindow> it = m_pendingWindows.iterator();
+		while (it.hasNext())
+		{
+			BlockWindow window = it.next();
+			long windowEnd = rowSpec.getColumnTimestamp(window.m_rowKey.getTimestamp(),
+					(int)(window.m_blockStart + rowSpec.getBlockWidth()));
+
+			if (windowEnd + m_compactionDelay <= now)
+			{
+				it.remove();
+				closed.add(window);
+			}
+		}
+
+		for (BlockWindow window : closed)
+		{
+			try
+			{
+				compact(window.m_rowKey, window.m_blockStart);
+			}
+			catch (Exception e)
+			{
+				logger.error("Failed to compact blocks for " + window.m_rowKey, e);
+			}
+		}
+	}
+
+	/**
+	 Merges all blocks in the window into one.  Returns the number of blocks
+	 that were replaced.
+	 */
+	public int compact(DataPointsRowKey rowKey, int blockStart)
+	{
+		RowSpec rowSpec = m_writeCluster.getRowSpec();
+		boolean isDouble = DataPointBlock.isDoubleType(rowKey.getDataType());
+
+		ByteBuffer startBuffer = ByteBuffer.allocate(4);
+		startBuffer.putInt(blockStart);
+		startBuffer.rewind();
+
+		ByteBuffer endBuffer = ByteBuffer.allocate(4);
+		endBuffer.putInt((int)(blockStart + rowSpec.getBlockWidth()));
+		endBuffer.rewind();
+
+		BoundStatement statement = new BoundStatement(m_writeCluster.psDataPointsQueryWithTtl);
+		statement.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
+		statement.setBytesUnsafe(1, startBuffer);
+		statement.setBytesUnsafe(2, endBuffer);
+		statement.setConsistencyLevel(m_writeCluster.getReadConsistencyLevel());
+
+		ResultSet resultSet = m_writeCluster.execute(statement);
+		DataPointBlock merged = new DataPointBlock(isDouble);
+		List<ByteBuffer> blockColumns = new ArrayList<>();
+		int ttl = -1;
+		while (!resultSet.isExhausted())
+		{
+			Row row = resultSet.one();
+			ByteBuffer columnName = row.getBytes(0);
+			if (!DataPointBlock.isBlockColumn(columnName))
+				continue;
+
+			DataPointBlock.decode(row.getBytes(1), merged);
+			blockColumns.add(columnName);
+
+			//Merged block keeps the longest ttl the same as when blocks are built
+			int blockTtl = row.getInt(2);
+			if (ttl == -1)
+				ttl = blockTtl;
+			else if (ttl != 0)
+				ttl = (blockTtl == 0) ? 0 : Math.max(ttl, blockTtl);
+		}
+
+		if (blockColumns.size() < 2)
+			return 0;
+
+		merged.sortAndDedupe();
+
+		CQLBatch writeBatch = m_cqlBatchFactory.create();
+		writeBatch.addDataPointBlock(rowKey, merged, ttl);
+		writeBatch.submitBatch();
+
+		CQLBatch deleteBatch = m_cqlBatchFactory.create();
+		for (ByteBuffer columnName : blockColumns)
+		{
+			deleteBatch.deleteDataPointBlock(rowKey, columnName);
+		}
+		deleteBatch.submitBatch();
+
+		return blockColumns.size();
+	}
+
+	@Override
+	public Trigger getTrigger()
+	{
+		return newTrigger()
+				.withIdentity(this.getClass().getSimpleName())
+				.withSchedule(simpleSchedule()
+						.withIntervalInMinutes(1)
+						.repeatForever())
+				.build();
+	}
+
+	@Override
+	public void interrupt()
+	{
+	}
+
+	@Override
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException
+	{
+		RowSpec rowSpec = m_writeCluster.getRowSpec();
+		if (rowSpec != null && rowSpec.hasBlocks())
+			compactClosedWindows(System.currentTimeMillis());
+	}
+
+	private static class BlockWindow
+	{
+		private final DataPointsRowKey m_rowKey;
+		private final int m_blockStart;
+
+		private BlockWindow(DataPointsRowKey rowKey, int blockStart)
+		{
+			m_rowKey = rowKey;
+			m_blockStart = blockStart;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			BlockWindow that = (BlockWindow) o;
+			return m_blockStart == that.m_blockStart &&
+					m_rowKey.equals(that.m_rowKey);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(m_rowKey, m_blockStart);
+		}
+	}
+}
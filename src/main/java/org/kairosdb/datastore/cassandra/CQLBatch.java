@@ -4,8 +4,17 @@ import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.metrics4j.MetricSourceManager;
 import org.kairosdb.core.annotation.InjectProperty;
@@ -19,12 +28,18 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.kairosdb.datastore.cassandra.CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER;
 import static org.kairosdb.datastore.cassandra.CassandraDatastore.ROW_KEY_METRIC_NAMES;
 import static org.kairosdb.datastore.cassandra.ClusterConnection.DATA_POINTS_TABLE_NAME;
@@ -38,6 +53,7 @@ public class CQLBatch
 	public static final Logger logger = LoggerFactory.getLogger(CQLBatch.class);
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
 	public static final String METRIC_INDEX_FILTER_PREFIX = "kairosdb.metric_index_filter.prefix";
+	public static final String WRITE_BATCH_CONCURRENCY = "kairosdb.datastore.cassandra.write_batch_concurrency";
 
 	private final ClusterConnection m_clusterConnection;
 	//private final BatchStats m_batchStats;
@@ -49,7 +65,9 @@ public class CQLBatch
 	private long m_rowKeyTimeIndexCount = 0;
 	private long m_tagIndexedRowKeysCount = 0;
 
-	private Map<Host, BatchStatement> m_batchMap = new HashMap<>();
+	//Data point batches keyed by the replicas of the partitions in them
+	private Map<Set<Host>, BatchStatement> m_batchMap = new HashMap<>();
+	private int m_writeConcurrency = 8;
 
 	private BatchStatement m_metricNamesBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
 	private BatchStatement m_dataPointBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
@@ -60,6 +78,11 @@ public class CQLBatch
 
 	private List<String> m_prefixFilterList = new ArrayList<>();
 
+	//Data points for rows written as compressed blocks, flushed when the batch is submitted
+	private Map<BlockKey, PendingBlock> m_pendingBlocks = new HashMap<>();
+	private final int m_blockSalt = ThreadLocalRandom.current().nextInt();
+	private BlockCompactor m_blockCompactor;
+
 
 	@Inject
 	public CQLBatch(
@@ -84,6 +107,25 @@ public class CQLBatch
 		m_prefixFilterList = list;
 	}
 
+	/**
+	 Number of data point batches from one submit that are sent at the same time
+	 */
+	@InjectProperty(prop = WRITE_BATCH_CONCURRENCY, optional = true)
+	public void setWriteConcurrency(int writeConcurrency)
+	{
+		checkArgument(writeConcurrency > 0, "write_batch_concurrency must be at least 1");
+		m_writeConcurrency = writeConcurrency;
+	}
+
+	/**
+	 Windows that blocks are written to are handed to the compactor
+	 */
+	@Inject
+	public void setBlockCompactor(BlockCompactor blockCompactor)
+	{
+		m_blockCompactor = blockCompactor;
+	}
+
 	public void addTimeIndex(String metricName, long rowKeyTime, int rowKeyTtl)
 	{
 		Statement bs = m_clusterConnection.psRowKeyTimeInsert.bind()
@@ -153,19 +195,28 @@ public class CQLBatch
 		}
 	}
 
-	private void addBoundStatement(BoundStatement boundStatement)
+	/**
+	 Groups the statement with others whose partitions live on the same
+	 replicas so each batch can go to a replica as coordinator.
+	 */
+	private void addBoundStatement(BoundStatement boundStatement, ByteBuffer partitionKey)
 	{
-		Iterator<Host> hosts = m_loadBalancingPolicy.newQueryPlan(m_clusterConnection.getKeyspace(), boundStatement);
-		if (hosts.hasNext())
+		Set<Host> replicas = getReplicas(partitionKey);
+		if (replicas.isEmpty())
 		{
-			Host hostKey = hosts.next();
+			Iterator<Host> hosts = m_loadBalancingPolicy.newQueryPlan(m_clusterConnection.getKeyspace(), boundStatement);
+			if (hosts.hasNext())
+				replicas = Collections.singleton(hosts.next());
+		}
 
-			BatchStatement batchStatement = m_batchMap.get(hostKey);
+		if (!replicas.isEmpty())
+		{
+			BatchStatement batchStatement = m_batchMap.get(replicas);
 			if (batchStatement == null)
 			{
 				batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
 				batchStatement.setConsistencyLevel(m_consistencyLevel);
-				m_batchMap.put(hostKey, batchStatement);
+				m_batchMap.put(replicas, batchStatement);
 			}
 			batchStatement.add(boundStatement);
 		}
@@ -175,10 +226,21 @@ public class CQLBatch
 		}
 	}
 
+	private Set<Host> getReplicas(ByteBuffer partitionKey)
+	{
+		Session session = m_clusterConnection.getSession();
+		if (session == null)
+			return Collections.emptySet();
+
+		return session.getCluster().getMetadata().getReplicas(
+				Metadata.quote(m_clusterConnection.getKeyspace()), partitionKey);
+	}
+
 	public void deleteDataPoint(DataPointsRowKey rowKey, int columnTime) throws IOException
 	{
+		ByteBuffer partitionKey = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey);
 		BoundStatement boundStatement = new BoundStatement(m_clusterConnection.psDataPointsDelete);
-		boundStatement.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
+		boundStatement.setBytesUnsafe(0, partitionKey);
 		ByteBuffer b = ByteBuffer.allocate(4);
 		b.putInt(columnTime);
 		b.rewind();
@@ -187,17 +249,38 @@ public class CQLBatch
 		boundStatement.setConsistencyLevel(m_consistencyLevel);
 		boundStatement.setIdempotent(true);
 
-		addBoundStatement(boundStatement);
+		addBoundStatement(boundStatement, partitionKey);
+	}
+
+	public void deleteDataPointBlock(DataPointsRowKey rowKey, ByteBuffer blockColumnName)
+	{
+		ByteBuffer partitionKey = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey);
+		BoundStatement boundStatement = new BoundStatement(m_clusterConnection.psDataPointsDelete);
+		boundStatement.setBytesUnsafe(0, partitionKey);
+		boundStatement.setBytesUnsafe(1, blockColumnName);
+
+		boundStatement.setConsistencyLevel(m_consistencyLevel);
+		boundStatement.setIdempotent(true);
+
+		addBoundStatement(boundStatement, partitionKey);
 	}
 
 	public void addDataPoint(DataPointsRowKey rowKey, int columnTime,
 			DataPoint dataPoint, int ttl) throws IOException
 	{
+		RowSpec rowSpec = m_clusterConnection.getRowSpec();
+		if (rowSpec.isWriteBlocks() && DataPointBlock.isSupported(dataPoint))
+		{
+			addToBlock(rowSpec, rowKey, columnTime, dataPoint, ttl);
+			return;
+		}
+
 		KDataOutput kDataOutput = new KDataOutput();
 		dataPoint.writeValueToBuffer(kDataOutput);
 
+		ByteBuffer partitionKey = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey);
 		BoundStatement boundStatement = new BoundStatement(m_clusterConnection.psDataPointsInsert);
-		boundStatement.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
+		boundStatement.setBytesUnsafe(0, partitionKey);
 		ByteBuffer b = ByteBuffer.allocate(4);
 		b.putInt(columnTime);
 		b.rewind();
@@ -208,41 +291,140 @@ public class CQLBatch
 		boundStatement.setConsistencyLevel(m_consistencyLevel);
 		boundStatement.setIdempotent(true);
 
-		addBoundStatement(boundStatement);
+		addBoundStatement(boundStatement, partitionKey);
+	}
+
+	private void addToBlock(RowSpec rowSpec, DataPointsRowKey rowKey, int columnTime,
+			DataPoint dataPoint, int ttl)
+	{
+		BlockKey key = new BlockKey(rowKey, rowSpec.getBlockStart(columnTime));
+
+		PendingBlock pendingBlock = m_pendingBlocks.get(key);
+		if (pendingBlock == null)
+		{
+			pendingBlock = new PendingBlock(DataPointBlock.isDoubleType(dataPoint.getDataStoreDataType()), ttl);
+			m_pendingBlocks.put(key, pendingBlock);
+		}
+		else if (pendingBlock.m_ttl != 0)
+		{
+			//Block keeps the longest ttl of the data points in it
+			pendingBlock.m_ttl = (ttl == 0) ? 0 : Math.max(ttl, pendingBlock.m_ttl);
+		}
+
+		pendingBlock.m_block.add(columnTime, dataPoint);
+	}
+
+	/**
+	 Adds a pre built block to the batch.  The block must be sorted and all data
+	 points must fall within a single block window of the row.
+	 */
+	public void addDataPointBlock(DataPointsRowKey rowKey, DataPointBlock block, int ttl)
+	{
+		if (block.size() == 0)
+			return;
+
+		ByteBuffer partitionKey = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey);
+		BoundStatement boundStatement = new BoundStatement(m_clusterConnection.psDataPointsInsert);
+		boundStatement.setBytesUnsafe(0, partitionKey);
+		boundStatement.setBytesUnsafe(1, DataPointBlock.createColumnName(block.getColumn(0), m_now, m_blockSalt));
+		boundStatement.setBytesUnsafe(2, block.encode());
+		boundStatement.setInt(3, ttl);
+		boundStatement.setLong(4, m_now);
+		boundStatement.setConsistencyLevel(m_consistencyLevel);
+		boundStatement.setIdempotent(true);
+
+		addBoundStatement(boundStatement, partitionKey);
+		metrics.writeBatchSize("data_point_blocks").put(block.size());
+	}
+
+	private void flushBlocks()
+	{
+		for (Map.Entry<BlockKey, PendingBlock> entry : m_pendingBlocks.entrySet())
+		{
+			DataPointBlock block = entry.getValue().m_block;
+			block.sortAndDedupe();
+			addDataPointBlock(entry.getKey().m_rowKey, block, entry.getValue().m_ttl);
+
+			if (m_blockCompactor != null)
+				m_blockCompactor.blockWritten(entry.getKey().m_rowKey, entry.getKey().m_blockStart);
+		}
+
+		m_pendingBlocks.clear();
 	}
 
 	public void submitBatch()
 	{
+		flushBlocks();
+
 		if (m_metricNamesBatch.size() != 0)
 		{
 			m_clusterConnection.executeAsync(m_metricNamesBatch);
 			metrics.writeBatchSize("string_index").put(m_metricNamesBatch.size());
 		}
 
+		//Row keys are waited for so they can be read once the batch is submitted
+		ListenableFuture<ResultSet> rowKeyFuture = Futures.immediateFuture(null);
 		if (m_rowKeyBatch.size() != 0)
 		{
-			m_clusterConnection.executeAsync(m_rowKeyBatch);
+			rowKeyFuture = m_clusterConnection.executeAsync(m_rowKeyBatch);
 			metrics.writeBatchSize("row_keys").put(m_rowKeyBatch.size());
 			metrics.writeBatchSize("row_key_time_index").put(m_rowKeyTimeIndexCount);
 			metrics.writeBatchSize("tag_indexed_row_keys").put(m_tagIndexedRowKeysCount);
 		}
 
-		for (BatchStatement batchStatement : m_batchMap.values())
+		List<BatchStatement> dataPointBatches = new ArrayList<>(m_batchMap.values());
+		//Catch all in case of a load balancing problem
+		dataPointBatches.add(m_dataPointBatch);
+
+		waitForBatches(Futures.allAsList(executeBatches(dataPointBatches), rowKeyFuture));
+	}
+
+	/**
+	 Sends the batches asynchronously with at most m_writeConcurrency of them
+	 in flight at a time.
+	 */
+	private ListenableFuture<List<ResultSet>> executeBatches(List<BatchStatement> batches)
+	{
+		Semaphore inFlight = new Semaphore(m_writeConcurrency);
+		List<ListenableFuture<ResultSet>> futures = new ArrayList<>(batches.size());
+
+		for (BatchStatement batchStatement : batches)
 		{
-			//batchStatement.enableTracing();
-			if (batchStatement.size() != 0)
+			if (batchStatement.size() == 0)
+				continue;
+
+			inFlight.acquireUninterruptibly();
+			ResultSetFuture future;
+			try
 			{
-				m_clusterConnection.execute(batchStatement);
-				//System.out.println(resultSet.getExecutionInfo().getQueryTrace().getTraceId());
-				metrics.writeBatchSize("data_points").put(batchStatement.size());
+				future = m_clusterConnection.executeAsync(batchStatement);
 			}
+			catch (RuntimeException e)
+			{
+				inFlight.release();
+				futures.forEach(f -> f.cancel(false));
+				throw e;
+			}
+
+			future.addListener(inFlight::release, MoreExecutors.directExecutor());
+			futures.add(future);
+			metrics.writeBatchSize("data_points").put(batchStatement.size());
 		}
 
-		//Catch all in case of a load balancing problem
-		if (m_dataPointBatch.size() != 0)
+		return Futures.allAsList(futures);
+	}
+
+	private static void waitForBatches(ListenableFuture<?> batches)
+	{
+		try
+		{
+			Uninterruptibles.getUninterruptibly(batches);
+		}
+		catch (ExecutionException e)
 		{
-			m_clusterConnection.execute(m_dataPointBatch);
-			metrics.writeBatchSize("data_points").put(m_dataPointBatch.size());
+			//Rethrow driver exceptions as is so they can be retried
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new RuntimeException(e.getCause());
 		}
 	}
 
@@ -255,4 +437,44 @@ public class CQLBatch
 	{
 		return m_newMetrics;
 	}
+
+	private static class BlockKey
+	{
+		private final DataPointsRowKey m_rowKey;
+		private final int m_blockStart;
+
+		public BlockKey(DataPointsRowKey rowKey, int blockStart)
+		{
+			m_rowKey = rowKey;
+			m_blockStart = blockStart;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			BlockKey blockKey = (BlockKey) o;
+			return m_blockStart == blockKey.m_blockStart &&
+					m_rowKey.equals(blockKey.m_rowKey);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * m_rowKey.hashCode() + m_blockStart;
+		}
+	}
+
+	private static class PendingBlock
+	{
+		private final DataPointBlock m_block;
+		private int m_ttl;
+
+		public PendingBlock(boolean isDouble, int ttl)
+		{
+			m_block = new DataPointBlock(isDouble);
+			m_ttl = ttl;
+		}
+	}
 }
@@ -2,12 +2,14 @@ package org.kairosdb.datastore.cassandra;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.name.Named;
@@ -16,7 +18,9 @@ import org.kairosdb.metrics4j.MetricSourceManager;
 
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static org.kairosdb.core.KairosConfigProperties.QUERIES_REGEX_PREFIX;
@@ -25,15 +29,28 @@ import static org.kairosdb.datastore.cassandra.ClusterConnection.DATA_POINTS_TAB
 public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 {
 	private static final CassandraStats stats = MetricSourceManager.getSource(CassandraStats.class);
+	private static final int PREFETCH_ROWS = 500;
 
 	private final SetMultimap<String, String> m_filterTags;
 	private final Set<String> m_filterTagNames;
 	private DataPointsRowKey m_nextKey;
-	private final Iterator<ResultSet> m_resultSets;
-	private ResultSet m_currentResultSet;
+	//Index queries are read in the order they arrive
+	private final BlockingQueue<Iterator<DataPointsRowKey>> m_arrivedSources = new LinkedBlockingQueue<>();
+	//Index queries that have been sent but not taken from m_arrivedSources
+	private final AtomicInteger m_pendingSources = new AtomicInteger();
+	private Iterator<DataPointsRowKey> m_currentSource = Collections.emptyIterator();
 	private final String m_metricName;
 	private final String m_clusterName;
 	private final RowSpec m_rowSpec;
+	private final RowKeyLookupCache m_lookupCache;
+	private final long m_lookupGeneration;
+	private final RowKeyTagIndex m_tagIndex;
+	private final long m_tagIndexGeneration;
+	//The row key lookup returns whole buckets so they go in the tag index
+	private final boolean m_indexBuckets;
+	//Most row keys of a bucket worth keeping for the index or cache, 0 when neither is used
+	private final long m_maxBufferedKeys;
+	private final long m_queryStart;
 	private int m_rawRowKeyCount = 0;
 	private Map<String, Pattern> m_patternFilter;
 	private Set<DataPointsRowKey> m_returnedKeys;  //keep from returning duplicates, querying old and new indexes
@@ -46,7 +63,9 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 			@Assisted("startTime") long startTime,
 			@Assisted("endTime") long endTime,
 			@Assisted SetMultimap<String, String> filterTags,
-			@Named(QUERIES_REGEX_PREFIX) String regexPrefix) throws DatastoreException
+			@Named(QUERIES_REGEX_PREFIX) String regexPrefix,
+			RowKeyLookupCache lookupCache,
+			RowKeyTagIndex tagIndex) throws DatastoreException
 	{
 		m_filterTags = HashMultimap.create();
 		m_filterTagNames = new HashSet<>();
@@ -80,9 +99,20 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 
 		m_metricName = metricName;
 		m_clusterName = cluster.getClusterName();
-		List<ListenableFuture<ResultSet>> futures = new ArrayList<>();
+		m_lookupCache = lookupCache;
+		m_lookupGeneration = lookupCache.getGeneration(metricName);
+		m_tagIndex = tagIndex;
+		m_tagIndexGeneration = tagIndex.getGeneration(metricName);
+		RowKeyLookup rowKeyLookup = cluster.getRowKeyLookupForMetric(metricName);
+		m_indexBuckets = tagIndex.isEnabled() && rowKeyLookup.returnsAllRowKeys();
+		if (m_indexBuckets)
+			m_maxBufferedKeys = tagIndex.getMaxBucketSize();
+		else if (lookupCache.isEnabled())
+			m_maxBufferedKeys = lookupCache.getMaxEntrySize();
+		else
+			m_maxBufferedKeys = 0;
 		m_returnedKeys = new HashSet<>();
-		long timerStart = System.currentTimeMillis();
+		m_queryStart = System.currentTimeMillis();
 
 		//Legacy key index - index is all in one row
 		if ((startTime < 0) && (endTime >= 0))
@@ -92,18 +122,14 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 			setStartEndKeys(negStatement, metricName, startTime, -1L);
 			negStatement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			ResultSetFuture future = cluster.executeAsync(negStatement);
-
-			futures.add(future);
+			addSource(cluster.executeAsync(negStatement), null);
 
 			BoundStatement posStatement = new BoundStatement(cluster.psRowKeyIndexQuery);
 			posStatement.setBytesUnsafe(0, CassandraDatastore.serializeString(metricName));
 			setStartEndKeys(posStatement, metricName, 0L, endTime);
 			posStatement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			future = cluster.executeAsync(posStatement);
-
-			futures.add(future);
+			addSource(cluster.executeAsync(posStatement), null);
 
 		}
 		else
@@ -113,40 +139,67 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 			setStartEndKeys(statement, metricName, startTime, endTime);
 			statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			ResultSetFuture future = cluster.executeAsync(statement);
-
-			futures.add(future);
+			addSource(cluster.executeAsync(statement), null);
 		}
 
-		//System.out.println();
-		//New index query index is broken up by time tier
-		RowKeyLookup rowKeyLookup = cluster.getRowKeyLookupForMetric(metricName);
-		List<Long> queryKeyList = createQueryKeyList(cluster, metricName, startTime, endTime);
-		for (Long keyTime : queryKeyList)
+		//New index query index is broken up by time tier, the tiers are read
+		//as soon as the time index returns
+		queryTimeIndex(cluster, rowKeyLookup, metricName, startTime, endTime);
+	}
+
+	/**
+	 Adds an index query, its keys are returned once the first page arrives.
+	 @param rowTime Time tier of the query or null for the legacy index
+	 */
+	private void addSource(ListenableFuture<ResultSet> future, Long rowTime)
+	{
+		m_pendingSources.incrementAndGet();
+		Futures.addCallback(future, new FutureCallback<ResultSet>()
 		{
-			futures.add(rowKeyLookup.queryRowKeys(metricName, keyTime, m_filterTags));
-		}
+			@Override
+			public void onSuccess(ResultSet result)
+			{
+				m_arrivedSources.add(new ResultSetKeyIterator(result, rowTime));
+			}
+
+			@Override
+			public void onFailure(Throwable t)
+			{
+				m_arrivedSources.add(new FailedKeyIterator(t));
+			}
+		}, MoreExecutors.directExecutor());
+	}
 
-		ListenableFuture<List<ResultSet>> listListenableFuture = Futures.allAsList(futures);
+	private void addSource(List<DataPointsRowKey> rowKeys)
+	{
+		m_pendingSources.incrementAndGet();
+		m_arrivedSources.add(rowKeys.iterator());
+	}
 
+	/**
+	 Returns the next index query to arrive, blocking until one does, or null
+	 if all have been read.
+	 */
+	private Iterator<DataPointsRowKey> nextSource()
+	{
+		if (m_pendingSources.get() == 0)
+			return null;
+
+		Iterator<DataPointsRowKey> source;
 		try
 		{
-			m_resultSets = listListenableFuture.get().iterator();
-			if (m_resultSets.hasNext())
-				m_currentResultSet = m_resultSets.next();
-
-			//ThreadReporter.addDataPoint(CassandraDatastore.KEY_QUERY_TIME, System.currentTimeMillis() - timerStart);
-			//ThreadReporter.reportKeyQueryTime(Duration.ofMillis(System.currentTimeMillis() - timerStart));
-			stats.keyQueryTime().put(Duration.ofMillis(System.currentTimeMillis() - timerStart));
+			source = m_arrivedSources.take();
 		}
 		catch (InterruptedException e)
 		{
-			throw new DatastoreException("Index query interrupted", e);
-		}
-		catch (ExecutionException e)
-		{
-			throw new DatastoreException("Failed to read key index", e);
+			Thread.currentThread().interrupt();
+			throw new UncheckedExecutionException(new DatastoreException("Index query interrupted", e));
 		}
+
+		if (m_pendingSources.decrementAndGet() == 0)
+			stats.keyQueryTime().put(Duration.ofMillis(System.currentTimeMillis() - m_queryStart));
+
+		return source;
 	}
 
 	private boolean matchRegexFilter(String tag, String value)
@@ -160,31 +213,19 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 		return false;
 	}
 
-	private DataPointsRowKey nextKeyFromIterator(ResultSet iterator)
+	private boolean isClosedRow(long rowTime)
+	{
+		return rowTime + m_rowSpec.getRowWidthInMillis() <= m_queryStart;
+	}
+
+	private DataPointsRowKey nextKeyFromIterator(Iterator<DataPointsRowKey> iterator)
 	{
 		DataPointsRowKey next = null;
-		boolean newIndex = false;
-		if (iterator.getColumnDefinitions().contains("row_time"))
-			newIndex = true;
 
 outer:
-		while (!iterator.isExhausted())
+		while (iterator.hasNext())
 		{
-			DataPointsRowKey rowKey;
-			Row record = iterator.one();
-
-			if (newIndex)
-			{
-				if (record.getString(1) == null)
-					continue; //empty row
-
-				rowKey = new DataPointsRowKey(m_metricName, m_clusterName, record.getTimestamp(0).getTime(),
-						record.getString(1), new TreeMap<String, String>(record.getMap(2, String.class, String.class)));
-
-				rowKey.setTtl(record.getInt(3));
-			}
-			else
-				rowKey = CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.fromByteBuffer(record.getBytes(0), m_clusterName);
+			DataPointsRowKey rowKey = iterator.next();
 
 			m_rawRowKeyCount ++;
 
@@ -209,31 +250,94 @@ outer:
 		return (next);
 	}
 
-	private List<Long> createQueryKeyList(ClusterConnection cluster, String metricName,
+	private void queryTimeIndex(ClusterConnection cluster, RowKeyLookup rowKeyLookup, String metricName,
 			long startTime, long endTime)
 	{
-		List<Long> ret = new ArrayList<>();
+		if (cluster.psRowKeyTimeQuery == null) //cluster may be old
+			return;
 
-		if (cluster.psRowKeyTimeQuery != null) //cluster may be old
+		//Row times are aligned so the end row time gives the same buckets as the end time
+		long startRowTime = m_rowSpec.calculateRowTime(startTime);
+		long endRowTime = m_rowSpec.calculateRowTime(endTime);
+		boolean cacheable = endTime >= 0;
+
+		if (cacheable)
 		{
-			BoundStatement statement = new BoundStatement(cluster.psRowKeyTimeQuery);
-			statement.setString(0, metricName);
-			statement.setString(1, DATA_POINTS_TABLE_NAME);
-			statement.setTimestamp(2, new Date(m_rowSpec.calculateRowTime(startTime)));
-			statement.setTimestamp(3, new Date(endTime));
-			statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
+			List<Long> cached = m_lookupCache.getBucketTimes(m_clusterName, metricName, startRowTime, endRowTime);
+			if (cached != null)
+			{
+				queryBuckets(rowKeyLookup, cached);
+				return;
+			}
+		}
 
-			//printHosts(m_loadBalancingPolicy.newQueryPlan(m_keyspace, statement));
+		BoundStatement statement = new BoundStatement(cluster.psRowKeyTimeQuery);
+		statement.setString(0, metricName);
+		statement.setString(1, DATA_POINTS_TABLE_NAME);
+		statement.setTimestamp(2, new Date(startRowTime));
+		statement.setTimestamp(3, new Date(endTime));
+		statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			ResultSet rows = cluster.execute(statement);
+		//printHosts(m_loadBalancingPolicy.newQueryPlan(m_keyspace, statement));
 
-			while (!rows.isExhausted())
+		//Counts as a source until the tier queries have been added
+		m_pendingSources.incrementAndGet();
+		List<Long> bucketTimes = new ArrayList<>();
+		Futures.addCallback(cluster.executeAsync(statement), new FutureCallback<ResultSet>()
+		{
+			@Override
+			public void onSuccess(ResultSet rows)
 			{
-				ret.add(rows.one().getTimestamp(0).getTime());
+				try
+				{
+					//Only read what has been fetched, this runs on a driver thread
+					for (int I = rows.getAvailableWithoutFetching(); I > 0; I--)
+					{
+						bucketTimes.add(rows.one().getTimestamp(0).getTime());
+					}
+
+					if (!rows.isFullyFetched())
+					{
+						Futures.addCallback(rows.fetchMoreResults(), this, MoreExecutors.directExecutor());
+						return;
+					}
+
+					if (cacheable)
+						m_lookupCache.putBucketTimes(m_clusterName, metricName, startRowTime, endRowTime, bucketTimes,
+								isClosedRow(endRowTime), m_lookupGeneration);
+
+					queryBuckets(rowKeyLookup, bucketTimes);
+					m_arrivedSources.add(Collections.emptyIterator());
+				}
+				catch (Exception e)
+				{
+					onFailure(e);
+				}
 			}
-		}
 
-		return ret;
+			@Override
+			public void onFailure(Throwable t)
+			{
+				m_arrivedSources.add(new FailedKeyIterator(t));
+			}
+		}, MoreExecutors.directExecutor());
+	}
+
+	private void queryBuckets(RowKeyLookup rowKeyLookup, List<Long> bucketTimes)
+	{
+		for (Long keyTime : bucketTimes)
+		{
+			List<DataPointsRowKey> rowKeys;
+			if (m_indexBuckets)
+				rowKeys = m_tagIndex.getRowKeys(m_clusterName, m_metricName, keyTime, m_filterTags, m_patternFilter);
+			else
+				rowKeys = m_lookupCache.getRowKeys(m_clusterName, m_metricName, keyTime, m_filterTags);
+
+			if (rowKeys != null)
+				addSource(rowKeys);
+			else
+				addSource(rowKeyLookup.queryRowKeys(m_metricName, keyTime, m_filterTags), keyTime);
+		}
 	}
 
 	private void setStartEndKeys(
@@ -257,15 +361,14 @@ outer:
 		if (m_nextKey != null)
 			return true;
 
-		while (m_currentResultSet != null && (!m_currentResultSet.isExhausted() || m_resultSets.hasNext()))
+		while (m_currentSource != null)
 		{
-			m_nextKey = nextKeyFromIterator(m_currentResultSet);
+			m_nextKey = nextKeyFromIterator(m_currentSource);
 
 			if (m_nextKey != null)
 				break;
 
-			if (m_resultSets.hasNext())
-				m_currentResultSet = m_resultSets.next();
+			m_currentSource = nextSource();
 		}
 
 		if (m_nextKey == null)
@@ -290,4 +393,113 @@ outer:
 	public void remove()
 	{
 	}
+
+	/**
+	 Reads the row keys from an index query.  When the row time is set the keys
+	 are put in the tag index or lookup cache once the result set is read to
+	 the end.
+	 */
+	private class ResultSetKeyIterator implements Iterator<DataPointsRowKey>
+	{
+		private final ResultSet m_resultSet;
+		private final boolean m_newIndex;
+		private final Long m_rowTime;
+		//Null when the keys are not going to be indexed or cached
+		private List<DataPointsRowKey> m_rowKeys;
+		private DataPointsRowKey m_next;
+		private boolean m_cached = false;
+
+		private ResultSetKeyIterator(ResultSet resultSet, Long rowTime)
+		{
+			m_resultSet = resultSet;
+			m_newIndex = resultSet.getColumnDefinitions().contains("row_time");
+			m_rowTime = rowTime;
+			m_rowKeys = (rowTime == null || m_maxBufferedKeys <= 0) ? null : new ArrayList<>();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (m_next == null && !m_resultSet.isExhausted())
+			{
+				//Ask for the next page before this one runs out
+				if (m_resultSet.getAvailableWithoutFetching() == PREFETCH_ROWS && !m_resultSet.isFullyFetched())
+					m_resultSet.fetchMoreResults();
+
+				Row record = m_resultSet.one();
+
+				if (m_newIndex)
+				{
+					if (record.getString(1) == null)
+						continue; //empty row
+
+					m_next = new DataPointsRowKey(m_metricName, m_clusterName, record.getTimestamp(0).getTime(),
+							record.getString(1), new TreeMap<String, String>(record.getMap(2, String.class, String.class)));
+
+					m_next.setTtl(record.getInt(3));
+				}
+				else
+					m_next = CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.fromByteBuffer(record.getBytes(0), m_clusterName);
+
+				if (m_rowKeys != null)
+				{
+					//Too many to index or cache
+					if (m_rowKeys.size() >= m_maxBufferedKeys)
+						m_rowKeys = null;
+					else
+						m_rowKeys.add(m_next);
+				}
+			}
+
+			if (m_next == null && m_rowKeys != null && !m_cached)
+			{
+				m_cached = true;
+				if (m_indexBuckets)
+					m_tagIndex.putRowKeys(m_clusterName, m_metricName, m_rowTime, m_rowKeys,
+							isClosedRow(m_rowTime), m_tagIndexGeneration);
+				else
+					m_lookupCache.putRowKeys(m_clusterName, m_metricName, m_rowTime, m_filterTags, m_rowKeys,
+							isClosedRow(m_rowTime), m_lookupGeneration);
+			}
+
+			return m_next != null;
+		}
+
+		@Override
+		public DataPointsRowKey next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			DataPointsRowKey ret = m_next;
+			m_next = null;
+			return ret;
+		}
+	}
+
+	/**
+	 Throws the failure of an index query from hasNext.  Callers unwrap the
+	 DatastoreException from the UncheckedExecutionException.
+	 */
+	private static class FailedKeyIterator implements Iterator<DataPointsRowKey>
+	{
+		private final Throwable m_cause;
+
+		private FailedKeyIterator(Throwable cause)
+		{
+			m_cause = cause;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			throw new UncheckedExecutionException(new DatastoreException("Failed to read key index", m_cause));
+		}
+
+		@Override
+		public DataPointsRowKey next()
+		{
+			throw new NoSuchElementException();
+		}
+	}
 }
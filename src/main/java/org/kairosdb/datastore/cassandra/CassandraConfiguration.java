@@ -26,12 +26,16 @@ public class CassandraConfiguration
 
 	public static final String ROW_KEY_CACHE_SIZE_PROPERTY = "kairosdb.datastore.cassandra.row_key_cache_size";
 	public static final String STRING_CACHE_SIZE_PROPERTY = "kairosdb.datastore.cassandra.string_cache_size";
+	public static final String ROW_KEY_LOOKUP_CACHE_SIZE_PROPERTY = "kairosdb.datastore.cassandra.row_key_lookup_cache_size";
+	public static final String ROW_KEY_LOOKUP_CACHE_CURRENT_TTL_PROPERTY = "kairosdb.datastore.cassandra.row_key_lookup_cache_current_ttl";
+	public static final String ROW_KEY_TAG_INDEX_SIZE_PROPERTY = "kairosdb.datastore.cassandra.row_key_tag_index_size";
 
 	public static final String HOST_LIST_PROPERTY = "kairosdb.datastore.cassandra.cql_host_list";
 	public static final String SIMULTANEOUS_QUERIES = "kairosdb.datastore.cassandra.simultaneous_cql_queries";
 	public static final String QUERY_LIMIT = "kairosdb.datastore.cassandra.query_limit";
 	public static final String QUERY_TIME_LIMIT = "kairosdb.datastore.cassandra.query_time_limit_sec";
 	public static final String QUERY_READER_THREADS = "kairosdb.datastore.cassandra.query_reader_threads";
+	public static final String QUERY_READER_POOL_SIZE = "kairosdb.datastore.cassandra.query_reader_pool_size";
 
 	public static final String AUTH_USER_NAME = "kairosdb.datastore.cassandra.auth.user_name";
 	public static final String AUTH_PASSWORD = "kairosdb.datastore.cassandra.auth.password";
@@ -73,6 +77,18 @@ public class CassandraConfiguration
 	@Named(STRING_CACHE_SIZE_PROPERTY)
 	private int m_stringCacheSize = 1024;
 
+	@Inject(optional = true)
+	@Named(ROW_KEY_LOOKUP_CACHE_SIZE_PROPERTY)
+	private long m_rowKeyLookupCacheSize = 0;
+
+	@Inject(optional = true)
+	@Named(ROW_KEY_LOOKUP_CACHE_CURRENT_TTL_PROPERTY)
+	private long m_rowKeyLookupCacheCurrentTtl = 30000;
+
+	@Inject(optional = true)
+	@Named(ROW_KEY_TAG_INDEX_SIZE_PROPERTY)
+	private long m_rowKeyTagIndexSize = 0;
+
 	@Inject
 	@Named(CassandraModule.CASSANDRA_AUTH_MAP)
 	private Map<String, String> m_cassandraAuthentication;
@@ -85,6 +101,10 @@ public class CassandraConfiguration
 	@Named(QUERY_READER_THREADS)
 	private int m_queryReaderThreads = 6;
 
+	@Inject(optional = true)
+	@Named(QUERY_READER_POOL_SIZE)
+	private int m_queryReaderPoolSize = 32;
+
 	@Inject(optional = true)
 	@Named(QUERY_LIMIT)
 	private long m_queryLimit = 0;
@@ -179,6 +199,21 @@ public class CassandraConfiguration
 		return m_stringCacheSize;
 	}
 
+	public long getRowKeyLookupCacheSize()
+	{
+		return m_rowKeyLookupCacheSize;
+	}
+
+	public long getRowKeyLookupCacheCurrentTtl()
+	{
+		return m_rowKeyLookupCacheCurrentTtl;
+	}
+
+	public long getRowKeyTagIndexSize()
+	{
+		return m_rowKeyTagIndexSize;
+	}
+
 	public int getSimultaneousQueries()
 	{
 		return m_simultaneousQueries;
@@ -189,6 +224,11 @@ public class CassandraConfiguration
 		return m_queryReaderThreads;
 	}
 
+	public int getQueryReaderPoolSize()
+	{
+		return m_queryReaderPoolSize;
+	}
+
 	public long getQueryLimit()
 	{
 		return m_queryLimit;
@@ -27,11 +27,14 @@ import com.google.common.collect.Iterators;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.KairosPostConstructInit;
 import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LegacyDataPointFactory;
 import org.kairosdb.core.datapoints.LegacyDoubleDataPoint;
 import org.kairosdb.core.datapoints.LegacyLongDataPoint;
@@ -56,6 +59,7 @@ import org.kairosdb.metrics4j.MetricSourceManager;
 import org.kairosdb.util.IngestExecutorService;
 import org.kairosdb.util.KDataInput;
 import org.kairosdb.util.MemoryMonitor;
+import org.kairosdb.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,10 +79,8 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
 
 import static java.util.Objects.requireNonNull;
 import static org.kairosdb.datastore.cassandra.ClusterConnection.DATA_POINTS_TABLE_NAME;
@@ -119,6 +121,10 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 	private DataCache<DataPointsRowKey> m_rowKeyCache = new DataCache<DataPointsRowKey>(1024);
 	@Inject
 	private DataCache<TimedString> m_metricNameCache = new DataCache<>(1024);
+	@Inject
+	private RowKeyLookupCache m_rowKeyLookupCache = new RowKeyLookupCache(0, 0);
+	@Inject
+	private RowKeyTagIndex m_rowKeyTagIndex = new RowKeyTagIndex(0, 0);
 
 	private final KairosDataPointFactory m_kairosDataPointFactory;
 	private final QueueProcessor m_queueProcessor;
@@ -126,6 +132,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 	private final CassandraModule.BatchHandlerFactory m_batchHandlerFactory;
 	private final CassandraModule.DeleteBatchHandlerFactory m_deleteBatchHandlerFactory;
 	private final CassandraModule.CQLFilteredRowKeyIteratorFactory m_rowKeyFilterFactory;
+	private final QueryReaderPool m_queryReaderPool;
 
 	private CassandraConfiguration m_cassandraConfiguration;
 
@@ -176,6 +183,9 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 		m_cassandraConfiguration = cassandraConfiguration;
 
+		m_queryReaderPool = new QueryReaderPool(cassandraConfiguration.getQueryReaderPoolSize(),
+				cassandraConfiguration.getQueryReaderThreads());
+
 		//This needs to be done last as it tells the processor we are ready for data
 		m_queueProcessor.setProcessorHandler(this);
 	}
@@ -216,6 +226,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 	public void close() throws InterruptedException
 	{
 		m_queueProcessor.shutdown();
+		m_queryReaderPool.shutdown();
 		m_writeCluster.close();
 		for (ClusterConnection readCluster : m_readClusters)
 		{
@@ -231,6 +242,17 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 		m_queueProcessor.put(dataPointEvent);
 	}
 
+	@Subscribe
+	public void putDataPoints(List<DataPointEvent> dataPointEvents) throws DatastoreException
+	{
+		for (DataPointEvent dataPointEvent : dataPointEvents)
+		{
+			requireNonNull(dataPointEvent.getDataPoint().getDataStoreDataType());
+		}
+
+		m_queueProcessor.putAll(dataPointEvents);
+	}
+
 	@Override
 	public void handleEvents(List<DataPointEvent> events, EventCompletionCallBack eventCompletionCallBack,
 			boolean fullBatch)
@@ -239,7 +261,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 		batchHandler = m_batchHandlerFactory.create(events, eventCompletionCallBack, fullBatch, m_writeCluster.getRowSpec());
 
-		m_congestionExecutor.submit(batchHandler);
+		m_congestionExecutor.submit(batchHandler, events.size());
 	}
 
 	@Override
@@ -393,15 +415,22 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 		Iterator<DataPointsRowKey> rowKeys = getKeysForQueryIterator(query);
 
 		MemoryMonitor mm = new MemoryMonitor(20);
-		while (rowKeys.hasNext())
+		try
 		{
-			DataPointsRowKey dataPointsRowKey = rowKeys.next();
-			for (Map.Entry<String, String> tag : dataPointsRowKey.getTags().entrySet())
+			while (rowKeys.hasNext())
 			{
-				tagSet.addTag(tag.getKey(), tag.getValue());
-				mm.checkMemoryAndThrowException();
+				DataPointsRowKey dataPointsRowKey = rowKeys.next();
+				for (Map.Entry<String, String> tag : dataPointsRowKey.getTags().entrySet())
+				{
+					tagSet.addTag(tag.getKey(), tag.getValue());
+					mm.checkMemoryAndThrowException();
+				}
 			}
 		}
+		catch (UncheckedExecutionException e)
+		{
+			throw keyQueryFailure(e);
+		}
 
 		return (tagSet);
 	}
@@ -414,17 +443,24 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 		MemoryMonitor mm = new MemoryMonitor(20);
 		long indexStatementCount = 0;
-		while (rowKeys.hasNext())
+		try
 		{
-			DataPointsRowKey dataPointsRowKey = rowKeys.next();
-			batch.indexRowKey(dataPointsRowKey, dataPointsRowKey.getTtl());
-			mm.checkMemoryAndThrowException();
-			indexStatementCount++;
-			if (indexStatementCount % MAX_CQL_BATCH_SIZE == 0) {
-				batch.submitBatch();
-				batch = m_cqlBatchFactory.create();
+			while (rowKeys.hasNext())
+			{
+				DataPointsRowKey dataPointsRowKey = rowKeys.next();
+				batch.indexRowKey(dataPointsRowKey, dataPointsRowKey.getTtl());
+				mm.checkMemoryAndThrowException();
+				indexStatementCount++;
+				if (indexStatementCount % MAX_CQL_BATCH_SIZE == 0) {
+					batch.submitBatch();
+					batch = m_cqlBatchFactory.create();
+				}
 			}
 		}
+		catch (UncheckedExecutionException e)
+		{
+			throw keyQueryFailure(e);
+		}
 		batch.submitBatch();
 	}
 
@@ -618,14 +654,21 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 		private final Semaphore m_semaphore;  //Used to notify caller when last query is done
 		private final QueryMonitor m_queryMonitor;
 		private final RowSpec m_rowSpec;
+		private final DatastoreMetricQuery m_query;
+		private final int m_startColumn;
+		private final int m_endColumn;
 
-		public QueryListener(DataPointsRowKey rowKey, QueryCallback callback, Semaphore querySemaphor, QueryMonitor queryMonitor, RowSpec rowSpec)
+		public QueryListener(DataPointsRowKey rowKey, QueryCallback callback, Semaphore querySemaphor, QueryMonitor queryMonitor, RowSpec rowSpec,
+				DatastoreMetricQuery query, int startColumn, int endColumn)
 		{
 			m_rowKey = rowKey;
 			m_callback = callback;
 			m_semaphore = querySemaphor;
 			m_queryMonitor = queryMonitor;
 			m_rowSpec = rowSpec;
+			m_query = query;
+			m_startColumn = startColumn;
+			m_endColumn = endColumn;
 		}
 
 		@Override
@@ -643,6 +686,18 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 					DataPointFactory dataPointFactory = null;
 					dataPointFactory = m_kairosDataPointFactory.getFactoryForDataStoreType(m_rowKey.getDataType());
 
+					if (m_rowSpec.hasBlocks() && DataPointBlock.isSupportedType(m_rowKey.getDataType()))
+					{
+						readBlockRow(result, dataPointWriter, dataPointFactory);
+						return;
+					}
+
+					if (DataPointBlock.isSupportedType(m_rowKey.getDataType()))
+					{
+						readPrimitiveRow(result, dataPointWriter, dataPointFactory);
+						return;
+					}
+
 					while (!result.isExhausted())
 					{
 						Row row = result.one();
@@ -692,6 +747,87 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 			}
 		}
 
+		/**
+		 Long and double values are decoded straight out of the driver's buffers
+		 and handed to the writer as primitives, no KDataInput or DataPoint is created.
+		 */
+		private void readPrimitiveRow(ResultSet result, QueryCallback.DataPointWriter dataPointWriter,
+				DataPointFactory dataPointFactory) throws IOException
+		{
+			boolean isDouble = DataPointBlock.isDoubleType(m_rowKey.getDataType());
+			long rowTime = m_rowKey.getTimestamp();
+
+			while (!result.isExhausted())
+			{
+				Row row = result.one();
+				//getBytesUnsafe skips the codec lookup, both return a view of the driver's buffer
+				ByteBuffer bytes = row.getBytesUnsafe(0);
+				ByteBuffer value = row.getBytesUnsafe(1);
+
+				long timestamp = m_rowSpec.getColumnTimestamp(rowTime, bytes.getInt());
+
+				if (isDouble)
+					dataPointWriter.addDoubleValue((DoubleDataPointFactory) dataPointFactory, timestamp, value.getDouble());
+				else
+					dataPointWriter.addLongValue((LongDataPointFactory) dataPointFactory, timestamp, Util.unpackLong(value));
+
+				m_queryMonitor.incrementCounter();
+			}
+		}
+
+		/**
+		 Rows that may contain compressed blocks are read completely into a block
+		 so the data points can be sorted and trimmed to the query range before
+		 being handed to the callback.
+		 */
+		private void readBlockRow(ResultSet result, QueryCallback.DataPointWriter dataPointWriter,
+				DataPointFactory dataPointFactory) throws IOException
+		{
+			DataPointBlock block = new DataPointBlock(DataPointBlock.isDoubleType(m_rowKey.getDataType()));
+
+			while (!result.isExhausted())
+			{
+				Row row = result.one();
+				ByteBuffer bytes = row.getBytes(0);
+				ByteBuffer value = row.getBytes(1);
+
+				if (DataPointBlock.isBlockColumn(bytes))
+				{
+					DataPointBlock.decode(value, block);
+				}
+				else
+				{
+					int columnTime = bytes.getInt();
+					if (block.isDouble())
+						block.addDouble(columnTime, value.getDouble());
+					else
+						block.addLong(columnTime, Util.unpackLong(value));
+				}
+			}
+
+			block.sortAndDedupe();
+
+			int limit = (m_query.getLimit() != 0) ? m_query.getLimit() : Integer.MAX_VALUE;
+			boolean ascending = (m_query.getOrder() == Order.ASC);
+			int count = 0;
+			for (int I = 0; I < block.size() && count < limit; I++)
+			{
+				int index = ascending ? I : (block.size() - 1 - I);
+				int columnTime = block.getColumn(index);
+				if (columnTime < m_startColumn || columnTime >= m_endColumn)
+					continue;
+
+				long timestamp = m_rowSpec.getColumnTimestamp(m_rowKey.getTimestamp(), columnTime);
+				if (block.isDouble())
+					dataPointWriter.addDoubleValue((DoubleDataPointFactory)dataPointFactory, timestamp, block.getDoubleValue(index));
+				else
+					dataPointWriter.addLongValue((LongDataPointFactory)dataPointFactory, timestamp, block.getLongValue(index));
+
+				m_queryMonitor.incrementCounter();
+				count ++;
+			}
+		}
+
 		@Override
 		public void onFailure(Throwable t)
 		{
@@ -713,21 +849,13 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 		QueryMonitor queryMonitor = new QueryMonitor(m_cassandraConfiguration.getQueryLimit(),
 				m_cassandraConfiguration.getQueryTimeLimit());
 
-		ExecutorService resultsExecutor = Executors.newFixedThreadPool(m_cassandraConfiguration.getQueryReaderThreads(),
-				new ThreadFactory()
-				{
-					private int m_count = 0;
-					@Override
-					public Thread newThread(Runnable r)
-					{
-						m_count ++;
-						return new Thread(r, "query_"+query.getName()+"-"+m_count);
-					}
-				});
+		Executor resultsExecutor = m_queryReaderPool.newQueryExecutor();
 		//Controls the number of queries sent out at the same time.
 		Semaphore querySemaphore = new Semaphore(m_cassandraConfiguration.getSimultaneousQueries());
 
-		while (rowKeys.hasNext())
+		//Row keys are returned as the index queries arrive so data queries start
+		//before the whole index is read
+		while (hasNextRowKey(rowKeys, queryMonitor))
 		{
 			rowCount ++;
 			DataPointsRowKey rowKey = rowKeys.next();
@@ -747,8 +875,18 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 			else
 				endTime = rowSpec.getColumnName(tierRowTime, queryEndTime) +1; //add 1 so we get 0x1 for last bit
 
+			//Blocks are named by their first data point so we have to look back to
+			//the start of the block window, the limit is applied after decoding
+			int cellStartTime = startTime;
+			boolean useCellLimit = useLimit;
+			if (rowSpec.hasBlocks() && DataPointBlock.isSupportedType(rowKey.getDataType()))
+			{
+				cellStartTime = rowSpec.getBlockStart(startTime);
+				useCellLimit = false;
+			}
+
 			ByteBuffer startBuffer = ByteBuffer.allocate(4);
-			startBuffer.putInt(startTime);
+			startBuffer.putInt(cellStartTime);
 			startBuffer.rewind();
 
 			ByteBuffer endBuffer = ByteBuffer.allocate(4);
@@ -756,7 +894,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 			endBuffer.rewind();
 
 			BoundStatement boundStatement;
-			if (useLimit)
+			if (useCellLimit)
 			{
 				if (query.getOrder() == Order.ASC)
 					boundStatement = new BoundStatement(cluster.psDataPointsQueryAscLimit);
@@ -775,7 +913,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 			boundStatement.setBytesUnsafe(1, startBuffer);
 			boundStatement.setBytesUnsafe(2, endBuffer);
 
-			if (useLimit)
+			if (useCellLimit)
 				boundStatement.setInt(3, query.getLimit());
 
 			boundStatement.setConsistencyLevel(cluster.getReadConsistencyLevel());
@@ -795,7 +933,8 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 				queryResults.add(resultSetFuture);
 
-				Futures.addCallback(resultSetFuture, new QueryListener(rowKey, queryCallback, querySemaphore, queryMonitor, rowSpec), resultsExecutor);
+				Futures.addCallback(resultSetFuture, new QueryListener(rowKey, queryCallback, querySemaphore, queryMonitor, rowSpec,
+						query, startTime, endTime), resultsExecutor);
 			}
 			else
 			{
@@ -817,7 +956,6 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 		{
 			if (queryMonitor.getException() == null)
 				querySemaphore.acquire(m_cassandraConfiguration.getSimultaneousQueries());
-			resultsExecutor.shutdown();
 		}
 		catch (InterruptedException e)
 		{
@@ -828,9 +966,49 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 			throw new DatastoreException(queryMonitor.getException());
 	}
 
+	/**
+	 Index queries that fail while iterating row keys throw an
+	 UncheckedExecutionException from hasNext.
+	 */
+	static DatastoreException keyQueryFailure(UncheckedExecutionException e)
+	{
+		if (e.getCause() instanceof DatastoreException)
+			return (DatastoreException) e.getCause();
+
+		return new DatastoreException(e.getCause());
+	}
+
+	private static boolean hasNextDeleteKey(Iterator<DataPointsRowKey> rowKeys) throws DatastoreException
+	{
+		try
+		{
+			return rowKeys.hasNext();
+		}
+		catch (UncheckedExecutionException e)
+		{
+			throw keyQueryFailure(e);
+		}
+	}
+
+	static boolean hasNextRowKey(Iterator<DataPointsRowKey> rowKeys, QueryMonitor queryMonitor)
+	{
+		try
+		{
+			return rowKeys.hasNext();
+		}
+		catch (UncheckedExecutionException e)
+		{
+			queryMonitor.failQuery(keyQueryFailure(e));
+			return false;
+		}
+	}
+
 	private void deletePartialRow(DataPointsRowKey rowKey, long start, long end, ClusterConnection cluster) throws DatastoreException
 	{
 		RowSpec rowSpec = cluster.getRowSpec();
+		if (rowSpec.hasBlocks() && DataPointBlock.isSupportedType(rowKey.getDataType()))
+			rewriteBlocks(rowKey, start, end, cluster);
+
 		if (cluster.psDataPointsDeleteRange != null)
 		{
 			BoundStatement statement = new BoundStatement(cluster.psDataPointsDeleteRange);
@@ -859,6 +1037,58 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 		}
 	}
 
+	/**
+	 Compressed blocks cannot be partially deleted.  Every block that overlaps the
+	 delete range is removed and the data points outside the range are written back
+	 as new blocks.  The new blocks are named by their first data point so they
+	 never fall within the range delete that follows.
+	 */
+	private void rewriteBlocks(DataPointsRowKey rowKey, long start, long end, ClusterConnection cluster)
+	{
+		RowSpec rowSpec = cluster.getRowSpec();
+		long rowTime = rowKey.getTimestamp();
+		long rowEnd = rowTime + rowSpec.getRowWidthInMillis() - 1;
+		int startColumn = rowSpec.getColumnName(rowTime, Math.max(start, rowTime));
+		int endColumn = rowSpec.getColumnName(rowTime, Math.min(end, rowEnd));
+		boolean isDouble = DataPointBlock.isDoubleType(rowKey.getDataType());
+
+		ByteBuffer startBuffer = ByteBuffer.allocate(4);
+		startBuffer.putInt(rowSpec.getBlockStart(startColumn));
+		startBuffer.rewind();
+
+		ByteBuffer endBuffer = ByteBuffer.allocate(4);
+		endBuffer.putInt(endColumn + 1);
+		endBuffer.rewind();
+
+		BoundStatement statement = new BoundStatement(cluster.psDataPointsQueryWithTtl);
+		statement.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
+		statement.setBytesUnsafe(1, startBuffer);
+		statement.setBytesUnsafe(2, endBuffer);
+		statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
+
+		ResultSet resultSet = cluster.execute(statement);
+		CQLBatch batch = m_cqlBatchFactory.create();
+		while (!resultSet.isExhausted())
+		{
+			Row row = resultSet.one();
+			ByteBuffer columnName = row.getBytes(0);
+			if (!DataPointBlock.isBlockColumn(columnName))
+				continue;
+
+			DataPointBlock before = DataPointBlock.decode(row.getBytes(1), new DataPointBlock(isDouble));
+			if (before.split(startColumn, endColumn).size() == 0)
+				continue; //Nothing in this block is being deleted
+
+			int ttl = row.getInt(2);
+			DataPointBlock after = before.split(endColumn + 1, Integer.MAX_VALUE);
+
+			batch.deleteDataPointBlock(rowKey, columnName);
+			batch.addDataPointBlock(rowKey, before, ttl);
+			batch.addDataPointBlock(rowKey, after, ttl);
+		}
+
+		batch.submitBatch();
+	}
 
 	@Override
 	public void deleteDataPoints(DatastoreMetricQuery deleteQuery) throws DatastoreException
@@ -873,7 +1103,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 		Iterator<DataPointsRowKey> rowKeyIterator = getKeysForQueryIterator(deleteQuery);
 
-		while (rowKeyIterator.hasNext())
+		while (hasNextDeleteKey(rowKeyIterator))
 		{
 			DataPointsRowKey rowKey = rowKeyIterator.next();
 			ClusterConnection cluster = m_clusterMap.get(rowKey.getClusterName());
@@ -970,7 +1200,11 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 
 		if (clearCache)
+		{
 			m_rowKeyCache.clear();
+			m_rowKeyLookupCache.invalidateMetric(deleteQuery.getName());
+			m_rowKeyTagIndex.invalidateMetric(deleteQuery.getName());
+		}
 	}
 
 	private SortedMap<String, String> getTags(DataPointRow row)
@@ -1018,9 +1252,8 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 
 			//todo use Iterable.concat to query multiple metrics at the same time.
 			//each filtered iterator will be combined into one and returned.
-			//one issue is that the queries are done in the constructor
-			//would like to do them lazily but would have to throw an exception through
-			//hasNext call, ick
+			//The index queries run in the background, a failed query is thrown
+			//from hasNext as an UncheckedExecutionException
 			if (m_writeCluster.containRange(query.getStartTime(), query.getEndTime()))
 			{
 				retList.add(m_rowKeyFilterFactory.create(m_writeCluster, query.getName(), query.getStartTime(),
@@ -1116,7 +1349,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 					DeleteBatchHandler deleteBatchHandler = m_deleteBatchHandlerFactory.create(
 							m_metricName, m_tags, dataPoints, s_dontCareCallBack, m_rowSpec);
 
-					m_congestionExecutor.submit(deleteBatchHandler);
+					m_congestionExecutor.submit(deleteBatchHandler, dataPoints.size());
 				}
 			}
 
@@ -1128,7 +1361,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler,
 					DeleteBatchHandler deleteBatchHandler = m_deleteBatchHandlerFactory.create(
 							m_metricName, m_tags, m_dataPoints, s_dontCareCallBack, m_rowSpec);
 
-					m_congestionExecutor.submit(deleteBatchHandler);
+					m_congestionExecutor.submit(deleteBatchHandler, m_dataPoints.size());
 				}
 			}
 		}
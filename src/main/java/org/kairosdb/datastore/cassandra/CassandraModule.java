@@ -84,6 +84,9 @@ public class CassandraModule extends AbstractModule
 		bind(ServiceKeyStore.class).to(CassandraDatastore.class).in(Scopes.SINGLETON);
 		bind(CassandraDatastore.class).in(Scopes.SINGLETON);
 		bind(CleanRowKeyCache.class).in(Scopes.SINGLETON);
+		bind(BlockCompactor.class).in(Scopes.SINGLETON);
+		bind(RowKeyLookupCache.class).in(Scopes.SINGLETON);
+		bind(RowKeyTagIndex.class).in(Scopes.SINGLETON);
 		bind(CassandraConfiguration.class).in(Scopes.SINGLETON);
 		//bind(CassandraClient.class).to(CassandraClientImpl.class);
 		//bind(CassandraClientImpl.class).in(Scopes.SINGLETON);
@@ -254,14 +257,14 @@ public class CassandraModule extends AbstractModule
 	@Singleton
 	DataCache<DataPointsRowKey> getRowKeyCache(CassandraConfiguration configuration)
 	{
-		return new DataCache<>(configuration.getRowKeyCacheSize());
+		return new DataCache<>("row_key", configuration.getRowKeyCacheSize());
 	}
 
 	@Provides
 	@Singleton
 	DataCache<TimedString> getMetricNameCache(CassandraConfiguration configuration)
 	{
-		return new DataCache<>(configuration.getStringCacheSize());
+		return new DataCache<>("metric_name", configuration.getStringCacheSize());
 	}
 
 	public interface BatchHandlerFactory
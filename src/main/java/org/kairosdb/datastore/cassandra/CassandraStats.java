@@ -15,4 +15,7 @@ public interface CassandraStats
 	//kairosdb.datastore.cassandra.raw_row_key_count
 	LongCollector rawRowKeyCount();
 
+	//kairosdb.datastore.cassandra.query_reader_queue_time
+	DurationCollector queryReaderQueueTime();
+
 }
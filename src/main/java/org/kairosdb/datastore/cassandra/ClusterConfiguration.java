@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkState;
+import static org.kairosdb.datastore.cassandra.RowSpec.DEFAULT_BLOCK_WIDTH;
 import static org.kairosdb.datastore.cassandra.RowSpec.DEFAULT_ROW_WIDTH;
 
 public class ClusterConfiguration
@@ -54,6 +55,9 @@ public class ClusterConfiguration
 	private long m_endTime;
 	private long m_rowWidth;
 	private TimeUnit m_rowUnit;
+	private boolean m_blockFormat;
+	private long m_blockWidth;
+	private long m_blockCompactionDelay;
 
 	public ClusterConfiguration(KairosConfig config) throws ParseException
 	{
@@ -77,6 +81,18 @@ public class ClusterConfiguration
 
 		m_rowWidth = config.getLong("row_width", defaultWidth);
 
+		m_blockFormat = config.getBoolean("block_format", false);
+		long defaultBlockWidth = DEFAULT_BLOCK_WIDTH;
+		if (m_rowUnit == TimeUnit.SECONDS)
+			defaultBlockWidth = defaultBlockWidth / 1000;
+
+		m_blockWidth = config.getLong("block_width", Math.min(defaultBlockWidth, m_rowWidth));
+
+		m_blockCompactionDelay = config.getLong("block_compaction_delay", 600000);
+
+		if (m_blockFormat && (m_blockWidth <= 0 || m_blockWidth > m_rowWidth))
+			throw new ParseException("The block_width for a cluster must be greater than 0 and no larger than the row_width", -1);
+
 		m_useSsl = config.getBoolean("use_ssl", false);
 		m_maxQueueSize = config.getInt("max_queue_size", 500);
 
@@ -297,5 +313,19 @@ public class ClusterConfiguration
 		{
 		return m_rowWidth;
 		}
-}
 
+	public boolean isBlockFormat()
+		{
+		return m_blockFormat;
+		}
+
+	public long getBlockWidth()
+		{
+		return m_blockWidth;
+		}
+
+	public long getBlockCompactionDelay()
+		{
+		return m_blockCompactionDelay;
+		}
+}
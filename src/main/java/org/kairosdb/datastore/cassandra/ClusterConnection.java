@@ -195,6 +195,10 @@ public class ClusterConnection
 	public static final String DATA_POINTS_QUERY_ASC_LIMIT = DATA_POINTS_QUERY_ASC+" LIMIT ?";
 	public static final String DATA_POINTS_QUERY_DESC_LIMIT = DATA_POINTS_QUERY_DESC+" LIMIT ?";
 
+	//Used when rewriting compressed blocks so the remaining ttl can be carried over
+	public static final String DATA_POINTS_QUERY_WITH_TTL = "SELECT column1, value, TTL (value) FROM data_points " +
+			"WHERE key = ? AND column1 >= ? AND column1 < ?";
+
 	public static final String DATA_POINTS_DELETE_RANGE = "DELETE FROM data_points " +
 			"WHERE key = ? AND column1 >= ? AND column1 <= ?";
 
@@ -305,6 +309,7 @@ public class ClusterConnection
 	public PreparedStatement psServiceIndexInsertModifiedTime;
 	public PreparedStatement psServiceIndexGetEntries;
 	public PreparedStatement psDataPointsDelete;
+	public PreparedStatement psDataPointsQueryWithTtl;
 
 	private Session m_session;
 	private final CassandraClient m_cassandraClient;
@@ -423,6 +428,7 @@ public class ClusterConnection
 			psDataPointsQueryDesc = m_session.prepare(DATA_POINTS_QUERY_DESC);
 			psDataPointsQueryAscLimit = m_session.prepare(DATA_POINTS_QUERY_ASC_LIMIT);
 			psDataPointsQueryDescLimit = m_session.prepare(DATA_POINTS_QUERY_DESC_LIMIT);
+			psDataPointsQueryWithTtl = m_session.prepare(DATA_POINTS_QUERY_WITH_TTL);
 
 			psRowKeyIndexQuery = m_session.prepare(ROW_KEY_INDEX_QUERY);
 			psRowKeyIndexDelete = m_session.prepare(ROW_KEY_INDEX_DELETE);
@@ -486,6 +492,8 @@ public class ClusterConnection
 		TimeUnit rowTimeUnit = TimeUnit.MILLISECONDS;
 		long rowWidth = DEFAULT_ROW_WIDTH;
 		boolean isLegacy = false;
+		long blockWidth = 0;
+		boolean writeBlocks = false;
 
 		//We only look at configuration for write clusters.  Decreases the chances of
 		//messing up an existing read cluster.
@@ -534,10 +542,34 @@ public class ClusterConnection
 		else if (m_clusterType.contains(Type.WRITE))
 			m_session.execute("INSERT INTO "+SPEC_TABLE_NAME+" (spec_type, name, value) VALUES ('cluster_config', 'row_width', '"+rowWidth+"')");
 
-		logger.info("RowSpec for {}, Legacy: {}, Unit: {}, Width: {}", m_cassandraClient.getClusterConfiguration().getClusterName(),
-				isLegacy, rowTimeUnit, rowWidth);
+		//Block width is only recorded once blocks are written, reads need it to find blocks
+		//even if block_format has since been turned off
+		resultSet = m_session.execute("SELECT value FROM " + SPEC_TABLE_NAME + " WHERE spec_type = 'cluster_config' AND name = 'block_width'");
+		Row blockWidthResult = resultSet.one();
+		if (blockWidthResult != null)
+			blockWidth = Long.parseLong(blockWidthResult.getString(0));
 
-		m_rowSpec = new RowSpec(rowWidth, rowTimeUnit, isLegacy);
+		if (m_clusterType.contains(Type.WRITE) && clusterConfiguration.isBlockFormat())
+		{
+			if (isLegacy)
+			{
+				logger.warn("block_format is not supported on clusters with legacy data, writing one cell per data point");
+			}
+			else
+			{
+				writeBlocks = true;
+				if (blockWidthResult == null)
+				{
+					blockWidth = clusterConfiguration.getBlockWidth();
+					m_session.execute("INSERT INTO "+SPEC_TABLE_NAME+" (spec_type, name, value) VALUES ('cluster_config', 'block_width', '"+blockWidth+"')");
+				}
+			}
+		}
+
+		logger.info("RowSpec for {}, Legacy: {}, Unit: {}, Width: {}, Block Width: {}, Write Blocks: {}", m_cassandraClient.getClusterConfiguration().getClusterName(),
+				isLegacy, rowTimeUnit, rowWidth, blockWidth, writeBlocks);
+
+		m_rowSpec = new RowSpec(rowWidth, rowTimeUnit, isLegacy, blockWidth, writeBlocks);
 		}
 
 	public void close()
@@ -663,6 +695,12 @@ public class ClusterConnection
 		{
 		}
 
+		@Override
+		public boolean returnsAllRowKeys()
+		{
+			return true;
+		}
+
 		protected Statement createInsertStatement(DataPointsRowKey rowKey, int rowKeyTtl)
 		{
 			return
@@ -756,6 +794,12 @@ public class ClusterConnection
 		{
 		}
 
+		@Override
+		public boolean returnsAllRowKeys()
+		{
+			return false;
+		}
+
 		@Override
 		public List<Statement> createInsertStatements(DataPointsRowKey rowKey, int rowKeyTtl)
 		{
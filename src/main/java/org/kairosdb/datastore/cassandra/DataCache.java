@@ -16,12 +16,16 @@
 
 package org.kairosdb.datastore.cassandra;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import org.kairosdb.metrics4j.MetricSourceManager;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  This cache serves two purposes.
@@ -33,21 +37,78 @@ import java.util.Set;
  can use the same row key object over and over.  With row keys we store the
  serialized form of the key so we only have to serialize a row key once.
 
+ The cache is split into segments by hash, each segment is its own LRU with
+ an equal share of the cache size.  This keeps ingest threads from all
+ contending on a single lock.  Eviction is LRU within a segment so overall it
+ is an approximate LRU.  Small caches use a single segment.
+
  The data type must implement hashcode and equal methods.
  */
 public class DataCache<T>
 {
-	private Map<T, T> m_internalMap;
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final List<Segment<T>> m_segments;
+	private final int m_segmentShift;
+	private final LongAdder m_hits = new LongAdder();
+	private final LongAdder m_misses = new LongAdder();
+	private final LongAdder m_evictions = new LongAdder();
 
 	public DataCache(final int cacheSize)
 	{
-		m_internalMap = Collections.synchronizedMap(new LinkedHashMap<T, T>(cacheSize, 1f, true) {
-					@Override
-					protected boolean removeEldestEntry(Map.Entry<T, T> eldest)
-					{
-						return size() > cacheSize;
-					}
-				});
+		this(null, cacheSize);
+	}
+
+	/**
+	 @param name If not null, hit, miss, eviction and size metrics are reported
+	 for this cache tagged with cache=name
+	 @param cacheSize Maximum number of items kept in the cache
+	 */
+	public DataCache(String name, final int cacheSize)
+	{
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENTS && (cacheSize / (segmentCount * 2)) >= MIN_SEGMENT_SIZE)
+			segmentCount *= 2;
+
+		m_segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		m_segments = new ArrayList<>(segmentCount);
+
+		int segmentSize = cacheSize / segmentCount;
+		int remainder = cacheSize % segmentCount;
+		for (int I = 0; I < segmentCount; I++)
+		{
+			m_segments.add(new Segment<>(segmentSize + (I < remainder ? 1 : 0), m_evictions));
+		}
+
+		if (name != null)
+		{
+			Map<String, String> tags = ImmutableMap.of("cache", name);
+			MetricSourceManager.addSource(DataCache.class.getName(), "hits", tags,
+					"Number of cache hits", m_hits::sumThenReset);
+			MetricSourceManager.addSource(DataCache.class.getName(), "misses", tags,
+					"Number of cache misses", m_misses::sumThenReset);
+			MetricSourceManager.addSource(DataCache.class.getName(), "evictions", tags,
+					"Number of items evicted from the cache", m_evictions::sumThenReset);
+			MetricSourceManager.addSource(DataCache.class.getName(), "size", tags,
+					"Number of items in the cache", this::size);
+		}
+	}
+
+	int segmentIndex(Object key)
+	{
+		if (m_segments.size() == 1)
+			return 0;
+
+		//Use the high bits of the mixed hash, the low bits pick the bucket
+		//within the segment's map so using them here would leave most buckets empty
+		int hash = key.hashCode() * 0x9E3779B9;
+		return hash >>> m_segmentShift;
+	}
+
+	private Segment<T> getSegment(Object key)
+	{
+		return m_segments.get(segmentIndex(key));
 	}
 
 	/**
@@ -65,25 +126,94 @@ public class DataCache<T>
 	 */
 	public T cacheItem(T cacheData)
 	{
-		return m_internalMap.putIfAbsent(cacheData, cacheData);
+		Segment<T> segment = getSegment(cacheData);
+		T ret;
+		synchronized (segment)
+		{
+			ret = segment.putIfAbsent(cacheData, cacheData);
+		}
+
+		if (ret == null)
+			m_misses.increment();
+		else
+			m_hits.increment();
+
+		return ret;
 	}
 
 
 	public Set<T> getCachedKeys()
 	{
-		synchronized (m_internalMap)
+		ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+		for (Segment<T> segment : m_segments)
 		{
-			return ImmutableSet.copyOf(m_internalMap.keySet());
+			synchronized (segment)
+			{
+				builder.addAll(segment.keySet());
+			}
 		}
+
+		return builder.build();
 	}
 
 	public void removeKey(T key)
 	{
-		m_internalMap.remove(key);
+		Segment<T> segment = getSegment(key);
+		synchronized (segment)
+		{
+			segment.remove(key);
+		}
 	}
 
 	public void clear()
 	{
-		m_internalMap.clear();
+		for (Segment<T> segment : m_segments)
+		{
+			synchronized (segment)
+			{
+				segment.clear();
+			}
+		}
+	}
+
+	public long size()
+	{
+		long size = 0;
+		for (Segment<T> segment : m_segments)
+		{
+			synchronized (segment)
+			{
+				size += segment.size();
+			}
+		}
+
+		return size;
+	}
+
+	private static class Segment<T> extends LinkedHashMap<T, T>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int m_maxSize;
+		private final LongAdder m_evictions;
+
+		private Segment(int maxSize, LongAdder evictions)
+		{
+			super(maxSize, 1f, true);
+			m_maxSize = maxSize;
+			m_evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<T, T> eldest)
+		{
+			if (size() > m_maxSize)
+			{
+				m_evictions.increment();
+				return true;
+			}
+
+			return false;
+		}
 	}
 }
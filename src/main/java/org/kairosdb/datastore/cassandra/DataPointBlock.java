@@ -0,0 +1,535 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.kairosdb.core.DataPoint;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl.DST_DOUBLE;
+import static org.kairosdb.core.datapoints.LongDataPointFactoryImpl.DST_LONG;
+
+/**
+ Columnar buffer of data points for a single row that can be packed into a
+ single compressed cell.  Column names are delta-of-delta encoded and values
+ are either XOR encoded (doubles) or zig-zag varint encoded deltas (longs) in
+ the style of the Gorilla paper.
+
+ Block cells live in the data_points table next to the legacy one value per
+ cell layout.  A legacy cell has a 4 byte column name, a block cell has a
+ {@link #BLOCK_COLUMN_NAME_SIZE} byte name made up of the smallest column in the
+ block followed by the write time and a salt.  Because the first 4 bytes are the
+ smallest column the block cells sort in with the legacy cells and can be
+ found with the same range queries.
+ */
+public class DataPointBlock
+{
+	public static final byte LONG_BLOCK = 0x1;
+	public static final byte DOUBLE_BLOCK = 0x2;
+
+	public static final int BLOCK_COLUMN_NAME_SIZE = 16;
+
+	private final boolean m_isDouble;
+	private int[] m_columns;
+	private long[] m_values; //doubles are stored as raw long bits
+	private int m_size;
+
+	public DataPointBlock(boolean isDouble)
+	{
+		this(isDouble, 16);
+	}
+
+	public DataPointBlock(boolean isDouble, int capacity)
+	{
+		m_isDouble = isDouble;
+		m_columns = new int[Math.max(capacity, 1)];
+		m_values = new long[Math.max(capacity, 1)];
+	}
+
+	/**
+	 Returns true if the data point can be stored in a block.  Only the default
+	 long and double data store types are supported.
+	 */
+	public static boolean isSupported(DataPoint dataPoint)
+	{
+		return isSupportedType(dataPoint.getDataStoreDataType());
+	}
+
+	public static boolean isSupportedType(String dataStoreType)
+	{
+		return DST_LONG.equals(dataStoreType) || DST_DOUBLE.equals(dataStoreType);
+	}
+
+	public static boolean isDoubleType(String dataStoreType)
+	{
+		return DST_DOUBLE.equals(dataStoreType);
+	}
+
+	public static boolean isBlockColumn(ByteBuffer columnName)
+	{
+		return columnName.remaining() == BLOCK_COLUMN_NAME_SIZE;
+	}
+
+	public static ByteBuffer createColumnName(int firstColumn, long writeTime, int salt)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_COLUMN_NAME_SIZE);
+		buffer.putInt(firstColumn);
+		buffer.putLong(writeTime);
+		buffer.putInt(salt);
+		buffer.rewind();
+
+		return buffer;
+	}
+
+	public boolean isDouble()
+	{
+		return m_isDouble;
+	}
+
+	public int size()
+	{
+		return m_size;
+	}
+
+	public void clear()
+	{
+		m_size = 0;
+	}
+
+	public int getColumn(int index)
+	{
+		return m_columns[index];
+	}
+
+	public long getLongValue(int index)
+	{
+		return m_values[index];
+	}
+
+	public double getDoubleValue(int index)
+	{
+		return Double.longBitsToDouble(m_values[index]);
+	}
+
+	public void add(int column, DataPoint dataPoint)
+	{
+		if (m_isDouble)
+			addDouble(column, dataPoint.getDoubleValue());
+		else
+			addLong(column, dataPoint.getLongValue());
+	}
+
+	public void addLong(int column, long value)
+	{
+		addRaw(column, value);
+	}
+
+	public void addDouble(int column, double value)
+	{
+		addRaw(column, Double.doubleToRawLongBits(value));
+	}
+
+	private void addRaw(int column, long value)
+	{
+		if (m_size == m_columns.length)
+		{
+			int newSize = m_size * 2;
+			m_columns = Arrays.copyOf(m_columns, newSize);
+			m_values = Arrays.copyOf(m_values, newSize);
+		}
+
+		m_columns[m_size] = column;
+		m_values[m_size] = value;
+		m_size ++;
+	}
+
+	/**
+	 Sorts the points by column in ascending order.  When the same column was
+	 added more than once the last value added is kept, this mirrors how an
+	 overwritten cell behaves.
+	 */
+	public void sortAndDedupe()
+	{
+		boolean sorted = true;
+		for (int I = 1; I < m_size; I++)
+		{
+			if (m_columns[I - 1] >= m_columns[I])
+			{
+				sorted = false;
+				break;
+			}
+		}
+
+		if (sorted)
+			return;
+
+		//Columns are never negative so we can sort on column and insertion order at once
+		long[] keys = new long[m_size];
+		for (int I = 0; I < m_size; I++)
+			keys[I] = ((long)m_columns[I] << 32) | I;
+
+		Arrays.sort(keys);
+
+		int[] columns = new int[m_size];
+		long[] values = new long[m_size];
+		int count = 0;
+		for (int I = 0; I < keys.length; I++)
+		{
+			int index = (int)keys[I];
+			int column = (int)(keys[I] >>> 32);
+
+			if (count != 0 && columns[count - 1] == column)
+				count --; //later value replaces the earlier one
+
+			columns[count] = column;
+			values[count] = m_values[index];
+			count ++;
+		}
+
+		m_columns = columns;
+		m_values = values;
+		m_size = count;
+	}
+
+	/**
+	 Moves the points from this block that fall within the range into a new block.
+	 @param startColumn inclusive start
+	 @param endColumn inclusive end
+	 @return points within the range
+	 */
+	public DataPointBlock split(int startColumn, int endColumn)
+	{
+		DataPointBlock ret = new DataPointBlock(m_isDouble, m_size);
+		int count = 0;
+		for (int I = 0; I < m_size; I++)
+		{
+			if (m_columns[I] >= startColumn && m_columns[I] <= endColumn)
+			{
+				ret.addRaw(m_columns[I], m_values[I]);
+			}
+			else
+			{
+				m_columns[count] = m_columns[I];
+				m_values[count] = m_values[I];
+				count ++;
+			}
+		}
+
+		m_size = count;
+		return ret;
+	}
+
+	/**
+	 Encodes the block.  The block must be sorted, see {@link #sortAndDedupe()}
+	 @return encoded cell value
+	 */
+	public ByteBuffer encode()
+	{
+		BitWriter writer = new BitWriter(8 + (m_size * 3));
+
+		writer.writeByte(m_isDouble ? DOUBLE_BLOCK : LONG_BLOCK);
+		writer.writeVarLong(m_size);
+
+		if (m_size == 0)
+			return writer.toByteBuffer();
+
+		writer.writeVarLong(m_columns[0]);
+		long prevDelta = 0;
+
+		int prevLeading = Integer.MAX_VALUE;
+		int prevTrailing = 0;
+
+		for (int I = 0; I < m_size; I++)
+		{
+			if (I != 0)
+			{
+				long delta = (long)m_columns[I] - m_columns[I - 1];
+				writeDeltaOfDelta(writer, delta - prevDelta);
+				prevDelta = delta;
+			}
+
+			if (m_isDouble)
+			{
+				if (I == 0)
+				{
+					writer.writeBits(m_values[0], 64);
+					continue;
+				}
+
+				long xor = m_values[I] ^ m_values[I - 1];
+				if (xor == 0)
+				{
+					writer.writeBit(false);
+					continue;
+				}
+
+				writer.writeBit(true);
+				int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				int trailing = Long.numberOfTrailingZeros(xor);
+
+				if (leading >= prevLeading && trailing >= prevTrailing)
+				{
+					//Fits in the previous window
+					writer.writeBit(false);
+					writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+				}
+				else
+				{
+					int significant = 64 - leading - trailing;
+					writer.writeBit(true);
+					writer.writeBits(leading, 5);
+					writer.writeBits(significant - 1, 6);
+					writer.writeBits(xor >>> trailing, significant);
+					prevLeading = leading;
+					prevTrailing = trailing;
+				}
+			}
+			else
+			{
+				long prev = (I == 0) ? 0L : m_values[I - 1];
+				writer.writeVarLong(zigZag(m_values[I] - prev));
+			}
+		}
+
+		return writer.toByteBuffer();
+	}
+
+	private static void writeDeltaOfDelta(BitWriter writer, long deltaOfDelta)
+	{
+		long value = zigZag(deltaOfDelta);
+
+		if (value == 0)
+		{
+			writer.writeBit(false);
+		}
+		else if (value < (1L << 7))
+		{
+			writer.writeBits(0b10, 2);
+			writer.writeBits(value, 7);
+		}
+		else if (value < (1L << 9))
+		{
+			writer.writeBits(0b110, 3);
+			writer.writeBits(value, 9);
+		}
+		else if (value < (1L << 12))
+		{
+			writer.writeBits(0b1110, 4);
+			writer.writeBits(value, 12);
+		}
+		else
+		{
+			writer.writeBits(0b1111, 4);
+			writer.writeBits(value, 64);
+		}
+	}
+
+	private static long readDeltaOfDelta(BitReader reader)
+	{
+		int bits;
+		if (!reader.readBit())
+			return 0;
+		else if (!reader.readBit())
+			bits = 7;
+		else if (!reader.readBit())
+			bits = 9;
+		else if (!reader.readBit())
+			bits = 12;
+		else
+			bits = 64;
+
+		return unZigZag(reader.readBits(bits));
+	}
+
+	/**
+	 Decodes a block cell value and appends the points to the destination block.
+	 The buffer position is not modified.
+	 @param value encoded cell value
+	 @param dest block to append to, must be of the same value type as the encoded block
+	 @return dest
+	 */
+	public static DataPointBlock decode(ByteBuffer value, DataPointBlock dest)
+	{
+		BitReader reader = new BitReader(value.duplicate());
+
+		byte type = reader.readByte();
+		if (type != LONG_BLOCK && type != DOUBLE_BLOCK)
+			throw new IllegalArgumentException("Unknown data point block type "+type);
+
+		boolean isDouble = (type == DOUBLE_BLOCK);
+		if (isDouble != dest.m_isDouble)
+			throw new IllegalArgumentException("Data point block type does not match row type");
+
+		int size = (int)reader.readVarLong();
+		if (size == 0)
+			return dest;
+
+		long column = reader.readVarLong();
+		long delta = 0;
+		long value0 = 0;
+
+		int leading = 0;
+		int trailing = 0;
+
+		for (int I = 0; I < size; I++)
+		{
+			if (I != 0)
+			{
+				delta += readDeltaOfDelta(reader);
+				column += delta;
+			}
+
+			if (isDouble)
+			{
+				if (I == 0)
+				{
+					value0 = reader.readBits(64);
+				}
+				else if (reader.readBit())
+				{
+					if (reader.readBit())
+					{
+						leading = (int)reader.readBits(5);
+						int significant = (int)reader.readBits(6) + 1;
+						trailing = 64 - leading - significant;
+					}
+
+					value0 ^= reader.readBits(64 - leading - trailing) << trailing;
+				}
+			}
+			else
+			{
+				value0 += unZigZag(reader.readVarLong());
+			}
+
+			dest.addRaw((int)column, value0);
+		}
+
+		return dest;
+	}
+
+	private static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static class BitWriter
+	{
+		private byte[] m_buffer;
+		private int m_position;  //in bits
+
+		public BitWriter(int initialSize)
+		{
+			m_buffer = new byte[Math.max(initialSize, 8)];
+		}
+
+		private void ensureCapacity(int bits)
+		{
+			int requiredBytes = ((m_position + bits) >>> 3) + 1;
+			if (requiredBytes > m_buffer.length)
+				m_buffer = Arrays.copyOf(m_buffer, Math.max(requiredBytes, m_buffer.length * 2));
+		}
+
+		public void writeBit(boolean bit)
+		{
+			ensureCapacity(1);
+			if (bit)
+				m_buffer[m_position >>> 3] |= (byte)(0x80 >>> (m_position & 0x7));
+			m_position ++;
+		}
+
+		/**
+		 Writes the low order bits of value, most significant bit first
+		 */
+		public void writeBits(long value, int bits)
+		{
+			ensureCapacity(bits);
+			for (int I = bits - 1; I >= 0; I--)
+			{
+				if (((value >>> I) & 1L) != 0)
+					m_buffer[m_position >>> 3] |= (byte)(0x80 >>> (m_position & 0x7));
+				m_position ++;
+			}
+		}
+
+		public void writeByte(byte value)
+		{
+			writeBits(value & 0xFF, 8);
+		}
+
+		public void writeVarLong(long value)
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				writeBits((value & 0x7F) | 0x80, 8);
+				value >>>= 7;
+			}
+			writeBits(value, 8);
+		}
+
+		public ByteBuffer toByteBuffer()
+		{
+			return ByteBuffer.wrap(m_buffer, 0, (m_position + 7) >>> 3).slice();
+		}
+	}
+
+	private static class BitReader
+	{
+		private final ByteBuffer m_buffer;
+		private final int m_start;
+		private long m_position;  //in bits
+
+		public BitReader(ByteBuffer buffer)
+		{
+			m_buffer = buffer;
+			m_start = buffer.position();
+		}
+
+		public boolean readBit()
+		{
+			int index = m_start + (int)(m_position >>> 3);
+			if (index >= m_buffer.limit())
+				throw new IllegalArgumentException("Data point block is truncated");
+
+			boolean bit = (m_buffer.get(index) & (0x80 >>> (m_position & 0x7))) != 0;
+			m_position ++;
+			return bit;
+		}
+
+		public long readBits(int bits)
+		{
+			long ret = 0L;
+			for (int I = 0; I < bits; I++)
+			{
+				ret <<= 1;
+				if (readBit())
+					ret |= 1L;
+			}
+
+			return ret;
+		}
+
+		public byte readByte()
+		{
+			return (byte)readBits(8);
+		}
+
+		public long readVarLong()
+		{
+			long ret = 0L;
+			int shift = 0;
+			while (true)
+			{
+				long b = readBits(8);
+				ret |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return ret;
+				shift += 7;
+			}
+		}
+	}
+}
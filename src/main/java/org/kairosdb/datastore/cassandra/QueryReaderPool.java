@@ -0,0 +1,143 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kairosdb.metrics4j.MetricSourceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Shared pool of threads used to read the results of cql queries.  Each query
+ reads through its own executor from newQueryExecutor, which has at most
+ maxPerQuery tasks on the pool at a time and goes to the back of the pool's
+ queue after every task.  That way one query with a lot of rows takes turns
+ with the others instead of filling the queue ahead of them.
+ */
+public class QueryReaderPool
+{
+	public static final Logger logger = LoggerFactory.getLogger(QueryReaderPool.class);
+	private static final CassandraStats stats = MetricSourceManager.getSource(CassandraStats.class);
+
+	private final ThreadPoolExecutor m_executor;
+	private final int m_maxPerQuery;
+	private final AtomicInteger m_queuedTasks = new AtomicInteger();
+
+	public QueryReaderPool(int poolSize, int maxPerQuery)
+	{
+		checkArgument(poolSize > 0, "Query reader pool size must be greater than 0");
+		checkArgument(maxPerQuery > 0, "Query reader threads must be greater than 0");
+
+		m_maxPerQuery = maxPerQuery;
+		m_executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				new ThreadFactoryBuilder().setNameFormat("query_reader-%d").setDaemon(true).build());
+		m_executor.allowCoreThreadTimeOut(true);
+
+		MetricSourceManager.addSource(QueryReaderPool.class.getName(), "queryReaderQueueDepth",
+				Collections.emptyMap(), "Number of query reader tasks waiting to run", this::getQueuedTaskCount);
+	}
+
+	public Executor newQueryExecutor()
+	{
+		return new QueryExecutor();
+	}
+
+	public int getQueuedTaskCount()
+	{
+		return m_queuedTasks.get();
+	}
+
+	public void shutdown()
+	{
+		m_executor.shutdown();
+	}
+
+	private static class QueuedTask
+	{
+		private final Runnable m_command;
+		private final long m_queuedTime;
+
+		private QueuedTask(Runnable command)
+		{
+			m_command = command;
+			m_queuedTime = System.nanoTime();
+		}
+	}
+
+	private class QueryExecutor implements Executor
+	{
+		private final Queue<QueuedTask> m_tasks = new ArrayDeque<>();
+		private int m_running = 0;
+
+		@Override
+		public void execute(Runnable command)
+		{
+			boolean submit;
+			synchronized (this)
+			{
+				m_tasks.add(new QueuedTask(command));
+				submit = m_running < m_maxPerQuery;
+				if (submit)
+					m_running++;
+			}
+
+			m_queuedTasks.incrementAndGet();
+
+			if (submit)
+				m_executor.execute(this::runNext);
+		}
+
+		private void runNext()
+		{
+			try
+			{
+				QueuedTask task;
+				synchronized (this)
+				{
+					task = m_tasks.poll();
+				}
+
+				if (task != null)
+				{
+					m_queuedTasks.decrementAndGet();
+					stats.queryReaderQueueTime().put(Duration.ofNanos(System.nanoTime() - task.m_queuedTime));
+
+					try
+					{
+						task.m_command.run();
+					}
+					catch (RuntimeException e)
+					{
+						logger.error("Query reader task failed", e);
+					}
+				}
+			}
+			finally
+			{
+				//An Error thrown by the task must not lose the reader slot
+				boolean resubmit;
+				synchronized (this)
+				{
+					resubmit = !m_tasks.isEmpty();
+					if (!resubmit)
+						m_running--;
+				}
+
+				//Back of the line so other queries get a turn
+				if (resubmit)
+					m_executor.execute(this::runNext);
+			}
+		}
+	}
+}
@@ -7,7 +7,9 @@ import com.datastax.driver.core.Row;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.primitives.UnsignedInteger;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -168,22 +170,42 @@ class RowCountEstimatingRowKeyResultSet implements ResultSet
 	@Override
 	public boolean isFullyFetched()
 	{
-		// TODO If we want to use this as a real ResultSet, this will need to get implemented
-		throw new UnsupportedOperationException("Not yet implemented");
+		for (ResultSet delegateResultSet : delegateResultSets)
+		{
+			if (!delegateResultSet.isFullyFetched())
+				return false;
+		}
+		return true;
 	}
 
+	/**
+	 * Returns the rows the delegate ResultSets have fetched, the sampled rows in the buffer are not counted.
+	 */
 	@Override
 	public int getAvailableWithoutFetching()
 	{
-		// TODO If we want to use this as a real ResultSet, this will need to get implemented
-		throw new UnsupportedOperationException("Not yet implemented");
+		int available = 0;
+		for (ResultSet delegateResultSet : delegateResultSets)
+		{
+			available += delegateResultSet.getAvailableWithoutFetching();
+		}
+		return available;
 	}
 
+	/**
+	 * Fetches the next page of the first delegate ResultSet that is not fully fetched, as the delegates
+	 * are read in order.
+	 */
 	@Override
 	public ListenableFuture<ResultSet> fetchMoreResults()
 	{
-		// TODO If we want to use this as a real ResultSet, this will need to get implemented
-		throw new UnsupportedOperationException("Not yet implemented");
+		for (ResultSet delegateResultSet : delegateResultSets)
+		{
+			if (!delegateResultSet.isFullyFetched())
+				return Futures.transform(delegateResultSet.fetchMoreResults(), resultSet -> this,
+						MoreExecutors.directExecutor());
+		}
+		return Futures.immediateFuture(this);
 	}
 
 	@Override
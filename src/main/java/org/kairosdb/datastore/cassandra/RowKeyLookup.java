@@ -33,6 +33,13 @@ interface RowKeyLookup
 
 	ListenableFuture<ResultSet> queryRowKeys(String metricName, long rowKeyTimestamp, SetMultimap<String, String> tags);
 
+	/**
+	 * Returns true if {@link #queryRowKeys} returns every row key of the time bucket regardless of the tags.
+	 */
+	default boolean returnsAllRowKeys() {
+		return false;
+	}
+
 
 	/**
 	 * Provides Statements for querying row keys for a given metric, timestamp, and tag filter, and a processor
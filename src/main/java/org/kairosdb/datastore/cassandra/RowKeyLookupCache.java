@@ -0,0 +1,357 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.inject.Inject;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.RowKeyEvent;
+import org.kairosdb.metrics4j.MetricSourceManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Caches the results of row key index lookups so repeated queries for the same
+ metric and tags do not read the index again.  Two kinds of lookups are cached,
+ the row keys of one time bucket for a tag filter and the list of time buckets
+ from the row_key_time_index.
+
+ Lookups of closed buckets (the bucket ends before now) do not change so they
+ stay until they are evicted.  Lookups that include the current bucket are
+ invalidated by RowKeyEvents from the local BatchHandler and also expire after
+ the current bucket ttl so new row keys written by other nodes are picked up.
+
+ The size of the cache is the number of row keys and bucket times held.
+ */
+public class RowKeyLookupCache
+{
+	private static final int GENERATION_STRIPES = 1024;
+	private static final int CONCURRENCY_LEVEL = 4;
+
+	private final Cache<LookupKey, List<?>> m_closedBuckets;
+	private final Cache<LookupKey, List<?>> m_currentBuckets;
+	private final boolean m_enabled;
+	private final boolean m_cacheCurrentBuckets;
+	private final long m_maxEntrySize;
+	//Keys that are cached for each metric name, used to invalidate entries
+	private final Map<String, Set<LookupKey>> m_metricKeys = new ConcurrentHashMap<>();
+	//Bumped when a metric is invalidated so lookups that were reading at the
+	//same time do not put stale results in the cache
+	private final AtomicLongArray m_generations = new AtomicLongArray(GENERATION_STRIPES);
+	private final LongAdder m_hits = new LongAdder();
+	private final LongAdder m_misses = new LongAdder();
+
+	@Inject
+	public RowKeyLookupCache(CassandraConfiguration configuration)
+	{
+		this(configuration.getRowKeyLookupCacheSize(), configuration.getRowKeyLookupCacheCurrentTtl());
+
+		Map<String, String> tags = ImmutableMap.of("cache", "row_key_lookup");
+		MetricSourceManager.addSource(DataCache.class.getName(), "hits", tags,
+				"Number of cache hits", m_hits::sumThenReset);
+		MetricSourceManager.addSource(DataCache.class.getName(), "misses", tags,
+				"Number of cache misses", m_misses::sumThenReset);
+		MetricSourceManager.addSource(DataCache.class.getName(), "size", tags,
+				"Number of items in the cache", this::size);
+	}
+
+	/**
+	 @param cacheSize Maximum number of row keys and bucket times held, 0 disables the cache
+	 @param currentBucketTtl Milliseconds lookups of the current bucket are kept, 0
+	 means only closed buckets are cached
+	 */
+	public RowKeyLookupCache(long cacheSize, long currentBucketTtl)
+	{
+		m_enabled = cacheSize > 0;
+		m_cacheCurrentBuckets = currentBucketTtl > 0;
+		//Each segment of the cache gets an equal share of the weight, a larger entry is evicted right away
+		m_maxEntrySize = Math.max(1, cacheSize / 2) / CONCURRENCY_LEVEL - 1;
+
+		RemovalListener<LookupKey, List<?>> removalListener = notification ->
+		{
+			LookupKey key = notification.getKey();
+			//The key may have been put again or moved from the current to the closed buckets
+			if (notification.getCause() == RemovalCause.REPLACED || isCached(key))
+				return;
+
+			m_metricKeys.computeIfPresent(key.m_metricName, (metric, keys) ->
+			{
+				keys.remove(key);
+				return keys.isEmpty() ? null : keys;
+			});
+		};
+
+		//Split the size so one kind of lookup cannot push out all of the other
+		m_closedBuckets = CacheBuilder.newBuilder()
+				.maximumWeight(Math.max(1, cacheSize / 2))
+				.concurrencyLevel(CONCURRENCY_LEVEL)
+				.weigher((LookupKey key, List<?> value) -> value.size() + 1)
+				.removalListener(removalListener)
+				.build();
+
+		m_currentBuckets = CacheBuilder.newBuilder()
+				.maximumWeight(Math.max(1, cacheSize / 2))
+				.concurrencyLevel(CONCURRENCY_LEVEL)
+				.weigher((LookupKey key, List<?> value) -> value.size() + 1)
+				.expireAfterWrite(Math.max(1, currentBucketTtl), TimeUnit.MILLISECONDS)
+				.removalListener(removalListener)
+				.build();
+	}
+
+	public boolean isEnabled()
+	{
+		return m_enabled;
+	}
+
+	/**
+	 Most row keys a bucket lookup can have and still be cached
+	 */
+	public long getMaxEntrySize()
+	{
+		return m_maxEntrySize;
+	}
+
+	private int stripe(String metricName)
+	{
+		int hash = metricName.hashCode();
+		hash ^= (hash >>> 16);
+		return hash & (GENERATION_STRIPES - 1);
+	}
+
+	/**
+	 Call before reading the index, the returned value is passed to the put
+	 methods once the read is done.
+	 */
+	public long getGeneration(String metricName)
+	{
+		return m_generations.get(stripe(metricName));
+	}
+
+	private List<?> get(LookupKey key)
+	{
+		if (!m_enabled)
+			return null;
+
+		List<?> ret = m_closedBuckets.getIfPresent(key);
+		if (ret == null)
+			ret = m_currentBuckets.getIfPresent(key);
+
+		if (ret == null)
+			m_misses.increment();
+		else
+			m_hits.increment();
+
+		return ret;
+	}
+
+	private void put(LookupKey key, List<?> value, boolean closed, long generation)
+	{
+		if (!m_enabled || (!closed && !m_cacheCurrentBuckets))
+			return;
+
+		m_metricKeys.computeIfAbsent(key.m_metricName, metric -> ConcurrentHashMap.newKeySet()).add(key);
+
+		if (closed)
+			m_closedBuckets.put(key, value);
+		else
+			m_currentBuckets.put(key, value);
+
+		//An invalidation happened while the index was read, the value may be missing keys
+		if (generation != getGeneration(key.m_metricName))
+			invalidate(key);
+	}
+
+	private boolean isCached(LookupKey key)
+	{
+		return m_closedBuckets.asMap().containsKey(key) || m_currentBuckets.asMap().containsKey(key);
+	}
+
+	private void invalidate(LookupKey key)
+	{
+		m_closedBuckets.invalidate(key);
+		m_currentBuckets.invalidate(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<DataPointsRowKey> getRowKeys(String clusterName, String metricName, long rowTime,
+			SetMultimap<String, String> filterTags)
+	{
+		return (List<DataPointsRowKey>) get(new BucketKey(clusterName, metricName, rowTime, filterTags));
+	}
+
+	public void putRowKeys(String clusterName, String metricName, long rowTime,
+			SetMultimap<String, String> filterTags, List<DataPointsRowKey> rowKeys,
+			boolean closed, long generation)
+	{
+		put(new BucketKey(clusterName, metricName, rowTime, filterTags), ImmutableList.copyOf(rowKeys),
+				closed, generation);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<Long> getBucketTimes(String clusterName, String metricName, long startRowTime, long endRowTime)
+	{
+		return (List<Long>) get(new TimeIndexKey(clusterName, metricName, startRowTime, endRowTime));
+	}
+
+	public void putBucketTimes(String clusterName, String metricName, long startRowTime, long endRowTime,
+			List<Long> bucketTimes, boolean closed, long generation)
+	{
+		put(new TimeIndexKey(clusterName, metricName, startRowTime, endRowTime), ImmutableList.copyOf(bucketTimes),
+				closed, generation);
+	}
+
+	/**
+	 Removes all lookups for the metric, used when data is deleted.
+	 */
+	public void invalidateMetric(String metricName)
+	{
+		m_generations.incrementAndGet(stripe(metricName));
+
+		Set<LookupKey> keys = m_metricKeys.get(metricName);
+		if (keys != null)
+		{
+			for (LookupKey key : keys)
+			{
+				invalidate(key);
+			}
+		}
+	}
+
+	@Subscribe
+	public void rowKeyCreated(RowKeyEvent event)
+	{
+		if (!m_enabled)
+			return;
+
+		String metricName = event.getMetricName();
+		DataPointsRowKey rowKey = event.getRowKey();
+
+		m_generations.incrementAndGet(stripe(metricName));
+
+		Set<LookupKey> keys = m_metricKeys.get(metricName);
+		if (keys == null)
+			return;
+
+		for (LookupKey key : keys)
+		{
+			if (!key.m_clusterName.equals(rowKey.getClusterName()))
+				continue;
+
+			List<?> value = m_closedBuckets.getIfPresent(key);
+			if (value == null)
+				value = m_currentBuckets.getIfPresent(key);
+
+			if (value != null && key.isChangedBy(rowKey, value))
+				invalidate(key);
+		}
+	}
+
+	public long size()
+	{
+		return m_closedBuckets.size() + m_currentBuckets.size();
+	}
+
+	private static abstract class LookupKey
+	{
+		protected final String m_clusterName;
+		protected final String m_metricName;
+
+		private LookupKey(String clusterName, String metricName)
+		{
+			m_clusterName = clusterName;
+			m_metricName = metricName;
+		}
+
+		/**
+		 Returns true if the cached value no longer holds after the row key was added
+		 */
+		abstract boolean isChangedBy(DataPointsRowKey rowKey, List<?> value);
+	}
+
+	private static class BucketKey extends LookupKey
+	{
+		private final long m_rowTime;
+		private final ImmutableSetMultimap<String, String> m_filterTags;
+
+		private BucketKey(String clusterName, String metricName, long rowTime, SetMultimap<String, String> filterTags)
+		{
+			super(clusterName, metricName);
+			m_rowTime = rowTime;
+			m_filterTags = ImmutableSetMultimap.copyOf(filterTags);
+		}
+
+		@Override
+		boolean isChangedBy(DataPointsRowKey rowKey, List<?> value)
+		{
+			return rowKey.getTimestamp() == m_rowTime;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			BucketKey that = (BucketKey) o;
+			return m_rowTime == that.m_rowTime &&
+					m_clusterName.equals(that.m_clusterName) &&
+					m_metricName.equals(that.m_metricName) &&
+					m_filterTags.equals(that.m_filterTags);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(m_clusterName, m_metricName, m_rowTime, m_filterTags);
+		}
+	}
+
+	private static class TimeIndexKey extends LookupKey
+	{
+		private final long m_startRowTime;
+		private final long m_endRowTime;
+
+		private TimeIndexKey(String clusterName, String metricName, long startRowTime, long endRowTime)
+		{
+			super(clusterName, metricName);
+			m_startRowTime = startRowTime;
+			m_endRowTime = endRowTime;
+		}
+
+		@Override
+		boolean isChangedBy(DataPointsRowKey rowKey, List<?> value)
+		{
+			long rowTime = rowKey.getTimestamp();
+			return rowTime >= m_startRowTime && rowTime <= m_endRowTime && !value.contains(rowTime);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			TimeIndexKey that = (TimeIndexKey) o;
+			return m_startRowTime == that.m_startRowTime &&
+					m_endRowTime == that.m_endRowTime &&
+					m_clusterName.equals(that.m_clusterName) &&
+					m_metricName.equals(that.m_metricName);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(m_clusterName, m_metricName, m_startRowTime, m_endRowTime);
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.SetMultimap;
+import com.google.inject.Inject;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.RowKeyEvent;
+import org.kairosdb.metrics4j.MetricSourceManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ In memory inverted index of the row keys of a metric for each time bucket.
+ Each row key in a bucket gets an id and every tag pair keeps a sorted list of
+ the ids that have it.  A tag filter is answered by merging the lists of the
+ values of each tag, exact and regex, and intersecting the results across
+ tags so only the matching row keys are looked at.
+
+ Buckets are indexed when their row keys are read from the row_keys table and
+ are kept up to date from RowKeyEvents, which are posted once the row key is
+ written so a bucket read after an event always has its key.  Like the RowKeyLookupCache closed
+ buckets stay until evicted and the current bucket is dropped after the
+ current bucket ttl so row keys written by other nodes are picked up.  A
+ bucket that is not indexed returns null and is read from Cassandra.
+
+ The size is the number of row keys indexed, it is checked when a bucket is
+ indexed so keys added from events can grow it past the size.
+ */
+public class RowKeyTagIndex
+{
+	private static final int GENERATION_STRIPES = 1024;
+	private static final int CONCURRENCY_LEVEL = 4;
+
+	private final Cache<BucketId, BucketIndex> m_closedBuckets;
+	private final Cache<BucketId, BucketIndex> m_currentBuckets;
+	private final boolean m_enabled;
+	private final boolean m_indexCurrentBuckets;
+	private final long m_maxBucketSize;
+	//Bumped on each row key event so a bucket read at the same time is not
+	//indexed without the new key
+	private final AtomicLongArray m_generations = new AtomicLongArray(GENERATION_STRIPES);
+	private final LongAdder m_hits = new LongAdder();
+	private final LongAdder m_misses = new LongAdder();
+
+	@Inject
+	public RowKeyTagIndex(CassandraConfiguration configuration)
+	{
+		this(configuration.getRowKeyTagIndexSize(), configuration.getRowKeyLookupCacheCurrentTtl());
+
+		Map<String, String> tags = ImmutableMap.of("cache", "row_key_tag_index");
+		MetricSourceManager.addSource(DataCache.class.getName(), "hits", tags,
+				"Number of cache hits", m_hits::sumThenReset);
+		MetricSourceManager.addSource(DataCache.class.getName(), "misses", tags,
+				"Number of cache misses", m_misses::sumThenReset);
+		MetricSourceManager.addSource(DataCache.class.getName(), "size", tags,
+				"Number of row keys in the index", this::size);
+	}
+
+	/**
+	 @param indexSize Maximum number of row keys indexed, 0 disables the index
+	 @param currentBucketTtl Milliseconds the current bucket is kept, 0 means
+	 only closed buckets are indexed
+	 */
+	public RowKeyTagIndex(long indexSize, long currentBucketTtl)
+	{
+		m_enabled = indexSize > 0;
+		m_indexCurrentBuckets = currentBucketTtl > 0;
+		//Each segment of the cache gets an equal share of the weight, a larger bucket is evicted right away
+		m_maxBucketSize = Math.max(1, indexSize / 2) / CONCURRENCY_LEVEL - 1;
+
+		m_closedBuckets = CacheBuilder.newBuilder()
+				.maximumWeight(Math.max(1, indexSize / 2))
+				.concurrencyLevel(CONCURRENCY_LEVEL)
+				.weigher((BucketId key, BucketIndex value) -> value.size() + 1)
+				.build();
+
+		m_currentBuckets = CacheBuilder.newBuilder()
+				.maximumWeight(Math.max(1, indexSize / 2))
+				.concurrencyLevel(CONCURRENCY_LEVEL)
+				.weigher((BucketId key, BucketIndex value) -> value.size() + 1)
+				.expireAfterWrite(Math.max(1, currentBucketTtl), TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	public boolean isEnabled()
+	{
+		return m_enabled;
+	}
+
+	/**
+	 Most row keys a bucket can have and still be indexed
+	 */
+	public long getMaxBucketSize()
+	{
+		return m_maxBucketSize;
+	}
+
+	private int stripe(String metricName)
+	{
+		int hash = metricName.hashCode();
+		hash ^= (hash >>> 16);
+		return hash & (GENERATION_STRIPES - 1);
+	}
+
+	/**
+	 Call before reading the bucket, the returned value is passed to putRowKeys.
+	 */
+	public long getGeneration(String metricName)
+	{
+		return m_generations.get(stripe(metricName));
+	}
+
+	private BucketIndex getBucket(BucketId id)
+	{
+		BucketIndex ret = m_closedBuckets.getIfPresent(id);
+		if (ret == null)
+			ret = m_currentBuckets.getIfPresent(id);
+
+		return ret;
+	}
+
+	/**
+	 Returns the row keys of the bucket that match the filter or null if the
+	 bucket is not indexed.
+	 @param filterTags Exact tag values to match
+	 @param patternFilter Regex to match for a tag, a tag matches if it matches
+	 one of the exact values or the regex
+	 */
+	public List<DataPointsRowKey> getRowKeys(String clusterName, String metricName, long rowTime,
+			SetMultimap<String, String> filterTags, Map<String, Pattern> patternFilter)
+	{
+		if (!m_enabled)
+			return null;
+
+		BucketIndex bucket = getBucket(new BucketId(clusterName, metricName, rowTime));
+		if (bucket == null)
+		{
+			m_misses.increment();
+			return null;
+		}
+
+		m_hits.increment();
+		return bucket.find(filterTags, patternFilter);
+	}
+
+	/**
+	 Indexes all of the row keys of a bucket.
+	 */
+	public void putRowKeys(String clusterName, String metricName, long rowTime, List<DataPointsRowKey> rowKeys,
+			boolean closed, long generation)
+	{
+		if (!m_enabled || (!closed && !m_indexCurrentBuckets))
+			return;
+
+		BucketIndex bucket = new BucketIndex();
+		for (DataPointsRowKey rowKey : rowKeys)
+		{
+			bucket.add(rowKey);
+		}
+
+		BucketId id = new BucketId(clusterName, metricName, rowTime);
+		if (closed)
+			m_closedBuckets.put(id, bucket);
+		else
+			m_currentBuckets.put(id, bucket);
+
+		//A row key was added while the bucket was read, it may be missing
+		if (generation != getGeneration(metricName))
+		{
+			m_closedBuckets.invalidate(id);
+			m_currentBuckets.invalidate(id);
+		}
+	}
+
+	/**
+	 Removes all buckets of the metric, used when data is deleted.
+	 */
+	public void invalidateMetric(String metricName)
+	{
+		m_generations.incrementAndGet(stripe(metricName));
+		m_closedBuckets.asMap().keySet().removeIf(id -> id.m_metricName.equals(metricName));
+		m_currentBuckets.asMap().keySet().removeIf(id -> id.m_metricName.equals(metricName));
+	}
+
+	@Subscribe
+	public void rowKeyCreated(RowKeyEvent event)
+	{
+		if (!m_enabled)
+			return;
+
+		DataPointsRowKey rowKey = event.getRowKey();
+		m_generations.incrementAndGet(stripe(event.getMetricName()));
+
+		BucketIndex bucket = getBucket(new BucketId(rowKey.getClusterName(), event.getMetricName(),
+				rowKey.getTimestamp()));
+		if (bucket != null)
+			bucket.add(rowKey);
+	}
+
+	/**
+	 Number of row keys indexed
+	 */
+	public long size()
+	{
+		long size = 0;
+		for (BucketIndex bucket : m_closedBuckets.asMap().values())
+		{
+			size += bucket.size();
+		}
+
+		for (BucketIndex bucket : m_currentBuckets.asMap().values())
+		{
+			size += bucket.size();
+		}
+
+		return size;
+	}
+
+	private static class BucketId
+	{
+		private final String m_clusterName;
+		private final String m_metricName;
+		private final long m_rowTime;
+
+		private BucketId(String clusterName, String metricName, long rowTime)
+		{
+			m_clusterName = clusterName;
+			m_metricName = metricName;
+			m_rowTime = rowTime;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			BucketId that = (BucketId) o;
+			return m_rowTime == that.m_rowTime &&
+					m_clusterName.equals(that.m_clusterName) &&
+					m_metricName.equals(that.m_metricName);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(m_clusterName, m_metricName, m_rowTime);
+		}
+	}
+
+	/**
+	 Ids that have a tag pair, ids are added in increasing order so the list
+	 is always sorted.
+	 */
+	private static class PostingList
+	{
+		private int[] m_ids = new int[4];
+		private int m_size = 0;
+
+		private void add(int id)
+		{
+			if (m_size == m_ids.length)
+				m_ids = Arrays.copyOf(m_ids, m_size * 2);
+
+			m_ids[m_size++] = id;
+		}
+
+		private int[] toArray()
+		{
+			return Arrays.copyOf(m_ids, m_size);
+		}
+	}
+
+	static class BucketIndex
+	{
+		private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+		private final List<DataPointsRowKey> m_rowKeys = new ArrayList<>();
+		private final Set<DataPointsRowKey> m_keySet = new HashSet<>();
+		private final Map<String, Map<String, PostingList>> m_postings = new HashMap<>();
+
+		void add(DataPointsRowKey rowKey)
+		{
+			m_lock.writeLock().lock();
+			try
+			{
+				if (!m_keySet.add(rowKey))
+					return;
+
+				int id = m_rowKeys.size();
+				m_rowKeys.add(rowKey);
+
+				for (Map.Entry<String, String> tag : rowKey.getTags().entrySet())
+				{
+					m_postings.computeIfAbsent(tag.getKey(), name -> new HashMap<>())
+							.computeIfAbsent(tag.getValue(), value -> new PostingList())
+							.add(id);
+				}
+			}
+			finally
+			{
+				m_lock.writeLock().unlock();
+			}
+		}
+
+		int size()
+		{
+			m_lock.readLock().lock();
+			try
+			{
+				return m_rowKeys.size();
+			}
+			finally
+			{
+				m_lock.readLock().unlock();
+			}
+		}
+
+		List<DataPointsRowKey> find(SetMultimap<String, String> filterTags, Map<String, Pattern> patternFilter)
+		{
+			Set<String> tagNames = new HashSet<>(filterTags.keySet());
+			tagNames.addAll(patternFilter.keySet());
+
+			m_lock.readLock().lock();
+			try
+			{
+				if (tagNames.isEmpty())
+					return new ArrayList<>(m_rowKeys);
+
+				int[] ids = null;
+				for (String tagName : tagNames)
+				{
+					int[] tagIds = findTag(tagName, filterTags.get(tagName), patternFilter.get(tagName));
+					ids = (ids == null) ? tagIds : intersect(ids, tagIds);
+
+					if (ids.length == 0)
+						return Collections.emptyList();
+				}
+
+				List<DataPointsRowKey> ret = new ArrayList<>(ids.length);
+				for (int id : ids)
+				{
+					ret.add(m_rowKeys.get(id));
+				}
+
+				return ret;
+			}
+			finally
+			{
+				m_lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 Returns the sorted ids that have one of the values or a value that
+		 matches the pattern.
+		 */
+		private int[] findTag(String tagName, Set<String> values, Pattern pattern)
+		{
+			Map<String, PostingList> tagValues = m_postings.get(tagName);
+			if (tagValues == null)
+				return new int[0];
+
+			List<PostingList> lists = new ArrayList<>();
+			for (String value : values)
+			{
+				PostingList list = tagValues.get(value);
+				if (list != null)
+					lists.add(list);
+			}
+
+			if (pattern != null)
+			{
+				for (Map.Entry<String, PostingList> entry : tagValues.entrySet())
+				{
+					if (!values.contains(entry.getKey()) && pattern.matcher(entry.getKey()).matches())
+						lists.add(entry.getValue());
+				}
+			}
+
+			if (lists.size() == 1)
+				return lists.get(0).toArray();
+
+			//Each id has one value for a tag so the lists do not overlap
+			int size = 0;
+			for (PostingList list : lists)
+			{
+				size += list.m_size;
+			}
+
+			int[] ret = new int[size];
+			int pos = 0;
+			for (PostingList list : lists)
+			{
+				System.arraycopy(list.m_ids, 0, ret, pos, list.m_size);
+				pos += list.m_size;
+			}
+
+			Arrays.sort(ret);
+			return ret;
+		}
+
+		private static int[] intersect(int[] ids1, int[] ids2)
+		{
+			int[] ret = new int[Math.min(ids1.length, ids2.length)];
+			int size = 0;
+			int I = 0;
+			int J = 0;
+			while (I < ids1.length && J < ids2.length)
+			{
+				if (ids1[I] < ids2[J])
+					I++;
+				else if (ids1[I] > ids2[J])
+					J++;
+				else
+				{
+					ret[size++] = ids1[I];
+					I++;
+					J++;
+				}
+			}
+
+			return Arrays.copyOf(ret, size);
+		}
+	}
+}
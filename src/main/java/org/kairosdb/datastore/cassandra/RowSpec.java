@@ -5,24 +5,42 @@ import org.kairosdb.core.datastore.TimeUnit;
 public class RowSpec
 	{
 	public static final long DEFAULT_ROW_WIDTH = 1814400000L; //3 Weeks wide in milliseconds
+	public static final long DEFAULT_BLOCK_WIDTH = 7200000L; //2 Hours wide in milliseconds
 	public static final String LEGACY_UNIT = "LEGACY";
 
 	private final long m_rowWidth;
 	private final TimeUnit m_rowUnit;
 	private final boolean m_isLegacy;
+	private final long m_blockWidth;
+	private final boolean m_writeBlocks;
 
 	public RowSpec()
 		{
 		m_rowUnit = TimeUnit.MILLISECONDS;
 		m_rowWidth = DEFAULT_ROW_WIDTH;
 		m_isLegacy = true;
+		m_blockWidth = 0;
+		m_writeBlocks = false;
 		}
 
 	public RowSpec(long rowWidth, TimeUnit rowUnit, boolean isLegacy)
+		{
+		this(rowWidth, rowUnit, isLegacy, 0, false);
+		}
+
+	/**
+	 @param blockWidth width of a compressed block in the same unit as the row width,
+	 0 if blocks have never been written to this cluster
+	 @param writeBlocks true if long and double values are written as compressed
+	 blocks instead of one cell per value
+	 */
+	public RowSpec(long rowWidth, TimeUnit rowUnit, boolean isLegacy, long blockWidth, boolean writeBlocks)
 		{
 		m_rowWidth = rowWidth;
 		m_rowUnit = rowUnit;
 		m_isLegacy = isLegacy;
+		m_blockWidth = blockWidth;
+		m_writeBlocks = writeBlocks && blockWidth > 0 && !isLegacy;
 		}
 
 	public long getRowWidthInMillis()
@@ -78,6 +96,38 @@ public class RowSpec
 		return (rowTime + columnTime);
 		}
 
+	/**
+	 True if this cluster may contain compressed blocks, reads have to account for them.
+	 */
+	public boolean hasBlocks()
+		{
+		return m_blockWidth > 0;
+		}
+
+	/**
+	 True if new long and double values are written as compressed blocks
+	 */
+	public boolean isWriteBlocks()
+		{
+		return m_writeBlocks;
+		}
+
+	public long getBlockWidth()
+		{
+		return m_blockWidth;
+		}
+
+	/**
+	 Returns the column name of the start of the block window that contains the column.
+	 */
+	public int getBlockStart(int columnName)
+		{
+		if (m_blockWidth <= 0)
+			return columnName;
+
+		return (int)(columnName - (columnName % m_blockWidth));
+		}
+
 	public long calculateRowTime(long timestamp)
 		{
 		return (timestamp - (Math.abs(timestamp) % m_rowWidth));
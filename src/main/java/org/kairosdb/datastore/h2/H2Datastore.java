@@ -209,37 +209,32 @@ public class H2Datastore implements Datastore, ServiceKeyStore
 		GenOrmDataSource.attachAndBegin();
 		try
 		{
-			ImmutableSortedMap<String, String> tags = event.getTags();
-			String metricName = event.getMetricName();
-			org.kairosdb.core.DataPoint dataPoint = event.getDataPoint();
+			insertDataPoint(event);
+			GenOrmDataSource.commit();
+		}
+		catch (IOException e)
+		{
+			throw new DatastoreException(e);
+		}
+		finally
+		{
+			GenOrmDataSource.close();
+		}
+	}
 
-			String key = createMetricKey(metricName, tags, dataPoint.getDataStoreDataType());
-			Metric m = Metric.factory.findOrCreate(key);
-			if (m.isNew())
+	/**
+	 Inserts the whole batch in one transaction
+	 */
+	@Subscribe
+	public synchronized void putDataPoints(List<DataPointEvent> events) throws DatastoreException
+	{
+		GenOrmDataSource.attachAndBegin();
+		try
+		{
+			for (DataPointEvent event : events)
 			{
-				m.setName(metricName);
-				m.setType(dataPoint.getDataStoreDataType());
-
-				for (String name : tags.keySet())
-				{
-					String value = tags.get(name);
-					Tag.factory.findOrCreate(name, value);
-					MetricTag.factory.findOrCreate(key, name, value);
-				}
-
-				GenOrmDataSource.flush();
-				DataPointsRowKey dataPointsRowKey = new DataPointsRowKey(metricName, "H2",
-						0, dataPoint.getDataStoreDataType(), tags);
-				m_rowKeyPublisher.post(new RowKeyEvent(metricName, dataPointsRowKey, 0));
-
+				insertDataPoint(event);
 			}
-
-			KDataOutput dataOutput = new KDataOutput();
-			dataPoint.writeValueToBuffer(dataOutput);
-
-			new InsertDataPointQuery(m.getId(), new Timestamp(dataPoint.getTimestamp()),
-					dataOutput.getBytes()).runUpdate();
-
 			GenOrmDataSource.commit();
 		}
 		catch (IOException e)
@@ -252,6 +247,40 @@ public class H2Datastore implements Datastore, ServiceKeyStore
 		}
 	}
 
+	private void insertDataPoint(DataPointEvent event) throws IOException
+	{
+		ImmutableSortedMap<String, String> tags = event.getTags();
+		String metricName = event.getMetricName();
+		org.kairosdb.core.DataPoint dataPoint = event.getDataPoint();
+
+		String key = createMetricKey(metricName, tags, dataPoint.getDataStoreDataType());
+		Metric m = Metric.factory.findOrCreate(key);
+		if (m.isNew())
+		{
+			m.setName(metricName);
+			m.setType(dataPoint.getDataStoreDataType());
+
+			for (String name : tags.keySet())
+			{
+				String value = tags.get(name);
+				Tag.factory.findOrCreate(name, value);
+				MetricTag.factory.findOrCreate(key, name, value);
+			}
+
+			GenOrmDataSource.flush();
+			DataPointsRowKey dataPointsRowKey = new DataPointsRowKey(metricName, "H2",
+					0, dataPoint.getDataStoreDataType(), tags);
+			m_rowKeyPublisher.post(new RowKeyEvent(metricName, dataPointsRowKey, 0));
+
+		}
+
+		KDataOutput dataOutput = new KDataOutput();
+		dataPoint.writeValueToBuffer(dataOutput);
+
+		new InsertDataPointQuery(m.getId(), new Timestamp(dataPoint.getTimestamp()),
+				dataOutput.getBytes()).runUpdate();
+	}
+
 
 	@Override
 	public Iterable<String> getMetricNames(String prefix)
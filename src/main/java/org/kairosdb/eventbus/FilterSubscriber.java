@@ -18,11 +18,20 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import javax.annotation.Nullable;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.invoke.MethodType.methodType;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -30,17 +39,53 @@ import static java.util.Objects.requireNonNull;
  <p>
  <p>Two subscribers are equivalent when they refer to the same method on the same object (not
  class). This property is used to ensure that no subscriber method is registered more than once.
+ <p>
+ <p>The subscriber method is bound to an {@link Invoker} when the subscriber is created so
+ dispatching an event does not go through reflection.  Public methods on classes visible to
+ this class loader get a generated implementation from {@link LambdaMetafactory}, anything
+ else is called through a bound {@link MethodHandle}.
+ <p>
+ <p>A subscriber can also have a batch method that takes a {@code List} of events.  Batch
+ filters return the list of events that continue down the pipeline, batch listeners return
+ void.  Batch methods must not modify or keep the list they are given.
  */
 class FilterSubscriber implements Comparable<FilterSubscriber>
 {
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/**
+	 Calls the subscriber method.  Listener methods that return void give back the event.
+	 */
+	@FunctionalInterface
+	interface Invoker
+	{
+		Object invoke(Object event) throws Throwable;
+	}
+
+	@FunctionalInterface
+	interface VoidInvoker
+	{
+		void invoke(Object event) throws Throwable;
+	}
+
 	/**
 	 Creates a {@code FilterSubscriber} for {@code method} on {@code listener}.
 	 */
 	static FilterSubscriber create(FilterEventBus bus, Object listener, Method method, int priority)
 	{
-		return method.getReturnType().getName().equals("void")
-				? new NonFilterSubscriber(bus, listener, method, priority)
-				: new FilterSubscriber(bus, listener, method, priority);
+		if (PipelineRegistry.isBatchMethod(method))
+			return new FilterSubscriber(bus, listener, null, method, priority);
+		else
+			return new FilterSubscriber(bus, listener, method, null, priority);
+	}
+
+	/**
+	 Creates a {@code FilterSubscriber} that uses {@code batchMethod} when events are posted
+	 together and {@code method} when they are posted one at a time.
+	 */
+	static FilterSubscriber create(FilterEventBus bus, Object listener, Method method, Method batchMethod, int priority)
+	{
+		return new FilterSubscriber(bus, listener, method, batchMethod, priority);
 	}
 
 	/**
@@ -61,19 +106,131 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 
 	private final int priority;
 
+	/**
+	 Null if there is only a batch method
+	 */
+	private final Invoker invoker;
+
+	/**
+	 Null if there is no batch method
+	 */
+	private final Invoker batchInvoker;
+
 	/**
 	 Executor to use for dispatching events to this subscriber.
 	 */
 	private final Executor executor = MoreExecutors.directExecutor();
 
-	private FilterSubscriber(FilterEventBus bus, Object target, Method method, int priority)
+	private FilterSubscriber(FilterEventBus bus, Object target, @Nullable Method method,
+			@Nullable Method batchMethod, int priority)
 	{
 		this.bus = bus;
 		this.target = requireNonNull(target);
-		this.method = method;
+		this.method = method != null ? method : requireNonNull(batchMethod);
 		this.priority = priority;
-		method.setAccessible(true);
 		checkArgument(priority >= 0 && priority <= 100, "Priority must be between 0 and 100 inclusive");
+		this.invoker = method != null ? createInvoker(target, method) : null;
+		this.batchInvoker = batchMethod != null ? createInvoker(target, batchMethod) : null;
+	}
+
+	@VisibleForTesting
+	static Invoker createInvoker(Object target, Method method)
+	{
+		MethodHandle handle;
+		try
+		{
+			method.setAccessible(true);
+			handle = LOOKUP.unreflect(method);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalArgumentException("Unable to access subscriber method " + method, e);
+		}
+
+		boolean isVoid = method.getReturnType() == void.class;
+
+		if (canGenerate(method))
+		{
+			try
+			{
+				return generateInvoker(target, method, handle, isVoid);
+			}
+			catch (Throwable e)
+			{
+				FilterEventBus.logger.debug("Unable to generate invoker for " + method + ", using a method handle", e);
+			}
+		}
+
+		if (!Modifier.isStatic(method.getModifiers()))
+			handle = handle.bindTo(target);
+
+		if (isVoid)
+			handle = MethodHandles.foldArguments(MethodHandles.identity(Object.class),
+					handle.asType(methodType(void.class, Object.class)));
+
+		MethodHandle exactHandle = handle.asType(methodType(Object.class, Object.class));
+		return event -> exactHandle.invokeExact(event);
+	}
+
+	private static Invoker generateInvoker(Object target, Method method, MethodHandle handle, boolean isVoid) throws Throwable
+	{
+		Class<?> eventType = method.getParameterTypes()[0];
+
+		if (isVoid)
+		{
+			VoidInvoker listener = (VoidInvoker) LambdaMetafactory.metafactory(LOOKUP, "invoke",
+					methodType(VoidInvoker.class, method.getDeclaringClass()),
+					methodType(void.class, Object.class), handle, methodType(void.class, eventType))
+					.getTarget().invoke(target);
+
+			return event ->
+			{
+				listener.invoke(event);
+				return event;
+			};
+		}
+		else
+		{
+			return (Invoker) LambdaMetafactory.metafactory(LOOKUP, "invoke",
+					methodType(Invoker.class, method.getDeclaringClass()),
+					methodType(Object.class, Object.class), handle, methodType(method.getReturnType(), eventType))
+					.getTarget().invoke(target);
+		}
+	}
+
+	/**
+	 The generated class is defined next to this one so it can only call public methods
+	 on classes it can load.  Plugins loaded by a child class loader use a method handle.
+	 */
+	private static boolean canGenerate(Method method)
+	{
+		if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers()))
+			return false;
+
+		for (Class<?> clazz = method.getDeclaringClass(); clazz != null; clazz = clazz.getEnclosingClass())
+		{
+			if (!Modifier.isPublic(clazz.getModifiers()))
+				return false;
+		}
+
+		Class<?> eventType = method.getParameterTypes()[0];
+		return !eventType.isPrimitive() && Modifier.isPublic(eventType.getModifiers()) &&
+				isVisible(method.getDeclaringClass()) && isVisible(eventType);
+	}
+
+	private static boolean isVisible(Class<?> clazz)
+	{
+		ClassLoader classLoader = clazz.getClassLoader();
+		ClassLoader loader = FilterSubscriber.class.getClassLoader();
+		while (loader != classLoader)
+		{
+			if (loader == null)
+				return false;
+
+			loader = loader.getParent();
+		}
+
+		return true;
 	}
 
 	public int getPriority()
@@ -83,17 +240,52 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 
 	final Object dispatchEvent(final Object event)
 	{
-		try
+		if (invoker == null)
 		{
-			return invokeSubscriberMethod(event);
+			List<Object> events = dispatchEvents(Collections.singletonList(event));
+			return events == null || events.isEmpty() ? null : events.get(0);
 		}
-		catch (IllegalArgumentException e)
+
+		return dispatch(invoker, event);
+	}
+
+	/**
+	 @return The events that continue down the pipeline, null or empty if they
+	 were all filtered out
+	 */
+	@SuppressWarnings("unchecked")
+	final List<Object> dispatchEvents(final List<Object> events)
+	{
+		if (batchInvoker != null)
+			return (List<Object>) dispatch(batchInvoker, events);
+
+		//Only copy the list when a filter changes something
+		List<Object> ret = null;
+		for (int I = 0; I < events.size(); I++)
 		{
-			throw new Error("Method rejected target/argument: " + event, e);
+			Object event = events.get(I);
+			Object result = dispatch(invoker, event);
+			if (ret == null)
+			{
+				if (result == event)
+					continue;
+
+				ret = new ArrayList<>(events.size());
+				ret.addAll(events.subList(0, I));
+			}
+
+			if (result != null)
+				ret.add(result);
 		}
-		catch (IllegalAccessException e)
+
+		return ret == null ? events : ret;
+	}
+
+	private Object dispatch(Invoker invoker, final Object event)
+	{
+		try
 		{
-			throw new Error("Method became inaccessible: " + event, e);
+			return invoke(invoker, event);
 		}
 		catch (InvocationTargetException e)
 		{
@@ -113,13 +305,26 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 	}
 
 	/**
-	 Invokes the subscriber method. This method can be overridden to make the invocation
-	 synchronized.
+	 Invokes the subscriber method.  Anything it throws is wrapped in an
+	 InvocationTargetException the same as Method.invoke.
 	 */
 	@VisibleForTesting
-	Object invokeSubscriberMethod(Object event) throws InvocationTargetException, IllegalAccessException
+	final Object invokeSubscriberMethod(Object event) throws InvocationTargetException
+	{
+		return invoke(invoker, event);
+	}
+
+	private static Object invoke(Invoker invoker, Object event) throws InvocationTargetException
 	{
-		return method.invoke(target, requireNonNull(event));
+		requireNonNull(event);
+		try
+		{
+			return invoker.invoke(event);
+		}
+		catch (Throwable e)
+		{
+			throw new InvocationTargetException(e);
+		}
 	}
 
 	/**
@@ -165,20 +370,4 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 			return thisName.compareTo(thatName);
 		}
 	}
-
-	private static class NonFilterSubscriber extends FilterSubscriber
-	{
-		private NonFilterSubscriber(FilterEventBus bus, Object target, Method method, int priority)
-		{
-			super(bus, target, method, priority);
-		}
-
-		@Override
-		Object invokeSubscriberMethod(Object event) throws InvocationTargetException, IllegalAccessException
-		{
-			method.invoke(target, requireNonNull(event));
-			return event;
-		}
-	}
-
 }
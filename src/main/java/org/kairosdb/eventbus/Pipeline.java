@@ -1,25 +1,41 @@
 package org.kairosdb.eventbus;
 
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterators;
 
 import java.util.Collection;
 import java.util.Iterator;
 
+/**
+ Subscribers for one event type in priority order.  The subscribers are kept
+ in an array that is replaced when subscribers are added so publishers can
+ walk it without locking or allocating an iterator.
+ */
 public class Pipeline implements Iterable<FilterSubscriber>
 {
-	private volatile ImmutableSortedSet<FilterSubscriber> m_pipeline;
+	private static final FilterSubscriber[] EMPTY = new FilterSubscriber[0];
+
+	private volatile FilterSubscriber[] m_pipeline;
 	private final Object m_lock;
 
 	public Pipeline()
 	{
 		m_lock = new Object();
-		m_pipeline = ImmutableSortedSet.<FilterSubscriber>naturalOrder().build();
+		m_pipeline = EMPTY;
 	}
 
 	@Override
 	public Iterator<FilterSubscriber> iterator()
 	{
-		return m_pipeline.iterator();
+		return Iterators.forArray(m_pipeline);
+	}
+
+	/**
+	 Current subscribers, the array must not be modified.
+	 */
+	FilterSubscriber[] getSubscribers()
+	{
+		return m_pipeline;
 	}
 
 	public void addAll(Collection<FilterSubscriber> subscribers)
@@ -27,18 +43,18 @@ public class Pipeline implements Iterable<FilterSubscriber>
 		synchronized (m_lock)
 		{
 			m_pipeline = ImmutableSortedSet.<FilterSubscriber>naturalOrder()
-					.addAll(m_pipeline)
-					.addAll(subscribers).build();
+					.add(m_pipeline)
+					.addAll(subscribers).build().toArray(EMPTY);
 		}
 	}
 
 	public int size()
 	{
-		return m_pipeline.size();
+		return m_pipeline.length;
 	}
 
 	public boolean isEmpty()
 	{
-		return m_pipeline.isEmpty();
+		return m_pipeline.length == 0;
 	}
 }
@@ -27,9 +27,12 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import javax.annotation.Nullable;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -189,21 +192,65 @@ public class PipelineRegistry
 
 	/**
 	 Returns all subscribers for the given listener grouped by the type of event they subscribe to.
+	 A batch method, one that takes a List of events, is paired with the listener's method for
+	 single events of the same type so each event is only delivered once.
 	 */
 	private Multimap<Class<?>, FilterSubscriber> findAllSubscribers(Object listener, int priority)
 	{
 		Multimap<Class<?>, FilterSubscriber> methodsInListener = HashMultimap.create();
+		Multimap<Class<?>, Method> batchMethods = HashMultimap.create();
 		Class<?> clazz = listener.getClass();
 		for (Method method : getAnnotatedMethods(clazz))
 		{
-			Class<?>[] parameterTypes = method.getParameterTypes();
-			Class<?> eventType = parameterTypes[0];
-			Class<?> returnType = method.getReturnType();
-			methodsInListener.put(eventType, FilterSubscriber.create(bus, listener, method, priority));
+			if (isBatchMethod(method))
+				batchMethods.put(getBatchEventType(method), method);
 		}
+
+		for (Method method : getAnnotatedMethods(clazz))
+		{
+			if (isBatchMethod(method))
+				continue;
+
+			Class<?> eventType = method.getParameterTypes()[0];
+			Iterator<Method> batchMethod = batchMethods.get(eventType).iterator();
+			if (batchMethod.hasNext())
+			{
+				methodsInListener.put(eventType, FilterSubscriber.create(bus, listener, method, batchMethod.next(), priority));
+				batchMethod.remove();
+			}
+			else
+				methodsInListener.put(eventType, FilterSubscriber.create(bus, listener, method, priority));
+		}
+
+		for (Map.Entry<Class<?>, Method> entry : batchMethods.entries())
+		{
+			methodsInListener.put(entry.getKey(), FilterSubscriber.create(bus, listener, entry.getValue(), priority));
+		}
+
 		return methodsInListener;
 	}
 
+	static boolean isBatchMethod(Method method)
+	{
+		return method.getParameterTypes()[0] == List.class;
+	}
+
+	/**
+	 Event type of a method that takes a List of events.
+	 */
+	static Class<?> getBatchEventType(Method method)
+	{
+		Type parameterType = method.getGenericParameterTypes()[0];
+		if (parameterType instanceof ParameterizedType)
+		{
+			Type eventType = ((ParameterizedType) parameterType).getActualTypeArguments()[0];
+			if (eventType instanceof Class)
+				return (Class<?>) eventType;
+		}
+
+		throw new IllegalArgumentException("Method " + method + " must take a List of a specific event type");
+	}
+
 	private static ImmutableList<Method> getAnnotatedMethods(Class<?> clazz)
 	{
 		return subscriberMethodsCache.getUnchecked(clazz);
@@ -232,6 +279,9 @@ public class PipelineRegistry
 									"Method %s must have return type of %s or void",
 									method, parameterTypes[0].getName());
 
+					if (isBatchMethod(method))
+						getBatchEventType(method);
+
 					MethodIdentifier ident = new MethodIdentifier(method);
 					if (!identifiers.containsKey(ident))
 					{
@@ -1,5 +1,8 @@
 package org.kairosdb.eventbus;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 
@@ -15,7 +18,7 @@ public class Publisher<T>
 	@SuppressWarnings("unchecked")
 	public void post(T event)
 	{
-		for (FilterSubscriber filterSubscriber : m_pipeline)
+		for (FilterSubscriber filterSubscriber : m_pipeline.getSubscribers())
 		{
 			event = (T)filterSubscriber.dispatchEvent(event);
 			if (event == null)
@@ -25,4 +28,24 @@ public class Publisher<T>
 			}
 		}
 	}
+
+	/**
+	 Sends the events through the pipeline together.  Subscribers with a batch
+	 method get them all in one call, the rest get them one at a time.
+	 */
+	@SuppressWarnings("unchecked")
+	public void postAll(Collection<T> events)
+	{
+		List<Object> batch = events instanceof List ? (List<Object>) events : new ArrayList<>(events);
+		for (FilterSubscriber filterSubscriber : m_pipeline.getSubscribers())
+		{
+			if (batch == null || batch.isEmpty())
+			{
+				//Events were filtered no need to continue
+				break;
+			}
+
+			batch = filterSubscriber.dispatchEvents(batch);
+		}
+	}
 }
@@ -13,6 +13,7 @@ import org.kairosdb.metrics4j.MetricSourceManager;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -91,6 +92,42 @@ public class FilterPlugin implements KairosDBService
 		return m_filterChain.filter(event);
 	}
 
+	/**
+	 The links only look at the metric name so the chain is run once for each
+	 run of events with the same metric.
+	 */
+	@Subscribe
+	public List<DataPointEvent> filterDataPoints(List<DataPointEvent> events)
+	{
+		List<DataPointEvent> ret = null;
+		String lastName = null;
+		boolean keep = true;
+
+		for (int I = 0; I < events.size(); I++)
+		{
+			DataPointEvent event = events.get(I);
+			if (!event.getMetricName().equals(lastName))
+			{
+				lastName = event.getMetricName();
+				keep = m_filterChain.filter(event) != null;
+			}
+			else if (!keep)
+				stats.skippedMetrics().put(1);
+
+			if (keep)
+			{
+				if (ret != null)
+					ret.add(event);
+			}
+			else if (ret == null)
+			{
+				ret = new ArrayList<>(events.subList(0, I));
+			}
+		}
+
+		return ret == null ? events : ret;
+	}
+
 	@Override
 	public void start() throws KairosDBException
 	{
@@ -0,0 +1,102 @@
+package org.kairosdb.metrics;
+
+import org.kairosdb.metrics4j.MetricsContext;
+import org.kairosdb.metrics4j.collectors.Collector;
+import org.kairosdb.metrics4j.collectors.DurationCollector;
+import org.kairosdb.metrics4j.collectors.MetricCollector;
+import org.kairosdb.metrics4j.collectors.helpers.TimerCollector;
+import org.kairosdb.metrics4j.reporting.LongValue;
+import org.kairosdb.metrics4j.reporting.MetricReporter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ Duration collector that reports percentiles of the durations put since the
+ last report as the p50, p90, p99 and p999 fields along with max and count.
+ Durations are kept in a fixed size uniform sample so memory does not grow
+ with the number of calls.
+ */
+public class PercentileTimer extends TimerCollector implements DurationCollector, MetricCollector
+{
+	private static final long serialVersionUID = 1L;
+	static final int SAMPLE_SIZE = 1028;
+	private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final String[] FIELDS = {"p50", "p90", "p99", "p999"};
+
+	private final Object m_dataLock = new Object();
+	private final long[] m_sample = new long[SAMPLE_SIZE];
+	private long m_count;
+	private long m_max;
+
+	@Override
+	public void put(Duration duration)
+	{
+		long nanos = duration.toNanos();
+		synchronized (m_dataLock)
+		{
+			m_count++;
+			if (m_count <= SAMPLE_SIZE)
+				m_sample[(int) m_count - 1] = nanos;
+			else
+			{
+				long position = ThreadLocalRandom.current().nextLong(m_count);
+				if (position < SAMPLE_SIZE)
+					m_sample[(int) position] = nanos;
+			}
+
+			m_max = Math.max(m_max, nanos);
+		}
+	}
+
+	@Override
+	public void put(Instant time, Duration duration)
+	{
+		put(duration);
+	}
+
+	@Override
+	public void reportMetric(MetricReporter metricReporter)
+	{
+		long[] sample;
+		long count;
+		long max;
+		synchronized (m_dataLock)
+		{
+			if (m_count == 0)
+				return;
+
+			sample = Arrays.copyOf(m_sample, (int) Math.min(m_count, SAMPLE_SIZE));
+			count = m_count;
+			max = m_max;
+			m_count = 0;
+			m_max = 0;
+		}
+
+		Arrays.sort(sample);
+		for (int I = 0; I < PERCENTILES.length; I++)
+		{
+			int index = Math.max(0, (int) Math.ceil(PERCENTILES[I] * sample.length) - 1);
+			metricReporter.put(FIELDS[I], m_timeReporter.getValue(Duration.ofNanos(sample[index])));
+		}
+
+		metricReporter.put("max", m_timeReporter.getValue(Duration.ofNanos(max)));
+		metricReporter.put("count", new LongValue(count));
+	}
+
+	@Override
+	public Collector clone()
+	{
+		PercentileTimer ret = new PercentileTimer();
+		ret.setReportUnit(getReportUnit());
+		ret.setReportFormat(getReportFormat());
+		return ret;
+	}
+
+	@Override
+	public void init(MetricsContext context)
+	{
+	}
+}
@@ -2,10 +2,16 @@ package org.kairosdb.util;
 
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
 import com.datastax.driver.core.exceptions.UnavailableException;
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.RetryListener;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.WaitStrategies;
 import com.google.common.base.Stopwatch;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.congestion.AdaptiveCongestionController;
+import org.kairosdb.congestion.ProcessTracker;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
@@ -14,16 +20,15 @@ import org.kairosdb.events.ShutdownEvent;
 import org.kairosdb.metrics4j.MetricSourceManager;
 import org.kairosdb.metrics4j.collectors.DurationCollector;
 
-import javax.inject.Inject;
-import javax.inject.Named;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -39,13 +44,15 @@ public class IngestExecutorService
 
 	private static final IngestStats stats = MetricSourceManager.getSource(IngestStats.class);
 	public static final String PERMIT_COUNT = "kairosdb.ingest_executor.thread_count";
+	public static final String MAX_PERMIT_COUNT = "kairosdb.ingest_executor.max_thread_count";
+	public static final String ADAPTIVE = "kairosdb.ingest_executor.adaptive";
 
 	private final ExecutorService m_internalExecutor;
 	private final ThreadGroup m_threadGroup;
-	//Original idea behind this is that the number of threads could
-	//adjust via incrementing or decrementing the semaphore count.
-	private final CongestionSemaphore m_semaphore;
+	private final AdaptiveCongestionController m_congestionController;
 	private int m_permitCount = 10;
+	private int m_maxPermitCount;
+	private boolean m_adaptive = true;
 	private final Retryer<Integer> m_retryer;
 
 	@Inject
@@ -56,8 +63,8 @@ public class IngestExecutorService
 	public IngestExecutorService(@Named(PERMIT_COUNT) int permitCount)
 	{
 		m_permitCount = permitCount;
-		//m_congestionTimer = new CongestionTimer(m_permitCount);
-		m_semaphore = new CongestionSemaphore(m_permitCount);
+		m_maxPermitCount = m_permitCount * 4;
+		m_congestionController = new AdaptiveCongestionController(m_permitCount, 1, m_maxPermitCount);
 		m_threadGroup = new ThreadGroup("KairosDynamic");
 		m_internalExecutor = Executors.newCachedThreadPool(new ThreadFactory()
 		{
@@ -75,15 +82,55 @@ public class IngestExecutorService
 				.retryIfExceptionOfType(NoHostAvailableException.class)
 				.retryIfExceptionOfType(UnavailableException.class)
 				.withWaitStrategy(WaitStrategies.fibonacciWait(1, TimeUnit.MINUTES))
+				.withRetryListener(new RetryListener()
+				{
+					@Override
+					public <V> void onRetry(Attempt<V> attempt)
+					{
+						//Back off right away instead of holding the limit while waiting to retry
+						if (attempt.hasException())
+							m_congestionController.congestionDetected();
+					}
+				})
 				.build();
+
+		MetricSourceManager.addSource(IngestExecutorService.class.getName(), "concurrencyLimit",
+				Collections.emptyMap(), "Number of write batches allowed to run at once", m_congestionController::getLimit);
+	}
+
+	/**
+	 Upper bound for the number of concurrent writes, defaults to four times
+	 thread_count.
+	 */
+	@Inject(optional = true)
+	public void setMaxPermitCount(@Named(MAX_PERMIT_COUNT) int maxPermitCount)
+	{
+		m_maxPermitCount = Math.max(maxPermitCount, 1);
+		updateLimits();
 	}
 
-	/*private void increasePermitCount()
+	/**
+	 When false the number of concurrent writes stays at thread_count
+	 */
+	@Inject(optional = true)
+	public void setAdaptive(@Named(ADAPTIVE) boolean adaptive)
 	{
-		m_permitCount ++;
-		//m_congestionTimer.setTaskPerBatch(m_permitCount);
-		m_semaphore.release();
-	}*/
+		m_adaptive = adaptive;
+		updateLimits();
+	}
+
+	private void updateLimits()
+	{
+		if (m_adaptive)
+			m_congestionController.setLimits(1, m_maxPermitCount);
+		else
+			m_congestionController.setLimits(m_permitCount, m_permitCount);
+	}
+
+	public int getConcurrencyLimit()
+	{
+		return m_congestionController.getLimit();
+	}
 
 	@Subscribe
 	public void shutdown(ShutdownEvent event)
@@ -93,48 +140,53 @@ public class IngestExecutorService
 
 	public void shutdown()
 	{
+		m_congestionController.shutdown();
 		m_internalExecutor.shutdown();
 	}
 
-
-	private Stopwatch m_timer = Stopwatch.createStarted();
-
 	/**
 	 Calls to submit will block until a permit is available to process the request
 	 @param callable
 	 */
 	public void submit(Callable<Integer> callable)
 	{
-		try
-		{
-			//System.out.println("Execute called");
-			m_semaphore.acquire();
-			//System.out.println("Submitting");
+		submit(callable, 1);
+	}
+
+	/**
+	 Calls to submit will block until a permit is available to process the request
+	 @param callable
+	 @param size Number of data points in the request, used to compare the
+	 latency of requests of different sizes
+	 */
+	public void submit(Callable<Integer> callable, int size)
+	{
+		ProcessTracker tracker = m_congestionController.getProcessTracker();
+		//Null when shutting down
+		if (tracker != null)
 			m_internalExecutor.submit(
-					new IngestFutureTask(m_retryer.wrap(callable)));
-			//System.out.println("Done submitting");
-		}
-		//Potentially thrown by acquire
-		catch (InterruptedException e)
-		{
-			e.printStackTrace();
-		}
+					new IngestFutureTask(m_retryer.wrap(callable), tracker, size));
 	}
 
 
 	private class IngestFutureTask extends FutureTask<Integer>
 	{
 		private final Stopwatch m_stopwatch;
+		private final ProcessTracker m_tracker;
+		private final int m_size;
 
-		public IngestFutureTask(Callable<Integer> callable)
+		public IngestFutureTask(Callable<Integer> callable, ProcessTracker tracker, int size)
 		{
 			super(callable);
 			m_stopwatch = Stopwatch.createUnstarted();
+			m_tracker = tracker;
+			m_size = size;
 		}
 
 		@Override
 		public void run()
 		{
+			boolean failed = true;
 			try
 			{
 				m_stopwatch.start();
@@ -142,10 +194,19 @@ public class IngestExecutorService
 				m_stopwatch.stop();
 
 				stats.writeTimeMicro().put(Duration.ofNanos(m_stopwatch.elapsed(TimeUnit.NANOSECONDS)));
+				get();
+				failed = false;
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				//Failure is reported to the congestion controller below
 			}
 			finally
 			{
-				m_semaphore.release();
+				if (failed)
+					m_tracker.failed();
+				else
+					m_tracker.finished(m_size);
 			}
 		}
 
@@ -161,16 +222,4 @@ public class IngestExecutorService
 		}
 	}
 
-	private static class CongestionSemaphore extends Semaphore
-	{
-		public CongestionSemaphore(int permits)
-		{
-			super(permits);
-		}
-
-		public void reducePermits(int reduction)
-		{
-			super.reducePermits(reduction);
-		}
-	}
 }
@@ -19,92 +19,194 @@ package org.kairosdb.util;
 
 import org.kairosdb.core.datastore.Order;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.TreeSet;
-
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ Merges sorted iterators using an array backed binary heap.  Each iterator
+ has a slot holding its next value, the heap orders the slots so returning
+ an element and refilling it from its iterator does not allocate.  Values
+ that compare equal are returned in the order the iterators were added
+ (reversed for DESC).
+ */
 public class TournamentTree<T>
 	{
-	private static class TreeValue<T>
-		{
-		private int m_iteratorNum;
-		private T m_value;
-		private Iterator<T> m_iterator;
-
-		public TreeValue(Iterator<T> iterator, T value, int iteratorNum)
-			{
-			m_iterator = iterator;
-			m_value = value;
-			m_iteratorNum = iteratorNum;
-			}
-
-		public int getIteratorNum() { return (m_iteratorNum); }
-		public void setValue(T value) { m_value = value; }
-		public T getValue() { return (m_value); }
-		public Iterator<T> getIterator() { return (m_iterator); }
-		}
+	private static final int INITIAL_CAPACITY = 16;
 
-	private class TreeComparator implements Comparator<TreeValue<T>>
-		{
-		public int compare(TreeValue<T> tv1, TreeValue<T> tv2)
-			{
-			int resp = m_comparator.compare(tv1.getValue(), tv2.getValue());
-
-			if (resp == 0)
-				return (tv1.getIteratorNum() - tv2.getIteratorNum());
-			else
-				return (resp);
-			}
-		}
+	private final Comparator<T> m_comparator;
+	private final ToLongFunction<T> m_keyFunction;
+	private final boolean m_ascending;
+
+	//Slots are indexed by the order iterators were added
+	private final List<Iterator<T>> m_iterators;
+	private T[] m_values;
+	private long[] m_keys;
+	private int m_slotCount = 0;
 
-	//===========================================================================
-	private TreeSet<TreeValue<T>> m_treeSet;
-	private Comparator<T> m_comparator;
-	private int m_iteratorIndex = 0;
-	private Order m_order;
+	//Heap of slot indexes
+	private int[] m_heap;
+	private int m_size = 0;
 
 	public TournamentTree(Comparator<T> comparator, Order order)
+	{
+		this(comparator, null, order);
+	}
+
+	/**
+	 Creates a tree that orders values by a long key, for example a timestamp.
+	 Keys are only read once per value.  The comparator is only used to break
+	 ties between equal keys and may be null.
+	 */
+	public TournamentTree(ToLongFunction<T> keyFunction, Comparator<T> tieComparator, Order order)
+	{
+		this(tieComparator, keyFunction, order);
+	}
+
+	@SuppressWarnings("unchecked")
+	private TournamentTree(Comparator<T> comparator, ToLongFunction<T> keyFunction, Order order)
 	{
 		m_comparator = comparator;
-		m_treeSet = new TreeSet<TreeValue<T>>(new TreeComparator());
-		m_order = order;
+		m_keyFunction = keyFunction;
+		m_ascending = (order == Order.ASC);
+		m_iterators = new ArrayList<>(INITIAL_CAPACITY);
+		m_values = (T[]) new Object[INITIAL_CAPACITY];
+		m_keys = new long[INITIAL_CAPACITY];
+		m_heap = new int[INITIAL_CAPACITY];
 	}
 
 	//---------------------------------------------------------------------------
 	public void addIterator(Iterator<T> iterator)
 	{
-		if (iterator.hasNext())
-			m_treeSet.add(new TreeValue<T>(iterator, iterator.next(), m_iteratorIndex ++));
+		if (!iterator.hasNext())
+			return;
+
+		if (m_slotCount == m_keys.length)
+		{
+			int newCapacity = m_slotCount * 2;
+			m_values = Arrays.copyOf(m_values, newCapacity);
+			m_keys = Arrays.copyOf(m_keys, newCapacity);
+			m_heap = Arrays.copyOf(m_heap, newCapacity);
+		}
+
+		int slot = m_slotCount++;
+		m_iterators.add(iterator);
+		setValue(slot, iterator.next());
+
+		m_heap[m_size] = slot;
+		siftUp(m_size);
+		m_size++;
 	}
 
 	//---------------------------------------------------------------------------
 	public boolean hasNext()
 	{
-		return !m_treeSet.isEmpty();
+		return m_size != 0;
 	}
 
 	//---------------------------------------------------------------------------
-	public T nextElement()
+	/**
+	 Returns the number of iterators that still have values
+	 */
+	public int getIteratorCount()
 	{
-		TreeValue<T> value;
-		if (m_order == Order.ASC)
-			value = m_treeSet.pollFirst();
-		else
-			value = m_treeSet.pollLast();
+		return m_size;
+	}
 
-		if (value == null)
+	//---------------------------------------------------------------------------
+	public T nextElement()
+	{
+		if (m_size == 0)
 			return (null);
 
-		T ret = value.getValue();
+		int slot = m_heap[0];
+		T ret = m_values[slot];
+		Iterator<T> iterator = m_iterators.get(slot);
 
-		if (value.getIterator().hasNext())
+		if (iterator.hasNext())
 		{
-			value.setValue(value.getIterator().next());
-			m_treeSet.add(value);
+			setValue(slot, iterator.next());
 		}
+		else
+		{
+			m_iterators.set(slot, null);
+			m_values[slot] = null;
+			m_size--;
+			m_heap[0] = m_heap[m_size];
+		}
+
+		//With one iterator left there is nothing to sort
+		if (m_size > 1)
+			siftDown(0);
 
 		//todo notify the iterator that we actually returned a value from it, use for returning tags.
 
 		return (ret);
 	}
+
+	//---------------------------------------------------------------------------
+	private void setValue(int slot, T value)
+	{
+		m_values[slot] = value;
+		if (m_keyFunction != null)
+			m_keys[slot] = m_keyFunction.applyAsLong(value);
+	}
+
+	/**
+	 Returns true if slot1 should be returned before slot2
+	 */
+	private boolean isBefore(int slot1, int slot2)
+	{
+		int resp = 0;
+		if (m_keyFunction != null)
+			resp = Long.compare(m_keys[slot1], m_keys[slot2]);
+
+		if (resp == 0 && m_comparator != null)
+			resp = m_comparator.compare(m_values[slot1], m_values[slot2]);
+
+		if (resp == 0)
+			resp = Integer.compare(slot1, slot2);
+
+		return m_ascending ? resp < 0 : resp > 0;
+	}
+
+	private void siftUp(int position)
+	{
+		int slot = m_heap[position];
+		while (position > 0)
+		{
+			int parent = (position - 1) >>> 1;
+			if (!isBefore(slot, m_heap[parent]))
+				break;
+
+			m_heap[position] = m_heap[parent];
+			position = parent;
+		}
+
+		m_heap[position] = slot;
+	}
+
+	private void siftDown(int position)
+	{
+		int slot = m_heap[position];
+		int half = m_size >>> 1;
+		while (position < half)
+		{
+			int child = (position << 1) + 1;
+			int right = child + 1;
+			if (right < m_size && isBefore(m_heap[right], m_heap[child]))
+				child = right;
+
+			if (!isBefore(m_heap[child], slot))
+				break;
+
+			m_heap[position] = m_heap[child];
+			position = child;
+		}
+
+		m_heap[position] = slot;
+	}
 }
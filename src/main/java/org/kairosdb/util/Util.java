@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.nio.ByteBuffer;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
@@ -163,6 +164,26 @@ public class Util
 		throw new IllegalArgumentException("Variable length quantity is too long");
 	}
 
+	/**
+	 Same as unpackUnsignedLong(DataInput) but reads straight from a ByteBuffer
+	 */
+	public static long unpackUnsignedLong(ByteBuffer buffer)
+	{
+		int shift = 0;
+		long result = 0;
+		while (shift < 64)
+		{
+			final byte b = buffer.get();
+			result |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+			shift += 7;
+		}
+		throw new IllegalArgumentException("Variable length quantity is too long");
+	}
+
 	public static void packLong(long value, DataOutput buffer) throws IOException
 	{
 		// Great trick from http://code.google.com/apis/protocolbuffers/docs/encoding.html#types
@@ -177,6 +198,13 @@ public class Util
 		return ((value >>> 1) ^ -(value & 1));
 	}
 
+	public static long unpackLong(ByteBuffer buffer)
+	{
+		long value = unpackUnsignedLong(buffer);
+
+		return ((value >>> 1) ^ -(value & 1));
+	}
+
 	public static InetAddress findPublicIp()
 	{
 		// Check if local host address is a good v4 address
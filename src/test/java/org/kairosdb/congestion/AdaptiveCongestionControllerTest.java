@@ -0,0 +1,158 @@
+package org.kairosdb.congestion;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class AdaptiveCongestionControllerTest
+{
+	private static void acquire(AdaptiveCongestionController controller, int count)
+	{
+		for (int I = 0; I < count; I++)
+			assertThat(controller.getProcessTracker(), notNullValue());
+	}
+
+	@Test
+	public void test_slowStartGrowsWhenLimitIsUsed()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(2, 1, 10);
+
+		acquire(controller, 2);
+		controller.finishedProcess(1000);
+		assertThat(controller.getLimit(), equalTo(3));
+
+		//Limit was not in use so it stays the same
+		controller.finishedProcess(1000);
+		assertThat(controller.getLimit(), equalTo(3));
+		assertThat(controller.getProcessCount(), equalTo(0));
+	}
+
+	@Test
+	public void test_limitStopsAtMaximum()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(3, 1, 3);
+
+		acquire(controller, 3);
+		controller.finishedProcess(1000);
+		assertThat(controller.getLimit(), equalTo(3));
+	}
+
+	@Test
+	public void test_failureHalvesLimit()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(8, 1, 16);
+
+		acquire(controller, 1);
+		controller.failedProcess();
+		assertThat(controller.getLimit(), equalTo(4));
+		assertThat(controller.getProcessCount(), equalTo(0));
+	}
+
+	@Test
+	public void test_additiveIncreaseAfterBackoff()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(8, 1, 16);
+		controller.congestionDetected();
+		assertThat(controller.getLimit(), equalTo(4));
+
+		//Out of slow start it takes a full round of processes to add one
+		for (int I = 0; I < 4; I++)
+		{
+			acquire(controller, 4 - controller.getProcessCount());
+			controller.finishedProcess(1000);
+		}
+
+		assertThat(controller.getLimit(), equalTo(4));
+		acquire(controller, 4 - controller.getProcessCount());
+		controller.finishedProcess(1000);
+		assertThat(controller.getLimit(), equalTo(5));
+	}
+
+	@Test
+	public void test_slowProcessBacksOff()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(10, 1, 20);
+
+		acquire(controller, 2);
+		controller.finishedProcess(1000);
+		controller.finishedProcess(5000);
+
+		assertThat(controller.getLimit(), equalTo(9));
+	}
+
+	@Test
+	public void test_mixedBatchSizes()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(4, 1, 20);
+
+		//A large batch takes longer than small ones but costs less per data point
+		acquire(controller, 4);
+		controller.finishedProcess(100, 1);
+		acquire(controller, 5 - controller.getProcessCount());
+		controller.finishedProcess(150, 2);
+		acquire(controller, 6 - controller.getProcessCount());
+		controller.finishedProcess(20000, 1000);
+		assertThat(controller.getLimit(), equalTo(7));
+
+		//Small batches are not held to the per data point cost of large ones
+		acquire(controller, 7 - controller.getProcessCount());
+		controller.finishedProcess(150, 1);
+		assertThat(controller.getLimit(), equalTo(8));
+
+		//A large batch that is slow per data point still backs off
+		acquire(controller, 8 - controller.getProcessCount());
+		controller.finishedProcess(80000, 1000);
+		assertThat(controller.getLimit(), equalTo(7));
+	}
+
+	@Test
+	public void test_limitNeverBelowMinimum()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(1, 1, 4);
+
+		controller.congestionDetected();
+		assertThat(controller.getLimit(), equalTo(1));
+	}
+
+	@Test(timeout = 5000)
+	public void test_blocksAtLimit() throws Exception
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(1, 1, 1);
+		acquire(controller, 1);
+
+		CompletableFuture<ProcessTracker> waiting = CompletableFuture.supplyAsync(controller::getProcessTracker);
+
+		try
+		{
+			waiting.get(100, TimeUnit.MILLISECONDS);
+			throw new AssertionError("Process should be blocked");
+		}
+		catch (TimeoutException e)
+		{
+			//expected
+		}
+
+		controller.finishedProcess(1000);
+		assertThat(waiting.get(), notNullValue());
+		assertThat(controller.getProcessCount(), equalTo(1));
+	}
+
+	@Test(timeout = 5000)
+	public void test_shutdownReleasesWaiters() throws Exception
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(1, 1, 1);
+		acquire(controller, 1);
+
+		CompletableFuture<ProcessTracker> waiting = CompletableFuture.supplyAsync(controller::getProcessTracker);
+		controller.shutdown();
+
+		assertThat(waiting.get(), nullValue());
+	}
+}
@@ -22,6 +22,7 @@ import org.kairosdb.core.datapoints.DoubleDataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LegacyLongDataPoint;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.StringDataPoint;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.exception.KairosDBException;
 import org.kairosdb.testing.ListDataPointGroup;
@@ -134,6 +135,29 @@ public class AvgAggregatorTest
 		assertThat(results.hasNext(), equalTo(false));
 	}
 
+	@Test
+	public void test_nanAndNonNumericValues()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("group");
+		group.addDataPoint(new DoubleDataPoint(1, 10.0));
+		group.addDataPoint(new StringDataPoint(1, "ignored"));
+		group.addDataPoint(new DoubleDataPoint(2, 1.0));
+		group.addDataPoint(new DoubleDataPoint(2, Double.NaN));
+
+		DataPointGroup results = aggregator.aggregate(group);
+
+		//Non numeric values are skipped but a NaN value is part of the average
+		DataPoint dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(1L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(10.0));
+
+		dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(2L));
+		assertThat(Double.isNaN(dataPoint.getDoubleValue()), equalTo(true));
+
+		assertThat(results.hasNext(), equalTo(false));
+	}
+
 	@Test
 	public void test_legacyLongValues()
 	{
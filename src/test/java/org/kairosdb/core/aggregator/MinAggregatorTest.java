@@ -19,6 +19,7 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.StringDataPoint;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.testing.ListDataPointGroup;
 import org.junit.Before;
@@ -124,4 +125,27 @@ public class MinAggregatorTest
 		assertThat(dataPoint.getTimestamp(), equalTo(3L));
 		assertThat(dataPoint.getDoubleValue(), equalTo(25.1));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void test_nonNumericValues()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("group");
+		group.addDataPoint(new DoubleDataPoint(1, 10.0));
+		group.addDataPoint(new StringDataPoint(1, "ignored"));
+		group.addDataPoint(new DoubleDataPoint(1, 20.3));
+		group.addDataPoint(new StringDataPoint(2, "ignored"));
+		group.addDataPoint(new DoubleDataPoint(2, -1.0));
+
+		DataPointGroup results = aggregator.aggregate(group);
+
+		DataPoint dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(1L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(10.0));
+
+		dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(2L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(-1.0));
+
+		assertThat(results.hasNext(), equalTo(false));
+	}
+}
@@ -127,4 +127,31 @@ public class RateAggregatorTest
 		DataPoint dp = results.next();
 	}
 
+
+	@Test
+	public void test_nextBatch()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("rate");
+		group.addDataPoint(new LongDataPoint(1, 10));
+		group.addDataPoint(new LongDataPoint(2, 20));
+		group.addDataPoint(new LongDataPoint(3, 40));
+		group.addDataPoint(new LongDataPoint(4, 40));
+
+		RateAggregator rateAggregator = new RateAggregator(new DoubleDataPointFactoryImpl());
+		DataPointGroup results = rateAggregator.aggregate(group);
+
+		long[] timestamps = new long[2];
+		double[] values = new double[2];
+		assertThat(results.nextBatch(timestamps, values), equalTo(2));
+		assertThat(timestamps[0], equalTo(2L));
+		assertThat(values[0], equalTo(10.0));
+		assertThat(timestamps[1], equalTo(3L));
+		assertThat(values[1], equalTo(20.0));
+
+		assertThat(results.hasNext(), equalTo(true));
+		DataPoint dp = results.next();
+		assertThat(dp.getTimestamp(), equalTo(4L));
+		assertThat(dp.getDoubleValue(), equalTo(0.0));
+		assertThat(results.hasNext(), equalTo(false));
+	}
 }
@@ -19,7 +19,7 @@ import java.util.Collections;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.kairosdb.util.DataPointEventUtil.verifyEvent;
+import static org.kairosdb.util.DataPointEventUtil.verifyEvents;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -61,20 +61,19 @@ public class SaveAsAggregatorTest
 		DataPointGroup results = m_aggregator.aggregate(group);
 
 		assertThat(results.hasNext(), equalTo(true));
-		DataPoint dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(1L));
-		assertThat(dataPoint.getLongValue(), equalTo(10L));
-
-		verifyEvent(m_publisher, "testTtl", dataPoint, 42);
+		DataPoint first = results.next();
+		assertThat(first.getTimestamp(), equalTo(1L));
+		assertThat(first.getLongValue(), equalTo(10L));
 
 		assertThat(results.hasNext(), equalTo(true));
-		dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(2L));
-		assertThat(dataPoint.getLongValue(), equalTo(20L));
-
-		verifyEvent(m_publisher, "testTtl", dataPoint, 42);
+		DataPoint second = results.next();
+		assertThat(second.getTimestamp(), equalTo(2L));
+		assertThat(second.getLongValue(), equalTo(20L));
 
+		assertThat(results.hasNext(), equalTo(false));
 		results.close();
+
+		verifyEvents(m_publisher, "testTtl", 42, first, second);
 	}
 
 
@@ -91,20 +90,19 @@ public class SaveAsAggregatorTest
 		DataPointGroup results = m_aggregator.aggregate(group);
 
 		assertThat(results.hasNext(), equalTo(true));
-		DataPoint dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(1L));
-		assertThat(dataPoint.getLongValue(), equalTo(10L));
-
-		verifyEvent(m_publisher, "testTtl", dataPoint, 0);
+		DataPoint first = results.next();
+		assertThat(first.getTimestamp(), equalTo(1L));
+		assertThat(first.getLongValue(), equalTo(10L));
 
 		assertThat(results.hasNext(), equalTo(true));
-		dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(2L));
-		assertThat(dataPoint.getLongValue(), equalTo(20L));
-
-		verifyEvent(m_publisher, "testTtl", dataPoint, 0);
+		DataPoint second = results.next();
+		assertThat(second.getTimestamp(), equalTo(2L));
+		assertThat(second.getLongValue(), equalTo(20L));
 
+		assertThat(results.hasNext(), equalTo(false));
 		results.close();
+
+		verifyEvents(m_publisher, "testTtl", 0, first, second);
 	}
 
 	@Test
@@ -126,20 +124,19 @@ public class SaveAsAggregatorTest
 		DataPointGroup results = m_aggregator.aggregate(group);
 
 		assertThat(results.hasNext(), equalTo(true));
-		DataPoint dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(1L));
-		assertThat(dataPoint.getLongValue(), equalTo(10L));
-
-		verifyEvent(m_publisher, "testTtl", verifyMap, dataPoint, 0);
+		DataPoint first = results.next();
+		assertThat(first.getTimestamp(), equalTo(1L));
+		assertThat(first.getLongValue(), equalTo(10L));
 
 		assertThat(results.hasNext(), equalTo(true));
-		dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(2L));
-		assertThat(dataPoint.getLongValue(), equalTo(20L));
-
-		verifyEvent(m_publisher, "testTtl", verifyMap, dataPoint, 0);
+		DataPoint second = results.next();
+		assertThat(second.getTimestamp(), equalTo(2L));
+		assertThat(second.getLongValue(), equalTo(20L));
 
+		assertThat(results.hasNext(), equalTo(false));
 		results.close();
+
+		verifyEvents(m_publisher, "testTtl", verifyMap, 0, first, second);
 	}
 
 	@Test
@@ -161,20 +158,19 @@ public class SaveAsAggregatorTest
 		DataPointGroup results = m_aggregator.aggregate(group);
 
 		assertThat(results.hasNext(), equalTo(true));
-		DataPoint dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(1L));
-		assertThat(dataPoint.getLongValue(), equalTo(10L));
-
-		verifyEvent(m_publisher, "testTtl", verifyMap, dataPoint, 0);
+		DataPoint first = results.next();
+		assertThat(first.getTimestamp(), equalTo(1L));
+		assertThat(first.getLongValue(), equalTo(10L));
 
 		assertThat(results.hasNext(), equalTo(true));
-		dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(2L));
-		assertThat(dataPoint.getLongValue(), equalTo(20L));
-
-		verifyEvent(m_publisher, "testTtl", verifyMap, dataPoint, 0);
+		DataPoint second = results.next();
+		assertThat(second.getTimestamp(), equalTo(2L));
+		assertThat(second.getLongValue(), equalTo(20L));
 
+		assertThat(results.hasNext(), equalTo(false));
 		results.close();
+
+		verifyEvents(m_publisher, "testTtl", verifyMap, 0, first, second);
 	}
 
 	@Test
@@ -203,19 +199,18 @@ public class SaveAsAggregatorTest
 		DataPointGroup results = m_aggregator.aggregate(group);
 
 		assertThat(results.hasNext(), equalTo(true));
-		DataPoint dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(1L));
-		assertThat(dataPoint.getLongValue(), equalTo(10L));
-
-		verifyEvent(m_publisher, "testTtl", verifyMap, dataPoint, 42);
+		DataPoint first = results.next();
+		assertThat(first.getTimestamp(), equalTo(1L));
+		assertThat(first.getLongValue(), equalTo(10L));
 
 		assertThat(results.hasNext(), equalTo(true));
-		dataPoint = results.next();
-		assertThat(dataPoint.getTimestamp(), equalTo(2L));
-		assertThat(dataPoint.getLongValue(), equalTo(20L));
-
-		verifyEvent(m_publisher, "testTtl", verifyMap, dataPoint, 42);
+		DataPoint second = results.next();
+		assertThat(second.getTimestamp(), equalTo(2L));
+		assertThat(second.getLongValue(), equalTo(20L));
 
+		assertThat(results.hasNext(), equalTo(false));
 		results.close();
+
+		verifyEvents(m_publisher, "testTtl", verifyMap, 42, first, second);
 	}
 }
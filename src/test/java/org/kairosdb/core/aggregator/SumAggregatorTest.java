@@ -19,7 +19,9 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.StringDataPoint;
 import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.testing.ListDataPointGroup;
 import org.junit.Before;
 import org.junit.Test;
@@ -146,4 +148,59 @@ public class SumAggregatorTest
 
 		assertThat(results.hasNext(), equalTo(false));
 	}
+
+	@Test
+	public void test_nextBatch()
+	{
+		//Enough data points to span several input batches
+		ListDataPointGroup group = new ListDataPointGroup("group");
+		for (int I = 0; I < 5000; I++)
+			group.addDataPoint(new LongDataPoint(I, 1));
+
+		aggregator.setSampling(new Sampling(1000, TimeUnit.MILLISECONDS));
+		aggregator.setStartTime(0);
+		aggregator.init();
+
+		DataPointGroup results = aggregator.aggregate(group);
+
+		long[] timestamps = new long[3];
+		double[] values = new double[3];
+		assertThat(results.nextBatch(timestamps, values), equalTo(3));
+		assertThat(timestamps[0], equalTo(0L));
+		assertThat(values[0], equalTo(1000.0));
+		assertThat(timestamps[2], equalTo(2000L));
+		assertThat(values[2], equalTo(1000.0));
+
+		//Mixing next() and nextBatch() returns the remaining ranges in order
+		DataPoint dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(3000L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(1000.0));
+
+		assertThat(results.nextBatch(timestamps, values), equalTo(1));
+		assertThat(timestamps[0], equalTo(4000L));
+		assertThat(results.nextBatch(timestamps, values), equalTo(0));
+	}
+
+	@Test
+	public void test_nonNumericValues()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("group");
+		group.addDataPoint(new DoubleDataPoint(1, 10.0));
+		group.addDataPoint(new StringDataPoint(1, "ignored"));
+		group.addDataPoint(new DoubleDataPoint(1, 20.3));
+		group.addDataPoint(new StringDataPoint(2, "ignored"));
+		group.addDataPoint(new DoubleDataPoint(2, -1.0));
+
+		DataPointGroup results = aggregator.aggregate(group);
+
+		DataPoint dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(1L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(30.3));
+
+		dataPoint = results.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(2L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(-1.0));
+
+		assertThat(results.hasNext(), equalTo(false));
+	}
 }
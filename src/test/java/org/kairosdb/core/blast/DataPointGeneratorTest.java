@@ -0,0 +1,123 @@
+package org.kairosdb.core.blast;
+
+import org.junit.Test;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.events.DataPointEvent;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class DataPointGeneratorTest
+{
+	private static final long NOW = 1_500_000_000_000L;
+
+	private static DataPointGenerator createGenerator(int metricCount, int numberOfRows, double zipfExponent)
+	{
+		return new DataPointGenerator("blast", metricCount, "host1", numberOfRows, zipfExponent, 60,
+				new Random(42), new LongDataPointFactoryImpl(), new DoubleDataPointFactoryImpl(),
+				new StringDataPointFactory());
+	}
+
+	@Test
+	public void test_defaultsMatchSingleMetricOfLongs()
+	{
+		DataPointGenerator generator = createGenerator(1, 10, 0);
+
+		for (int I = 0; I < 1000; I++)
+		{
+			DataPointEvent event = generator.next(NOW);
+			assertThat(event.getMetricName(), equalTo("blast"));
+			assertThat(event.getTtl(), equalTo(60));
+			assertThat(event.getTags().get("host"), equalTo("host1"));
+			assertThat(Integer.parseInt(event.getTags().get(DataPointGenerator.ROW_TAG)), lessThan(10));
+			assertThat(event.getDataPoint().getTimestamp(), equalTo(NOW));
+			assertThat(event.getDataPoint().getDataStoreDataType(), equalTo(LongDataPointFactoryImpl.DST_LONG));
+		}
+	}
+
+	@Test
+	public void test_multipleMetricsAndValueTypes()
+	{
+		DataPointGenerator generator = createGenerator(3, 10, 0);
+		generator.setValueTypes(30, 30);
+
+		Set<String> metricNames = new HashSet<>();
+		Map<String, Integer> typeCounts = new HashMap<>();
+		for (int I = 0; I < 10000; I++)
+		{
+			DataPointEvent event = generator.next(NOW);
+			metricNames.add(event.getMetricName());
+			typeCounts.merge(event.getDataPoint().getDataStoreDataType(), 1, Integer::sum);
+		}
+
+		assertThat(metricNames, containsInAnyOrder("blast.0", "blast.1", "blast.2"));
+		assertThat(typeCounts.get(DoubleDataPointFactoryImpl.DST_DOUBLE), greaterThan(2500));
+		assertThat(typeCounts.get(StringDataPointFactory.DST_STRING), greaterThan(2500));
+		assertThat(typeCounts.get(LongDataPointFactoryImpl.DST_LONG), greaterThan(3500));
+	}
+
+	@Test
+	public void test_zipfRowsAreSkewed()
+	{
+		DataPointGenerator generator = createGenerator(1, 100, 1.0);
+
+		int[] rowCounts = new int[100];
+		for (int I = 0; I < 10000; I++)
+		{
+			rowCounts[generator.nextRow()]++;
+		}
+
+		//With an exponent of 1 the first row gets about 19% and the last about 0.2%
+		assertThat(rowCounts[0], greaterThan(1500));
+		assertThat(rowCounts[0], greaterThan(rowCounts[1]));
+		assertThat(rowCounts[99], lessThan(100));
+	}
+
+	@Test
+	public void test_outOfOrderAndLateTimestamps()
+	{
+		DataPointGenerator generator = createGenerator(1, 10, 0);
+		generator.setOutOfOrder(20, 1000);
+		generator.setLate(10, 60000);
+
+		int current = 0;
+		int outOfOrder = 0;
+		int late = 0;
+		for (int I = 0; I < 10000; I++)
+		{
+			long age = NOW - generator.nextTimestamp(NOW);
+			assertThat(age, greaterThanOrEqualTo(0L));
+			assertThat(age, lessThanOrEqualTo(60000L));
+
+			if (age == 0)
+				current++;
+			else if (age <= 1000)
+				outOfOrder++;
+			else
+				late++;
+		}
+
+		assertThat(current, greaterThan(6500));
+		assertThat(outOfOrder, greaterThan(1500));
+		assertThat(late, greaterThan(700));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_valueTypesOver100Percent()
+	{
+		createGenerator(1, 10, 0).setValueTypes(60, 50);
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LegacyDataPointFactory;
+import org.kairosdb.core.datapoints.LegacyDoubleDataPoint;
+import org.kairosdb.core.datapoints.LegacyLongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdaptiveSearchResultTest
+{
+	private static KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+	private static String tempFile = System.getProperty("java.io.tmpdir") + "/adaptiveBaseFile";
+
+	private static SortedMap<String, String> tags(String host)
+	{
+		SortedMap<String, String> tags = new TreeMap<>();
+		tags.put("host", host);
+		return tags;
+	}
+
+	private static void writeRows(SearchResult result, int pointsPerRow) throws IOException
+	{
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, tags("A")))
+		{
+			for (int I = 0; I < pointsPerRow; I++)
+				writer.addDataPoint(new LongDataPoint(I, I * 2));
+		}
+
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(DoubleDataPointFactoryImpl.DST_DOUBLE, tags("B")))
+		{
+			for (int I = 0; I < pointsPerRow; I++)
+				writer.addDataPoint(new DoubleDataPoint(I, I + 0.5));
+		}
+
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(LegacyDataPointFactory.DATASTORE_TYPE, tags("C")))
+		{
+			writer.addDataPoint(new LegacyLongDataPoint(1, 42));
+			writer.addDataPoint(new LegacyDoubleDataPoint(2, 42.1));
+		}
+	}
+
+	private static void assertRows(List<DataPointRow> rows, int pointsPerRow)
+	{
+		assertThat(rows.size(), equalTo(3));
+
+		DataPointRow longRow = rows.get(0);
+		assertThat(longRow.getTagValue("host"), equalTo("A"));
+		assertThat(longRow.getDataPointCount(), equalTo(pointsPerRow));
+		for (int I = 0; I < pointsPerRow; I++)
+		{
+			DataPoint dp = longRow.next();
+			assertThat(dp, instanceOf(LongDataPoint.class));
+			assertThat(dp.getTimestamp(), equalTo((long) I));
+			assertThat(dp.getLongValue(), equalTo(I * 2L));
+		}
+		assertThat(longRow.hasNext(), equalTo(false));
+
+		DataPointRow doubleRow = rows.get(1);
+		assertThat(doubleRow.getDatastoreType(), equalTo(DoubleDataPointFactoryImpl.DST_DOUBLE));
+		for (int I = 0; I < pointsPerRow; I++)
+		{
+			DataPoint dp = doubleRow.next();
+			assertThat(dp, instanceOf(DoubleDataPoint.class));
+			assertThat(dp.getDoubleValue(), equalTo(I + 0.5));
+		}
+		assertThat(doubleRow.hasNext(), equalTo(false));
+
+		DataPointRow legacyRow = rows.get(2);
+		assertThat(legacyRow.next().getLongValue(), equalTo(42L));
+		assertThat(legacyRow.next().getDoubleValue(), equalTo(42.1));
+		assertThat(legacyRow.hasNext(), equalTo(false));
+
+		for (DataPointRow row : rows)
+			row.close();
+	}
+
+	@Test
+	public void test_resultsStayInMemory() throws IOException
+	{
+		AdaptiveSearchResult result = new AdaptiveSearchResult("metric1", tempFile,
+				dataPointFactory, 1024 * 1024);
+
+		writeRows(result, 1000);
+
+		assertThat(result.isSpilled(), equalTo(false));
+		assertRows(result.getRows(), 1000);
+		result.close();
+	}
+
+	@Test
+	public void test_resultsSpillToFile() throws IOException
+	{
+		AdaptiveSearchResult result = new AdaptiveSearchResult("metric2", tempFile,
+				dataPointFactory, 1024);
+
+		writeRows(result, 1000);
+
+		assertThat(result.isSpilled(), equalTo(true));
+		assertRows(result.getRows(), 1000);
+		result.close();
+	}
+
+	@Test
+	public void test_largeRowSpillsBeforeClose() throws IOException
+	{
+		AdaptiveSearchResult result = new AdaptiveSearchResult("metric6", tempFile,
+				dataPointFactory, 1024);
+		int pointCount = 100000;
+
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, tags("A")))
+		{
+			for (int I = 0; I < pointCount; I++)
+				writer.addDataPoint(new LongDataPoint(I, I * 2));
+
+			assertThat(result.isSpilled(), equalTo(true));
+		}
+
+		//The row is written in parts that follow each other in time
+		long next = 0;
+		for (DataPointRow row : result.getRows())
+		{
+			assertThat(row.getTagValue("host"), equalTo("A"));
+			while (row.hasNext())
+			{
+				DataPoint dp = row.next();
+				assertThat(dp.getTimestamp(), equalTo(next));
+				assertThat(dp.getLongValue(), equalTo(next * 2));
+				next++;
+			}
+			row.close();
+		}
+
+		assertThat(next, equalTo((long) pointCount));
+		result.close();
+	}
+
+	@Test
+	public void test_mixedTypesInRow() throws IOException
+	{
+		AdaptiveSearchResult result = new AdaptiveSearchResult("metric3", tempFile,
+				dataPointFactory, 1024 * 1024);
+
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, tags("A")))
+		{
+			writer.addDataPoint(new LongDataPoint(1, 1));
+			writer.addDataPoint(new DoubleDataPoint(2, 2.5));
+		}
+
+		DataPointRow row = result.getRows().get(0);
+		assertThat(row.next().getLongValue(), equalTo(1L));
+		assertThat(row.next().getDoubleValue(), equalTo(2.5));
+		assertThat(row.hasNext(), equalTo(false));
+		result.close();
+	}
+
+	@Test
+	public void test_nextBatch() throws IOException
+	{
+		AdaptiveSearchResult result = new AdaptiveSearchResult("metric4", tempFile,
+				dataPointFactory, 1024 * 1024);
+
+		writeRows(result, 10);
+
+		List<DataPointRow> rows = result.getRows();
+		long[] timestamps = new long[8];
+		double[] values = new double[8];
+
+		assertThat(rows.get(0).nextBatch(timestamps, values), equalTo(8));
+		assertThat(timestamps[7], equalTo(7L));
+		assertThat(values[7], equalTo(14.0));
+		assertThat(rows.get(0).nextBatch(timestamps, values), equalTo(2));
+		assertThat(rows.get(0).nextBatch(timestamps, values), equalTo(0));
+
+		assertThat(rows.get(1).nextBatch(timestamps, values), equalTo(8));
+		assertThat(values[3], equalTo(3.5));
+
+		assertThat(rows.get(2).nextBatch(timestamps, values), equalTo(2));
+		assertThat(values[1], equalTo(42.1));
+		result.close();
+	}
+
+	@Test
+	public void test_addPrimitiveValues() throws IOException
+	{
+		AdaptiveSearchResult result = new AdaptiveSearchResult("metric5", tempFile,
+				dataPointFactory, 1024 * 1024);
+		LongDataPointFactoryImpl longFactory = new LongDataPointFactoryImpl();
+		DoubleDataPointFactoryImpl doubleFactory = new DoubleDataPointFactoryImpl();
+
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, tags("A")))
+		{
+			writer.addLongValue(longFactory, 1, -5);
+			writer.addLongValue(longFactory, 2, Long.MAX_VALUE);
+		}
+
+		try (QueryCallback.DataPointWriter writer = result.startDataPointSet(DoubleDataPointFactoryImpl.DST_DOUBLE, tags("B")))
+		{
+			writer.addDoubleValue(doubleFactory, 1, 1.5);
+			//Long value in a double row falls back to objects
+			writer.addLongValue(longFactory, 2, 7);
+		}
+
+		assertThat(result.isSpilled(), equalTo(false));
+		List<DataPointRow> rows = result.getRows();
+
+		DataPoint dp = rows.get(0).next();
+		assertThat(dp, instanceOf(LongDataPoint.class));
+		assertThat(dp.getLongValue(), equalTo(-5L));
+		assertThat(rows.get(0).next().getLongValue(), equalTo(Long.MAX_VALUE));
+		assertThat(rows.get(0).hasNext(), equalTo(false));
+
+		dp = rows.get(1).next();
+		assertThat(dp, instanceOf(DoubleDataPoint.class));
+		assertThat(dp.getDoubleValue(), equalTo(1.5));
+		dp = rows.get(1).next();
+		assertThat(dp, instanceOf(LongDataPoint.class));
+		assertThat(dp.getLongValue(), equalTo(7L));
+		assertThat(rows.get(1).hasNext(), equalTo(false));
+		result.close();
+	}
+}
@@ -40,6 +40,7 @@ import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.collection.IsMapContaining.hasEntry;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -169,6 +170,33 @@ public class KairosDatastoreTest
 		dq.close();
 	}
 
+	@Test
+	public void test_calculateFilenameHash_includesLimitAndOrder() throws Exception
+	{
+		QueryMetric metric = new QueryMetric(1L, 2L, 0, "metric");
+		metric.setCacheString("1:2:metric:");
+		String hash = KairosDatastore.calculateFilenameHash(metric);
+
+		QueryMetric same = new QueryMetric(1L, 2L, 0, "metric");
+		same.setCacheString("1:2:metric:");
+		assertThat(KairosDatastore.calculateFilenameHash(same), equalTo(hash));
+
+		QueryMetric limited = new QueryMetric(1L, 2L, 0, "metric");
+		limited.setCacheString("1:2:metric:");
+		limited.setLimit(10);
+		assertThat(KairosDatastore.calculateFilenameHash(limited), not(equalTo(hash)));
+
+		QueryMetric descending = new QueryMetric(1L, 2L, 0, "metric");
+		descending.setCacheString("1:2:metric:");
+		descending.setOrder(Order.DESC);
+		assertThat(KairosDatastore.calculateFilenameHash(descending), not(equalTo(hash)));
+
+		QueryMetric explicit = new QueryMetric(1L, 2L, 0, "metric");
+		explicit.setCacheString("1:2:metric:");
+		explicit.setExplicitTags(true);
+		assertThat(KairosDatastore.calculateFilenameHash(explicit), not(equalTo(hash)));
+	}
+
 	@SuppressWarnings({"ResultOfMethodCallIgnored", "ConstantConditions"})
 	@Test
 	public void test_cleanCacheDir() throws IOException, DatastoreException
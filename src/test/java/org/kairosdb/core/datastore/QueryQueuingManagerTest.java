@@ -13,14 +13,22 @@ import org.kairosdb.metrics4j.MetricSourceManager;
 import org.kairosdb.metrics4j.collectors.LongCollector;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -160,6 +168,58 @@ public class QueryQueuingManagerTest
 		assertThat(manager.getQueryWaitingCount(), equalTo(0));
 	}
 
+	@Test(timeout = 3000)
+	public void test_sharedQueryResults() throws InterruptedException, ExecutionException
+	{
+		LongCollector coalescedCollector = mock(LongCollector.class);
+		MetricSourceManager.setCollectorForSource(coalescedCollector, QueryStats.class).queryCoalesced();
+		QueryQueuingManager manager = new QueryQueuingManager(1);
+
+		assertThat(manager.waitForTimeToRunOrSubscribe("1", null), nullValue());
+		CompletableFuture<List<DataPointRow>> follower1 = manager.waitForTimeToRunOrSubscribe("1", null);
+		CompletableFuture<List<DataPointRow>> follower2 = manager.waitForTimeToRunOrSubscribe("1", null);
+
+		assertThat(follower1, notNullValue());
+		assertThat(follower2, notNullValue());
+		//Followers do not take a permit
+		assertThat(manager.getAvailableThreads(), equalTo(0));
+		verify(coalescedCollector, times(2)).put(1);
+
+		List<DataPointRow> rows = Collections.emptyList();
+		manager.publishResults("1", () -> rows);
+
+		assertThat(follower1.get(), sameInstance(rows));
+		assertThat(follower2.get(), sameInstance(rows));
+
+		manager.done("1");
+		assertThat(manager.getAvailableThreads(), equalTo(1));
+
+		//Queries after the results were published run on their own
+		assertThat(manager.waitForTimeToRunOrSubscribe("1", null), nullValue());
+		manager.done("1");
+	}
+
+	@Test(timeout = 3000)
+	public void test_sharedQueryDoneWithoutResults() throws InterruptedException
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1);
+
+		assertThat(manager.waitForTimeToRunOrSubscribe("1", null), nullValue());
+		CompletableFuture<List<DataPointRow>> follower = manager.waitForTimeToRunOrSubscribe("1", null);
+
+		manager.done("1");
+
+		try
+		{
+			follower.get();
+			fail("Expected the follower to fail");
+		}
+		catch (ExecutionException e)
+		{
+			assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+		}
+	}
+
 	private class Query extends Thread
 	{
 		private QueryQueuingManager manager;
@@ -24,12 +24,16 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.exception.InvalidServerTypeException;
+import org.kairosdb.core.http.rest.json.BinaryDataPointsParser;
 import org.kairosdb.testing.Client;
 import org.kairosdb.testing.JsonResponse;
 import org.kairosdb.util.LoggingUtils;
+import org.kairosdb.util.Util;
 
 import javax.ws.rs.core.HttpHeaders;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.zip.GZIPInputStream;
@@ -107,6 +111,42 @@ public class MetricsResourceTest extends ResourceBase
 		assertResponse(response, 400, "{\"errors\":[\"metric[0].name may not be empty.\"]}");
 	}
 
+	@Test
+	public void testAddBinary() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeByte(BinaryDataPointsParser.VERSION);
+		Util.packUnsignedLong(3, output);
+		for (String string : new String[]{"abc.123", "host", "server1"})
+		{
+			Util.packUnsignedLong(string.length(), output);
+			output.writeBytes(string);
+		}
+		Util.packUnsignedLong(1, output); //metrics
+		Util.packUnsignedLong(0, output); //name
+		Util.packUnsignedLong(1, output); //tags
+		Util.packUnsignedLong(1, output);
+		Util.packUnsignedLong(2, output);
+		Util.packUnsignedLong(0, output); //ttl
+		Util.packUnsignedLong(1, output); //points
+		Util.packLong(1234, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(42, output);
+
+		JsonResponse response = client.post(bytes.toByteArray(), BinaryDataPointsParser.MEDIA_TYPE, ADD_METRIC_URL);
+
+		assertResponse(response, 204);
+	}
+
+	@Test
+	public void testAddBinaryEmptyBody() throws Exception
+	{
+		JsonResponse response = client.post(new byte[0], BinaryDataPointsParser.MEDIA_TYPE, ADD_METRIC_URL);
+
+		assertResponse(response, 400, "{\"errors\":[\"Invalid data. No content due to end of input.\"]}");
+	}
+
 	@Test
 	public void testAddTimestampZeroValid() throws Exception
 	{
@@ -130,6 +170,49 @@ public class MetricsResourceTest extends ResourceBase
 						"[{\"name\":\"abc.123\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}]}");
 	}
 
+	@Test
+	public void testQueryMultipleMetrics() throws IOException
+	{
+		String json = "{\"start_absolute\": 784041330, \"end_absolute\": 788879730, \"metrics\": [" +
+				"{\"name\": \"abc.123\", \"aggregators\": [{\"name\": \"sum\", \"sampling\": {\"value\": 1, \"unit\": \"milliseconds\"}}]}," +
+				"{\"name\": \"abc.123\", \"aggregators\": [{\"name\": \"sum\", \"sampling\": {\"value\": 1, \"unit\": \"milliseconds\"}}]}]}";
+
+		JsonResponse response = client.post(json, GET_METRIC_URL);
+
+		assertResponse(response, 200,
+				"{\"queries\":" +
+						"[{\"sample_size\":10,\"results\":" +
+						"[{\"name\":\"abc.123\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}," +
+						"{\"sample_size\":10,\"results\":" +
+						"[{\"name\":\"abc.123\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}]}");
+		assertEquals(3, queuingManager.getAvailableThreads());
+	}
+
+	@Test
+	public void testQueryMetricsReturnedInRequestOrder() throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"start_absolute\": 784041330, \"end_absolute\": 788879730, \"metrics\": [");
+		StringBuilder expected = new StringBuilder("{\"queries\":[");
+		for (int I = 0; I < 6; I++)
+		{
+			if (I != 0)
+			{
+				json.append(",");
+				expected.append(",");
+			}
+			json.append("{\"name\": \"metric").append(I).append("\", \"exclude_tags\": true}");
+			expected.append("{\"sample_size\":10,\"results\":[{\"name\":\"metric").append(I)
+					.append("\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"values\":[[1,10],[1,10.1],[1,20],[1,20.1],[2,10],[2,5],[2,10.1],[2,5.1],[3,10],[3,10.1]]}]}");
+		}
+		json.append("]}");
+		expected.append("]}");
+
+		JsonResponse response = client.post(json.toString(), GET_METRIC_URL);
+
+		assertResponse(response, 200, expected.toString());
+		assertEquals(3, queuingManager.getAvailableThreads());
+	}
+
 	@Test
 	public void testQueryWithBeanValidationException() throws IOException
 	{
@@ -102,6 +102,8 @@ public abstract class ResourceBase
                 testProperties.put("kairosdb.datastore.concurrentQueryThreads", "1");
                 testProperties.put("kairosdb.query_cache.keep_cache_files", "false");
                 testProperties.put("kairosdb.server.type", "ALL");
+                //Small enough that buffered sub queries are moved to temp files
+                testProperties.put("kairosdb.queries.sub_query_buffer_size", "64");
 
                 props.load(testProperties);
                 bindConfiguration(props, binder());
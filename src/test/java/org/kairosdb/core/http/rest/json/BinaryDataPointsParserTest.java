@@ -0,0 +1,240 @@
+package org.kairosdb.core.http.rest.json;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.KairosRootConfig;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.StringDataPoint;
+import org.kairosdb.eventbus.EventBusConfiguration;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class BinaryDataPointsParserTest
+{
+	private static KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+	private Publisher<DataPointEvent> publisher;
+	private List<DataPointEvent> events;
+
+	@Before
+	public void setup()
+	{
+		FilterEventBus eventBus = new FilterEventBus(new EventBusConfiguration(new KairosRootConfig()));
+		publisher = eventBus.createPublisher(DataPointEvent.class);
+		events = new ArrayList<>();
+		eventBus.register(new Object()
+		{
+			@Subscribe
+			public void putDataPoint(DataPointEvent event)
+			{
+				events.add(event);
+			}
+		});
+	}
+
+	private static DataOutputStream writeHeader(ByteArrayOutputStream bytes, String... strings) throws IOException
+	{
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeByte(BinaryDataPointsParser.VERSION);
+		Util.packUnsignedLong(strings.length, output);
+		for (String string : strings)
+		{
+			writeString(output, string);
+		}
+
+		return output;
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(UTF_8);
+		Util.packUnsignedLong(bytes.length, output);
+		output.write(bytes);
+	}
+
+	private static void writeMetric(DataOutputStream output, int nameId, int ttl, int pointCount, int... tagIds) throws IOException
+	{
+		Util.packUnsignedLong(nameId, output);
+		Util.packUnsignedLong(tagIds.length / 2, output);
+		for (int tagId : tagIds)
+		{
+			Util.packUnsignedLong(tagId, output);
+		}
+		Util.packUnsignedLong(ttl, output);
+		Util.packUnsignedLong(pointCount, output);
+	}
+
+	private ValidationErrors parse(ByteArrayOutputStream bytes) throws IOException
+	{
+		BinaryDataPointsParser parser = new BinaryDataPointsParser(publisher,
+				new ByteArrayInputStream(bytes.toByteArray()), dataPointFactory);
+		return parser.parse();
+	}
+
+	@Test
+	public void test_validMetrics() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = writeHeader(bytes, "metric1", "host", "server1", "metric2");
+		Util.packUnsignedLong(2, output);
+
+		writeMetric(output, 0, 60, 3, 1, 2);
+		Util.packLong(1000, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(-42, output);
+		Util.packLong(10, output);
+		output.writeByte(BinaryDataPointsParser.DOUBLE_VALUE);
+		output.writeDouble(1.5);
+		Util.packLong(10, output);
+		output.writeByte(BinaryDataPointsParser.STRING_VALUE);
+		writeString(output, "");
+
+		writeMetric(output, 3, 0, 1, 1, 2);
+		Util.packLong(5, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(7, output);
+
+		ValidationErrors validationErrors = parse(bytes);
+
+		assertThat(validationErrors.getErrors(), equalTo(new ArrayList<String>()));
+		assertThat(events.size(), equalTo(4));
+
+		DataPointEvent event = events.get(0);
+		assertThat(event.getMetricName(), equalTo("metric1"));
+		assertThat(event.getTags().get("host"), equalTo("server1"));
+		assertThat(event.getTtl(), equalTo(60));
+		assertThat(event.getDataPoint().getTimestamp(), equalTo(1000L));
+		assertThat(event.getDataPoint().getLongValue(), equalTo(-42L));
+
+		assertThat(events.get(1).getDataPoint().getTimestamp(), equalTo(1010L));
+		assertThat(events.get(1).getDataPoint().getDoubleValue(), equalTo(1.5));
+
+		assertThat(events.get(2).getDataPoint().getTimestamp(), equalTo(1020L));
+		assertThat(events.get(2).getDataPoint(), instanceOf(StringDataPoint.class));
+		assertThat(((StringDataPoint) events.get(2).getDataPoint()).getValue(), equalTo(""));
+
+		assertThat(events.get(3).getMetricName(), equalTo("metric2"));
+		assertThat(events.get(3).getDataPoint().getTimestamp(), equalTo(5L));
+		assertThat(events.get(3).getDataPoint().getLongValue(), equalTo(7L));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test_pointsPublishedPerMetric() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = writeHeader(bytes, "metric1", "host", "server1", "metric2");
+		Util.packUnsignedLong(2, output);
+
+		writeMetric(output, 0, 0, 2, 1, 2);
+		Util.packLong(1, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(1, output);
+		Util.packLong(1, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(2, output);
+
+		//Truncated after the first point
+		writeMetric(output, 3, 0, 2, 1, 2);
+		Util.packLong(1, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(3, output);
+
+		Publisher<DataPointEvent> mockPublisher = mock(Publisher.class);
+		BinaryDataPointsParser parser = new BinaryDataPointsParser(mockPublisher,
+				new ByteArrayInputStream(bytes.toByteArray()), dataPointFactory);
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.getErrors(), equalTo(Arrays.asList("Invalid data. No content due to end of input.")));
+		verify(mockPublisher, times(2)).postAll(any());
+		verify(mockPublisher, never()).post(any());
+		assertThat(parser.getDataPointCount(), equalTo(3));
+	}
+
+	@Test
+	public void test_sameValidationAsJson() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = writeHeader(bytes, "metric1", "host", "", "metric2");
+		Util.packUnsignedLong(2, output);
+
+		//Empty tag value, the data point is skipped
+		writeMetric(output, 0, 0, 1, 1, 2);
+		Util.packLong(1, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+		Util.packLong(1, output);
+
+		//No tags
+		writeMetric(output, 3, 0, 1);
+		Util.packLong(1, output);
+		output.writeByte(BinaryDataPointsParser.DOUBLE_VALUE);
+		output.writeDouble(1.0);
+
+		ValidationErrors validationErrors = parse(bytes);
+
+		assertThat(validationErrors.getErrors(), equalTo(Arrays.asList(
+				"metric[0](name=metric1).tag[host].value may not be empty.",
+				"metric[1](name=metric2).tags count must be greater than or equal to 1.")));
+		assertThat(events.size(), equalTo(0));
+	}
+
+	@Test
+	public void test_truncatedInput() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = writeHeader(bytes, "metric1", "host", "server1");
+		Util.packUnsignedLong(1, output);
+		writeMetric(output, 0, 0, 2, 1, 2);
+		Util.packLong(1, output);
+		output.writeByte(BinaryDataPointsParser.LONG_VALUE);
+
+		ValidationErrors validationErrors = parse(bytes);
+
+		assertThat(validationErrors.getErrors(), equalTo(Arrays.asList("Invalid data. No content due to end of input.")));
+	}
+
+	@Test
+	public void test_unknownStringId() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = writeHeader(bytes, "metric1");
+		Util.packUnsignedLong(1, output);
+		writeMetric(output, 5, 0, 0);
+
+		ValidationErrors validationErrors = parse(bytes);
+
+		assertThat(validationErrors.getErrors(), equalTo(Arrays.asList("Invalid data. Unknown string id 5")));
+	}
+
+	@Test
+	public void test_unsupportedVersion() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(9);
+
+		ValidationErrors validationErrors = parse(bytes);
+
+		assertThat(validationErrors.getErrors(), equalTo(Arrays.asList("Invalid data. Unsupported format version 9")));
+	}
+}
@@ -715,6 +715,53 @@ public class DataPointsParserTest
 		assertThat(validationErrors.getErrors().get(0), equalTo("metric[0](name=metric1) value is an invalid type"));
 	}
 
+	@Test
+	public void test_dataPointsBeforeMetricFields_valid() throws DatastoreException, IOException
+	{
+		String json = "[{\"datapoints\": [[1, 10], [2, \"20\"], [3, 1.5], [4, \"text\", \"string\"]], " +
+				"\"type\": \"double\", \"ttl\": 30, \"tags\": {\"host\": \"server1\"}, \"name\": \"metric1\"}, " +
+				"{\"name\": \"metric2\", \"tags\": {\"host\": \"server2\"}, \"datapoints\": [[5, 7]]}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		eventBus.register(fakeds);
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+
+		List<DataPointSet> dataPointSetList = fakeds.getDataPointSetList();
+		assertThat(dataPointSetList.size(), equalTo(2));
+
+		assertThat(dataPointSetList.get(0).getName(), equalTo("metric1"));
+		assertThat(dataPointSetList.get(0).getTags().get("host"), equalTo("server1"));
+		List<DataPoint> dataPoints = dataPointSetList.get(0).getDataPoints();
+		assertThat(dataPoints.size(), equalTo(4));
+		assertThat(dataPoints.get(0).getDoubleValue(), equalTo(10.0));
+		assertThat(dataPoints.get(1).getDoubleValue(), equalTo(20.0));
+		assertThat(dataPoints.get(2).getDoubleValue(), equalTo(1.5));
+		assertThat(((StringDataPoint)dataPoints.get(3)).getValue(), equalTo("text"));
+
+		assertThat(dataPointSetList.get(1).getName(), equalTo("metric2"));
+		assertThat(dataPointSetList.get(1).getTags().get("host"), equalTo("server2"));
+		assertThat(dataPointSetList.get(1).getDataPoints().size(), equalTo(1));
+		assertThat(dataPointSetList.get(1).getDataPoints().get(0).getLongValue(), equalTo(7L));
+
+		assertThat(parser.getDataPointCount(), equalTo(5));
+	}
+
+	@Test(expected = JsonSyntaxException.class)
+	public void test_duplicateTag_invalid() throws DatastoreException, IOException
+	{
+		String json = "{\"name\": \"metric1\", \"datapoints\": [[1, 2]], \"tags\":{\"foo\":\"bar\", \"foo\":\"baz\"}}";
+
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		parser.parse();
+	}
+
 	@Test
 	public void test_parserSpeed() throws DatastoreException, IOException
 	{
@@ -1,7 +1,11 @@
 package org.kairosdb.core.queue;
 
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.TestDataPointFactory;
@@ -9,8 +13,12 @@ import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.events.DataPointEvent;
 
+import java.io.IOException;
+
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
 
 /**
  Created by bhawkins on 10/25/16.
@@ -18,9 +26,19 @@ import static org.hamcrest.MatcherAssert.assertThat;
 public class DataPointEventSerializerTest
 {
 	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
+	private KairosDataPointFactory m_dataPointFactory = new TestDataPointFactory();
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private DataPointEvent createEvent(String metricName, String host, long timestamp)
+	{
+		ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of("host", host, "dc", "east");
+		return new DataPointEvent(metricName, tags, m_longDataPointFactory.createDataPoint(timestamp, 42), 0);
+	}
 
 	@Test
-	public void test_serializeDeserialize()
+	public void test_serializeDeserialize() throws IOException
 	{
 		KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
 		DataPointEventSerializer serializer = new DataPointEventSerializer(dataPointFactory);
@@ -40,4 +58,68 @@ public class DataPointEventSerializerTest
 
 		assertThat(original, equalTo(processedEvent));
 	}
+
+	@Test
+	public void test_repeatedStringsAreNotWritten() throws IOException
+	{
+		DataPointEventSerializer serializer = new DataPointEventSerializer(m_dataPointFactory);
+
+		byte[] first = serializer.serializeEvent(createEvent("metric_with_a_long_name", "server1", 1));
+		byte[] second = serializer.serializeEvent(createEvent("metric_with_a_long_name", "server1", 2));
+
+		assertThat(second.length, lessThan("metric_with_a_long_name".length()));
+		assertThat(serializer.deserializeEvent(first), equalTo(createEvent("metric_with_a_long_name", "server1", 1)));
+		assertThat(serializer.deserializeEvent(second), equalTo(createEvent("metric_with_a_long_name", "server1", 2)));
+	}
+
+	@Test
+	public void test_deserializeStringFormat() throws IOException
+	{
+		DataPointEvent event = createEvent("old_metric", "server1", 123L);
+
+		//Format written by previous versions
+		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput();
+		dataOutput.writeUTF("old_metric");
+		dataOutput.writeInt(0);
+		dataOutput.writeLong(123L);
+		dataOutput.writeUTF(event.getDataPoint().getDataStoreDataType());
+		event.getDataPoint().writeValueToBuffer(dataOutput);
+		dataOutput.writeInt(2);
+		dataOutput.writeUTF("dc");
+		dataOutput.writeUTF("east");
+		dataOutput.writeUTF("host");
+		dataOutput.writeUTF("server1");
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(m_dataPointFactory);
+
+		assertThat(serializer.deserializeEvent(dataOutput.toByteArray()), equalTo(event));
+	}
+
+	@Test
+	public void test_replayAfterRestart() throws IOException
+	{
+		String queuePath = tempFolder.getRoot().getAbsolutePath();
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(m_dataPointFactory, queuePath);
+		byte[] first = serializer.serializeEvent(createEvent("metric1", "server1", 1));
+		serializer.close();
+
+		serializer = new DataPointEventSerializer(m_dataPointFactory, queuePath);
+		byte[] second = serializer.serializeEvent(createEvent("metric1", "server2", 2));
+		serializer.close();
+
+		serializer = new DataPointEventSerializer(m_dataPointFactory, queuePath);
+		byte[] third = serializer.serializeEvent(createEvent("metric2", "server1", 3));
+
+		assertThat(serializer.deserializeEvent(first), equalTo(createEvent("metric1", "server1", 1)));
+		assertThat(serializer.deserializeEvent(second), equalTo(createEvent("metric1", "server2", 2)));
+		assertThat(serializer.deserializeEvent(third), equalTo(createEvent("metric2", "server1", 3)));
+
+		//Checkpointed past the first event
+		serializer.removeUnusedDictionary(third);
+
+		assertThat(serializer.deserializeEvent(first), nullValue());
+		assertThat(serializer.deserializeEvent(second), equalTo(createEvent("metric1", "server2", 2)));
+		serializer.close();
+	}
 }
@@ -42,14 +42,14 @@ public class QueueProcessorTest
 {
 	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
 
-	private QueueProcessor.DeliveryThread m_deliveryThread;
+	private DeliveringQueueProcessor.DeliveryThread m_deliveryThread;
 
 	private class TestExecutor implements ExecutorService
 	{
 		@Override
 		public void execute(Runnable command)
 		{
-			m_deliveryThread = (QueueProcessor.DeliveryThread)command;
+			m_deliveryThread = (DeliveringQueueProcessor.DeliveryThread)command;
 		}
 
 		@Override
@@ -284,4 +284,70 @@ public class QueueProcessorTest
 		//verify(bigArray, times(1)).get(anyLong()); //Item taken from memory
 		verify(bigArray, times(1)).removeBeforeIndex(eq(1l));
 	}
+
+	@Test
+	public void test_putAll() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
+		when(bigArray.append(any())).thenReturn(0L, 1L, 2L);
+		when(bigArray.getTailIndex()).thenReturn(0L);
+		when(bigArray.getHeadIndex()).thenReturn(3L);
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+
+		FileQueueProcessor queueProcessor = new FileQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 3, 10, 500, 1, 500);
+
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		DataPointEvent event = createDataPointEvent();
+
+		queueProcessor.putAll(Arrays.asList(event, event, event));
+
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.run();
+
+		verify(bigArray, times(3)).append(eq(serializer.serializeEvent(event)));
+		verify(processorHandler, times(1)).handleEvents(eq(Arrays.asList(event, event, event)), any(), eq(true));
+		verify(bigArray, times(0)).get(anyLong());
+		verify(bigArray, times(0)).flush();
+	}
+
+	@Test
+	public void test_durabilityBatch() throws DatastoreException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		FileQueueProcessor queueProcessor = new FileQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 3, 10, 500, 1, 500);
+		queueProcessor.setDurability("batch");
+
+		DataPointEvent event = createDataPointEvent();
+
+		queueProcessor.put(event);
+		verify(bigArray, times(0)).flush();
+
+		queueProcessor.putAll(Arrays.asList(event, event));
+		verify(bigArray, times(1)).flush();
+	}
+
+	@Test
+	public void test_durabilityAll() throws DatastoreException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		FileQueueProcessor queueProcessor = new FileQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 3, 10, 500, 1, 500);
+		queueProcessor.setDurability("all");
+
+		DataPointEvent event = createDataPointEvent();
+
+		queueProcessor.put(event);
+		queueProcessor.putAll(Arrays.asList(event, event));
+		verify(bigArray, times(2)).flush();
+	}
 }
@@ -0,0 +1,177 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kairosdb.bigqueue.BigArrayImpl;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.events.DataPointEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class ShardedQueueProcessorTest
+{
+	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
+	private ShardedQueueProcessor m_queueProcessor;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@After
+	public void tearDown()
+	{
+		if (m_queueProcessor != null)
+			m_queueProcessor.shutdown();
+	}
+
+	private ShardedQueueProcessor createProcessor(int laneCount) throws IOException
+	{
+		return new ShardedQueueProcessor(new TestDataPointFactory(),
+				tempFolder.getRoot().getAbsolutePath(), 32 * 1024 * 1024, laneCount,
+				100, 1000, 90, 1, 10);
+	}
+
+	private DataPointEvent createEvent(String host, long timestamp)
+	{
+		return new DataPointEvent("new_metric", ImmutableSortedMap.of("host", host),
+				m_longDataPointFactory.createDataPoint(timestamp, 42));
+	}
+
+	@Test
+	public void test_seriesStaysOnOneLane() throws IOException
+	{
+		m_queueProcessor = createProcessor(4);
+
+		Set<Integer> lanes = new HashSet<>();
+		for (int I = 0; I < 100; I++)
+		{
+			int lane = m_queueProcessor.getLane(createEvent("server" + I, 0));
+			assertThat(m_queueProcessor.getLane(createEvent("server" + I, I * 1000L)), equalTo(lane));
+			lanes.add(lane);
+		}
+
+		assertThat(lanes.size(), equalTo(4));
+	}
+
+	@Test(timeout = 10000)
+	public void test_putAllDeliversThroughLanes() throws IOException, DatastoreException, InterruptedException
+	{
+		m_queueProcessor = createProcessor(4);
+
+		List<DataPointEvent> events = new ArrayList<>();
+		for (int I = 0; I < 40; I++)
+		{
+			events.add(createEvent("server" + I, I));
+		}
+
+		List<DataPointEvent> delivered = Collections.synchronizedList(new ArrayList<>());
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		CountDownLatch latch = new CountDownLatch(events.size());
+
+		m_queueProcessor.setProcessorHandler((batch, callBack, fullBatch) ->
+		{
+			threads.add(Thread.currentThread().getName());
+			for (DataPointEvent event : batch)
+			{
+				delivered.add(event);
+				latch.countDown();
+			}
+			callBack.complete();
+		});
+
+		m_queueProcessor.putAll(events);
+
+		assertThat(latch.await(5, TimeUnit.SECONDS), equalTo(true));
+		assertThat(delivered, containsInAnyOrder(events.toArray()));
+		assertThat(threads.size(), greaterThan(1));
+
+		for (int I = 0; I < 4; I++)
+			assertThat(new File(tempFolder.getRoot(), "lane-" + I).isDirectory(), equalTo(true));
+	}
+
+	private List<DataPointEvent> collectDelivered(ShardedQueueProcessor processor, CountDownLatch latch)
+	{
+		List<DataPointEvent> delivered = Collections.synchronizedList(new ArrayList<>());
+		processor.setProcessorHandler((batch, callBack, fullBatch) ->
+		{
+			for (DataPointEvent event : batch)
+			{
+				delivered.add(event);
+				latch.countDown();
+			}
+			callBack.complete();
+		});
+
+		return delivered;
+	}
+
+	@Test(timeout = 10000)
+	public void test_fileQueueMovedIntoLanes() throws IOException, InterruptedException
+	{
+		List<DataPointEvent> events = new ArrayList<>();
+		String queuePath = tempFolder.getRoot().getAbsolutePath();
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory(), queuePath);
+		try (BigArrayImpl bigArray = new BigArrayImpl(queuePath, "kairos_queue", 32 * 1024 * 1024))
+		{
+			for (int I = 0; I < 20; I++)
+			{
+				DataPointEvent event = createEvent("server" + I, I);
+				events.add(event);
+				bigArray.append(serializer.serializeEvent(event));
+			}
+		}
+
+		m_queueProcessor = createProcessor(2);
+		CountDownLatch latch = new CountDownLatch(events.size());
+		List<DataPointEvent> delivered = collectDelivered(m_queueProcessor, latch);
+
+		assertThat(latch.await(5, TimeUnit.SECONDS), equalTo(true));
+		assertThat(delivered, containsInAnyOrder(events.toArray()));
+
+		try (BigArrayImpl bigArray = new BigArrayImpl(queuePath, "kairos_queue", 32 * 1024 * 1024))
+		{
+			assertThat(bigArray.isEmpty(), equalTo(true));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void test_extraLanesMovedIntoLanes() throws IOException, DatastoreException, InterruptedException
+	{
+		List<DataPointEvent> events = new ArrayList<>();
+		for (int I = 0; I < 40; I++)
+		{
+			events.add(createEvent("server" + I, I));
+		}
+
+		//No handler so nothing is delivered before the lane count is lowered
+		ShardedQueueProcessor fourLanes = createProcessor(4);
+		fourLanes.putAll(events);
+		fourLanes.shutdown();
+
+		m_queueProcessor = createProcessor(2);
+		CountDownLatch latch = new CountDownLatch(events.size());
+		List<DataPointEvent> delivered = collectDelivered(m_queueProcessor, latch);
+
+		assertThat(latch.await(5, TimeUnit.SECONDS), equalTo(true));
+		assertThat(delivered, containsInAnyOrder(events.toArray()));
+	}
+}
@@ -14,6 +14,7 @@ import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.BatchReductionEvent;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.events.RowKeyEvent;
+import org.mockito.InOrder;
 
 import java.io.IOException;
 import java.text.ParseException;
@@ -26,7 +27,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -177,11 +180,36 @@ public class BatchHandlerTest
 		}
 		finally
 		{
-			verify(m_rowKeyEventPublisher).post(any());
+			//The row key was not written so no event
+			verify(m_rowKeyEventPublisher, never()).post(any());
 			assertThat(m_rowKeyDataCache.getCachedKeys()).isEmpty();
 		}
 	}
 
+	@Test
+	public void test_rowKeyEvent_postedAfterWrite() throws Exception
+	{
+		CQLBatch batch = mock(CQLBatch.class);
+		LongDataPointFactory dataPointFactory = new LongDataPointFactoryImpl();
+		long now = System.currentTimeMillis();
+
+		ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of("host", "bob");
+		List<DataPointEvent> events = Arrays.asList(
+				new DataPointEvent("metric_name", tags, dataPointFactory.createDataPoint(now, 42L)));
+
+		setup(events);
+
+		when(m_cqlBatchFactory.create()).thenReturn(batch);
+
+		m_batchHandler.retryCall();
+
+		//Caches that see the event before the row key is readable would cache the index without it
+		InOrder inOrder = inOrder(batch, m_rowKeyEventPublisher);
+		inOrder.verify(batch).addRowKey(any(), anyInt());
+		inOrder.verify(batch).submitBatch();
+		inOrder.verify(m_rowKeyEventPublisher).post(any());
+	}
+
 	@Test
 	public void test_rowKey_is_cached() throws Exception
 	{
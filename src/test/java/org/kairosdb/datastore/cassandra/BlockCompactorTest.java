@@ -0,0 +1,82 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.datastore.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BlockCompactorTest
+{
+	private static final long BLOCK_WIDTH = 1000;
+	private static final long DELAY = 500;
+
+	private ClusterConnection m_cluster;
+	private CassandraModule.CQLBatchFactory m_batchFactory;
+	private DataPointsRowKey m_rowKey;
+
+	@Before
+	public void setup()
+	{
+		m_cluster = mock(ClusterConnection.class);
+		m_batchFactory = mock(CassandraModule.CQLBatchFactory.class);
+		when(m_cluster.getRowSpec()).thenReturn(new RowSpec(10000, TimeUnit.MILLISECONDS, false, BLOCK_WIDTH, true));
+
+		m_rowKey = new DataPointsRowKey("metric", "cluster", 0, "kairos_double");
+	}
+
+	@Test
+	public void test_compactsOnlyClosedWindows()
+	{
+		BlockCompactor compactor = spy(new BlockCompactor(m_cluster, m_batchFactory, DELAY));
+		doReturn(0).when(compactor).compact(any(DataPointsRowKey.class), anyInt());
+
+		compactor.blockWritten(m_rowKey, 0);
+		compactor.blockWritten(m_rowKey, 0);
+		compactor.blockWritten(m_rowKey, 1000);
+		assertThat(compactor.getPendingWindowCount(), equalTo(2));
+
+		//First window ends at 1000 but is still within the delay
+		compactor.compactClosedWindows(1499);
+		verify(compactor, never()).compact(any(DataPointsRowKey.class), anyInt());
+
+		compactor.compactClosedWindows(1500);
+		verify(compactor).compact(m_rowKey, 0);
+		verify(compactor, never()).compact(m_rowKey, 1000);
+		assertThat(compactor.getPendingWindowCount(), equalTo(1));
+	}
+
+	@Test
+	public void test_lateDataCompactsWindowAgain()
+	{
+		BlockCompactor compactor = spy(new BlockCompactor(m_cluster, m_batchFactory, DELAY));
+		doReturn(0).when(compactor).compact(any(DataPointsRowKey.class), anyInt());
+
+		compactor.blockWritten(m_rowKey, 0);
+		compactor.compactClosedWindows(2000);
+		compactor.blockWritten(m_rowKey, 0);
+		compactor.compactClosedWindows(3000);
+
+		verify(compactor, times(2)).compact(m_rowKey, 0);
+	}
+
+	@Test
+	public void test_disabled()
+	{
+		BlockCompactor compactor = new BlockCompactor(m_cluster, m_batchFactory, 0);
+
+		compactor.blockWritten(m_rowKey, 0);
+
+		assertThat(compactor.getPendingWindowCount(), equalTo(0));
+	}
+}
@@ -0,0 +1,199 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.datastore.TimeUnit;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.kairosdb.datastore.cassandra.CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CQLBatchTest
+{
+	private ClusterConnection m_cluster;
+	private Metadata m_metadata;
+	private List<CompletableResultSetFuture> m_futures;
+
+	private final Host m_host1 = mock(Host.class);
+	private final Host m_host2 = mock(Host.class);
+	private final Host m_host3 = mock(Host.class);
+
+	@Before
+	public void setup()
+	{
+		m_cluster = mock(ClusterConnection.class);
+		Session session = mock(Session.class);
+		Cluster cluster = mock(Cluster.class);
+		m_metadata = mock(Metadata.class);
+
+		when(m_cluster.getSession()).thenReturn(session);
+		when(m_cluster.getKeyspace()).thenReturn("kairosdb");
+		when(m_cluster.getRowSpec()).thenReturn(new RowSpec(10000, TimeUnit.MILLISECONDS, false));
+		when(session.getCluster()).thenReturn(cluster);
+		when(cluster.getMetadata()).thenReturn(m_metadata);
+
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		when(variables.size()).thenReturn(2);
+		PreparedStatement deleteStatement = mock(PreparedStatement.class);
+		when(deleteStatement.getVariables()).thenReturn(variables);
+		when(deleteStatement.getPreparedId()).thenReturn(mock(PreparedId.class));
+		m_cluster.psDataPointsDelete = deleteStatement;
+
+		m_futures = new ArrayList<>();
+		when(m_cluster.executeAsync(any(Statement.class))).thenAnswer(invocation ->
+		{
+			CompletableResultSetFuture future = new CompletableResultSetFuture();
+			synchronized (m_futures)
+			{
+				m_futures.add(future);
+			}
+			return future;
+		});
+	}
+
+	private DataPointsRowKey rowKey(String host, ImmutableSet<Host> replicas)
+	{
+		DataPointsRowKey rowKey = new DataPointsRowKey("metric", "cluster", 0, "kairos_long");
+		rowKey.addTag("host", host);
+		when(m_metadata.getReplicas(anyString(), eq(DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey))))
+				.thenReturn(replicas);
+		return rowKey;
+	}
+
+	private CQLBatch createBatch(int writeConcurrency)
+	{
+		CQLBatch batch = new CQLBatch(ConsistencyLevel.ONE, m_cluster, mock(LoadBalancingPolicy.class));
+		batch.setWriteConcurrency(writeConcurrency);
+		return batch;
+	}
+
+	/**
+	 Waits for the future to be handed out as verify can see the call first
+	 */
+	private void completeFuture(int index) throws InterruptedException
+	{
+		while (true)
+		{
+			synchronized (m_futures)
+			{
+				if (m_futures.size() > index)
+				{
+					m_futures.get(index).complete();
+					return;
+				}
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_writeConcurrencyMustBePositive()
+	{
+		createBatch(0);
+	}
+
+	@Test(timeout = 10000)
+	public void test_statementsGroupedByReplicas() throws IOException, InterruptedException
+	{
+		ImmutableSet<Host> replicas1 = ImmutableSet.of(m_host1, m_host2);
+		ImmutableSet<Host> replicas2 = ImmutableSet.of(m_host2, m_host3);
+
+		CQLBatch batch = createBatch(8);
+		batch.deleteDataPoint(rowKey("a", replicas1), 1);
+		batch.deleteDataPoint(rowKey("b", replicas2), 1);
+		batch.deleteDataPoint(rowKey("c", replicas1), 1);
+		batch.deleteDataPoint(rowKey("c", replicas1), 2);
+
+		Thread submit = new Thread(batch::submitBatch);
+		submit.start();
+
+		//Both batches are sent before either completes
+		ArgumentCaptor<Statement> captor = ArgumentCaptor.forClass(Statement.class);
+		verify(m_cluster, timeout(5000).times(2)).executeAsync(captor.capture());
+
+		List<Integer> sizes = new ArrayList<>();
+		for (Statement statement : captor.getAllValues())
+		{
+			sizes.add(((BatchStatement) statement).size());
+		}
+		assertThat(sizes, containsInAnyOrder(3, 1));
+
+		completeFuture(0);
+		completeFuture(1);
+		submit.join();
+	}
+
+	@Test(timeout = 10000)
+	public void test_writeConcurrencyLimitsBatchesInFlight() throws IOException, InterruptedException
+	{
+		CQLBatch batch = createBatch(1);
+		batch.deleteDataPoint(rowKey("a", ImmutableSet.of(m_host1)), 1);
+		batch.deleteDataPoint(rowKey("b", ImmutableSet.of(m_host2)), 1);
+		batch.deleteDataPoint(rowKey("c", ImmutableSet.of(m_host3)), 1);
+
+		Thread submit = new Thread(batch::submitBatch);
+		submit.start();
+
+		verify(m_cluster, timeout(5000).times(1)).executeAsync(any(Statement.class));
+		Thread.sleep(200);
+		verify(m_cluster, times(1)).executeAsync(any(Statement.class));
+
+		completeFuture(0);
+		verify(m_cluster, timeout(5000).times(2)).executeAsync(any(Statement.class));
+
+		completeFuture(1);
+		verify(m_cluster, timeout(5000).times(3)).executeAsync(any(Statement.class));
+
+		completeFuture(2);
+		submit.join();
+	}
+
+	@Test(timeout = 10000)
+	public void test_submitWaitsForRowKeys() throws InterruptedException
+	{
+		PreparedStatement timeInsert = mock(PreparedStatement.class);
+		when(timeInsert.bind()).thenReturn(mock(BoundStatement.class, RETURNS_SELF));
+		m_cluster.psRowKeyTimeInsert = timeInsert;
+
+		CQLBatch batch = createBatch(8);
+		batch.addTimeIndex("metric", 0, 0);
+
+		Thread submit = new Thread(batch::submitBatch);
+		submit.start();
+
+		verify(m_cluster, timeout(5000).times(1)).executeAsync(any(Statement.class));
+		Thread.sleep(200);
+		assertThat(submit.isAlive(), equalTo(true));
+
+		completeFuture(0);
+		submit.join();
+	}
+}
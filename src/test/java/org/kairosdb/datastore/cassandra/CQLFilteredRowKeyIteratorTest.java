@@ -0,0 +1,365 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.HashMultimap;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.datastore.TimeUnit;
+import org.kairosdb.core.exception.DatastoreException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.kairosdb.datastore.cassandra.CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CQLFilteredRowKeyIteratorTest
+{
+	private static final String CLUSTER = "cluster";
+	private static final String METRIC = "metric";
+	private static final long ROW_WIDTH = 10000;
+
+	private ClusterConnection m_cluster;
+	private RowKeyLookup m_rowKeyLookup;
+	private CompletableResultSetFuture m_indexFuture;
+	private CompletableResultSetFuture m_timeIndexFuture;
+	private final ConcurrentHashMap<Long, CompletableResultSetFuture> m_tierFutures = new ConcurrentHashMap<>();
+
+	@Before
+	public void setup()
+	{
+		m_cluster = mock(ClusterConnection.class);
+		m_rowKeyLookup = mock(RowKeyLookup.class);
+		m_indexFuture = new CompletableResultSetFuture();
+		m_timeIndexFuture = new CompletableResultSetFuture();
+
+		when(m_cluster.getRowSpec()).thenReturn(new RowSpec(ROW_WIDTH, TimeUnit.MILLISECONDS, false));
+		when(m_cluster.getClusterName()).thenReturn(CLUSTER);
+		when(m_cluster.getReadConsistencyLevel()).thenReturn(ConsistencyLevel.ONE);
+		when(m_cluster.getRowKeyLookupForMetric(METRIC)).thenReturn(m_rowKeyLookup);
+
+		m_cluster.psRowKeyIndexQuery = preparedStatement(DataType.blob(), DataType.blob(), DataType.blob());
+		m_cluster.psRowKeyTimeQuery = preparedStatement(DataType.text(), DataType.text(),
+				DataType.timestamp(), DataType.timestamp());
+
+		when(m_cluster.executeAsync(any(Statement.class))).thenAnswer(invocation ->
+		{
+			BoundStatement statement = invocation.getArgument(0);
+			if (statement.preparedStatement() == m_cluster.psRowKeyTimeQuery)
+				return m_timeIndexFuture;
+			else
+				return m_indexFuture;
+		});
+
+		when(m_rowKeyLookup.queryRowKeys(eq(METRIC), anyLong(), any())).thenAnswer(invocation ->
+				m_tierFutures.computeIfAbsent(invocation.getArgument(1), time -> new CompletableResultSetFuture()));
+	}
+
+	private static PreparedStatement preparedStatement(DataType... types)
+	{
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		when(variables.size()).thenReturn(types.length);
+		for (int I = 0; I < types.length; I++)
+		{
+			when(variables.getType(I)).thenReturn(types[I]);
+		}
+
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(statement.getVariables()).thenReturn(variables);
+		when(statement.getPreparedId()).thenReturn(mock(PreparedId.class));
+		when(statement.getCodecRegistry()).thenReturn(CodecRegistry.DEFAULT_INSTANCE);
+		return statement;
+	}
+
+	private CQLFilteredRowKeyIterator createIterator() throws DatastoreException
+	{
+		return new CQLFilteredRowKeyIterator(m_cluster, METRIC, 0, 2 * ROW_WIDTH - 1, HashMultimap.create(), "",
+				new RowKeyLookupCache(0, 0), new RowKeyTagIndex(0, 0));
+	}
+
+	private static DataPointsRowKey rowKey(long rowTime, String host)
+	{
+		DataPointsRowKey rowKey = new DataPointsRowKey(METRIC, CLUSTER, rowTime, "kairos_long");
+		rowKey.addTag("host", host);
+		return rowKey;
+	}
+
+	/**
+	 Result set of the legacy row_key_index table
+	 */
+	private static ResultSet indexResultSet(DataPointsRowKey... rowKeys)
+	{
+		Deque<Row> rows = new ArrayDeque<>();
+		for (DataPointsRowKey rowKey : rowKeys)
+		{
+			Row row = mock(Row.class);
+			when(row.getBytes(0)).thenReturn(DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
+			rows.add(row);
+		}
+
+		return resultSet(rows, false);
+	}
+
+	/**
+	 Result set of a time tier of the row_keys table
+	 */
+	private static ResultSet tierResultSet(DataPointsRowKey... rowKeys)
+	{
+		Deque<Row> rows = new ArrayDeque<>();
+		for (DataPointsRowKey rowKey : rowKeys)
+		{
+			Row row = mock(Row.class);
+			when(row.getTimestamp(0)).thenReturn(new Date(rowKey.getTimestamp()));
+			when(row.getString(1)).thenReturn(rowKey.getDataType());
+			when(row.getMap(2, String.class, String.class)).thenReturn(rowKey.getTags());
+			rows.add(row);
+		}
+
+		return resultSet(rows, true);
+	}
+
+	private static ResultSet resultSet(Deque<Row> rows, boolean newIndex)
+	{
+		ColumnDefinitions columns = mock(ColumnDefinitions.class);
+		when(columns.contains("row_time")).thenReturn(newIndex);
+
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.getColumnDefinitions()).thenReturn(columns);
+		when(resultSet.isExhausted()).thenAnswer(invocation -> rows.isEmpty());
+		when(resultSet.one()).thenAnswer(invocation -> rows.poll());
+		when(resultSet.getAvailableWithoutFetching()).thenAnswer(invocation -> rows.size());
+		when(resultSet.isFullyFetched()).thenReturn(true);
+		return resultSet;
+	}
+
+	private static Row timeRow(long rowTime)
+	{
+		Row row = mock(Row.class);
+		when(row.getTimestamp(0)).thenReturn(new Date(rowTime));
+		return row;
+	}
+
+	/**
+	 Result set of the time index, the first page holds the first bucket time
+	 and the second page is loaded when the future from fetchMoreResults is set
+	 */
+	private static ResultSet timeIndexResultSet(Deque<Row> rows, AtomicBoolean fullyFetched,
+			List<SettableFuture<ResultSet>> fetches)
+	{
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.one()).thenAnswer(invocation -> rows.poll());
+		when(resultSet.getAvailableWithoutFetching()).thenAnswer(invocation -> rows.size());
+		when(resultSet.isFullyFetched()).thenAnswer(invocation -> fullyFetched.get());
+		when(resultSet.fetchMoreResults()).thenAnswer(invocation ->
+		{
+			SettableFuture<ResultSet> fetch = SettableFuture.create();
+			fetches.add(fetch);
+			return fetch;
+		});
+		return resultSet;
+	}
+
+	private static ResultSet timeIndexResultSet(long... rowTimes)
+	{
+		Deque<Row> rows = new ArrayDeque<>();
+		for (long rowTime : rowTimes)
+		{
+			rows.add(timeRow(rowTime));
+		}
+
+		return timeIndexResultSet(rows, new AtomicBoolean(true), new ArrayList<>());
+	}
+
+	@Test(timeout = 10000)
+	public void test_keysReturnedInArrivalOrder() throws DatastoreException
+	{
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		m_timeIndexFuture.complete(timeIndexResultSet(0, ROW_WIDTH));
+		verify(m_rowKeyLookup).queryRowKeys(eq(METRIC), eq(0L), any());
+		verify(m_rowKeyLookup).queryRowKeys(eq(METRIC), eq(ROW_WIDTH), any());
+
+		//Second tier arrives while the legacy index and first tier are pending
+		m_tierFutures.get(ROW_WIDTH).complete(tierResultSet(rowKey(ROW_WIDTH, "b")));
+		assertThat(iterator.hasNext(), equalTo(true));
+		assertThat(iterator.next(), equalTo(rowKey(ROW_WIDTH, "b")));
+
+		m_indexFuture.complete(indexResultSet(rowKey(0, "legacy")));
+		assertThat(iterator.hasNext(), equalTo(true));
+		assertThat(iterator.next().getTags().get("host"), equalTo("legacy"));
+
+		m_tierFutures.get(0L).complete(tierResultSet(rowKey(0, "a")));
+		assertThat(iterator.hasNext(), equalTo(true));
+		assertThat(iterator.next(), equalTo(rowKey(0, "a")));
+
+		assertThat(iterator.hasNext(), equalTo(false));
+	}
+
+	@Test(timeout = 10000)
+	public void test_duplicateKeysReturnedOnce() throws DatastoreException
+	{
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		m_timeIndexFuture.complete(timeIndexResultSet(0));
+		m_tierFutures.get(0L).complete(tierResultSet(rowKey(0, "a")));
+		m_indexFuture.complete(tierResultSet(rowKey(0, "a")));
+
+		assertThat(iterator.hasNext(), equalTo(true));
+		assertThat(iterator.next(), equalTo(rowKey(0, "a")));
+		assertThat(iterator.hasNext(), equalTo(false));
+	}
+
+	@Test(timeout = 10000)
+	public void test_timeIndexFailure_failsQuery() throws DatastoreException
+	{
+		CQLFilteredRowKeyIterator iterator = createIterator();
+		RuntimeException cause = new RuntimeException("Read timeout");
+
+		m_indexFuture.complete(indexResultSet());
+		m_timeIndexFuture.fail(cause);
+
+		QueryMonitor queryMonitor = new QueryMonitor(0, 0);
+		assertThat(CassandraDatastore.hasNextRowKey(iterator, queryMonitor), equalTo(false));
+		assertThat(queryMonitor.keepRunning(), equalTo(false));
+		assertThat(queryMonitor.getException(), instanceOf(DatastoreException.class));
+		assertThat(queryMonitor.getException().getCause(), sameInstance(cause));
+		verify(m_rowKeyLookup, never()).queryRowKeys(any(), anyLong(), any());
+	}
+
+	@Test(timeout = 10000)
+	public void test_tierFailure_throwsDatastoreException() throws DatastoreException
+	{
+		CQLFilteredRowKeyIterator iterator = createIterator();
+		RuntimeException cause = new RuntimeException("Read timeout");
+
+		m_timeIndexFuture.complete(timeIndexResultSet(0, ROW_WIDTH));
+		m_tierFutures.get(0L).complete(tierResultSet(rowKey(0, "a")));
+		m_tierFutures.get(ROW_WIDTH).fail(cause);
+		m_indexFuture.complete(indexResultSet());
+
+		assertThat(iterator.hasNext(), equalTo(true));
+		assertThat(iterator.next(), equalTo(rowKey(0, "a")));
+
+		try
+		{
+			iterator.hasNext();
+			fail("Expected the tier query failure");
+		}
+		catch (UncheckedExecutionException e)
+		{
+			DatastoreException failure = CassandraDatastore.keyQueryFailure(e);
+			assertThat(failure.getCause(), sameInstance(cause));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void test_multiPageTimeIndex() throws DatastoreException
+	{
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		Deque<Row> rows = new ArrayDeque<>();
+		rows.add(timeRow(0));
+		AtomicBoolean fullyFetched = new AtomicBoolean(false);
+		List<SettableFuture<ResultSet>> fetches = new ArrayList<>();
+		ResultSet timeIndex = timeIndexResultSet(rows, fullyFetched, fetches);
+
+		m_timeIndexFuture.complete(timeIndex);
+
+		//Tiers are not queried until the whole time index is read
+		assertThat(fetches.size(), equalTo(1));
+		verify(m_rowKeyLookup, never()).queryRowKeys(any(), anyLong(), any());
+
+		rows.add(timeRow(ROW_WIDTH));
+		fullyFetched.set(true);
+		fetches.get(0).set(timeIndex);
+
+		verify(m_rowKeyLookup).queryRowKeys(eq(METRIC), eq(0L), any());
+		verify(m_rowKeyLookup).queryRowKeys(eq(METRIC), eq(ROW_WIDTH), any());
+
+		m_tierFutures.get(0L).complete(tierResultSet(rowKey(0, "a")));
+		m_tierFutures.get(ROW_WIDTH).complete(tierResultSet(rowKey(ROW_WIDTH, "b")));
+		m_indexFuture.complete(indexResultSet());
+
+		List<DataPointsRowKey> rowKeys = new ArrayList<>();
+		iterator.forEachRemaining(rowKeys::add);
+		assertThat(rowKeys, equalTo(Arrays.asList(rowKey(0, "a"), rowKey(ROW_WIDTH, "b"))));
+	}
+
+	@Test(timeout = 10000)
+	public void test_allSourcesArrived_hasNextDoesNotBlock() throws DatastoreException
+	{
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		m_indexFuture.complete(indexResultSet());
+		m_timeIndexFuture.complete(timeIndexResultSet(0, ROW_WIDTH));
+		m_tierFutures.get(0L).complete(tierResultSet());
+		m_tierFutures.get(ROW_WIDTH).complete(tierResultSet());
+
+		assertThat(iterator.hasNext(), equalTo(false));
+		assertThat(iterator.hasNext(), equalTo(false));
+	}
+
+	@Test(timeout = 10000)
+	public void test_noTimeIndex_hasNextDoesNotBlock() throws DatastoreException
+	{
+		m_cluster.psRowKeyTimeQuery = null;
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		m_indexFuture.complete(indexResultSet(rowKey(0, "legacy")));
+
+		assertThat(iterator.hasNext(), equalTo(true));
+		iterator.next();
+		assertThat(iterator.hasNext(), equalTo(false));
+		verify(m_cluster, times(1)).executeAsync(any(Statement.class));
+	}
+
+	@Test(timeout = 10000)
+	public void test_cachedBuckets_countedAsSources() throws DatastoreException
+	{
+		RowKeyLookupCache lookupCache = new RowKeyLookupCache(1000, 30000);
+		lookupCache.putBucketTimes(CLUSTER, METRIC, 0, ROW_WIDTH, Collections.singletonList(0L), true,
+				lookupCache.getGeneration(METRIC));
+		lookupCache.putRowKeys(CLUSTER, METRIC, 0, HashMultimap.create(),
+				Collections.singletonList(rowKey(0, "cached")), true, lookupCache.getGeneration(METRIC));
+
+		CQLFilteredRowKeyIterator iterator = new CQLFilteredRowKeyIterator(m_cluster, METRIC, 0, 2 * ROW_WIDTH - 1,
+				HashMultimap.create(), "", lookupCache, new RowKeyTagIndex(0, 0));
+		m_indexFuture.complete(indexResultSet());
+
+		assertThat(iterator.hasNext(), equalTo(true));
+		assertThat(iterator.next(), equalTo(rowKey(0, "cached")));
+		assertThat(iterator.hasNext(), equalTo(false));
+		verify(m_cluster, times(1)).executeAsync(any(Statement.class));
+		verify(m_rowKeyLookup, never()).queryRowKeys(any(), anyLong(), any());
+	}
+}
@@ -337,7 +337,8 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 							SetMultimap<String, String> filterTags) throws DatastoreException
 					{
 						return new CQLFilteredRowKeyIterator(cluster, metricName,
-								startTime, endTime, filterTags, "");
+								startTime, endTime, filterTags, "", new RowKeyLookupCache(0, 0),
+								new RowKeyTagIndex(0, 0));
 					}
 				},
 				new CassandraModule.CQLBatchFactory() {
@@ -0,0 +1,49 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.AbstractFuture;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ ResultSetFuture that tests complete by hand
+ */
+public class CompletableResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture
+{
+	public void complete()
+	{
+		complete(mock(ResultSet.class));
+	}
+
+	public void complete(ResultSet resultSet)
+	{
+		set(resultSet);
+	}
+
+	public void fail(Throwable cause)
+	{
+		setException(cause);
+	}
+
+	@Override
+	public ResultSet getUninterruptibly()
+	{
+		try
+		{
+			return get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public ResultSet getUninterruptibly(long timeout, java.util.concurrent.TimeUnit unit)
+	{
+		return getUninterruptibly();
+	}
+}
@@ -18,7 +18,15 @@ package org.kairosdb.datastore.cassandra;
 
 import org.junit.Test;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -101,4 +109,85 @@ public class DataCacheTest
 		ret = cache.cacheItem(new TestObject("td3"));
 		assertTrue(td3 == ret);
 	}
+
+	@Test
+	public void test_segmentedCacheBounded()
+	{
+		DataCache<String> cache = new DataCache<String>(1024);
+
+		for (int I = 0; I < 10000; I++)
+			cache.cacheItem(String.valueOf(I));
+
+		assertTrue(cache.size() <= 1024);
+		assertTrue(cache.size() > 512);
+		assertNotNull(cache.cacheItem("9999"));
+	}
+
+	@Test
+	public void test_segmentKeysUseAllMapBuckets()
+	{
+		DataCache<String> cache = new DataCache<String>(1024);
+
+		//Keys in one segment must not all share the low bits the segment's map uses
+		Set<Integer> bucketBits = new HashSet<>();
+		for (int I = 0; I < 10000; I++)
+		{
+			String key = String.valueOf(I);
+			if (cache.segmentIndex(key) == 0)
+			{
+				int hash = key.hashCode();
+				bucketBits.add((hash ^ (hash >>> 16)) & 15);
+			}
+		}
+
+		assertThat(bucketBits.size(), equalTo(16));
+	}
+
+	@Test
+	public void test_removeKeyAndClear()
+	{
+		DataCache<String> cache = new DataCache<String>(1024);
+
+		cache.cacheItem("one");
+		cache.cacheItem("two");
+		cache.removeKey("one");
+
+		assertNull(cache.cacheItem("one"));
+		assertThat(cache.getCachedKeys(), containsInAnyOrder("one", "two"));
+
+		cache.clear();
+		assertThat(cache.getCachedKeys(), empty());
+	}
+
+	@Test
+	public void test_concurrentCacheReturnsCanonicalInstance() throws InterruptedException
+	{
+		DataCache<TestObject> cache = new DataCache<TestObject>(4096);
+		int itemCount = 1000;
+		AtomicInteger misses = new AtomicInteger();
+
+		Thread[] threads = new Thread[8];
+		for (int T = 0; T < threads.length; T++)
+		{
+			threads[T] = new Thread(() -> {
+				for (int I = 0; I < itemCount; I++)
+				{
+					if (cache.cacheItem(new TestObject("td" + I)) == null)
+						misses.incrementAndGet();
+				}
+			});
+			threads[T].start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		//Only one thread can insert each item
+		assertThat(misses.get(), equalTo(itemCount));
+		for (int I = 0; I < itemCount; I++)
+		{
+			TestObject first = cache.cacheItem(new TestObject("td" + I));
+			assertTrue(first == cache.cacheItem(new TestObject("td" + I)));
+		}
+	}
 }
@@ -0,0 +1,153 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+public class DataPointBlockTest
+{
+	@Test
+	public void test_longRoundTrip()
+	{
+		Random random = new Random(42);
+		DataPointBlock block = new DataPointBlock(false);
+
+		int column = 1000;
+		for (int I = 0; I < 1000; I++)
+		{
+			column += 10000 + random.nextInt(50) - 25;
+			long value = (I % 7 == 0) ? Long.MIN_VALUE + I : random.nextLong() % 100000;
+			block.addLong(column, value);
+		}
+
+		DataPointBlock decoded = DataPointBlock.decode(block.encode(), new DataPointBlock(false));
+
+		assertThat(decoded.size(), equalTo(block.size()));
+		for (int I = 0; I < block.size(); I++)
+		{
+			assertThat(decoded.getColumn(I), equalTo(block.getColumn(I)));
+			assertThat(decoded.getLongValue(I), equalTo(block.getLongValue(I)));
+		}
+	}
+
+	@Test
+	public void test_doubleRoundTrip()
+	{
+		Random random = new Random(42);
+		DataPointBlock block = new DataPointBlock(true);
+
+		double value = 12.5;
+		for (int I = 0; I < 1000; I++)
+		{
+			if (I % 3 == 0)
+				value += random.nextGaussian();
+			else if (I % 5 == 0)
+				value = Double.NaN;
+			else if (I % 11 == 0)
+				value = -0.0;
+
+			block.addDouble(I * 60000, value);
+		}
+
+		DataPointBlock decoded = DataPointBlock.decode(block.encode(), new DataPointBlock(true));
+
+		assertThat(decoded.size(), equalTo(block.size()));
+		for (int I = 0; I < block.size(); I++)
+		{
+			assertThat(decoded.getColumn(I), equalTo(block.getColumn(I)));
+			assertThat(Double.doubleToRawLongBits(decoded.getDoubleValue(I)),
+					equalTo(Double.doubleToRawLongBits(block.getDoubleValue(I))));
+		}
+	}
+
+	@Test
+	public void test_regularIntervalsCompress()
+	{
+		DataPointBlock block = new DataPointBlock(true);
+		for (int I = 0; I < 720; I++)
+			block.addDouble(I * 10000, 42.0);
+
+		//one bit for the timestamp and one for the value after the first point
+		assertThat(block.encode().remaining(), lessThan(720 / 4 + 32));
+	}
+
+	@Test
+	public void test_sortAndDedupe_lastValueWins()
+	{
+		DataPointBlock block = new DataPointBlock(false);
+		block.addLong(30, 3);
+		block.addLong(10, 1);
+		block.addLong(20, 2);
+		block.addLong(10, 4);
+
+		block.sortAndDedupe();
+
+		assertThat(block.size(), equalTo(3));
+		assertThat(block.getColumn(0), equalTo(10));
+		assertThat(block.getLongValue(0), equalTo(4L));
+		assertThat(block.getColumn(1), equalTo(20));
+		assertThat(block.getColumn(2), equalTo(30));
+	}
+
+	@Test
+	public void test_decodeAppends()
+	{
+		DataPointBlock first = new DataPointBlock(false);
+		first.addLong(1, 1);
+		DataPointBlock second = new DataPointBlock(false);
+		second.addLong(2, 2);
+
+		DataPointBlock dest = new DataPointBlock(false);
+		DataPointBlock.decode(first.encode(), dest);
+		DataPointBlock.decode(second.encode(), dest);
+
+		assertThat(dest.size(), equalTo(2));
+		assertThat(dest.getLongValue(1), equalTo(2L));
+	}
+
+	@Test
+	public void test_split()
+	{
+		DataPointBlock block = new DataPointBlock(false);
+		for (int I = 0; I < 10; I++)
+			block.addLong(I, I);
+
+		DataPointBlock removed = block.split(3, 5);
+
+		assertThat(removed.size(), equalTo(3));
+		assertThat(removed.getColumn(0), equalTo(3));
+		assertThat(block.size(), equalTo(7));
+		assertThat(block.getColumn(3), equalTo(6));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_decodeWrongType()
+	{
+		DataPointBlock block = new DataPointBlock(false);
+		block.addLong(1, 1);
+
+		DataPointBlock.decode(block.encode(), new DataPointBlock(true));
+	}
+
+	@Test
+	public void test_columnNameSortsAfterLegacyColumn()
+	{
+		ByteBuffer legacy = ByteBuffer.allocate(4).putInt(500);
+		legacy.rewind();
+		ByteBuffer next = ByteBuffer.allocate(4).putInt(501);
+		next.rewind();
+		ByteBuffer blockName = DataPointBlock.createColumnName(500, System.currentTimeMillis(), -1);
+
+		assertThat(DataPointBlock.isBlockColumn(blockName), equalTo(true));
+		assertThat(DataPointBlock.isBlockColumn(legacy), equalTo(false));
+		//Cassandra compares blobs as unsigned bytes, same as ByteBuffer for these values
+		assertThat(blockName.compareTo(legacy), greaterThan(0));
+		assertThat(blockName.compareTo(next), lessThan(0));
+	}
+}
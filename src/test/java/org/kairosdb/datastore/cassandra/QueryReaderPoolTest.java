@@ -0,0 +1,146 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class QueryReaderPoolTest
+{
+	private QueryReaderPool m_pool;
+
+	@After
+	public void tearDown()
+	{
+		if (m_pool != null)
+			m_pool.shutdown();
+	}
+
+	@Test(timeout = 5000)
+	public void test_maxPerQuery() throws InterruptedException
+	{
+		m_pool = new QueryReaderPool(8, 2);
+		Executor executor = m_pool.newQueryExecutor();
+
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(20);
+
+		for (int I = 0; I < 20; I++)
+		{
+			executor.execute(() ->
+			{
+				int count = running.incrementAndGet();
+				maxRunning.accumulateAndGet(count, Math::max);
+				sleep(5);
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+
+		done.await();
+
+		assertThat(maxRunning.get(), lessThanOrEqualTo(2));
+		assertThat(m_pool.getQueuedTaskCount(), equalTo(0));
+	}
+
+	@Test(timeout = 5000)
+	public void test_queriesTakeTurns() throws InterruptedException
+	{
+		m_pool = new QueryReaderPool(1, 1);
+		Executor bigQuery = m_pool.newQueryExecutor();
+		Executor smallQuery = m_pool.newQueryExecutor();
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(11);
+
+		bigQuery.execute(() ->
+		{
+			started.countDown();
+			await(release);
+			order.add("big");
+			done.countDown();
+		});
+		started.await();
+
+		for (int I = 0; I < 9; I++)
+		{
+			bigQuery.execute(() ->
+			{
+				order.add("big");
+				done.countDown();
+			});
+		}
+
+		smallQuery.execute(() ->
+		{
+			order.add("small");
+			done.countDown();
+		});
+
+		release.countDown();
+		done.await(2, TimeUnit.SECONDS);
+
+		assertThat(order.size(), equalTo(11));
+		//The small query doesn't wait for the whole backlog of the big one
+		assertThat(order.indexOf("small"), lessThan(3));
+	}
+
+	@Test(timeout = 5000)
+	public void test_errorKeepsReaderSlot() throws InterruptedException
+	{
+		m_pool = new QueryReaderPool(1, 1);
+		Executor executor = m_pool.newQueryExecutor();
+
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute(() ->
+		{
+			throw new AssertionError("Reader task error");
+		});
+		executor.execute(done::countDown);
+
+		done.await();
+
+		//The slot is free again once the error has gone through
+		CountDownLatch again = new CountDownLatch(1);
+		executor.execute(again::countDown);
+		again.await();
+	}
+
+	private static void sleep(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
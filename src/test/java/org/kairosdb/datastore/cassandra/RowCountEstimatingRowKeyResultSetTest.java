@@ -4,6 +4,7 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.stubbing.Answer;
@@ -17,7 +18,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class RowCountEstimatingRowKeyResultSetTest
@@ -103,6 +107,41 @@ public class RowCountEstimatingRowKeyResultSetTest
 				Iterators.size(sampleSizePlusOneResultSet().iterator()));
 	}
 
+	@Test
+	public void testPaging_DelegatesFullyFetched()
+	{
+		ResultSet delegateResultSetA = resultSet(row(0));
+		ResultSet delegateResultSetB = resultSet(row(1));
+		when(delegateResultSetA.isFullyFetched()).thenReturn(true);
+		when(delegateResultSetB.isFullyFetched()).thenReturn(true);
+
+		RowCountEstimatingRowKeyResultSet rowCountResultSet =
+				RowCountEstimatingRowKeyResultSet.create(ImmutableList.of(delegateResultSetA, delegateResultSetB));
+
+		assertTrue(rowCountResultSet.isFullyFetched());
+		assertEquals(0, rowCountResultSet.getAvailableWithoutFetching());
+	}
+
+	@Test
+	public void testPaging_FetchesFirstDelegateNotFullyFetched() throws Exception
+	{
+		ResultSet delegateResultSetA = resultSet(row(0));
+		ResultSet delegateResultSetB = resultSet(row(1));
+		when(delegateResultSetA.isFullyFetched()).thenReturn(true);
+		when(delegateResultSetB.isFullyFetched()).thenReturn(false);
+		when(delegateResultSetB.getAvailableWithoutFetching()).thenReturn(10);
+		when(delegateResultSetB.fetchMoreResults()).thenReturn(Futures.immediateFuture(delegateResultSetB));
+
+		RowCountEstimatingRowKeyResultSet rowCountResultSet =
+				RowCountEstimatingRowKeyResultSet.create(ImmutableList.of(delegateResultSetA, delegateResultSetB));
+
+		assertFalse(rowCountResultSet.isFullyFetched());
+		assertEquals(10, rowCountResultSet.getAvailableWithoutFetching());
+		assertSame(rowCountResultSet, rowCountResultSet.fetchMoreResults().get());
+		verify(delegateResultSetA, never()).fetchMoreResults();
+		verify(delegateResultSetB).fetchMoreResults();
+	}
+
 	private ResultSet sampleSizePlusOneResultSet()
 	{
 		return resultSet(IntStream.iterate(Integer.MIN_VALUE, i -> i + 1000).limit(RowCountEstimatingRowKeyResultSet.SAMPLE_SIZE + 1)
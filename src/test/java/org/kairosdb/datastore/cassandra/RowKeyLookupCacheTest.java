@@ -0,0 +1,159 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import org.junit.Test;
+import org.kairosdb.events.RowKeyEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertNull;
+
+public class RowKeyLookupCacheTest
+{
+	private static final String CLUSTER = "cluster";
+	private static final String METRIC = "metric";
+
+	private final SetMultimap<String, String> m_filter = ImmutableSetMultimap.of("host", "server1");
+
+	private DataPointsRowKey rowKey(long rowTime, String host)
+	{
+		DataPointsRowKey rowKey = new DataPointsRowKey(METRIC, CLUSTER, rowTime, "kairos_long");
+		rowKey.addTag("host", host);
+		return rowKey;
+	}
+
+	private RowKeyEvent rowKeyEvent(long rowTime, String host)
+	{
+		return new RowKeyEvent(METRIC, rowKey(rowTime, host), 0);
+	}
+
+	@Test
+	public void test_disabled()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(0, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		cache.putRowKeys(CLUSTER, METRIC, 0, m_filter, ImmutableList.of(rowKey(0, "server1")), true, generation);
+
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 0, m_filter));
+	}
+
+	@Test
+	public void test_maxEntrySize()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		List<DataPointsRowKey> rowKeys = new ArrayList<>();
+		for (int I = 0; I < cache.getMaxEntrySize(); I++)
+		{
+			rowKeys.add(rowKey(0, "server" + I));
+		}
+
+		cache.putRowKeys(CLUSTER, METRIC, 0, m_filter, rowKeys, true, generation);
+		assertThat(cache.getRowKeys(CLUSTER, METRIC, 0, m_filter).size(), equalTo(rowKeys.size()));
+
+		assertThat(new RowKeyLookupCache(0, 30000).isEnabled(), equalTo(false));
+	}
+
+	@Test
+	public void test_getRowKeys_keyedByFilter()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		cache.putRowKeys(CLUSTER, METRIC, 0, m_filter, ImmutableList.of(rowKey(0, "server1")), true, generation);
+
+		SetMultimap<String, String> sameFilter = HashMultimap.create();
+		sameFilter.put("host", "server1");
+		assertThat(cache.getRowKeys(CLUSTER, METRIC, 0, sameFilter), contains(rowKey(0, "server1")));
+
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of()));
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 100, m_filter));
+		assertNull(cache.getRowKeys("other", METRIC, 0, m_filter));
+	}
+
+	@Test
+	public void test_rowKeyEvent_invalidatesBucket()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		cache.putRowKeys(CLUSTER, METRIC, 0, m_filter, ImmutableList.of(rowKey(0, "server1")), true, generation);
+		cache.putRowKeys(CLUSTER, METRIC, 100, m_filter, ImmutableList.of(rowKey(100, "server1")), false, generation);
+
+		cache.rowKeyCreated(rowKeyEvent(100, "server2"));
+
+		assertThat(cache.getRowKeys(CLUSTER, METRIC, 0, m_filter), contains(rowKey(0, "server1")));
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 100, m_filter));
+	}
+
+	@Test
+	public void test_rowKeyEvent_invalidatesTimeIndexForNewBucket()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		cache.putBucketTimes(CLUSTER, METRIC, 0, 200, ImmutableList.of(0L, 100L), false, generation);
+
+		//Bucket is already in the index
+		cache.rowKeyCreated(rowKeyEvent(100, "server2"));
+		assertThat(cache.getBucketTimes(CLUSTER, METRIC, 0, 200), contains(0L, 100L));
+
+		//Outside of the range
+		cache.rowKeyCreated(rowKeyEvent(300, "server2"));
+		assertThat(cache.getBucketTimes(CLUSTER, METRIC, 0, 200), contains(0L, 100L));
+
+		cache.rowKeyCreated(rowKeyEvent(200, "server2"));
+		assertNull(cache.getBucketTimes(CLUSTER, METRIC, 0, 200));
+	}
+
+	@Test
+	public void test_invalidationDuringLookup_notCached()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		cache.rowKeyCreated(rowKeyEvent(100, "server2"));
+
+		cache.putRowKeys(CLUSTER, METRIC, 100, m_filter, ImmutableList.of(rowKey(100, "server1")), false, generation);
+
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 100, m_filter));
+	}
+
+	@Test
+	public void test_invalidateMetric()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 30000);
+		long generation = cache.getGeneration(METRIC);
+
+		cache.putRowKeys(CLUSTER, METRIC, 0, m_filter, ImmutableList.of(rowKey(0, "server1")), true, generation);
+		cache.putBucketTimes(CLUSTER, METRIC, 0, 200, ImmutableList.of(0L), true, generation);
+
+		cache.invalidateMetric(METRIC);
+
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 0, m_filter));
+		assertNull(cache.getBucketTimes(CLUSTER, METRIC, 0, 200));
+	}
+
+	@Test
+	public void test_currentBucketTtlZero_onlyCachesClosedBuckets()
+	{
+		RowKeyLookupCache cache = new RowKeyLookupCache(1000, 0);
+		long generation = cache.getGeneration(METRIC);
+
+		List<DataPointsRowKey> rowKeys = ImmutableList.of(rowKey(0, "server1"));
+		cache.putRowKeys(CLUSTER, METRIC, 0, m_filter, rowKeys, true, generation);
+		cache.putRowKeys(CLUSTER, METRIC, 100, m_filter, rowKeys, false, generation);
+
+		assertThat(cache.getRowKeys(CLUSTER, METRIC, 0, m_filter), contains(rowKey(0, "server1")));
+		assertNull(cache.getRowKeys(CLUSTER, METRIC, 100, m_filter));
+	}
+}
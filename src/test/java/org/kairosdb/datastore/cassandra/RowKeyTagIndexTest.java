@@ -0,0 +1,189 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.events.RowKeyEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertNull;
+
+public class RowKeyTagIndexTest
+{
+	private static final String CLUSTER = "cluster";
+	private static final String METRIC = "metric";
+	private static final Map<String, Pattern> NO_PATTERNS = Collections.emptyMap();
+
+	private RowKeyTagIndex m_index;
+
+	private static DataPointsRowKey rowKey(long rowTime, String host, String datacenter)
+	{
+		DataPointsRowKey rowKey = new DataPointsRowKey(METRIC, CLUSTER, rowTime, "kairos_long");
+		rowKey.addTag("host", host);
+		rowKey.addTag("datacenter", datacenter);
+		return rowKey;
+	}
+
+	@Before
+	public void setup()
+	{
+		m_index = new RowKeyTagIndex(1000, 30000);
+		List<DataPointsRowKey> rowKeys = ImmutableList.of(
+				rowKey(0, "web-1", "dc1"),
+				rowKey(0, "web-2", "dc1"),
+				rowKey(0, "web-12", "dc2"),
+				rowKey(0, "db-1", "dc2"));
+
+		m_index.putRowKeys(CLUSTER, METRIC, 0, rowKeys, true, m_index.getGeneration(METRIC));
+	}
+
+	@Test
+	public void test_notIndexed()
+	{
+		assertNull(m_index.getRowKeys(CLUSTER, METRIC, 100, ImmutableSetMultimap.of(), NO_PATTERNS));
+		assertNull(m_index.getRowKeys("other", METRIC, 0, ImmutableSetMultimap.of(), NO_PATTERNS));
+	}
+
+	@Test
+	public void test_disabled()
+	{
+		RowKeyTagIndex index = new RowKeyTagIndex(0, 30000);
+		index.putRowKeys(CLUSTER, METRIC, 0, ImmutableList.of(rowKey(0, "web-1", "dc1")), true,
+				index.getGeneration(METRIC));
+
+		assertNull(index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of(), NO_PATTERNS));
+	}
+
+	@Test
+	public void test_maxBucketSize()
+	{
+		List<DataPointsRowKey> rowKeys = new ArrayList<>();
+		for (int I = 0; I < m_index.getMaxBucketSize(); I++)
+		{
+			rowKeys.add(rowKey(100, "web-" + I, "dc1"));
+		}
+
+		m_index.putRowKeys(CLUSTER, METRIC, 100, rowKeys, true, m_index.getGeneration(METRIC));
+
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 100, ImmutableSetMultimap.of(), NO_PATTERNS),
+				hasSize(rowKeys.size()));
+	}
+
+	@Test
+	public void test_noFilter()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of(), NO_PATTERNS),
+				containsInAnyOrder(rowKey(0, "web-1", "dc1"), rowKey(0, "web-2", "dc1"),
+						rowKey(0, "web-12", "dc2"), rowKey(0, "db-1", "dc2")));
+	}
+
+	@Test
+	public void test_exactValue()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of("host", "web-12"), NO_PATTERNS),
+				containsInAnyOrder(rowKey(0, "web-12", "dc2")));
+	}
+
+	@Test
+	public void test_multipleValues()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0,
+				ImmutableSetMultimap.of("host", "web-1", "host", "db-1", "host", "missing"), NO_PATTERNS),
+				containsInAnyOrder(rowKey(0, "web-1", "dc1"), rowKey(0, "db-1", "dc2")));
+	}
+
+	@Test
+	public void test_multipleTags_intersect()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0,
+				ImmutableSetMultimap.of("host", "web-1", "host", "web-12", "datacenter", "dc2"), NO_PATTERNS),
+				containsInAnyOrder(rowKey(0, "web-12", "dc2")));
+	}
+
+	@Test
+	public void test_regex()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of(),
+				ImmutableMap.of("host", Pattern.compile("web-.*"))),
+				containsInAnyOrder(rowKey(0, "web-1", "dc1"), rowKey(0, "web-2", "dc1"), rowKey(0, "web-12", "dc2")));
+	}
+
+	@Test
+	public void test_regexAndExactValue_union()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of("host", "db-1", "datacenter", "dc1"),
+				ImmutableMap.of("host", Pattern.compile("web-1.*"))),
+				containsInAnyOrder(rowKey(0, "web-1", "dc1")));
+
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of("host", "db-1"),
+				ImmutableMap.of("host", Pattern.compile("web-1.*"))),
+				containsInAnyOrder(rowKey(0, "web-1", "dc1"), rowKey(0, "web-12", "dc2"), rowKey(0, "db-1", "dc2")));
+	}
+
+	@Test
+	public void test_unknownTag()
+	{
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of("rack", "r1"), NO_PATTERNS),
+				empty());
+	}
+
+	@Test
+	public void test_rowKeyEvent_addsToBucket()
+	{
+		m_index.rowKeyCreated(new RowKeyEvent(METRIC, rowKey(0, "web-3", "dc1"), 0));
+		//Already indexed
+		m_index.rowKeyCreated(new RowKeyEvent(METRIC, rowKey(0, "web-1", "dc1"), 0));
+
+		assertThat(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of("datacenter", "dc1"), NO_PATTERNS),
+				containsInAnyOrder(rowKey(0, "web-1", "dc1"), rowKey(0, "web-2", "dc1"), rowKey(0, "web-3", "dc1")));
+	}
+
+	@Test
+	public void test_rowKeyEventDuringRead_notIndexed()
+	{
+		long generation = m_index.getGeneration(METRIC);
+		m_index.rowKeyCreated(new RowKeyEvent(METRIC, rowKey(100, "web-3", "dc1"), 0));
+
+		m_index.putRowKeys(CLUSTER, METRIC, 100, ImmutableList.of(rowKey(100, "web-1", "dc1")), false, generation);
+
+		assertNull(m_index.getRowKeys(CLUSTER, METRIC, 100, ImmutableSetMultimap.of(), NO_PATTERNS));
+	}
+
+	@Test
+	public void test_rowKeyWrittenDuringClosedBucketRead_notIndexed()
+	{
+		long generation = m_index.getGeneration(METRIC);
+		//Row key written and its event posted after the read started
+		m_index.rowKeyCreated(new RowKeyEvent(METRIC, rowKey(100, "web-3", "dc1"), 0));
+
+		m_index.putRowKeys(CLUSTER, METRIC, 100, ImmutableList.of(rowKey(100, "web-1", "dc1")), true, generation);
+
+		assertNull(m_index.getRowKeys(CLUSTER, METRIC, 100, ImmutableSetMultimap.of(), NO_PATTERNS));
+	}
+
+	@Test
+	public void test_sizeCountsRowKeys()
+	{
+		assertThat(m_index.size(), equalTo(4L));
+	}
+
+	@Test
+	public void test_invalidateMetric()
+	{
+		m_index.invalidateMetric(METRIC);
+
+		assertNull(m_index.getRowKeys(CLUSTER, METRIC, 0, ImmutableSetMultimap.of(), NO_PATTERNS));
+	}
+}
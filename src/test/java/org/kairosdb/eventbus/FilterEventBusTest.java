@@ -3,6 +3,11 @@ package org.kairosdb.eventbus;
 import org.kairosdb.core.KairosRootConfig;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -81,16 +86,93 @@ public class FilterEventBusTest
 		assertThat(subscriber3.isWasCalled()).isFalse();
 	}
 
+	@Test
+	public void test_postAll()
+	{
+		Subscriber subscriber = new Subscriber();
+		BatchSubscriber batchSubscriber = new BatchSubscriber();
+		BatchFilter filter = new BatchFilter();
+		Subscriber lastSubscriber = new Subscriber();
+		FilterEventBus eventBus = new FilterEventBus(new EventBusConfiguration(new KairosRootConfig()));
+
+		eventBus.register(subscriber, 1);
+		eventBus.register(batchSubscriber, 2);
+		eventBus.register(filter, 5);
+		eventBus.register(lastSubscriber, 10);
+
+		eventBus.createPublisher(String.class).postAll(Arrays.asList("Hi", "drop", "Bye"));
+
+		//Subscribers without a batch method get each event
+		assertEquals("Bye", subscriber.what());
+		assertThat(batchSubscriber.m_batches).containsExactly(Arrays.asList("Hi", "drop", "Bye"));
+		assertThat(batchSubscriber.m_events).isEmpty();
+		assertThat(filter.m_batches).hasSize(1);
+		assertThat(lastSubscriber.m_events).containsExactly("Hi", "Bye");
+	}
+
+	@Test
+	public void test_postToBatchOnlySubscriber()
+	{
+		BatchFilter filter = new BatchFilter();
+		Subscriber subscriber = new Subscriber();
+		FilterEventBus eventBus = new FilterEventBus(new EventBusConfiguration(new KairosRootConfig()));
+
+		eventBus.register(filter, 1);
+		eventBus.register(subscriber, 2);
+
+		Publisher<String> publisher = eventBus.createPublisher(String.class);
+		publisher.post("Hi");
+		publisher.post("drop");
+
+		assertThat(filter.m_batches).containsExactly(Collections.singletonList("Hi"), Collections.singletonList("drop"));
+		assertThat(subscriber.m_events).containsExactly("Hi");
+	}
+
+	public class BatchSubscriber
+	{
+		private final List<List<String>> m_batches = new ArrayList<>();
+		private final List<String> m_events = new ArrayList<>();
+
+		@Subscribe
+		public void consume(String data)
+		{
+			m_events.add(data);
+		}
+
+		@Subscribe
+		public void consumeAll(List<String> data)
+		{
+			m_batches.add(new ArrayList<>(data));
+		}
+	}
+
+	public class BatchFilter
+	{
+		private final List<List<String>> m_batches = new ArrayList<>();
+
+		@Subscribe
+		public List<String> filter(List<String> data)
+		{
+			m_batches.add(new ArrayList<>(data));
+			List<String> ret = new ArrayList<>(data);
+			ret.remove("drop");
+			return ret;
+		}
+	}
+
 	public class Subscriber
 	{
 		private String m_what;
 		private boolean m_wasCalled = false;
 
+		private final List<String> m_events = new ArrayList<>();
+
 		@Subscribe
 		public void consume(String data)
 		{
 			m_what = data;
 			m_wasCalled = true;
+			m_events.add(data);
 		}
 
 		public String what() { return m_what; }
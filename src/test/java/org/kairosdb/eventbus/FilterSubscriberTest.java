@@ -109,6 +109,34 @@ public class FilterSubscriberTest {
         assertThat(result, equalTo(FIXTURE_ARGUMENT));
     }
 
+    @Test
+    public void testInvokeSubscriberMethod_voidMethodReturnsEvent() throws Throwable {
+        Method method = getTestSubscriberMethod("threadSafeMethod");
+        FilterSubscriber subscriber = FilterSubscriber.create(bus, this, method, 10);
+
+        assertTrue(subscriber.invokeSubscriberMethod(FIXTURE_ARGUMENT) == FIXTURE_ARGUMENT);
+    }
+
+    @Test
+    public void testInvokeSubscriberMethod_nonPublicSubscriber() throws Throwable {
+        PrivateSubscriber listener = new PrivateSubscriber();
+        FilterSubscriber filter = FilterSubscriber.create(bus, listener,
+                PrivateSubscriber.class.getDeclaredMethod("filter", String.class), 10);
+        FilterSubscriber consumer = FilterSubscriber.create(bus, listener,
+                PrivateSubscriber.class.getDeclaredMethod("consume", String.class), 10);
+
+        assertThat(filter.invokeSubscriberMethod(FIXTURE_ARGUMENT), equalTo((Object) "filtered"));
+        assertTrue(consumer.invokeSubscriberMethod(FIXTURE_ARGUMENT) == FIXTURE_ARGUMENT);
+        assertThat(listener.consumed, equalTo(FIXTURE_ARGUMENT));
+
+        try {
+            filter.invokeSubscriberMethod("throw");
+            fail("Subscribers whose methods throw must throw InvocationTargetException");
+        } catch (InvocationTargetException expected) {
+            assertThat(expected.getCause(), instanceOf(IntentionalException.class));
+        }
+    }
+
     private Method getTestSubscriberMethod(String name) {
         try {
             return getClass().getDeclaredMethod(name, Object.class);
@@ -165,4 +193,20 @@ public class FilterSubscriberTest {
 
         private static final long serialVersionUID = 634248373797713373L;
     }
-}
\ No newline at end of file
+
+    private class PrivateSubscriber {
+        private String consumed;
+
+        @Subscribe
+        String filter(String arg) throws IntentionalException {
+            if (arg.equals("throw"))
+                throw new IntentionalException();
+            return "filtered";
+        }
+
+        @Subscribe
+        private void consume(String arg) {
+            consumed = arg;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.kairosdb.core.exception.KairosDBException;
 import org.kairosdb.events.DataPointEvent;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -112,4 +113,20 @@ public class FilterPluginTest
 		assertNoFilter(filter, "nope.cannot_like_this_one");
 		assertNoFilter(filter, "notgood.metric");
 	}
+
+	@Test
+	public void test_filterDataPoints() throws KairosDBException
+	{
+		FilterPlugin filter = new FilterPlugin();
+		filter.setList(Arrays.asList("metric.one"));
+		filter.start();
+
+		List<DataPointEvent> events = Arrays.asList(createEvent("metric.two"), createEvent("metric.one"),
+				createEvent("metric.one"), createEvent("metric.two"));
+
+		assertThat(filter.filterDataPoints(events)).containsExactly(events.get(0), events.get(3));
+
+		List<DataPointEvent> unfiltered = Arrays.asList(createEvent("metric.two"), createEvent("metric.three"));
+		assertThat(filter.filterDataPoints(unfiltered)).isSameAs(unfiltered);
+	}
 }
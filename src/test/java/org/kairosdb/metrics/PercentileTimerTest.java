@@ -0,0 +1,104 @@
+package org.kairosdb.metrics;
+
+import org.junit.Test;
+import org.kairosdb.metrics4j.reporting.LongValue;
+import org.kairosdb.metrics4j.reporting.MetricReporter;
+import org.kairosdb.metrics4j.reporting.MetricValue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+public class PercentileTimerTest
+{
+	private static Map<String, Long> report(PercentileTimer timer)
+	{
+		Map<String, Long> fields = new LinkedHashMap<>();
+		timer.reportMetric(new MetricReporter()
+		{
+			@Override
+			public void put(String field, MetricValue value)
+			{
+				fields.put(field, ((LongValue) value).getValue());
+			}
+
+			@Override
+			public void put(String field, MetricValue value, Instant time)
+			{
+				put(field, value);
+			}
+		});
+
+		return fields;
+	}
+
+	@Test
+	public void test_percentiles()
+	{
+		PercentileTimer timer = new PercentileTimer();
+		for (int I = 100; I > 0; I--)
+		{
+			timer.put(Duration.ofMillis(I));
+		}
+
+		Map<String, Long> fields = report(timer);
+
+		assertThat(fields.keySet(), contains("p50", "p90", "p99", "p999", "max", "count"));
+		assertThat(fields.get("p50"), equalTo(50L));
+		assertThat(fields.get("p90"), equalTo(90L));
+		assertThat(fields.get("p99"), equalTo(99L));
+		assertThat(fields.get("p999"), equalTo(100L));
+		assertThat(fields.get("max"), equalTo(100L));
+		assertThat(fields.get("count"), equalTo(100L));
+	}
+
+	@Test
+	public void test_resetAfterReport()
+	{
+		PercentileTimer timer = new PercentileTimer();
+		timer.put(Duration.ofMillis(5));
+		report(timer);
+
+		assertThat(report(timer).isEmpty(), equalTo(true));
+
+		timer.put(Duration.ofMillis(7));
+		assertThat(report(timer).get("max"), equalTo(7L));
+	}
+
+	@Test
+	public void test_sampleIsBounded()
+	{
+		PercentileTimer timer = new PercentileTimer();
+		int count = PercentileTimer.SAMPLE_SIZE * 20;
+		for (int I = 0; I < count; I++)
+		{
+			timer.put(Duration.ofMillis(I % 1000));
+		}
+
+		Map<String, Long> fields = report(timer);
+
+		assertThat(fields.get("count"), equalTo((long) count));
+		assertThat(fields.get("max"), equalTo(999L));
+		assertThat(fields.get("p50"), greaterThan(400L));
+		assertThat(fields.get("p50"), lessThan(600L));
+	}
+
+	@Test
+	public void test_cloneKeepsReportUnit()
+	{
+		PercentileTimer timer = new PercentileTimer();
+		timer.setReportUnit(java.time.temporal.ChronoUnit.MICROS);
+
+		PercentileTimer clone = (PercentileTimer) timer.clone();
+		clone.put(Duration.ofMillis(2));
+
+		assertThat(report(clone).get("max"), equalTo(2000L));
+	}
+}
@@ -16,6 +16,8 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -117,6 +119,24 @@ public class Client
 		}
 	}
 
+	public JsonResponse post(byte[] body, String contentType, String url) throws IOException
+	{
+		HttpClientContext context = setCredentials(url);
+		HttpPost post = new HttpPost(url);
+		post.setEntity(new ByteArrayEntity(body, ContentType.create(contentType)));
+
+		for (String header : headers.keySet())
+		{
+			if (!header.equals(CONTENT_TYPE))
+				post.addHeader(header, headers.get(header));
+		}
+
+		try(CloseableHttpResponse response = client.execute(post, context))
+		{
+			return new JsonResponse(response);
+		}
+	}
+
 	public byte[] getAsBytes(String url) throws IOException
 	{
 		HttpClientContext context = setCredentials(url);
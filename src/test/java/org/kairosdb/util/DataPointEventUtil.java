@@ -4,27 +4,90 @@ import com.google.common.collect.ImmutableSortedMap;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.DataPointEvent;
-import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.Invocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.mockito.Mockito.mockingDetails;
 import static org.mockito.Mockito.reset;
-import static org.mockito.Mockito.timeout;
-import static org.mockito.Mockito.verify;
 
 /**
  Created by bhawkins on 10/3/16.
  */
 public class DataPointEventUtil
 {
+	/**
+	 Events passed to post or postAll on a mock publisher
+	 */
 	@SuppressWarnings("unchecked")
-	private static DataPointEvent verifyPost(Publisher<DataPointEvent> eventBus)
+	public static List<DataPointEvent> getPostedEvents(Publisher<DataPointEvent> eventBus)
 	{
-		ArgumentCaptor<DataPointEvent> event = ArgumentCaptor.forClass(DataPointEvent.class);
-		verify(eventBus, timeout(5000).times(1)).post(event.capture());
+		List<DataPointEvent> events = new ArrayList<>();
+		for (Invocation invocation : mockingDetails(eventBus).getInvocations())
+		{
+			if (invocation.getMethod().getName().equals("post"))
+				events.add(invocation.getArgument(0));
+			else if (invocation.getMethod().getName().equals("postAll"))
+				events.addAll((Collection<DataPointEvent>) invocation.getArgument(0));
+		}
+
+		return events;
+	}
+
+	private static List<DataPointEvent> waitForPosts(Publisher<DataPointEvent> eventBus, int count)
+	{
+		long end = System.currentTimeMillis() + 5000;
+		List<DataPointEvent> events = getPostedEvents(eventBus);
+		while (events.size() < count && System.currentTimeMillis() < end)
+		{
+			try
+			{
+				Thread.sleep(10);
+			}
+			catch (InterruptedException e)
+			{
+				throw new AssertionError(e);
+			}
+			events = getPostedEvents(eventBus);
+		}
+
+		assertThat(events.size(), equalTo(count));
 		reset(eventBus);
 
-		return event.getValue();
+		return events;
+	}
+
+	private static DataPointEvent verifyPost(Publisher<DataPointEvent> eventBus)
+	{
+		return waitForPosts(eventBus, 1).get(0);
+	}
+
+	/**
+	 Verifies one event was posted for each data point, in order
+	 */
+	public static void verifyEvents(Publisher<DataPointEvent> eventBus, String metricName,
+			ImmutableSortedMap<String, String> tags, int ttl, DataPoint... dataPoints)
+	{
+		List<DataPointEvent> events = waitForPosts(eventBus, dataPoints.length);
+		for (int I = 0; I < dataPoints.length; I++)
+		{
+			DataPointEvent event = events.get(I);
+			assertThat(event.getMetricName(), equalTo(metricName));
+			if (tags != null)
+				assertThat(event.getTags(), equalTo(tags));
+			assertThat(event.getDataPoint(), equalTo(dataPoints[I]));
+			assertThat(event.getTtl(), equalTo(ttl));
+		}
+	}
+
+	public static void verifyEvents(Publisher<DataPointEvent> eventBus, String metricName,
+			int ttl, DataPoint... dataPoints)
+	{
+		verifyEvents(eventBus, metricName, null, ttl, dataPoints);
 	}
 
 	public static void verifyEvent(Publisher<DataPointEvent> eventBus, String metricName,
@@ -22,6 +22,7 @@ import org.kairosdb.core.datastore.Order;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -176,4 +177,69 @@ public class TournamentTreeTest
 		assertFalse(tt.hasNext());
 		assertNull(tt.nextElement());
 	}
+
+	@Test
+	public void testDescendingOrder()
+	{
+		TournamentTree<RowData> tt = new TournamentTree<>(new RowDataComparator(), Order.DESC);
+
+		List<RowData> list1 = new ArrayList<>();
+		list1.add(new RowData(7, 1));
+		list1.add(new RowData(3, 1));
+
+		List<RowData> list2 = new ArrayList<>();
+		list2.add(new RowData(5, 2));
+		list2.add(new RowData(3, 2));
+
+		tt.addIterator(list1.iterator());
+		tt.addIterator(list2.iterator());
+
+		assertEquals(7, tt.nextElement().getTimeStamp());
+		assertEquals(5, tt.nextElement().getTimeStamp());
+		//Ties come from the last iterator first when descending
+		assertEquals(2, tt.nextElement().getValue());
+		assertEquals(1, tt.nextElement().getValue());
+		assertFalse(tt.hasNext());
+	}
+
+	@Test
+	public void testKeyFunctionManyIterators()
+	{
+		TournamentTree<RowData> tt = new TournamentTree<>(RowData::getTimeStamp, null, Order.ASC);
+		Random random = new Random(1);
+
+		int total = 0;
+		for (int I = 0; I < 500; I++)
+		{
+			List<RowData> list = new ArrayList<>();
+			long ts = random.nextInt(100);
+			int count = random.nextInt(20);
+			for (int J = 0; J < count; J++)
+			{
+				ts += random.nextInt(10);
+				list.add(new RowData(ts, I));
+			}
+
+			total += count;
+			tt.addIterator(list.iterator());
+		}
+
+		long last = Long.MIN_VALUE;
+		int lastIterator = -1;
+		int count = 0;
+		while (tt.hasNext())
+		{
+			RowData data = tt.nextElement();
+			assertTrue(data.getTimeStamp() >= last);
+			if (data.getTimeStamp() == last)
+				assertTrue(data.getValue() >= lastIterator);
+
+			last = data.getTimeStamp();
+			lastIterator = data.getValue();
+			count++;
+		}
+
+		assertEquals(total, count);
+		assertEquals(0, tt.getIteratorCount());
+	}
 }
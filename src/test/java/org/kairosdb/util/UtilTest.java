@@ -2,6 +2,11 @@ package org.kairosdb.util;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -95,4 +100,20 @@ public class UtilTest
 	public void test_isNumber_withPoint(){
 		assertThat(Util.isNumber("6.0.5"), equalTo(false));
 	}
+
+	@Test
+	public void test_unpackLong_fromByteBuffer() throws IOException
+	{
+		long[] values = new long[]{0, 1, -1, 300, -300, Long.MAX_VALUE, Long.MIN_VALUE};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (long value : values)
+			Util.packLong(value, out);
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		for (long value : values)
+			assertThat(Util.unpackLong(buffer), equalTo(value));
+
+		assertThat(buffer.hasRemaining(), equalTo(false));
+	}
 }